@@ -78,13 +78,13 @@ public class LineChartModel extends AspectModel<LineChartModel.Aspect> implement
       Range range = ranged.getYRange();
       double yMax = -Double.MAX_VALUE;
 
-      List<SeriesData<Long>> seriesList = ranged.getSeries();
+      LongSeriesDataView seriesList = ranged.getColumns();
       if (seriesList.isEmpty()) {
         continue;
       }
 
-      for (SeriesData<Long> series : seriesList) {
-        double value = series.value;
+      for (int i = 0; i < seriesList.size(); i++) {
+        double value = seriesList.getValue(i);
         if (yMax < value) {
           yMax = value;
         }
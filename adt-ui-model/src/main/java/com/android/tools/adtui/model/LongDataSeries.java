@@ -0,0 +1,131 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import java.util.Arrays;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A {@link DataSeries} of long values stored in two primitive columns, one for the timestamps and one for the values, instead of one
+ * {@link SeriesData} object per sample. Samples must be appended in non-decreasing x order.
+ * <p>
+ * Range queries binary search the timestamp column and return a {@link LongSeriesDataView} over the columns, so neither the query nor
+ * storing the data allocates per sample. This class is thread safe: samples can be appended from a polling thread while the UI queries.
+ */
+public class LongDataSeries implements DataSeries<Long> {
+  private static final int INITIAL_CAPACITY = 64;
+
+  @NotNull private long[] myXs;
+  @NotNull private long[] myValues;
+  private int mySize;
+
+  public LongDataSeries() {
+    this(INITIAL_CAPACITY);
+  }
+
+  public LongDataSeries(int initialCapacity) {
+    myXs = new long[Math.max(initialCapacity, 1)];
+    myValues = new long[myXs.length];
+  }
+
+  /**
+   * Appends a sample. {@code x} must not be smaller than the x of the last sample added.
+   */
+  public synchronized void add(long x, long value) {
+    if (mySize > 0 && x < myXs[mySize - 1]) {
+      throw new IllegalArgumentException("Samples must be added in x order: " + x + " < " + myXs[mySize - 1]);
+    }
+    if (mySize == myXs.length) {
+      // Views created so far keep referencing the old arrays, which never change below their size, so growing never invalidates them.
+      int newCapacity = myXs.length + (myXs.length >> 1) + 1;
+      myXs = Arrays.copyOf(myXs, newCapacity);
+      myValues = Arrays.copyOf(myValues, newCapacity);
+    }
+    myXs[mySize] = x;
+    myValues[mySize] = value;
+    mySize++;
+  }
+
+  public synchronized int size() {
+    return mySize;
+  }
+
+  /**
+   * Releases any capacity that is not used by the samples added so far.
+   */
+  public synchronized void trimToSize() {
+    if (mySize < myXs.length) {
+      myXs = Arrays.copyOf(myXs, Math.max(mySize, 1));
+      myValues = Arrays.copyOf(myValues, myXs.length);
+    }
+  }
+
+  /**
+   * @return a view of all the samples in the series.
+   */
+  @NotNull
+  public synchronized LongSeriesDataView getAllData() {
+    return new LongSeriesDataView(myXs, myValues, 0, mySize);
+  }
+
+  /**
+   * @return a view of the samples within the given range, plus the samples right before and after it unless they match the boundaries of
+   * the range exactly. This lets line charts draw the segments entering and leaving the range.
+   */
+  @Override
+  @NotNull
+  public synchronized LongSeriesDataView getDataForRange(@NotNull Range range) {
+    if (mySize == 0 || range.isEmpty()) {
+      return LongSeriesDataView.EMPTY_VIEW;
+    }
+    int minIndex = Arrays.binarySearch(myXs, 0, mySize, (long)range.getMin());
+    int maxIndex = Arrays.binarySearch(myXs, 0, mySize, (long)range.getMax());
+    // When the search key is not found, binarySearch returns (-insertion_point - 1). Include the sample before the min and the sample
+    // after the max.
+    if (minIndex < 0) {
+      minIndex = Math.max(-minIndex - 2, 0);
+    }
+    else {
+      minIndex = firstIndexOf(minIndex);
+    }
+    if (maxIndex < 0) {
+      maxIndex = Math.min(-maxIndex - 1, mySize - 1);
+    }
+    else {
+      maxIndex = lastIndexOf(maxIndex);
+    }
+    return new LongSeriesDataView(myXs, myValues, minIndex, maxIndex + 1);
+  }
+
+  /**
+   * Samples may share the same x, in which case {@link Arrays#binarySearch} returns any of them. Walk back to the first one.
+   */
+  private int firstIndexOf(int index) {
+    long x = myXs[index];
+    while (index > 0 && myXs[index - 1] == x) {
+      index--;
+    }
+    return index;
+  }
+
+  private int lastIndexOf(int index) {
+    long x = myXs[index];
+    while (index < mySize - 1 && myXs[index + 1] == x) {
+      index++;
+    }
+    return index;
+  }
+}
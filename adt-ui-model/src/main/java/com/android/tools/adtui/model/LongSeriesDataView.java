@@ -0,0 +1,116 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import java.util.AbstractList;
+import java.util.List;
+import java.util.RandomAccess;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * An immutable, read-only view over a slice of the columns of a {@link LongDataSeries}. No data is copied when the view is created.
+ * <p>
+ * The view implements {@code List<SeriesData<Long>>} so it can be handed to any existing {@link DataSeries} consumer, but {@link #get(int)}
+ * boxes a new {@link SeriesData} on every call. Consumers that read many samples, e.g. on every repaint, should use {@link #getX(int)} and
+ * {@link #getValue(int)} instead, which read the primitive columns directly.
+ */
+public final class LongSeriesDataView extends AbstractList<SeriesData<Long>> implements RandomAccess {
+  private static final long[] EMPTY = new long[0];
+  public static final LongSeriesDataView EMPTY_VIEW = of(EMPTY, EMPTY);
+
+  @NotNull private final long[] myXs;
+  @NotNull private final long[] myValues;
+  private final int myFromIndex;
+  private final int myToIndex;
+
+  /**
+   * @param fromIndex index into the columns of the first sample in the view, inclusive.
+   * @param toIndex   index into the columns of the last sample in the view, exclusive.
+   */
+  LongSeriesDataView(@NotNull long[] xs, @NotNull long[] values, int fromIndex, int toIndex) {
+    assert 0 <= fromIndex && fromIndex <= toIndex && toIndex <= xs.length && toIndex <= values.length;
+    myXs = xs;
+    myValues = values;
+    myFromIndex = fromIndex;
+    myToIndex = toIndex;
+  }
+
+  /**
+   * Creates a view over all of the given columns, which must have the same length, be sorted by x and not be modified afterwards.
+   */
+  @NotNull
+  public static LongSeriesDataView of(@NotNull long[] xs, @NotNull long[] values) {
+    if (xs.length != values.length) {
+      throw new IllegalArgumentException("Columns of different lengths: " + xs.length + " and " + values.length);
+    }
+    return new LongSeriesDataView(xs, values, 0, xs.length);
+  }
+
+  /**
+   * Returns {@code data} itself if it is a view, or else a view over columns copied from it.
+   */
+  @NotNull
+  public static LongSeriesDataView copyOf(@NotNull List<SeriesData<Long>> data) {
+    if (data instanceof LongSeriesDataView) {
+      return (LongSeriesDataView)data;
+    }
+    long[] xs = new long[data.size()];
+    long[] values = new long[xs.length];
+    int i = 0;
+    for (SeriesData<Long> sample : data) {
+      xs[i] = sample.x;
+      values[i] = sample.value;
+      i++;
+    }
+    return of(xs, values);
+  }
+
+  @Override
+  public int size() {
+    return myToIndex - myFromIndex;
+  }
+
+  public long getX(int index) {
+    return myXs[toColumnIndex(index)];
+  }
+
+  public long getValue(int index) {
+    return myValues[toColumnIndex(index)];
+  }
+
+  @Override
+  @NotNull
+  public SeriesData<Long> get(int index) {
+    int columnIndex = toColumnIndex(index);
+    return new SeriesData<>(myXs[columnIndex], myValues[columnIndex]);
+  }
+
+  @Override
+  @NotNull
+  public LongSeriesDataView subList(int fromIndex, int toIndex) {
+    if (fromIndex < 0 || toIndex > size() || fromIndex > toIndex) {
+      throw new IndexOutOfBoundsException("fromIndex: " + fromIndex + ", toIndex: " + toIndex + ", size: " + size());
+    }
+    return new LongSeriesDataView(myXs, myValues, myFromIndex + fromIndex, myFromIndex + toIndex);
+  }
+
+  private int toColumnIndex(int index) {
+    if (index < 0 || index >= size()) {
+      throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+    }
+    return myFromIndex + index;
+  }
+}
@@ -24,4 +24,23 @@ class RangedContinuousSeries @JvmOverloads constructor(val name: String,
                                                        val yRange: Range,
                                                        series: DataSeries<Long>,
                                                        intersectRange: Range = Range(-Double.MAX_VALUE, Double.MAX_VALUE))
-  : RangedSeries<Long>(xRange, series, intersectRange)
\ No newline at end of file
+  : RangedSeries<Long>(xRange, series, intersectRange) {
+
+  /**
+   * The last list copied by [columns] and its copy, kept together since the line chart and its model read [columns] from different
+   * threads.
+   */
+  @Volatile
+  private var lastCopy: Pair<List<SeriesData<Long>>, LongSeriesDataView>? = null
+
+  /**
+   * The same samples as [series], as primitive columns to be read through [LongSeriesDataView.getX] and [LongSeriesDataView.getValue]
+   * without boxing. Series that already return a [LongSeriesDataView] (e.g. [LongDataSeries]) are returned as they are, any other list
+   * is copied once and the copy reused for as long as [series] returns that same list.
+   */
+  val columns: LongSeriesDataView
+    get() = series.let { data ->
+      if (data is LongSeriesDataView) data
+      else lastCopy?.takeIf { it.first === data }?.second ?: LongSeriesDataView.copyOf(data).also { lastCopy = data to it }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.model;
+
+import static com.google.common.truth.Truth.assertThat;
+
+import java.util.ArrayList;
+import org.junit.Test;
+
+public class LongDataSeriesTest {
+
+  @Test
+  public void testRangeQueryIncludesNeighbors() {
+    LongDataSeries series = createSeries(10);
+
+    // Exact boundaries do not pull in neighbors.
+    LongSeriesDataView view = series.getDataForRange(new Range(20, 40));
+    assertThat(view).containsExactly(new SeriesData<>(20, 2L), new SeriesData<>(30, 3L), new SeriesData<>(40, 4L)).inOrder();
+
+    // Non-exact boundaries include the sample before the min and after the max.
+    view = series.getDataForRange(new Range(25, 35));
+    assertThat(view.size()).isEqualTo(3);
+    assertThat(view.getX(0)).isEqualTo(20);
+    assertThat(view.getX(2)).isEqualTo(40);
+    assertThat(view.getValue(1)).isEqualTo(3);
+
+    // Ranges past either end clamp to the available data.
+    assertThat(series.getDataForRange(new Range(-100, 5)).size()).isEqualTo(1);
+    assertThat(series.getDataForRange(new Range(95, 1000)).size()).isEqualTo(1);
+    assertThat(series.getDataForRange(new Range(0, Long.MAX_VALUE)).size()).isEqualTo(10);
+  }
+
+  @Test
+  public void testEmptySeries() {
+    LongDataSeries series = new LongDataSeries();
+    assertThat(series.getDataForRange(new Range(0, 100))).isEmpty();
+    series.add(1, 1);
+    assertThat(series.getDataForRange(new Range())).isEmpty();
+  }
+
+  @Test
+  public void testViewsAreStableWhileAppending() {
+    LongDataSeries series = new LongDataSeries(1);
+    series.add(10, 1);
+    LongSeriesDataView view = series.getAllData();
+    // Grow the series past its capacity multiple times.
+    for (int i = 2; i <= 100; i++) {
+      series.add(i * 10, i);
+    }
+    assertThat(view).containsExactly(new SeriesData<>(10, 1L));
+    assertThat(series.getAllData().size()).isEqualTo(100);
+    series.trimToSize();
+    assertThat(series.getAllData().getValue(99)).isEqualTo(100);
+  }
+
+  @Test
+  public void testSubListIsView() {
+    LongSeriesDataView view = createSeries(10).getAllData().subList(2, 5);
+    assertThat(view.size()).isEqualTo(3);
+    assertThat(view.getX(0)).isEqualTo(30);
+    assertThat(view.subList(1, 2).getValue(0)).isEqualTo(4);
+  }
+
+  @Test
+  public void testElementsAreReadFromTheColumns() {
+    LongDataSeries series = createSeries(10);
+    LongSeriesDataView view = series.getAllData();
+    assertThat(view.get(3)).isEqualTo(new SeriesData<>(40, 4L));
+    assertThat(view.get(3)).isNotSameAs(view.get(3));
+    assertThat(series.getDataForRange(new Range(35, 45)).get(0)).isEqualTo(view.get(2));
+  }
+
+  @Test
+  public void testViewOfColumns() {
+    LongSeriesDataView view = LongSeriesDataView.of(new long[]{1, 2}, new long[]{10, 20});
+    assertThat(view).containsExactly(new SeriesData<>(1, 10L), new SeriesData<>(2, 20L)).inOrder();
+    assertThat(LongSeriesDataView.copyOf(view)).isSameAs(view);
+    assertThat(LongSeriesDataView.copyOf(new ArrayList<>(view))).containsExactlyElementsIn(view).inOrder();
+  }
+
+  @Test(expected = IndexOutOfBoundsException.class)
+  public void testViewIsBounded() {
+    createSeries(10).getAllData().subList(2, 5).get(3);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOutOfOrderSamplesAreRejected() {
+    createSeries(2).add(5, 0);
+  }
+
+  @Test
+  public void testRangedContinuousSeriesAdoption() {
+    LongDataSeries series = createSeries(10);
+    RangedContinuousSeries ranged = new RangedContinuousSeries("test", new Range(0, 50), new Range(0, 10), series);
+    assertThat(ranged.getSeries()).isInstanceOf(LongSeriesDataView.class);
+    assertThat(ranged.getSeries()).hasSize(5);
+    assertThat(ranged.getColumns().getValue(4)).isEqualTo(5);
+  }
+
+  @Test
+  public void testRangedContinuousSeriesColumnsAreCopiedOncePerQuery() {
+    DefaultDataSeries<Long> series = new DefaultDataSeries<>();
+    for (int i = 1; i <= 10; i++) {
+      series.add(i * 10, (long)i);
+    }
+    Range xRange = new Range(0, 50);
+    RangedContinuousSeries ranged = new RangedContinuousSeries("test", xRange, new Range(0, 10), series);
+    LongSeriesDataView columns = ranged.getColumns();
+    assertThat(columns).containsExactlyElementsIn(ranged.getSeries()).inOrder();
+    assertThat(ranged.getColumns()).isSameAs(columns);
+
+    xRange.setMax(60);
+    assertThat(ranged.getColumns()).isNotSameAs(columns);
+    assertThat(ranged.getColumns().getValue(5)).isEqualTo(6);
+  }
+
+  private static LongDataSeries createSeries(int count) {
+    LongDataSeries series = new LongDataSeries();
+    for (int i = 1; i <= count; i++) {
+      series.add(i * 10, i);
+    }
+    return series;
+  }
+}
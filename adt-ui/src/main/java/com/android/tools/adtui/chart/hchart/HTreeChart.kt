@@ -94,6 +94,12 @@ class HTreeChart<N : HNode<N>> private constructor(builder: Builder<N>) : Animat
   private val reducer = builder.reducer
   private var canvas: Image? = null
 
+  /**
+   * The nodes of the tree grouped by depth, used to only visit the nodes that end up drawn when the default reducer is used. Null if
+   * the tree is not a well-formed call tree or a custom reducer is set, in which case every node in range is visited.
+   */
+  private var levels: HTreeChartLevels<N>? = null
+
   /**
    * If true, the next render pass will forcefully rebuild this chart's canvas (an expensive
    * operation which doesn't have to be done too often as usually the contents are static)
@@ -132,6 +138,7 @@ class HTreeChart<N : HNode<N>> private constructor(builder: Builder<N>) : Animat
   }
 
   private fun rootChanged() {
+    levels = if (root != null && reducer is DefaultHTreeChartReducer<*>) HTreeChartLevels.build(root!!) else null
     maximumHeight = calculateMaximumHeight()
     // Update preferred size using calculated height to make sure containers of this chart account for the height change during layout.
     preferredSize = Dimension(preferredSize.width, maximumHeight)
@@ -161,7 +168,7 @@ class HTreeChart<N : HNode<N>> private constructor(builder: Builder<N>) : Animat
     }
     UIUtil.drawImage(g, canvas!!, 0, 0, null)
     addDebugInfo("Draw time %.2fms", (System.nanoTime() - startTime) / 1e6)
-    addDebugInfo("# of nodes %d", nodes.size)
+    addDebugInfo("# of nodes %d", if (levels == null) nodes.size else drawnNodes.size)
     addDebugInfo("# of reduced nodes %d", drawnNodes.size)
   }
 
@@ -181,21 +188,8 @@ class HTreeChart<N : HNode<N>> private constructor(builder: Builder<N>) : Animat
     UISettings.setupAntialiasing(g)
     g.font = font
     drawnNodes.clear()
-    drawnNodes.addAll(nodes)
     drawnRectangles.clear()
-    // Transform
-    for (rect in rectangles) {
-      val newRect = Rectangle2D.Float()
-      newRect.x = rect.x * dim.getWidth().toFloat()
-      newRect.y = rect.y
-      newRect.width = max(0f, rect.width * dim.getWidth().toFloat() - nodeXPaddingPx)
-      newRect.height = rect.height
-      if (orientation == Orientation.BOTTOM_UP) {
-        newRect.y = (dim.getHeight() - newRect.y - newRect.getHeight()).toFloat()
-      }
-      drawnRectangles.add(newRect)
-    }
-    reducer.reduce(drawnRectangles, drawnNodes)
+    collectDrawnNodes(dim)
     assert(drawnRectangles.size == drawnNodes.size)
     for (i in drawnNodes.indices) {
       val node = drawnNodes[i]
@@ -211,11 +205,47 @@ class HTreeChart<N : HNode<N>> private constructor(builder: Builder<N>) : Animat
     g.dispose()
   }
 
+  /**
+   * Fills [drawnNodes] and [drawnRectangles] with the reduced nodes to draw on a canvas of the given dimension.
+   */
+  private fun collectDrawnNodes(dim: Dimension) {
+    val levels = levels
+    if (levels == null) {
+      drawnNodes.addAll(nodes)
+      rectangles.mapTo(drawnRectangles) { toDrawingArea(it, dim) }
+      reducer.reduce(drawnRectangles, drawnNodes)
+      return
+    }
+    // Only the rows that intersect the canvas are collected, and the sub-pixel nodes of a row are skipped in runs.
+    val rowHeight = nodeHeight + nodeYPaddingPx
+    levels.collect(xRange.min, xRange.max, xRange.length / dim.getWidth(),
+                   { depth -> rowHeight * depth - yRange.min in -rowHeight.toDouble()..dim.getHeight() },
+                   { node -> toDrawingArea(createRectangle(node), dim) },
+                   drawnNodes, drawnRectangles)
+    if (!rootVisible && drawnNodes.firstOrNull() === root) {
+      drawnNodes.removeAt(0)
+      drawnRectangles.removeAt(0)
+    }
+  }
+
+  /**
+   * Transforms a rectangle created by [createRectangle] into the area where its node is drawn on a canvas of the given dimension.
+   */
+  private fun toDrawingArea(rect: Rectangle2D.Float, dim: Dimension) = Rectangle2D.Float().apply {
+    x = rect.x * dim.getWidth().toFloat()
+    y = rect.y
+    width = max(0f, rect.width * dim.getWidth().toFloat() - nodeXPaddingPx)
+    height = rect.height
+    if (orientation == Orientation.BOTTOM_UP) {
+      y = (dim.getHeight() - y - getHeight()).toFloat()
+    }
+  }
+
   private fun updateNodesAndClearCanvas() {
     nodes.clear()
     rectangles.clear()
     canvas = null
-    if (root == null) {
+    if (root == null || levels != null) {
       return
     }
     if (inRange(root!!)) {
@@ -366,9 +396,12 @@ class HTreeChart<N : HNode<N>> private constructor(builder: Builder<N>) : Animat
     if (root == null) {
       return 0
     }
-    var maxDepth = -1
+    var maxDepth = levels?.maxDepth ?: -1
     val queue: Queue<N> = LinkedList()
-    queue.add(root)
+    if (levels == null) {
+      // Without levels, the deepest node is found by visiting the whole tree.
+      queue.add(root)
+    }
     while (!queue.isEmpty()) {
       val n = queue.poll()!!
       if (n.depth > maxDepth) {
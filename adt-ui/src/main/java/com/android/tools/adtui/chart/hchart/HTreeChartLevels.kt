@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.chart.hchart
+
+import com.android.tools.adtui.model.HNode
+import java.awt.geom.Rectangle2D
+import java.util.ArrayDeque
+import kotlin.math.floor
+
+/**
+ * The nodes of a tree grouped by depth, in traversal order.
+ *
+ * In a call tree the nodes at one depth don't overlap, so in traversal order they are sorted by both start and end. This lets
+ * [HTreeChart] find the nodes of a depth that are in its range with binary searches, and skip in one step all the nodes that end in a
+ * pixel, which [DefaultHTreeChartReducer] would merge into one rectangle anyway. Drawing and hit-testing then cost in proportion to the
+ * number of pixels instead of the size of the tree.
+ *
+ * The times are read from the nodes on each query, so the levels stay valid when the nodes change the clock they report.
+ */
+internal class HTreeChartLevels<N : HNode<N>> private constructor(private val levels: List<List<N>>) {
+  /**
+   * The deepest depth of a node in the tree, or -1 if there are no nodes.
+   */
+  val maxDepth get() = levels.size - 1
+
+  /**
+   * Adds the nodes of the depths accepted by [isDepthVisible] that intersect [[minX], [maxX]] to [nodes], and their drawing areas
+   * computed by [drawingArea] to [rectangles]. A run of consecutive nodes at one depth whose drawing areas end in the same pixel is added
+   * as its first node, with a drawing area that covers the whole run, as [DefaultHTreeChartReducer] does.
+   *
+   * @param xPerPixel the length of X range covered by a pixel, used to skip the nodes that start in the pixel being merged
+   */
+  fun collect(minX: Double,
+              maxX: Double,
+              xPerPixel: Double,
+              isDepthVisible: (Int) -> Boolean,
+              drawingArea: (N) -> Rectangle2D.Float,
+              nodes: MutableList<N>,
+              rectangles: MutableList<Rectangle2D.Float>) {
+    for (depth in levels.indices) {
+      if (!isDepthVisible(depth)) {
+        continue
+      }
+      val level = levels[depth]
+      val end = level.firstIndex(0, level.size) { it.start > maxX }
+      var index = level.firstIndex(0, end) { it.end >= minX }
+      while (index < end) {
+        val node = level[index]
+        val rect = drawingArea(node)
+        if (floor(rect.minX) < floor(rect.maxX)) {
+          nodes.add(node)
+          rectangles.add(rect)
+          index++
+          continue
+        }
+        // Only the nodes that start before the next pixel can end in this one. The threshold is approximate, so the boundary is then
+        // adjusted with the drawing areas the reducer would use.
+        val pixel = floor(rect.maxX)
+        var next = level.firstIndex(index + 1, end) { it.start >= minX + (pixel + 1) * xPerPixel }
+        while (next > index + 1 && floor(drawingArea(level[next - 1]).maxX) != pixel) {
+          next--
+        }
+        while (next < end && floor(drawingArea(level[next]).maxX) == pixel) {
+          next++
+        }
+        rect.width = (drawingArea(level[next - 1]).maxX - rect.minX).toFloat()
+        nodes.add(node)
+        rectangles.add(rect)
+        index = next
+      }
+    }
+  }
+
+  companion object {
+    /**
+     * Returns the levels of the tree at [root], or null if the nodes at some depth overlap, in which case the chart has to walk the tree.
+     */
+    fun <N : HNode<N>> build(root: N): HTreeChartLevels<N>? {
+      val levels = ArrayList<ArrayList<N>>()
+      val queue = ArrayDeque<N>()
+      queue.add(root)
+      while (queue.isNotEmpty()) {
+        val node = queue.poll()
+        if (node.depth < 0) {
+          return null
+        }
+        while (levels.size <= node.depth) {
+          levels.add(ArrayList())
+        }
+        val level = levels[node.depth]
+        if (level.isNotEmpty() && (node.start < level.last().end || node.end < level.last().end)) {
+          return null
+        }
+        level.add(node)
+        for (i in 0 until node.childCount) {
+          queue.add(node.getChildAt(i))
+        }
+      }
+      levels.forEach { it.trimToSize() }
+      return HTreeChartLevels(levels)
+    }
+
+    /**
+     * Returns the first index in [[from], [to]) for which [predicate] is true, or [to] if there is none. The predicate must be false
+     * then true.
+     */
+    private inline fun <N> List<N>.firstIndex(from: Int, to: Int, predicate: (N) -> Boolean): Int {
+      var low = from
+      var high = to
+      while (low < high) {
+        val mid = (low + high) ushr 1
+        if (predicate(this[mid])) {
+          high = mid
+        }
+        else {
+          low = mid + 1
+        }
+      }
+      return low
+    }
+  }
+}
@@ -15,6 +15,7 @@
  */
 package com.android.tools.adtui.chart.linechart;
 
+import com.android.tools.adtui.model.LongSeriesDataView;
 import com.android.tools.adtui.model.SeriesData;
 import java.awt.geom.Path2D;
 import java.awt.geom.PathIterator;
@@ -65,6 +66,31 @@ class DefaultLineChartReducer implements LineChartReducer {
     return reduced;
   }
 
+  /**
+   * Same reduction as {@link #reduceData(List, LineConfig)}, reading and writing primitive columns instead of boxed samples.
+   */
+  @NotNull
+  @Override
+  public LongSeriesDataView reduceColumns(@NotNull LongSeriesDataView data, @NotNull LineConfig config) {
+    if (config.getDataBucketInterval() > 0) {
+      return data;
+    }
+
+    long[] xs = new long[data.size()];
+    long[] values = new long[xs.length];
+    int size = 0;
+    for (int i = 0; i < data.size(); i++) {
+      long value = data.getValue(i);
+      while (size >= 2 && values[size - 2] == values[size - 1] && (config.isStepped() || values[size - 1] == value)) {
+        size--;
+      }
+      xs[size] = data.getX(i);
+      values[size] = value;
+      size++;
+    }
+    return LongSeriesDataView.of(xs, values).subList(0, size);
+  }
+
   /**
   * The basic idea behind this algorithm is to reduce number of points to available pixels.
   * For every pixel it draws 4 points: the first point, the last point,
@@ -21,10 +21,9 @@ import static java.awt.BasicStroke.JOIN_MITER;
 
 import com.android.tools.adtui.AnimatedComponent;
 import com.android.tools.adtui.model.LineChartModel;
+import com.android.tools.adtui.model.LongSeriesDataView;
 import com.android.tools.adtui.model.RangedContinuousSeries;
-import com.android.tools.adtui.model.SeriesData;
 import com.google.common.annotations.VisibleForTesting;
-import com.intellij.util.containers.ContainerUtil;
 import java.awt.BasicStroke;
 import java.awt.Color;
 import java.awt.Dimension;
@@ -180,9 +179,10 @@ public class LineChart extends AnimatedComponent {
   private void redraw(@NotNull Dimension dim) {
     long duration = System.nanoTime();
 
-    // Store the last stacked series to use them to increment the Y values
+    // Store the x and accumulated y values of the stacked series so far, to increment the Y values
     // of the current stacked series.
-    List<SeriesData<Long>> lastStackedSeries = null;
+    long[] stackedXs = null;
+    long[] stackedValues = null;
 
     Deque<Path2D> orderedPaths = new ArrayDeque<>(myLinesConfig.size());
     Deque<RangedContinuousSeries> orderedSeries = new ArrayDeque<>(myLinesConfig.size());
@@ -194,11 +194,16 @@ public class LineChart extends AnimatedComponent {
       }
       final LineConfig config = getLineConfig(ranged);
 
-      List<SeriesData<Long>> seriesList = ranged.getSeries();
+      LongSeriesDataView seriesList = ranged.getColumns();
       if (config.isStacked()) {
-        if (lastStackedSeries == null) {
-          // Create a new list of SeriesData to prevent modifying the backing data series, which could be cached.
-          lastStackedSeries = ContainerUtil.map(seriesList, data -> new SeriesData<>(data.x, data.value));
+        if (stackedValues == null) {
+          // Copy the values to prevent modifying the backing data series, which could be cached.
+          stackedXs = new long[seriesList.size()];
+          stackedValues = new long[stackedXs.length];
+          for (int i = 0; i < stackedXs.length; ++i) {
+            stackedXs[i] = seriesList.getX(i);
+            stackedValues[i] = seriesList.getValue(i);
+          }
         }
         else {
           // If the current series is stacked, increment its value by the value of the last stacked
@@ -206,11 +211,11 @@ public class LineChart extends AnimatedComponent {
           // points than the last stacked series (meaning that the last one was populated in a
           // prior iteration). In this case, ignore the new points (i.e. we take only the intersection
           // across all series).
-          for (int i = 0; i < seriesList.size() && i < lastStackedSeries.size(); ++i) {
+          for (int i = 0; i < seriesList.size() && i < stackedValues.length; ++i) {
             // An assumption is made here that the x values across series are aligned.
-            lastStackedSeries.get(i).value += seriesList.get(i).value;
+            stackedValues[i] += seriesList.getValue(i);
           }
-          seriesList = lastStackedSeries;
+          seriesList = LongSeriesDataView.of(stackedXs, stackedValues);
         }
       }
 
@@ -224,19 +229,20 @@ public class LineChart extends AnimatedComponent {
       double firstXd = 0f;
       // Actual value of first point
       double firstX = 0;
-      seriesList = myReducer.reduceData(seriesList, config);
+      seriesList = myReducer.reduceColumns(seriesList, config);
       double xBucketInterval = config.getDataBucketInterval() / xLength;
       double xBucketBarWidth = xBucketInterval * BUCKET_BAR_PERCENTAGE;
       // If we are a stepped chart or bar chart, we don't need to worry about start and end points' Y value.
       boolean optimizeYZooming = !config.isStepped() && xBucketInterval == 0;
       for (int i = 0; i < seriesList.size(); i++) {
-        SeriesData<Long> data = seriesList.get(i);
-        SeriesData<Long> dataNext = seriesList.get(i + 1 == seriesList.size() ? i : i + 1);
-        SeriesData<Long> dataPrev = seriesList.get(i - 1 < 0 ? i : i - 1);
+        boolean isLast = i + 1 == seriesList.size();
+        int next = isLast ? i : i + 1;
+        int prev = i - 1 < 0 ? i : i - 1;
+        long dataX = seriesList.getX(i);
         // TODO: refactor to allow different types (e.g. double)
-        double xd = (data.x - xMin) / xLength;
+        double xd = (dataX - xMin) / xLength;
         // Swing's (0, 0) coordinate is in top-left. As we use bottom-left (0, 0), we need to adjust the y coordinate.
-        double yd = 1 - (data.value - yMin) / yLength;
+        double yd = 1 - (seriesList.getValue(i) - yMin) / yLength;
 
         // This change significantly speeds up drawing when zoomed into the chart. Without this change a line could extend
         // a few thousand pixels off the screen in both directions. The fill/draw function would then spend a lot of time
@@ -253,10 +259,10 @@ public class LineChart extends AnimatedComponent {
 
         double originalXd = xd;
         if (xd < 0) {
-          double xdNext = (dataNext.x - xMin) / xLength;
+          double xdNext = (seriesList.getX(next) - xMin) / xLength;
           // If our next point is also offscreen then ignore this point and continue.
           if (xdNext < 0) {
-            if (data == dataNext) {
+            if (isLast) {
               // The last point is still off screen, we should add a point at (0, y) to avoid drawing nothing.
               //     |   |
               // *-->*----
@@ -268,7 +274,7 @@ public class LineChart extends AnimatedComponent {
           }
 
           //Get the Y offset of our next point.
-          double ydNext = 1 - (dataNext.value - yMin) / yLength;
+          double ydNext = 1 - (seriesList.getValue(next) - yMin) / yLength;
 
           // If we are a dash line we get the closest normalized point to are graph otherwise we just set our point to 0.
           double newPosition = 0;
@@ -284,13 +290,13 @@ public class LineChart extends AnimatedComponent {
           xd = newPosition;
         }
         else if (xd > 1) {
-          double xdPrev = (dataPrev.x - xMin) / xLength;
+          double xdPrev = (seriesList.getX(prev) - xMin) / xLength;
           if (xdPrev > 1) {
             break;
           }
           if (optimizeYZooming) {
             double ratio = (1 - xdPrev) / (xd - xdPrev);
-            double ydPrev = 1 - (dataPrev.value - yMin) / yLength;
+            double ydPrev = 1 - (seriesList.getValue(prev) - yMin) / yLength;
             yd = (1 - ratio) * ydPrev + (ratio * yd);
           }
           xd = 1;
@@ -298,7 +304,7 @@ public class LineChart extends AnimatedComponent {
 
         if (path.getCurrentPoint() == null) {
           firstXd = xd;
-          firstX = data.x;
+          firstX = dataX;
           // If for bucket data, because the previous ending x value is next data point's starting
           // x value, i.e. (xd + interval, 1), move the path start point to (xd, 1).
           // Otherwise, move the path start point to (xd, yd).
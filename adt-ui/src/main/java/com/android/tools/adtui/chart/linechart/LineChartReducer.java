@@ -15,6 +15,7 @@
  */
 package com.android.tools.adtui.chart.linechart;
 
+import com.android.tools.adtui.model.LongSeriesDataView;
 import com.android.tools.adtui.model.SeriesData;
 import java.awt.geom.Path2D;
 import java.util.List;
@@ -30,6 +31,14 @@ public interface LineChartReducer {
    */
   List<SeriesData<Long>> reduceData(List<SeriesData<Long>> data, LineConfig config);
 
+  /**
+   * Same as {@link #reduceData(List, LineConfig)}, for data held in primitive columns. This is what {@link LineChart} calls on every
+   * redraw. The default implementation goes through {@link #reduceData(List, LineConfig)}, which boxes every sample.
+   */
+  default LongSeriesDataView reduceColumns(LongSeriesDataView data, LineConfig config) {
+    return LongSeriesDataView.copyOf(reduceData(data, config));
+  }
+
   /**
    * Reduces the given path in a pixel level, i.e when dimensions are available.
    * The result shouldn't affect the looking of the line when it's drawn.
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.adtui.chart.hchart
+
+import com.android.tools.adtui.model.DefaultHNode
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.awt.geom.Rectangle2D
+import kotlin.math.max
+import kotlin.random.Random
+
+class HTreeChartLevelsTest {
+  private val width = 200.0
+
+  @Test
+  fun matchesDefaultReducer() {
+    val random = Random(42)
+    val root = newNode(0, 1_000_000, 0)
+    addChildren(root, random, 1)
+    val levels = HTreeChartLevels.build(root)!!
+
+    repeat(50) {
+      val min = random.nextLong(-1000, 900_000).toDouble()
+      val max = min + random.nextLong(1, 1_000_000)
+      val expectedNodes = ArrayList<DefaultHNode<String>>()
+      val expectedRects = ArrayList<Rectangle2D.Float>()
+      collectInRange(root, min, max, expectedNodes)
+      expectedNodes.mapTo(expectedRects) { drawingArea(it, min, max) }
+      DefaultHTreeChartReducer<DefaultHNode<String>>().reduce(expectedRects, expectedNodes)
+
+      val nodes = ArrayList<DefaultHNode<String>>()
+      val rects = ArrayList<Rectangle2D.Float>()
+      levels.collect(min, max, (max - min) / width, { true }, { drawingArea(it, min, max) }, nodes, rects)
+
+      assertThat(nodes).containsExactlyElementsIn(expectedNodes).inOrder()
+      assertThat(rects).containsExactlyElementsIn(expectedRects).inOrder()
+    }
+  }
+
+  @Test
+  fun subPixelNodesAreMerged() {
+    val root = newNode(0, 1000, 0)
+    for (i in 0 until 1000) {
+      root.addChild(newNode(i.toLong(), i + 1L, 1))
+    }
+    val nodes = ArrayList<DefaultHNode<String>>()
+    val rects = ArrayList<Rectangle2D.Float>()
+    HTreeChartLevels.build(root)!!.collect(0.0, 1000.0, 1000 / width, { it == 1 }, { drawingArea(it, 0.0, 1000.0) }, nodes, rects)
+
+    // Each pixel covers 5 nodes, which are drawn as the first one.
+    assertThat(nodes).hasSize(200)
+    assertThat(nodes.map { it.start }).containsExactlyElementsIn((0 until 1000 step 5).map { it.toLong() }).inOrder()
+  }
+
+  @Test
+  fun levels() {
+    val root = newNode(0, 100, 0)
+    root.addChild(newNode(0, 50, 1).apply { addChild(newNode(10, 20, 2)) })
+    root.addChild(newNode(50, 100, 1))
+
+    assertThat(HTreeChartLevels.build(root)!!.maxDepth).isEqualTo(2)
+  }
+
+  @Test
+  fun overlappingNodesAreNotIndexed() {
+    val root = newNode(0, 100, 0)
+    root.addChild(newNode(0, 50, 1))
+    root.addChild(newNode(40, 100, 1))
+
+    assertThat(HTreeChartLevels.build(root)).isNull()
+  }
+
+  private fun addChildren(node: DefaultHNode<String>, random: Random, depth: Int) {
+    if (depth > 6) {
+      return
+    }
+    var time = node.start
+    while (true) {
+      val start = time + random.nextLong(0, max(1, node.duration / 10))
+      val end = start + random.nextLong(0, max(1, node.duration / (random.nextInt(1, 4) * depth)))
+      if (end > node.end) {
+        break
+      }
+      node.addChild(newNode(start, end, depth).also { addChildren(it, random, depth + 1) })
+      time = end
+    }
+  }
+
+  private fun collectInRange(node: DefaultHNode<String>, min: Double, max: Double, nodes: MutableList<DefaultHNode<String>>) {
+    // Same breadth-first order as HTreeChart when it visits every node.
+    val queue = ArrayDeque(listOf(node))
+    while (queue.isNotEmpty()) {
+      val n = queue.removeFirst()
+      if (n.start <= max && n.end >= min) {
+        nodes.add(n)
+        queue.addAll(n.children)
+      }
+    }
+  }
+
+  private fun drawingArea(node: DefaultHNode<String>, min: Double, max: Double): Rectangle2D.Float {
+    val left = ((node.start - min) / (max - min) * width).toFloat()
+    val right = ((node.end - min) / (max - min) * width).toFloat()
+    return Rectangle2D.Float(left, node.depth * 10f, max(0f, right - left - HTreeChart.PADDING), 10f)
+  }
+
+  private fun newNode(start: Long, end: Long, depth: Int) = DefaultHNode("$depth:$start", start, end).apply { this.depth = depth }
+}
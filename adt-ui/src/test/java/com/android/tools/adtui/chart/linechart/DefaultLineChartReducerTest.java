@@ -17,6 +17,7 @@ package com.android.tools.adtui.chart.linechart;
 
 import static com.google.common.truth.Truth.assertThat;
 
+import com.android.tools.adtui.model.LongSeriesDataView;
 import com.android.tools.adtui.model.SeriesData;
 import com.google.common.collect.ImmutableList;
 import java.awt.Color;
@@ -63,6 +64,7 @@ public class DefaultLineChartReducerTest {
       .add(new SeriesData<>(7, 5L)).build();
     List<SeriesData<Long>> result = myReducer.reduceData(data, myConfig);
     assertSeriesEquals(expected, result);
+    assertSeriesEquals(expected, myReducer.reduceColumns(LongSeriesDataView.copyOf(data), myConfig));
   }
 
   @Test
@@ -86,6 +88,7 @@ public class DefaultLineChartReducerTest {
     myConfig.setStepped(true);
     List<SeriesData<Long>> result = myReducer.reduceData(data, myConfig);
     assertSeriesEquals(expected, result);
+    assertSeriesEquals(expected, myReducer.reduceColumns(LongSeriesDataView.copyOf(data), myConfig));
   }
 
   @Test
@@ -148,6 +148,11 @@ public final class StudioFlags {
     "Enable the keyboard event functionality in Event Timeline",
     false);
 
+  public static final Flag<Boolean> PROFILER_PERSISTENT_SESSIONS = Flag.create(
+    PROFILER, "persistent.sessions", "Keep profiler sessions across restarts",
+    "Reopen the profiler's on-disk database instead of deleting it, so previous sessions remain available after a restart.",
+    false);
+
   public static final Flag<Boolean> PERFETTO_SDK_TRACING = Flag.create(
     PROFILER, "perfetto.sdk.tracing", "Automatically instrument perfetto sdk builds",
     "A cpu trace intercept command is added that will enable perfetto instrumentation for apps" +
@@ -698,6 +703,22 @@ public final class StudioFlags {
     "Set the max number of messages that are appended to the UI component",
     1000
   );
+
+  public static final Flag<Boolean> LOGCAT_COMPACT_BACKLOG = Flag.create(
+    LOGCAT,
+    "logcat.compact.backlog",
+    "Store the Logcat backlog in a compact off-heap buffer",
+    "Encode messages kept for refiltering and reformatting into off-heap chunks with shared headers instead of keeping them as objects",
+    false
+  );
+
+  public static final Flag<Boolean> LOGCAT_RECORDING = Flag.create(
+    LOGCAT,
+    "logcat.recording",
+    "Record Logcat to disk",
+    "Write received Logcat messages to compressed, indexed files on disk so they can be reopened later",
+    false
+  );
   //endregion
 
   //region Gradle Project System
@@ -864,6 +885,10 @@ public final class StudioFlags {
     DEVICE_MIRRORING, "video.codec", "Video Codec Used for Mirroring of Physical Devices",
     "The name of a video codec, e.g. \"vp8\" or \"vp9\"",
     "vp8");
+  public static final Flag<Boolean> DEVICE_MIRRORING_VIDEO_STATISTICS = Flag.create(
+    DEVICE_MIRRORING, "video.statistics", "Enable Collection of Video Decoding Statistics",
+    "Captures decoding, conversion and display latencies of video frames of mirrored physical devices",
+    false);
   //endregion
 
   //region Refactorings
@@ -17,10 +17,12 @@ package com.android.tools.idea.transport
 
 import com.android.tools.datastore.LogService
 import com.android.tools.profiler.proto.Common
+import com.android.tools.profiler.proto.Transport.BytesRequest
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.components.service
 import com.intellij.util.messages.MessageBus
 import org.jetbrains.annotations.TestOnly
+import java.io.InputStream
 
 /**
  * An application-level service for establishing a connection to a device, which can then be used to retrieve Android system and app data.
@@ -39,6 +41,12 @@ interface TransportService : Disposable {
   fun registerStreamServer(streamType: Common.Stream.Type, streamServer: EventStreamServer): Common.Stream
   fun unregisterStreamServer(streamId: Long)
 
+  /**
+   * Returns a stream over the bytes the `getBytes` rpc would return for the [request], read without holding the whole payload in memory.
+   * Clients in the same process should prefer this for payloads that can be large, e.g. heap dumps and traces.
+   */
+  fun openBytesStream(request: BytesRequest): InputStream
+
   companion object {
     @JvmStatic
     fun getInstance() = service<TransportService>()
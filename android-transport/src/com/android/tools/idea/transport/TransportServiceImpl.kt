@@ -18,12 +18,14 @@ package com.android.tools.idea.transport
 import com.android.tools.datastore.DataStoreService
 import com.android.tools.idea.diagnostics.crash.exception.NoPiiException
 import com.android.tools.profiler.proto.Common
+import com.android.tools.profiler.proto.Transport.BytesRequest
 import com.google.common.annotations.VisibleForTesting
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.openapi.application.PathManager
 import com.intellij.openapi.diagnostic.Logger
 import com.android.tools.idea.io.grpc.inprocess.InProcessChannelBuilder
 import java.io.File
+import java.io.InputStream
 import java.nio.file.Paths
 import java.util.concurrent.atomic.AtomicInteger
 
@@ -64,6 +66,8 @@ class TransportServiceImpl @VisibleForTesting constructor() : TransportService {
     }
   }
 
+  override fun openBytesStream(request: BytesRequest): InputStream = dataStoreService.openBytesStream(request)
+
   companion object {
     private val logger = Logger.getInstance(TransportServiceImpl::class.java)
   }
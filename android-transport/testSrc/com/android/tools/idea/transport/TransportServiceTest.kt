@@ -126,6 +126,8 @@ class TransportServiceTest : LightPlatformTestCase() {
                  .getBytes(Transport.BytesRequest.newBuilder().setStreamId(stream.streamId).setId("test").build())
                  .contents)
       .isEqualTo(testBytes)
+    val testBytesRequest = Transport.BytesRequest.newBuilder().setStreamId(stream.streamId).setId("test").build()
+    assertThat(service.openBytesStream(testBytesRequest).use { it.readBytes() }).isEqualTo(testBytes.toByteArray())
 
     // Validates that bytes can't be queried after server stopped.
     service.unregisterStreamServer(stream.streamId)
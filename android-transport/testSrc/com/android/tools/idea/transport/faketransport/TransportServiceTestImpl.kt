@@ -18,8 +18,12 @@ package com.android.tools.idea.transport.faketransport
 import com.android.tools.datastore.FakeLogService
 import com.android.tools.idea.transport.EventStreamServer
 import com.android.tools.idea.transport.TransportService
+import com.android.tools.idea.io.grpc.stub.StreamObserver
 import com.android.tools.profiler.proto.Common
+import com.android.tools.profiler.proto.Transport.BytesRequest
+import com.android.tools.profiler.proto.Transport.BytesResponse
 import com.intellij.openapi.application.ApplicationManager
+import java.io.InputStream
 import java.util.concurrent.atomic.AtomicLong
 
 /**
@@ -57,6 +61,19 @@ class TransportServiceTestImpl(private val transportRpcService: FakeTransportSer
     }
   }
 
+  override fun openBytesStream(request: BytesRequest): InputStream {
+    var response = BytesResponse.getDefaultInstance()
+    transportRpcService.getBytes(request, object : StreamObserver<BytesResponse> {
+      override fun onNext(value: BytesResponse) {
+        response = value
+      }
+
+      override fun onError(t: Throwable) {}
+      override fun onCompleted() {}
+    })
+    return response.contents.newInput()
+  }
+
   override fun dispose() {
     streamServerMap.keys.forEach(this::unregisterStreamServer)
   }
@@ -111,7 +111,7 @@ class DeviceView(
   private var deviceClient: DeviceClient? = null
   internal val deviceController: DeviceController?
     get() = deviceClient?.deviceController
-  private val videoDecoder: VideoDecoder?
+  internal val videoDecoder: VideoDecoder?
     get() = deviceClient?.videoDecoder
   private var clipboardSynchronizer: DeviceClipboardSynchronizer? = null
   private val connectionStateListeners = mutableListOf<ConnectionStateListener>()
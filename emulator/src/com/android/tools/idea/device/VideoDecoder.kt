@@ -18,11 +18,20 @@ package com.android.tools.idea.device
 import com.android.annotations.concurrency.AnyThread
 import com.android.annotations.concurrency.GuardedBy
 import com.android.tools.idea.emulator.coerceAtMost
+import com.android.tools.idea.flags.StudioFlags
 import com.intellij.openapi.diagnostic.debug
+import com.intellij.openapi.diagnostic.logger
 import com.intellij.openapi.diagnostic.thisLogger
 import com.intellij.util.containers.ContainerUtil
 import kotlinx.coroutines.CoroutineScope
+import kotlinx.coroutines.NonCancellable
+import kotlinx.coroutines.cancelAndJoin
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.Channel.Factory.CONFLATED
+import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
+import kotlinx.coroutines.withContext
+import org.HdrHistogram.Histogram
 import org.bytedeco.ffmpeg.avcodec.AVCodec
 import org.bytedeco.ffmpeg.avcodec.AVCodecContext
 import org.bytedeco.ffmpeg.avcodec.AVCodecParserContext
@@ -51,6 +60,8 @@ import org.bytedeco.ffmpeg.global.avutil.av_frame_alloc
 import org.bytedeco.ffmpeg.global.avutil.av_frame_free
 import org.bytedeco.ffmpeg.global.avutil.av_frame_get_buffer
 import org.bytedeco.ffmpeg.global.avutil.av_frame_make_writable
+import org.bytedeco.ffmpeg.global.avutil.av_frame_move_ref
+import org.bytedeco.ffmpeg.global.avutil.av_frame_unref
 import org.bytedeco.ffmpeg.global.avutil.av_image_get_buffer_size
 import org.bytedeco.ffmpeg.global.swscale.SWS_BILINEAR
 import org.bytedeco.ffmpeg.global.swscale.sws_freeContext
@@ -62,6 +73,7 @@ import org.bytedeco.javacpp.DoublePointer
 import org.bytedeco.javacpp.IntPointer
 import org.bytedeco.javacpp.Pointer
 import org.bytedeco.javacpp.Pointer.memcpy
+import org.jetbrains.annotations.VisibleForTesting
 import java.awt.Dimension
 import java.awt.Point
 import java.awt.color.ColorSpace
@@ -76,16 +88,39 @@ import java.lang.Long.toHexString
 import java.nio.ByteBuffer
 import java.nio.ByteOrder.LITTLE_ENDIAN
 import java.nio.channels.ClosedChannelException
+import java.util.concurrent.TimeUnit
 import java.util.function.Consumer
 import kotlin.text.Charsets.UTF_8
 
+/**
+ * Decodes the video stream of a mirrored device.
+ *
+ * Every packet is decoded as soon as it arrives, but the conversion of decoded frames to images happens on a separate coroutine and is
+ * paced by the display: a frame is converted only after the previous image was consumed by [consumeDisplayFrame]. Frames decoded
+ * meanwhile replace each other, so that only the latest one is converted, and the images are reused from a small pool.
+ */
 internal class VideoDecoder(private val videoChannel: SuspendingSocketChannel, @Volatile var maxOutputSize: Dimension) {
 
   private val imageLock = Any()
   @GuardedBy("imageLock")
   private var displayFrame: VideoFrame? = null
+  /** Whether [displayFrame] was consumed, i.e. whether the next frame may be converted. */
+  @GuardedBy("imageLock")
+  private var displayFrameConsumed = true
+  /** The [System.nanoTime] at which [displayFrame] became available. */
+  @GuardedBy("imageLock")
+  private var displayFrameAvailableTime = 0L
+  private val imagePool = ImagePool()
+  private val conversionRequests = Channel<Unit>(CONFLATED)
+  private val stats = if (StudioFlags.DEVICE_MIRRORING_VIDEO_STATISTICS.get()) Stats() else null
   private val frameListeners = ContainerUtil.createLockFreeCopyOnWriteList<FrameListener>()
 
+  /** The number of the latest decoded frame, whether or not it was converted. */
+  @VisibleForTesting
+  @Volatile
+  internal var decodedFrameNumber = 0
+    private set
+
   fun addFrameListener(listener: FrameListener) {
     frameListeners.add(listener)
   }
@@ -97,8 +132,16 @@ internal class VideoDecoder(private val videoChannel: SuspendingSocketChannel, @
   @AnyThread
   fun consumeDisplayFrame(consumer: Consumer<VideoFrame>) {
     synchronized(imageLock) {
-      displayFrame?.let { consumer.accept(it) }
+      val frame = displayFrame ?: return
+      consumer.accept(frame)
+      if (displayFrameConsumed) {
+        return
+      }
+      displayFrameConsumed = true
+      stats?.recordDisplay(System.nanoTime() - displayFrameAvailableTime)
     }
+    // Let the latest decoded frame, if any, be converted.
+    conversionRequests.trySend(Unit)
   }
 
   /**
@@ -112,6 +155,8 @@ internal class VideoDecoder(private val videoChannel: SuspendingSocketChannel, @
       videoChannel.readFully(header)
       val codecName = String(header.array(), UTF_8).trim()
       val decodingContext = DecodingContext(codecName)
+      val frameConversion = launch { decodingContext.convertFrames() }
+      val statsLogging = stats?.let { launch { it.logPeriodically() } }
       try {
         while (true) {
           decodingContext.readAndProcessPacket()
@@ -122,6 +167,11 @@ internal class VideoDecoder(private val videoChannel: SuspendingSocketChannel, @
       catch (_: EOFException) {
       }
       finally {
+        withContext(NonCancellable) {
+          frameConversion.cancelAndJoin()
+        }
+        statsLogging?.cancel()
+        stats?.logAndReset()
         decodingContext.close()
         onEndOfVideoStream()
       }
@@ -158,6 +208,13 @@ internal class VideoDecoder(private val videoChannel: SuspendingSocketChannel, @
     private val codec: AVCodec
     private val codecContext: AVCodecContext
     private val decodingFrame: AVFrame
+    /** The latest decoded frame that has not been converted yet, if [pendingHeader] is not null. */
+    @GuardedBy("pendingFrameLock")
+    private val pendingFrame: AVFrame = av_frame_alloc()
+    @GuardedBy("pendingFrameLock")
+    private var pendingHeader: PacketHeader? = null
+    private val pendingFrameLock = Any()
+    private val convertingFrame: AVFrame = av_frame_alloc()
     private var renderingFrame: AVFrame? = null
     private var swsContext: SwsContext? = null
     private val parserContext: AVCodecParserContext
@@ -168,7 +225,7 @@ internal class VideoDecoder(private val videoChannel: SuspendingSocketChannel, @
 
     private val renderingSize: Dimension
       get() {
-        val videoSize = Dimension(decodingFrame.width(), decodingFrame.height())
+        val videoSize = Dimension(convertingFrame.width(), convertingFrame.height())
         val maximumSize = maxOutputSize
         if (maximumSize.width == 0 || maximumSize.height == 0) {
           return videoSize
@@ -216,7 +273,11 @@ internal class VideoDecoder(private val videoChannel: SuspendingSocketChannel, @
         videoChannel.readFully(packet.data().asByteBufferOfSize(packetSize))
 
         packet.pts(if (presentationTimestampUs == 0L) AV_NOPTS_VALUE else presentationTimestampUs)
-        processPacket(packet, header)
+        val decodingStart = System.nanoTime()
+        if (processPacket(packet, header)) {
+          stats?.recordDecoding(System.nanoTime() - decodingStart)
+          conversionRequests.trySend(Unit)
+        }
       }
       catch (e: VideoDecoderException) {
         thisLogger().error(e)
@@ -230,13 +291,18 @@ internal class VideoDecoder(private val videoChannel: SuspendingSocketChannel, @
       avcodec_close(codecContext)
       avcodec_free_context(codecContext)
       av_frame_free(decodingFrame)
+      av_frame_free(pendingFrame)
+      av_frame_free(convertingFrame)
       renderingFrame?.let { av_frame_free(it) }
       swsContext?.let { sws_freeContext(it) }
       av_packet_free(packet)
       av_packet_free(pendingPacket)
     }
 
-    private fun processPacket(packet: AVPacket, header: PacketHeader) { // stream_push_packet
+    /**
+     * Processes a packet and returns true if it resulted in a new decoded frame.
+     */
+    private fun processPacket(packet: AVPacket, header: PacketHeader): Boolean { // stream_push_packet
       val isConfig = packet.pts() == AV_NOPTS_VALUE
 
       var packetToProcess = packet
@@ -268,21 +334,23 @@ internal class VideoDecoder(private val videoChannel: SuspendingSocketChannel, @
         }
       }
 
-      if (!isConfig) {
-        // Data packet.
-        try {
-          processDataPacket(packetToProcess, header)
-        }
-        finally {
-          if (hasPendingPacket) {
-            // The pending packet must be discarded.
-            hasPendingPacket = false
-            if (pendingPacket != packet) {
-              av_packet_unref(pendingPacket)
-            }
+      if (isConfig) {
+        return false
+      }
+      // Data packet.
+      try {
+        processDataPacket(packetToProcess, header)
+      }
+      finally {
+        if (hasPendingPacket) {
+          // The pending packet must be discarded.
+          hasPendingPacket = false
+          if (pendingPacket != packet) {
+            av_packet_unref(pendingPacket)
           }
         }
       }
+      return true
     }
 
     private fun processDataPacket(packet: AVPacket, header: PacketHeader) {
@@ -308,6 +376,48 @@ internal class VideoDecoder(private val videoChannel: SuspendingSocketChannel, @
         throw VideoDecoderException("Could not receive video frame")
       }
 
+      // Hand the decoded frame over to the conversion, replacing the previous one if it hasn't been converted yet.
+      synchronized(pendingFrameLock) {
+        if (pendingHeader != null) {
+          stats?.recordSkippedFrame()
+        }
+        av_frame_unref(pendingFrame)
+        av_frame_move_ref(pendingFrame, decodingFrame)
+        pendingHeader = header
+      }
+      decodedFrameNumber = header.frameNumber.toInt()
+    }
+
+    /**
+     * Converts the decoded frames to images until cancelled. A frame is converted when requested through [conversionRequests], provided
+     * that the previous image was consumed by the display.
+     */
+    suspend fun convertFrames() {
+      while (true) {
+        conversionRequests.receive()
+        if (!synchronized(imageLock) { displayFrameConsumed }) {
+          continue // The next request is sent when the display frame is consumed.
+        }
+        val header = synchronized(pendingFrameLock) {
+          pendingHeader?.also {
+            av_frame_unref(convertingFrame)
+            av_frame_move_ref(convertingFrame, pendingFrame)
+            pendingHeader = null
+          }
+        } ?: continue
+
+        try {
+          val conversionStart = System.nanoTime()
+          convertFrame(header)
+          stats?.recordConversion(System.nanoTime() - conversionStart)
+        }
+        catch (e: VideoDecoderException) {
+          thisLogger().error(e)
+        }
+      }
+    }
+
+    private fun convertFrame(header: PacketHeader) {
       val size = renderingSize
       var renderingFrame = renderingFrame
       if (renderingFrame == null || renderingFrame.width() != size.width || renderingFrame.height() != size.height) {
@@ -321,37 +431,28 @@ internal class VideoDecoder(private val videoChannel: SuspendingSocketChannel, @
         throw RuntimeException("av_frame_make_writable failed")
       }
 
-      sws_scale(getSwsContext(renderingFrame), decodingFrame.data(), decodingFrame.linesize(), 0, decodingFrame.height(),
+      sws_scale(getSwsContext(renderingFrame), convertingFrame.data(), convertingFrame.linesize(), 0, convertingFrame.height(),
                 renderingFrame.data(), renderingFrame.linesize())
 
       val numBytes = av_image_get_buffer_size(renderingFrame.format(), renderingFrame.width(), renderingFrame.height(), 1)
       val framePixels = renderingFrame.data().get().asByteBufferOfSize(numBytes).asIntBuffer()
-      val imageSize = Dimension(renderingFrame.width(), renderingFrame.height())
+      // The image isn't visible to the display until it is published below, so it can be filled without holding imageLock.
+      val image = imagePool.acquire(renderingFrame.width(), renderingFrame.height())
+      framePixels.get((image.raster.dataBuffer as DataBufferInt).data)
 
       synchronized(imageLock) {
-        var image = displayFrame?.image
-        if (image?.width == imageSize.width && image.height == imageSize.height) {
-          val imagePixels = (image.raster.dataBuffer as DataBufferInt).data
-          framePixels.get(imagePixels)
-        }
-        else {
-          val imagePixels = IntArray(imageSize.width * imageSize.height)
-          framePixels.get(imagePixels)
-          val buffer = DataBufferInt(imagePixels, imagePixels.size)
-          val sampleModel = SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, imageSize.width, imageSize.height, SAMPLE_MODEL_BIT_MASKS)
-          val raster = Raster.createWritableRaster(sampleModel, buffer, ZERO_POINT)
-          image = BufferedImage(COLOR_MODEL, raster, false, null)
-        }
-
+        displayFrame?.let { imagePool.release(it.image) }
         displayFrame = VideoFrame(image, header.displaySize, header.displayOrientation, header.displayOrientationCorrection,
                                   header.frameNumber.toInt(), header.originationTimestampUs / 1000)
+        displayFrameConsumed = false
+        displayFrameAvailableTime = System.nanoTime()
       }
 
       onNewFrameAvailable()
     }
 
     private fun getSwsContext(renderingFrame: AVFrame): SwsContext {
-      val context = sws_getCachedContext(swsContext, decodingFrame.width(), decodingFrame.height(), decodingFrame.format(),
+      val context = sws_getCachedContext(swsContext, convertingFrame.width(), convertingFrame.height(), convertingFrame.format(),
                                          renderingFrame.width(), renderingFrame.height(), renderingFrame.format(),
                                          SWS_BILINEAR, null, null, null as DoublePointer?) ?:
              throw VideoDecoderException("Could not allocate SwsContext")
@@ -399,6 +500,103 @@ internal class VideoDecoder(private val videoChannel: SuspendingSocketChannel, @
       private const val WIRE_SIZE = 4 + 4 + 4 + 4 + 8 + 8 + 8
     }
   }
+
+  /**
+   * Images of the size of the latest video frames, kept for reuse once they are no longer displayed. Since conversion waits for the
+   * display, no more than two images are in use at a time.
+   */
+  private class ImagePool {
+    @GuardedBy("this")
+    private val images = ArrayDeque<BufferedImage>()
+
+    @Synchronized
+    fun acquire(width: Int, height: Int): BufferedImage {
+      images.removeIf { it.width != width || it.height != height }
+      return images.removeLastOrNull() ?: createImage(width, height)
+    }
+
+    @Synchronized
+    fun release(image: BufferedImage) {
+      if (images.size < MAX_POOLED_IMAGES) {
+        images.addLast(image)
+      }
+    }
+
+    private fun createImage(width: Int, height: Int): BufferedImage {
+      val imagePixels = IntArray(width * height)
+      val buffer = DataBufferInt(imagePixels, imagePixels.size)
+      val sampleModel = SinglePixelPackedSampleModel(DataBuffer.TYPE_INT, width, height, SAMPLE_MODEL_BIT_MASKS)
+      val raster = Raster.createWritableRaster(sampleModel, buffer, ZERO_POINT)
+      return BufferedImage(COLOR_MODEL, raster, false, null)
+    }
+  }
+
+  private class Stats {
+    @GuardedBy("this")
+    private var data = Data()
+
+    @Synchronized
+    fun recordDecoding(nanos: Long) {
+      data.decodedFrameCount++
+      data.decodingTime.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos))
+    }
+
+    @Synchronized
+    fun recordSkippedFrame() {
+      data.skippedFrameCount++
+    }
+
+    @Synchronized
+    fun recordConversion(nanos: Long) {
+      data.conversionTime.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos))
+    }
+
+    @Synchronized
+    fun recordDisplay(nanos: Long) {
+      data.displayLatency.recordValue(TimeUnit.NANOSECONDS.toMicros(nanos))
+    }
+
+    suspend fun logPeriodically() {
+      while (true) {
+        delay(STATS_LOG_INTERVAL_MILLIS)
+        logAndReset()
+      }
+    }
+
+    fun logAndReset() {
+      getAndSetData(Data()).log()
+    }
+
+    @Synchronized
+    private fun getAndSetData(newData: Data): Data {
+      val oldData = data
+      data = newData
+      return oldData
+    }
+
+    private class Data {
+      var decodedFrameCount = 0
+      var skippedFrameCount = 0
+      val decodingTime = Histogram(1)
+      val conversionTime = Histogram(1)
+      val displayLatency = Histogram(1)
+      val collectionStart = System.currentTimeMillis()
+
+      fun log() {
+        if (decodedFrameCount != 0) {
+          val frameRate = String.format("%.2g", decodedFrameCount * 1000.0 / (System.currentTimeMillis() - collectionStart))
+          logger<VideoDecoder>().info("Decoded frames: $decodedFrameCount skipped conversions: $skippedFrameCount" +
+                                      " average frame rate: $frameRate\n" +
+                                      "decoding time: ${decodingTime.describe()}\n" +
+                                      "conversion time: ${conversionTime.describe()}\n" +
+                                      "display latency: ${displayLatency.describe()}")
+        }
+      }
+
+      private fun Histogram.describe(): String =
+        "median ${getValueAtPercentile(50.0)} µs, 90th percentile ${getValueAtPercentile(90.0)} µs, max $maxValue µs"
+    }
+  }
 }
 
 internal class VideoDecoderException(message: String) : RuntimeException(message)
@@ -411,6 +609,10 @@ private fun AVPacket.toDebugString(): String =
 
 private const val CHANNEL_HEADER_LENGTH = 20
 
+private const val MAX_POOLED_IMAGES = 2
+
+private val STATS_LOG_INTERVAL_MILLIS = StudioFlags.EMBEDDED_EMULATOR_STATISTICS_INTERVAL_SECONDS.get().toLong() * 1000
+
 private val ZERO_POINT = Point()
 private const val ALPHA_MASK = 0xFF shl 24
 private val SAMPLE_MODEL_BIT_MASKS = intArrayOf(0xFF0000, 0xFF00, 0xFF, ALPHA_MASK)
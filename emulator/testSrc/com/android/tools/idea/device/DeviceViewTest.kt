@@ -62,6 +62,7 @@ import java.nio.file.Path
 import java.util.concurrent.Executors
 import java.util.concurrent.ThreadPoolExecutor
 import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
 import javax.swing.JButton
 import javax.swing.JLabel
 import javax.swing.JScrollPane
@@ -414,6 +415,51 @@ internal class DeviceViewTest {
     assertThat(view.displayOrientationQuadrants).isEqualTo(0)
   }
 
+  @Test
+  fun testFramesDecodedWhileNotRenderingAreSkipped() {
+    if (!isFFmpegAvailableToTest()) {
+      return
+    }
+    createDeviceView(200, 300, 2.0)
+    waitForFrame()
+    val decoder = view.videoDecoder!!
+    val convertedFrames = AtomicInteger()
+    decoder.addFrameListener(object : VideoDecoder.FrameListener {
+      override fun onNewFrameAvailable() {
+        convertedFrames.incrementAndGet()
+      }
+
+      override fun onEndOfVideoStream() {}
+    })
+    val firstImage = consumeDisplayFrame(decoder).image
+
+    // The frame following one that was shown is converted right away.
+    runBlocking { agent.renderDisplay(1) }
+    val firstFrameNumber = agent.frameNumber
+    waitForCondition(2, TimeUnit.SECONDS) { convertedFrames.get() == 1 }
+
+    // The frames decoded while it isn't rendered replace each other without being converted.
+    runBlocking {
+      for (flavor in 2..4) {
+        agent.renderDisplay(flavor)
+      }
+    }
+    val lastFrameNumber = agent.frameNumber
+    waitForCondition(2, TimeUnit.SECONDS) { decoder.decodedFrameNumber == lastFrameNumber }
+    assertThat(convertedFrames.get()).isEqualTo(1)
+    val secondFrame = consumeDisplayFrame(decoder)
+    assertThat(secondFrame.frameNumber).isEqualTo(firstFrameNumber)
+    assertThat(secondFrame.image).isNotSameAs(firstImage)
+
+    // Consuming the first frame lets the latest one be converted, into the image that is no longer displayed.
+    waitForFrame()
+    assertThat(convertedFrames.get()).isEqualTo(2)
+    assertThat(view.frameNumber).isEqualTo(lastFrameNumber)
+    val thirdImage = consumeDisplayFrame(decoder).image
+    assertThat(thirdImage).isNotSameAs(secondFrame.image)
+    assertThat(thirdImage).isSameAs(firstImage)
+  }
+
   private fun createDeviceView(width: Int, height: Int, screenScale: Double = 2.0) {
     view = DeviceView(testRootDisposable, device.serialNumber, device.deviceState.cpuAbi, UNKNOWN_ORIENTATION, agentRule.project)
     fakeUi = FakeUi(wrapInScrollPane(view, width, height), screenScale)
@@ -433,6 +479,13 @@ internal class DeviceViewTest {
     ImageDiffUtil.assertImageSimilar(getGoldenFile(goldenImageName), image, 0.0)
   }
 
+  /** Consumes the display frame of [decoder] as rendering would, and returns it. */
+  private fun consumeDisplayFrame(decoder: VideoDecoder): VideoDecoder.VideoFrame {
+    var frame: VideoDecoder.VideoFrame? = null
+    decoder.consumeDisplayFrame { frame = it }
+    return frame!!
+  }
+
   private fun getGoldenFile(name: String): Path =
     TestUtils.resolveWorkspacePathUnchecked("${GOLDEN_FILE_PATH}/${name}.png")
 
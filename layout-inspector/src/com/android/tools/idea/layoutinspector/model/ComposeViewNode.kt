@@ -83,6 +83,14 @@ class RecompositionData(var count: Int, var skips: Int, var highlightCount: Floa
     highlightCount = maxOf(highlightCount, other.highlightCount)
   }
 
+  /**
+   * True if the recompositions of [node] reach one of these maximum numbers.
+   */
+  fun isReachedBy(node: ViewNode): Boolean {
+    val other = (node as? ComposeViewNode)?.recompositions ?: return false
+    return !other.isEmpty && (other.count >= count || other.skips >= skips || other.highlightCount >= highlightCount)
+  }
+
   fun update(newNumbers: RecompositionData) {
     if (StudioFlags.DYNAMIC_LAYOUT_INSPECTOR_ENABLE_RECOMPOSITION_HIGHLIGHTS.get()) {
       highlightCount += maxOf(0, newNumbers.count - count)
@@ -25,6 +25,8 @@ import com.android.tools.idea.layoutinspector.view.inspection.LayoutInspectorVie
 import com.android.tools.idea.util.ListenerCollection
 import com.google.wireless.android.sdk.stats.DynamicLayoutInspectorErrorInfo
 import com.intellij.openapi.project.Project
+import java.util.Collections
+import java.util.IdentityHashMap
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.Executors.newSingleThreadExecutor
 import java.util.concurrent.ScheduledExecutorService
@@ -63,6 +65,11 @@ class InspectorModel(val project: Project, private val scheduler: ScheduledExecu
 
   private val idLookup = ConcurrentHashMap<Long, ViewNode>()
 
+  /**
+   * The nodes of each window by drawId, as of the last [update] of the window, so that the next one doesn't have to collect them again.
+   */
+  private val windowNodes = mutableMapOf<Any, MutableMap<Long, ViewNode>>()
+
   override var selection: ViewNode? = null
     private set
 
@@ -230,8 +237,12 @@ class InspectorModel(val project: Project, private val scheduler: ScheduledExecu
       // Reset the recomposition counters if this is a new connection:
       resetRecompositionCounters()
     }
-    var structuralChange: Boolean = windows.keys.retainAll(allIds)
+    val windowsRemoved = windows.keys.retainAll(allIds)
+    windowNodes.keys.retainAll(allIds)
+    var structuralChange: Boolean = windowsRemoved
     val oldWindow = windows[newWindow?.id]
+    // The changes to apply to the existing tree, if the window is updated in place.
+    var updater: Updater? = null
     updating = true
     try {
       ViewNode.writeAccess {
@@ -243,6 +254,7 @@ class InspectorModel(val project: Project, private val scheduler: ScheduledExecu
           }
           else if (newWindow.root.drawId != oldWindow?.root?.drawId || newWindow.root.qualifiedName != oldWindow.root.qualifiedName) {
             windows[newWindow.id] = newWindow
+            windowNodes.remove(newWindow.id)
             structuralChange = true
             if (oldWindow == null) {
               // build draw tree on initial load of the window, so we can scale and scroll correctly.
@@ -253,8 +265,12 @@ class InspectorModel(val project: Project, private val scheduler: ScheduledExecu
           }
           else {
             oldWindow.copyFrom(newWindow)
-            val updater = Updater(oldWindow.root, newWindow.root, this)
-            structuralChange = updater.update() || structuralChange
+            val oldNodes = windowNodes.remove(newWindow.id)
+                           ?: oldWindow.root.flatten().filter { it.drawId != 0L }.associateByTo(HashMap()) { it.drawId }
+            updater = Updater(oldWindow.root, newWindow.root, oldNodes, this).also {
+              structuralChange = it.update() || structuralChange
+              windowNodes[newWindow.id] = it.newNodes
+            }
           }
         }
 
@@ -266,11 +282,29 @@ class InspectorModel(val project: Project, private val scheduler: ScheduledExecu
           hoveredNode = null
         }
         lastGeneration = generation
-        idLookup.clear()
-        val allNodes = root.flatten().toSet()
-        hiddenNodes.removeIf { !allNodes.contains(it) }
-        maxRecomposition.reset()
-        root.flatten().forEach { maxRecomposition.maxOf(it) }
+        val delta = updater?.takeIf { !windowsRemoved }
+        if (delta != null) {
+          // Only the nodes added or removed from the window need to be looked up or unhidden.
+          delta.removedNodes.forEach { idLookup.remove(it.drawId, it) }
+          if (idLookup.isNotEmpty()) {
+            delta.addedNodes.forEach { idLookup[it.drawId] = it }
+          }
+          hiddenNodes.removeAll(delta.removedNodes.toSet())
+        }
+        else {
+          idLookup.clear()
+          val allNodes = root.flatten().toSet()
+          hiddenNodes.removeIf { !allNodes.contains(it) }
+        }
+        if (delta == null || delta.recompositionsLowered || delta.removedNodes.any { maxRecomposition.isReachedBy(it) }) {
+          maxRecomposition.reset()
+          root.flatten().forEach { maxRecomposition.maxOf(it) }
+        }
+        else {
+          // The maximum can only have grown, from the nodes whose recompositions were added or changed.
+          delta.addedNodes.forEach { maxRecomposition.maxOf(it) }
+          delta.recomposedNodes.forEach { maxRecomposition.maxOf(it) }
+        }
         if (StudioFlags.DYNAMIC_LAYOUT_INSPECTOR_ENABLE_RECOMPOSITION_HIGHLIGHTS.get() &&
             scheduler != null && maxHighlight < maxRecomposition.highlightCount) {
           if (maxHighlight == 0f) {
@@ -279,7 +313,11 @@ class InspectorModel(val project: Project, private val scheduler: ScheduledExecu
           maxHighlight = maxRecomposition.highlightCount
         }
       }
-      root.calculateTransitiveBounds()
+      when (val delta = updater?.takeIf { !windowsRemoved }) {
+        null -> root.calculateTransitiveBounds()
+        // The children of the synthetic root are set again on each update.
+        else -> root.calculateTransitiveBounds(delta.dirtyNodes.apply { add(root) })
+      }
     }
     finally {
       updating = false
@@ -292,6 +330,7 @@ class InspectorModel(val project: Project, private val scheduler: ScheduledExecu
   private fun decreaseHighlights() {
     ViewNode.writeAccess {
       val max = root.flatten().filterIsInstance<ComposeViewNode>().maxOfOrNull { it.recompositions.decreaseHighlights() } ?: 0f
+      maxRecomposition.highlightCount = max
       if (max != 0f) {
         scheduler?.schedule(::decreaseHighlights, DECREASE_DELAY, DECREASE_TIMEUNIT)
       } else {
@@ -365,20 +404,59 @@ class InspectorModel(val project: Project, private val scheduler: ScheduledExecu
 
   /**
    * Used to update the model when the view changes on the device.
+   *
+   * The existing nodes are found by drawId in [oldNodes], the index kept from the previous update of the window, so the old tree doesn't
+   * have to be walked. The nodes added, removed and changed by the update are recorded, so the model can refresh only those.
    */
   private class Updater(
     private val oldRoot: ViewNode,
     private val newRoot: ViewNode,
+    private val oldNodes: MutableMap<Long, ViewNode>,
     private val access: ViewNode.WriteAccess
   ) {
-    private val oldNodes = access.run {
-      oldRoot.flatten().filter { it.drawId != 0L }.associateByTo(mutableMapOf()) { it.drawId }
-    }
+    /**
+     * The nodes of the updated tree by drawId, to be used as [oldNodes] by the next update.
+     */
+    val newNodes = HashMap<Long, ViewNode>(oldNodes.size)
+
+    /**
+     * The nodes taken from the new tree, the descendants of added subtrees included.
+     */
+    val addedNodes = mutableListOf<ViewNode>()
+
+    /**
+     * The nodes of the old tree that are no longer part of it.
+     */
+    val removedNodes = mutableListOf<ViewNode>()
+
+    /**
+     * The existing compose nodes whose recompositions changed.
+     */
+    val recomposedNodes = mutableListOf<ViewNode>()
+
+    /**
+     * True if the recomposition counts of an existing node went down, so the maximum may have to be recomputed.
+     */
+    var recompositionsLowered = false
+
+    /**
+     * The nodes that were added, moved, or whose bounds or children changed, and all their ancestors.
+     */
+    val dirtyNodes: MutableSet<ViewNode> = Collections.newSetFromMap(IdentityHashMap())
 
     fun update(): Boolean {
       return access.run {
+        oldNodes.remove(oldRoot.drawId, oldRoot)
         val modified = update(oldRoot, oldRoot.parent, newRoot)
         oldNodes.values.forEach { it.parent = null }
+        removedNodes.addAll(oldNodes.values)
+        oldNodes.values.forEach { removeUnindexed(it.children) }
+        for (node in dirtyNodes.toList()) {
+          var ancestor = node.parent
+          while (ancestor != null && dirtyNodes.add(ancestor)) {
+            ancestor = ancestor.parent
+          }
+        }
         modified
       }
     }
@@ -389,6 +467,9 @@ class InspectorModel(val project: Project, private val scheduler: ScheduledExecu
      */
     private fun ViewNode.WriteAccess.update(oldNode: ViewNode, parent: ViewNode?, newNode: ViewNode): Boolean {
       var modified = (parent != oldNode.parent) || !sameChildren(oldNode, newNode)
+      if (modified || oldNode.renderBounds != newNode.renderBounds) {
+        dirtyNodes.add(oldNode)
+      }
       // TODO: should changes below cause modified to be set to true?
       // Maybe each view should have its own modification listener that can listen for such changes?
       oldNode.layoutBounds = newNode.layoutBounds
@@ -403,9 +484,19 @@ class InspectorModel(val project: Project, private val scheduler: ScheduledExecu
         oldNode.composeOffset = newNode.composeOffset
         oldNode.composeLineNumber = newNode.composeLineNumber
         oldNode.composeFlags = newNode.composeFlags
-        oldNode.recompositions.update(newNode.recompositions)
+        val old = oldNode.recompositions
+        val count = old.count
+        val skips = old.skips
+        val highlightCount = old.highlightCount
+        old.update(newNode.recompositions)
+        if (old.count != count || old.skips != skips || old.highlightCount != highlightCount) {
+          recomposedNodes.add(oldNode)
+          recompositionsLowered = recompositionsLowered || old.count < count || old.skips < skips
+        }
       }
 
+      // The children without drawId are never matched by the new tree, so they are removed here.
+      removeUnindexed(oldNode.children)
       oldNode.children.clear()
       // Don't update or clear the drawChildren at this point. They will be refreshed by a listener after the update is complete,
       // and we can continue using the old ones for view sizing calculations until that happens.
@@ -413,19 +504,46 @@ class InspectorModel(val project: Project, private val scheduler: ScheduledExecu
       for (newChild in newNode.children) {
         val oldChild = oldNodes[newChild.drawId]
         if (oldChild != null && oldChild.javaClass == newChild.javaClass) {
+          oldNodes.remove(newChild.drawId)
           modified = update(oldChild, oldNode, newChild) || modified
           oldNode.children.add(oldChild)
-          oldNodes.remove(newChild.drawId)
         }
         else {
           modified = true
           oldNode.children.add(newChild)
           newChild.parent = oldNode
+          add(newChild)
         }
       }
+      // Indexed after the children, as flatten() would, so a node shadows its descendants with the same drawId.
+      if (oldNode.drawId != 0L) {
+        newNodes[oldNode.drawId] = oldNode
+      }
       return modified
     }
 
+    private fun ViewNode.WriteAccess.add(subtree: ViewNode) {
+      for (node in subtree.flatten()) {
+        addedNodes.add(node)
+        dirtyNodes.add(node)
+        if (node.drawId != 0L) {
+          newNodes[node.drawId] = node
+        }
+      }
+    }
+
+    /**
+     * Records the nodes without drawId among [children], and their descendants without drawId, as removed. They are not in [oldNodes].
+     */
+    private fun ViewNode.WriteAccess.removeUnindexed(children: List<ViewNode>) {
+      for (child in children) {
+        if (child.drawId == 0L) {
+          removedNodes.add(child)
+          removeUnindexed(child.children)
+        }
+      }
+    }
+
     private fun ViewNode.WriteAccess.sameChildren(oldNode: ViewNode?, newNode: ViewNode?): Boolean {
       if (oldNode?.children?.size != newNode?.children?.size) {
         return false
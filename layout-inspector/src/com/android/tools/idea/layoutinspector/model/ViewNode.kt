@@ -144,8 +144,24 @@ open class ViewNode(
   /**
    * Create a sequence of the sub tree starting with the current ViewNode (Post-order, LRN, or order doesn't matter)
    */
-  private fun flatten(): Sequence<ViewNode> {
-    return children.asSequence().flatMap { it.flatten() }.plus(this)
+  private fun flatten(): Sequence<ViewNode> = sequence {
+    // Walked with an explicit stack, since nesting a sequence per level makes each node cost as many steps as its depth.
+    val nodes = mutableListOf(this@ViewNode)
+    val nextChildIndices = mutableListOf(0)
+    while (nodes.isNotEmpty()) {
+      val node = nodes.last()
+      val index = nextChildIndices.last()
+      if (index < node.children.size) {
+        nextChildIndices[nextChildIndices.size - 1] = index + 1
+        nodes.add(node.children[index])
+        nextChildIndices.add(0)
+      }
+      else {
+        nodes.removeLast()
+        nextChildIndices.removeLast()
+        yield(node)
+      }
+    }
   }
 
   @TestOnly
@@ -155,8 +171,15 @@ open class ViewNode(
   /**
    * Create a sequence of the sub tree starting with the current ViewNode (Pre-order, LRN)
    */
-  private fun preOrderFlatten(): Sequence<ViewNode> {
-    return sequenceOf(this).plus(children.asSequence().flatMap { it.preOrderFlatten() })
+  private fun preOrderFlatten(): Sequence<ViewNode> = sequence {
+    val stack = mutableListOf(this@ViewNode)
+    while (stack.isNotEmpty()) {
+      val node = stack.removeLast()
+      yield(node)
+      for (i in node.children.indices.reversed()) {
+        stack.add(node.children[i])
+      }
+    }
   }
 
   /**
@@ -165,13 +188,31 @@ open class ViewNode(
    */
   fun calculateTransitiveBounds() {
     readAccess {
-      flatten().forEach {
-        it.transitiveBounds = it.children.map(ViewNode::transitiveBounds).plus(it.renderBounds.bounds)
-          .reduce { r1, r2 -> r1.union(r2) }
+      flatten().forEach { it.updateTransitiveBounds() }
+    }
+  }
+
+  /**
+   * Recalculate the transitive bounds of the nodes under this one that are in [dirtyNodes], keeping the bounds of all others. The
+   * ancestors of each dirty node must be dirty too.
+   */
+  fun calculateTransitiveBounds(dirtyNodes: Set<ViewNode>) {
+    readAccess {
+      if (this@ViewNode in dirtyNodes) {
+        calculateDirtyTransitiveBounds(dirtyNodes)
       }
     }
   }
 
+  private fun calculateDirtyTransitiveBounds(dirtyNodes: Set<ViewNode>) {
+    children.forEach { if (it in dirtyNodes) it.calculateDirtyTransitiveBounds(dirtyNodes) }
+    updateTransitiveBounds()
+  }
+
+  private fun updateTransitiveBounds() {
+    transitiveBounds = children.map(ViewNode::transitiveBounds).plus(renderBounds.bounds).reduce { r1, r2 -> r1.union(r2) }
+  }
+
   /**
    * Interface used for traversing the [ViewNode] tree with a read lock. See [readAccess].
    * This interface provides a limited access view of a [ViewNode],
@@ -44,7 +44,8 @@ class AppInspectionTreeLoader(
         resourceLookup,
         process,
         data.composeEvent,
-        logEvent
+        logEvent,
+        data.loadScreenshot
       )
       val window = treeLoader.loadComponentTree()
       return ComponentTreeData(window, data.generation, treeLoader.dynamicCapabilities)
@@ -15,11 +15,31 @@
  */
 package com.android.tools.idea.layoutinspector.pipeline.appinspection
 
-import com.android.tools.idea.concurrency.AndroidDispatchers
+import com.android.tools.idea.concurrency.AndroidCoroutineScope
 import com.android.tools.idea.layoutinspector.model.InspectorModel
 import com.android.tools.idea.layoutinspector.model.ViewNode
-import kotlinx.coroutines.withContext
+import com.intellij.openapi.Disposable
+import com.intellij.openapi.diagnostic.Logger
+import kotlinx.coroutines.CancellationException
+import kotlinx.coroutines.CoroutineStart
+import kotlinx.coroutines.Deferred
+import kotlinx.coroutines.Job
+import kotlinx.coroutines.async
+import kotlinx.coroutines.isActive
+import kotlinx.coroutines.launch
 import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicInteger
+
+/**
+ * The default budget of a [ViewNodeCache], in units of [ViewNodeCache.weigh], which is the number of properties for the subclasses here.
+ */
+const val DEFAULT_CACHE_MAX_WEIGHT = 200_000
+
+/**
+ * The max number of nodes fetched ahead of time each time the data of a node is requested. Each is a round-trip to the device, which
+ * handles one request at a time, so this is kept to about the nodes that are selected next.
+ */
+private const val MAX_PREFETCH_COUNT = 5
 
 /**
  * A base class for caching data associated with [ViewNode] that is additionally nested within a
@@ -27,12 +47,22 @@ import java.util.concurrent.ConcurrentHashMap
  * as well).
  *
  * This class also encapsulates the idea of fetching data from the device if it's not found locally.
+ * When the data of a node is requested, the data of its parent, siblings and further ancestors is
+ * fetched in the background as well, since those are likely to be requested next.
+ *
+ * The data fetched from the device is kept within a budget of [maxWeight], and the least recently
+ * used data is dropped first, since it can be fetched again. Data set explicitly with [setDataFor]
+ * is never dropped this way.
+ *
+ * Fetches run in a scope of the cache, so disposing of the cache, e.g. when its client disconnects,
+ * cancels the fetches in flight.
  *
  * @param D The type of cached data.
  */
 abstract class ViewNodeCache<D>(
-  protected val model: InspectorModel
-) {
+  protected val model: InspectorModel,
+  private val maxWeight: Int = DEFAULT_CACHE_MAX_WEIGHT
+) : Disposable {
 
   /**
    * If true, allow fetching data from the device if we don't have it in our local cache.
@@ -42,15 +72,35 @@ abstract class ViewNodeCache<D>(
    */
   var allowFetching = false
 
-  // Specifically, this is a Map<RootId, Map<ViewId, Data>>()
-  // Occasionally, roots are discarded, so we can drop whole branches of cached data in that case.
-  private val cache: MutableMap<Long, ConcurrentHashMap<Long, D>> = ConcurrentHashMap()
+  private data class Key(val rootId: Long, val viewId: Long)
+
+  private class Entry<T>(val data: T, val weight: Int, val evictable: Boolean)
+
+  // In access order, so that the least recently used data comes first. Guarded by itself.
+  private val cache = LinkedHashMap<Key, Entry<*>>(16, 0.75f, true)
+  private var evictableWeight = 0
+
+  // The generation of each root, replaced each time its data is cleared, so data fetched before isn't cached.
+  private val generations = ConcurrentHashMap<Long, Int>()
+  private val lastGeneration = AtomicInteger()
+
+  private val pendingFetches = ConcurrentHashMap<Key, Deferred<D?>>()
+
+  @Volatile
+  private var prefetchJob: Job? = null
+
+  private val scope = AndroidCoroutineScope(this)
+
+  override fun dispose() {
+    allowFetching = false
+  }
 
   /**
    * Remove all nested data for views that are children to [rootId].
    */
   fun clearFor(rootId: Long) {
-    cache.remove(rootId)
+    generations[rootId] = lastGeneration.incrementAndGet()
+    removeIf { it.rootId == rootId }
   }
 
   /**
@@ -59,7 +109,8 @@ abstract class ViewNodeCache<D>(
    * This is a useful method to call when an old root window is removed.
    */
   fun retain(rootIdsToKeep: Iterable<Long>) {
-    cache.keys.removeAll { rootId -> !rootIdsToKeep.contains(rootId) }
+    generations.keys.removeAll { rootId -> !rootIdsToKeep.contains(rootId) }
+    removeIf { !rootIdsToKeep.contains(it.rootId) }
   }
 
   /**
@@ -72,31 +123,132 @@ abstract class ViewNodeCache<D>(
    */
   suspend fun getDataFor(node: ViewNode): D? {
     val root = model.rootFor(node) ?: return null // Unrooted nodes are not supported
-    val cached = cache[root.drawId]?.get(node.drawId)
-    if (cached != null) {
-      return cached
-    }
+    val cached = getCachedDataFor(root.drawId, node.drawId)
 
     // Don't update the cache if we're not actively communicating with the inspector. Otherwise,
     // we might override values with those that don't match our last snapshot.
-    if (!allowFetching) return null
+    if (!allowFetching || !scope.isActive) return cached
 
-    return withContext(AndroidDispatchers.workerThread) {
-      val data = fetchDataFor(root, node)
-      if (data != null) {
-        setDataFor(root.drawId, node.drawId, data)
-      }
-      data
+    val data = cached ?: try {
+      fetch(root, node).await()
+    }
+    catch (ex: CancellationException) {
+      // The cache was disposed while fetching, rather than the caller cancelled.
+      if (scope.isActive) throw ex else return null
     }
+    // Prefetch once the requested data is back, since the device handles one request at a time.
+    return data.also { prefetchAround(root, node) }
   }
 
+  @Suppress("UNCHECKED_CAST")
   fun getCachedDataFor(rootId: Long, composeId: Long): D? =
-    cache[rootId]?.get(composeId)
+    synchronized(cache) { cache[Key(rootId, composeId)]?.data as D? }
 
   protected abstract suspend fun fetchDataFor(root: ViewNode, node: ViewNode): D?
 
+  /**
+   * Returns true if the data of [node] can be fetched with [fetchDataFor]. Only those nodes are prefetched.
+   */
+  protected open fun canFetch(node: ViewNode): Boolean = true
+
+  /**
+   * Returns an estimate of the memory used by [data], in the units of the budget of this cache.
+   */
+  protected open fun weigh(data: D): Int = 1
+
   protected fun setDataFor(rootId: Long, viewId: Long, data: D) {
-    val innerMap = cache.computeIfAbsent(rootId) { ConcurrentHashMap() }
-    innerMap[viewId] = data
+    put(Key(rootId, viewId), Entry(data, weigh(data), evictable = false))
+  }
+
+  /**
+   * Fetches the data of [node] in the background, or returns the fetch already in progress.
+   */
+  private fun fetch(root: ViewNode, node: ViewNode): Deferred<D?> {
+    val key = Key(root.drawId, node.drawId)
+    val generation = generations.computeIfAbsent(root.drawId) { lastGeneration.incrementAndGet() }
+    val fetch = pendingFetches.computeIfAbsent(key) {
+      // Started once in the map, so that it can't complete and be removed before it is added.
+      scope.async(start = CoroutineStart.LAZY) {
+        val data = fetchDataFor(root, node)
+        if (data != null && generations[root.drawId] == generation) {
+          put(key, Entry(data, weigh(data), evictable = true))
+        }
+        data
+      }
+    }
+    fetch.invokeOnCompletion { pendingFetches.remove(key, fetch) }
+    fetch.start()
+    return fetch
+  }
+
+  /**
+   * Fetches the data of the parent, the siblings and the other ancestors of [node] that isn't cached yet, one at a time, replacing the
+   * prefetch started for the previous request.
+   */
+  private fun prefetchAround(root: ViewNode, node: ViewNode) {
+    val nodes = ViewNode.readAccess {
+      val ancestors = node.parentSequence.drop(1).takeWhile { it !== root.parent }
+      val siblings = node.parent?.takeIf { node !== root }?.children?.asSequence().orEmpty()
+      (ancestors.take(1) + siblings + ancestors.drop(1))
+        .filter { it !== node && it.drawId != 0L && canFetch(it) && getCachedDataFor(root.drawId, it.drawId) == null }
+        .take(MAX_PREFETCH_COUNT)
+        .toList()
+    }
+    prefetchJob?.cancel()
+    prefetchJob = scope.launch {
+      for (neighbor in nodes) {
+        if (!allowFetching) {
+          break
+        }
+        if (getCachedDataFor(root.drawId, neighbor.drawId) == null) {
+          try {
+            fetch(root, neighbor).await()
+          }
+          catch (ex: CancellationException) {
+            throw ex
+          }
+          catch (ex: Exception) {
+            Logger.getInstance(ViewNodeCache::class.java).debug(ex)
+          }
+        }
+      }
+    }
+  }
+
+  private fun put(key: Key, entry: Entry<D>) {
+    synchronized(cache) {
+      subtractWeight(cache.put(key, entry))
+      if (entry.evictable) {
+        evictableWeight += entry.weight
+        val iterator = cache.values.iterator()
+        while (evictableWeight > maxWeight && iterator.hasNext()) {
+          val eldest = iterator.next()
+          if (eldest.evictable && eldest !== entry) {
+            iterator.remove()
+            subtractWeight(eldest)
+          }
+        }
+      }
+    }
+  }
+
+  private fun removeIf(predicate: (Key) -> Boolean) {
+    synchronized(cache) {
+      val iterator = cache.entries.iterator()
+      while (iterator.hasNext()) {
+        val (key, entry) = iterator.next()
+        if (predicate(key)) {
+          iterator.remove()
+          subtractWeight(entry)
+        }
+      }
+    }
+  }
+
+  // Accounts for the removal of an entry, called with the lock of the cache held.
+  private fun subtractWeight(entry: Entry<*>?) {
+    if (entry?.evictable == true) {
+      evictableWeight -= entry.weight
+    }
   }
 }
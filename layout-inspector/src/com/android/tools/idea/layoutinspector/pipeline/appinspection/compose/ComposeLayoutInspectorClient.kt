@@ -37,6 +37,7 @@ import com.android.tools.idea.layoutinspector.tree.TreeSettings
 import com.android.tools.idea.layoutinspector.ui.InspectorBannerService
 import com.google.common.annotations.VisibleForTesting
 import com.google.wireless.android.sdk.stats.DynamicLayoutInspectorErrorInfo.AttachErrorState
+import com.intellij.openapi.util.Disposer
 import com.intellij.util.text.nullize
 import kotlinx.coroutines.cancel
 import layoutinspector.compose.inspection.LayoutInspectorComposeProtocol.Command
@@ -253,6 +254,7 @@ class ComposeLayoutInspectorClient(
 
   fun disconnect() {
     messenger.scope.cancel()
+    Disposer.dispose(parametersCache)
   }
 }
 
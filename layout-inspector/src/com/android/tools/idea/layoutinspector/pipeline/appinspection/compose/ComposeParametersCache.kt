@@ -38,13 +38,34 @@ const val MAX_INITIAL_ITERABLE_SIZE = 5
 
 /**
  * Cache of compose parameters, to avoid expensive refetches when possible.
+ *
+ * The parameters are fetched from the [client] if there is one, or else read with [loadParameters] for a whole window at a time, e.g.
+ * from a snapshot.
  */
 class ComposeParametersCache(
   private val client: ComposeLayoutInspectorClient?,
-  model: InspectorModel
+  model: InspectorModel,
+  private val loadParameters: ((rootId: Long) -> GetAllParametersResponse?)? = null
 ) : ViewNodeCache<ComposeParametersData>(model), ViewNodeAndResourceLookup by model {
 
+  // The windows read with loadParameters. Guarded by itself.
+  private val loadedWindows = mutableSetOf<Long>()
+
+  override fun canFetch(node: ViewNode) = node is ComposeViewNode
+
+  override fun weigh(data: ComposeParametersData) = data.parameters.size
+
   override suspend fun fetchDataFor(root: ViewNode, node: ViewNode): ComposeParametersData? {
+    if (client == null && loadParameters != null) {
+      synchronized(loadedWindows) {
+        // A node without parameters in a window already read has none to read either.
+        if (!loadedWindows.contains(root.drawId)) {
+          loadParameters.invoke(root.drawId)?.let { setAllFrom(it) }
+          loadedWindows.add(root.drawId)
+        }
+      }
+      return getCachedDataFor(root.drawId, node.drawId)
+    }
     val anchorHash = (node as? ComposeViewNode)?.anchorHash ?: 0
     val response = client?.getParameters(root.drawId, node.drawId, anchorHash) ?: return null
     return if (response != GetParametersResponse.getDefaultInstance()) {
@@ -101,7 +122,7 @@ class ComposeParametersCache(
     callback: (ParameterGroupItem?, PTableGroupModification?) -> Unit
   ) {
     val cachedParameter = lookupInCache(rootId, reference)
-    if ((cachedParameter != null && cachedParameter.lastRealChildReferenceIndex >= startIndex) || !allowFetching) {
+    if ((cachedParameter != null && cachedParameter.lastRealChildReferenceIndex >= startIndex) || !allowFetching || client == null) {
       return callback(cachedParameter, null)
     }
 
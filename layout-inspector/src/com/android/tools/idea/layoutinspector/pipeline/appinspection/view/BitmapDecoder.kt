@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.layoutinspector.pipeline.appinspection.view
+
+import com.android.annotations.concurrency.Slow
+import com.android.tools.layoutinspector.BITMAP_HEADER_SIZE
+import com.android.tools.layoutinspector.BitmapType
+import com.android.tools.layoutinspector.toInt
+import java.awt.image.BufferedImage
+import java.nio.ByteBuffer
+import java.util.zip.CRC32
+import java.util.zip.DataFormatException
+import java.util.zip.Inflater
+
+/**
+ * Decodes the compressed bitmap screenshots of a window, as sent by the view inspector.
+ *
+ * The inflater, the buffer the pixels are inflated into and two images are kept from one screenshot to the next. A returned image is never
+ * modified afterwards: when a screenshot has the size and type of the previous one, only the rows that changed since the image before it
+ * are copied into that older image, which is then returned, and the two images swap roles. Decoding the same bytes twice, e.g. when images
+ * are refreshed after a zoom change, returns the previous image without inflating anything.
+ */
+class BitmapDecoder {
+  private val inflater = Inflater()
+  private val header = ByteArray(BITMAP_HEADER_SIZE)
+  private val crc = CRC32()
+  private var pixels = ByteArray(0)
+  private var image: BufferedImage? = null
+  private var rowChecksums = IntArray(0)
+  private var spareImage: BufferedImage? = null
+  private var spareRowChecksums = IntArray(0)
+  private var bitmapType: BitmapType? = null
+  private var decodedBytes: ByteArray? = null
+
+  @Volatile
+  private var latestBytes: ByteArray? = null
+
+  /**
+   * Returns the image of the screenshot in [bytes], or null if decoding was abandoned, either because [isInterrupted] returned true or
+   * because a newer screenshot was given to this decoder meanwhile.
+   *
+   * The returned image is not modified by later calls. The image returned before it may be reused by the next call, so it must no longer
+   * be in use once this call returns.
+   */
+  @Slow
+  fun decode(bytes: ByteArray, isInterrupted: () -> Boolean = { false }): BufferedImage? {
+    latestBytes = bytes
+    synchronized(this) {
+      if (bytes === decodedBytes) {
+        return image
+      }
+      val isStale = { isInterrupted() || latestBytes !== bytes }
+      inflater.reset()
+      inflater.setInput(bytes)
+      if (!inflate(header, header.size, isStale)) {
+        return null
+      }
+      val width = header.toInt()
+      val height = header.sliceArray(4..7).toInt()
+      val type = BitmapType.fromByteVal(header[8])
+      val rowSize = width * type.pixelSize
+      if (pixels.size < rowSize * height) {
+        pixels = ByteArray(rowSize * height)
+      }
+      if (!inflate(pixels, rowSize * height, isStale)) {
+        // The images and the row checksums are left as they were, only the buffer was overwritten.
+        return null
+      }
+
+      val checksums = IntArray(height) { row ->
+        crc.reset()
+        crc.update(pixels, row * rowSize, rowSize)
+        crc.value.toInt()
+      }
+      val previousImage = image
+      if (previousImage == null || previousImage.width != width || previousImage.height != height || type != bitmapType) {
+        image = type.createImage(ByteBuffer.wrap(pixels, 0, rowSize * height), width, height)
+        spareImage = null
+        bitmapType = type
+      }
+      else if (!checksums.contentEquals(rowChecksums)) {
+        val spare = spareImage
+        image = if (spare == null) {
+          type.createImage(ByteBuffer.wrap(pixels, 0, rowSize * height), width, height)
+        }
+        else {
+          // The spare image holds the screenshot before the previous one, so the rows changed since then are copied.
+          val firstRow = checksums.indices.firstOrNull { checksums[it] != spareRowChecksums[it] }
+          if (firstRow != null) {
+            val lastRow = checksums.indices.last { checksums[it] != spareRowChecksums[it] }
+            val rows = lastRow - firstRow + 1
+            val changed = type.createImage(ByteBuffer.wrap(pixels, firstRow * rowSize, rows * rowSize), width, rows)
+            spare.raster.setRect(0, firstRow, changed.raster)
+          }
+          spare
+        }
+        spareImage = previousImage
+        spareRowChecksums = rowChecksums
+      }
+      rowChecksums = checksums
+      decodedBytes = bytes
+      return image
+    }
+  }
+
+  /**
+   * Inflates exactly [size] bytes into [buffer], checking [isStale] between chunks. Returns false if decoding should be abandoned.
+   */
+  private fun inflate(buffer: ByteArray, size: Int, isStale: () -> Boolean): Boolean {
+    var offset = 0
+    while (offset < size) {
+      if (isStale()) {
+        return false
+      }
+      val count = inflater.inflate(buffer, offset, minOf(size - offset, CHUNK_SIZE))
+      if (count <= 0 && (inflater.finished() || inflater.needsInput())) {
+        throw DataFormatException("Bitmap data ended after $offset of $size bytes")
+      }
+      offset += count
+    }
+    return true
+  }
+
+  private companion object {
+    const val CHUNK_SIZE = 1 shl 20
+  }
+}
@@ -30,26 +30,22 @@ import com.android.tools.idea.layoutinspector.skia.SkiaParser
 import com.android.tools.idea.layoutinspector.skia.UnsupportedPictureVersionException
 import com.android.tools.idea.layoutinspector.ui.InspectorBannerService
 import com.android.tools.idea.layoutinspector.view.inspection.LayoutInspectorViewProtocol
-import com.android.tools.layoutinspector.BITMAP_HEADER_SIZE
-import com.android.tools.layoutinspector.BitmapType
 import com.android.tools.layoutinspector.InvalidPictureException
 import com.android.tools.layoutinspector.LayoutInspectorUtils
 import com.android.tools.layoutinspector.SkiaViewNode
-import com.android.tools.layoutinspector.toInt
 import com.google.wireless.android.sdk.stats.DynamicLayoutInspectorEvent.DynamicLayoutInspectorEventType
 import com.intellij.openapi.diagnostic.Logger
 import com.intellij.openapi.project.Project
 import java.awt.Rectangle
 import java.awt.geom.Ellipse2D
-import java.io.ByteArrayOutputStream
-import java.nio.ByteBuffer
-import java.util.zip.Inflater
 
 /**
  * An [AndroidWindow] used by the app inspection view inspector.
  *
  * @param isInterrupted A callback which will be called occasionally. If it ever returns true, we
  *    will abort our image processing at the earliest chance.
+ * @param loadScreenshot Returns the bytes of the screenshot. Only called when the images are first
+ *    refreshed, so that snapshots read screenshots from disk only when they are shown.
  */
 class ViewAndroidWindow(
   private val project: Project,
@@ -58,10 +54,14 @@ class ViewAndroidWindow(
   private val event: LayoutInspectorViewProtocol.LayoutEvent,
   folderConfiguration: FolderConfiguration,
   private val isInterrupted: () -> Boolean,
-  private val logEvent: (DynamicLayoutInspectorEventType) -> Unit)
+  private val logEvent: (DynamicLayoutInspectorEventType) -> Unit,
+  loadScreenshot: () -> ByteArray = { event.screenshot.bytes.toByteArray() })
   : AndroidWindow(root, root.drawId, event.screenshot.type.toImageType()) {
 
-  private var bytes = event.screenshot.bytes.toByteArray()
+  private var screenshot = lazy(loadScreenshot)
+
+  // Kept when the window is updated with copyFrom, so that each screenshot can reuse the buffers and images of the previous ones.
+  private val bitmapDecoder = BitmapDecoder()
 
   override val deviceClip =
     if (folderConfiguration.screenRoundQualifier?.value == ScreenRound.ROUND) {
@@ -78,25 +78,27 @@ class ViewAndroidWindow(
   override fun copyFrom(other: AndroidWindow) {
     super.copyFrom(other)
     if (other is ViewAndroidWindow) {
-      bytes = other.bytes
+      screenshot = other.screenshot
     }
   }
 
   @Slow
   override fun refreshImages(scale: Double) {
-    if (bytes.isNotEmpty()) {
-      try {
-        when (imageType) {
-          ImageType.BITMAP_AS_REQUESTED -> processBitmap(bytes)
-          ImageType.SKP, ImageType.SKP_PENDING -> processSkp(bytes, skiaParser, project, scale)
-          else -> logEvent(DynamicLayoutInspectorEventType.INITIAL_RENDER_NO_PICTURE) // Shouldn't happen
-        }
+    try {
+      val bytes = screenshot.value
+      if (bytes.isEmpty()) {
+        return
       }
-      catch (ex: Exception) {
-        // TODO: it seems like grpc can run out of memory landing us here. We should check for that.
-        Logger.getInstance(LayoutInspector::class.java).warn(ex)
+      when (imageType) {
+        ImageType.BITMAP_AS_REQUESTED -> processBitmap(bytes)
+        ImageType.SKP, ImageType.SKP_PENDING -> processSkp(bytes, skiaParser, project, scale)
+        else -> logEvent(DynamicLayoutInspectorEventType.INITIAL_RENDER_NO_PICTURE) // Shouldn't happen
       }
     }
+    catch (ex: Exception) {
+      // TODO: it seems like grpc can run out of memory landing us here. We should check for that.
+      Logger.getInstance(LayoutInspector::class.java).warn(ex)
+    }
   }
 
   private fun processSkp(
@@ -133,23 +135,8 @@ class ViewAndroidWindow(
   }
 
   private fun processBitmap(bytes: ByteArray) {
-    val inf = Inflater().also { it.setInput(bytes) }
-    val baos = ByteArrayOutputStream()
-    val buffer = ByteArray(4096)
-    while (!inf.finished()) {
-      val count = inf.inflate(buffer)
-      if (count <= 0) {
-        break
-      }
-      baos.write(buffer, 0, count)
-    }
-
-    val inflatedBytes = baos.toByteArray()
-    val width = inflatedBytes.toInt()
-    val height = inflatedBytes.sliceArray(4..7).toInt()
-    val bitmapType = BitmapType.fromByteVal(inflatedBytes[8])
-    val image = bitmapType.createImage(ByteBuffer.wrap(inflatedBytes, BITMAP_HEADER_SIZE, inflatedBytes.size - BITMAP_HEADER_SIZE), width,
-                                       height)
+    // Dropped if a newer screenshot is being decoded, in which case it will refresh the draw children instead.
+    val image = bitmapDecoder.decode(bytes, isInterrupted) ?: return
 
     ViewNode.writeAccess {
       root.flatten().forEach { it.drawChildren.clear() }
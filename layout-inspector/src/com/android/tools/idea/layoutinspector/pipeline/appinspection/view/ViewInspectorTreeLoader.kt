@@ -38,6 +38,7 @@ class ViewInspectorTreeLoader(
   private val process: ProcessDescriptor,
   composeResult: GetComposablesResult?,
   private val logEvent: (DynamicLayoutInspectorEventType) -> Unit,
+  private val loadScreenshot: (() -> ByteArray)? = null,
 ) {
   private var folderConfig = LayoutInspectorViewProtocol.Configuration.getDefaultInstance().convert(1)
 
@@ -64,6 +65,7 @@ class ViewInspectorTreeLoader(
       resourceLookup.updateConfiguration(folderConfig, configuration.fontScale, appContext.convert(), viewNodeCreator.strings, process)
     }
     val rootView = viewNodeCreator.createRootViewNode { isInterrupted } ?: return null
-    return ViewAndroidWindow(project, skiaParser, rootView, viewEvent, folderConfig, { isInterrupted }, logEvent)
+    return ViewAndroidWindow(project, skiaParser, rootView, viewEvent, folderConfig, { isInterrupted }, logEvent,
+                             loadScreenshot ?: { viewEvent.screenshot.bytes.toByteArray() })
   }
 }
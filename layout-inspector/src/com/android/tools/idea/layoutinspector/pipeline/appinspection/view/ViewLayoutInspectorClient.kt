@@ -50,6 +50,7 @@ import com.google.wireless.android.sdk.stats.DynamicLayoutInspectorErrorInfo.Att
 import com.google.wireless.android.sdk.stats.DynamicLayoutInspectorEvent
 import com.intellij.openapi.application.ApplicationInfo
 import com.intellij.openapi.progress.ProgressManager
+import com.intellij.openapi.util.Disposer
 import kotlinx.coroutines.CancellationException
 import kotlinx.coroutines.CoroutineScope
 import kotlinx.coroutines.cancel
@@ -102,12 +103,16 @@ class ViewLayoutInspectorClient(
   /**
    * Data packaged up and sent via [fireTreeEvent], needed for constructing the tree view in the
    * layout inspector.
+   *
+   * If [loadScreenshot] is specified, the screenshot is read with it when first needed instead of
+   * taken from [viewEvent], e.g. to read it from a snapshot file.
    */
   class Data(
     val generation: Int,
     val rootIds: List<Long>,
     val viewEvent: LayoutEvent,
-    val composeEvent: GetComposablesResult?
+    val composeEvent: GetComposablesResult?,
+    val loadScreenshot: (() -> ByteArray)? = null
   )
 
   companion object {
@@ -256,6 +261,7 @@ class ViewLayoutInspectorClient(
 
   fun disconnect() {
     messenger.scope.cancel()
+    Disposer.dispose(propertiesCache)
   }
 
   private fun handleErrorEvent(errorEvent: ErrorEvent) {
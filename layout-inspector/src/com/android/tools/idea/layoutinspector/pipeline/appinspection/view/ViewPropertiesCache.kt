@@ -15,6 +15,7 @@
  */
 package com.android.tools.idea.layoutinspector.pipeline.appinspection.view
 
+import com.android.tools.idea.layoutinspector.model.ComposeViewNode
 import com.android.tools.idea.layoutinspector.model.InspectorModel
 import com.android.tools.idea.layoutinspector.model.ViewNode
 import com.android.tools.idea.layoutinspector.pipeline.appinspection.ViewNodeCache
@@ -25,6 +26,10 @@ import com.android.tools.idea.layoutinspector.view.inspection.LayoutInspectorVie
  * Cache of view properties, to avoid expensive refetches when possible.
  */
 sealed class ViewPropertiesCache(model: InspectorModel) : ViewNodeCache<ViewPropertiesData>(model) {
+  override fun canFetch(node: ViewNode) = node !is ComposeViewNode
+
+  override fun weigh(data: ViewPropertiesData) = data.properties.size
+
   fun setAllFrom(event: PropertiesEvent) {
     val stringTable = StringTableImpl(event.stringsList)
     for (propertyGroup in event.propertyGroupsList) {
@@ -38,6 +43,33 @@ class DisconnectedViewPropertiesCache(model: InspectorModel) : ViewPropertiesCac
   override suspend fun fetchDataFor(root: ViewNode, node: ViewNode): ViewPropertiesData? = null
 }
 
+/**
+ * Cache of the view properties of a snapshot, which are read from the snapshot one window at a time, when first requested.
+ * Each window is read once.
+ */
+class SnapshotViewPropertiesCache(
+  model: InspectorModel,
+  private val loadProperties: (rootId: Long) -> PropertiesEvent?
+) : ViewPropertiesCache(model) {
+  // The windows read with loadProperties. Guarded by itself.
+  private val loadedWindows = mutableSetOf<Long>()
+
+  init {
+    allowFetching = true
+  }
+
+  override suspend fun fetchDataFor(root: ViewNode, node: ViewNode): ViewPropertiesData? {
+    synchronized(loadedWindows) {
+      // A node without properties in a window already read has none to read either.
+      if (!loadedWindows.contains(root.drawId)) {
+        loadProperties(root.drawId)?.let { setAllFrom(it) }
+        loadedWindows.add(root.drawId)
+      }
+    }
+    return getCachedDataFor(root.drawId, node.drawId)
+  }
+}
+
 class LiveViewPropertiesCache(private val client: ViewLayoutInspectorClient, model: InspectorModel) : ViewPropertiesCache(model) {
   override suspend fun fetchDataFor(root: ViewNode, node: ViewNode): ViewPropertiesData? {
     val response = client.getProperties(root.drawId, node.drawId)
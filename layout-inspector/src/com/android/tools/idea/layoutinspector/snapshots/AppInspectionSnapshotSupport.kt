@@ -24,26 +24,44 @@ import com.android.tools.idea.layoutinspector.pipeline.appinspection.AppInspecti
 import com.android.tools.idea.layoutinspector.pipeline.appinspection.compose.ComposeParametersCache
 import com.android.tools.idea.layoutinspector.pipeline.appinspection.compose.GetComposablesResult
 import com.android.tools.idea.layoutinspector.pipeline.appinspection.view.DisconnectedViewPropertiesCache
+import com.android.tools.idea.layoutinspector.pipeline.appinspection.view.SnapshotViewPropertiesCache
 import com.android.tools.idea.layoutinspector.pipeline.appinspection.view.ViewLayoutInspectorClient
 import com.android.tools.idea.layoutinspector.pipeline.appinspection.view.convert
 import com.android.tools.idea.layoutinspector.skia.SkiaParserImpl
 import com.android.tools.idea.layoutinspector.view.inspection.LayoutInspectorViewProtocol
+import com.android.tools.idea.protobuf.ByteString
+import com.android.tools.idea.protobuf.MessageLite
 import com.google.wireless.android.sdk.stats.DynamicLayoutInspectorEvent
 import com.intellij.openapi.diagnostic.Logger
-import com.intellij.util.io.write
+import com.intellij.openapi.util.Disposer
 import layoutinspector.compose.inspection.LayoutInspectorComposeProtocol.GetAllParametersResponse
+import layoutinspector.compose.inspection.LayoutInspectorComposeProtocol.GetComposablesResponse
 import layoutinspector.snapshots.Metadata
 import layoutinspector.snapshots.Snapshot
+import layoutinspector.snapshots.SnapshotIndex
+import java.io.BufferedOutputStream
+import java.io.Closeable
 import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
 import java.io.ObjectInputStream
 import java.io.ObjectOutputStream
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
 import java.nio.file.Files
 import java.nio.file.Path
 
-val APP_INSPECTION_SNAPSHOT_VERSION = ProtocolVersion.Version4
+val APP_INSPECTION_SNAPSHOT_VERSION = ProtocolVersion.Version5
+
+/**
+ * The size of the end of a version 5 snapshot: the offset and the size of its [SnapshotIndex].
+ */
+private const val INDEX_LOCATION_SIZE = Long.SIZE_BYTES + Int.SIZE_BYTES
 
 /**
  * [SnapshotLoader] that can load snapshots saved by the app inspection-based version of the layout inspector.
+ *
+ * Version 5 snapshots are loaded incrementally: the trees of all windows are loaded right away, while their properties are read when
+ * first requested, and their screenshots when the images are first refreshed.
  */
 class AppInspectionSnapshotLoader : SnapshotLoader {
   override lateinit var propertiesProvider: AppInspectionPropertiesProvider
@@ -51,50 +69,141 @@ class AppInspectionSnapshotLoader : SnapshotLoader {
   override lateinit var metadata: SnapshotMetadata
     private set
 
+  // Open until disposed, for the properties and screenshots read later.
+  private var chunks: SnapshotChunks? = null
+
   override val capabilities = mutableSetOf(InspectorClient.Capability.SUPPORTS_SYSTEM_NODES)
 
   override fun loadFile(file: Path, model: InspectorModel, stats: SessionStatistics): SnapshotMetadata {
-    val viewPropertiesCache = DisconnectedViewPropertiesCache(model)
-    val composeParametersCache = ComposeParametersCache(null, model)
-    propertiesProvider = AppInspectionPropertiesProvider(viewPropertiesCache, composeParametersCache, model)
     // TODO: error handling
-    ObjectInputStream(Files.newInputStream(file)).use { input ->
+    val version = ObjectInputStream(Files.newInputStream(file)).use { input ->
       val options = LayoutInspectorCaptureOptions().apply { parse(input.readUTF()) }
-      if (options.version != APP_INSPECTION_SNAPSHOT_VERSION) {
-        val message = "AppInspectionSnapshotSupport only supports version ${APP_INSPECTION_SNAPSHOT_VERSION.value}, got ${options.version}."
+      if (options.version != ProtocolVersion.Version4 && options.version != ProtocolVersion.Version5) {
+        val message = "AppInspectionSnapshotSupport only supports versions ${ProtocolVersion.Version4.value} and " +
+                      "${ProtocolVersion.Version5.value}, got ${options.version}."
         Logger.getInstance(AppInspectionSnapshotLoader::class.java).error(message)
         throw Exception(message)
       }
 
-      metadata = Metadata.parseDelimitedFrom(input).convert(APP_INSPECTION_SNAPSHOT_VERSION)
-      val snapshot = Snapshot.parseDelimitedFrom(input)
-      val response = snapshot.viewSnapshot
-      val allWindows = response.windowSnapshotsList.associateBy { it.layout.rootView.id }
-      val rootIds = response.windowRoots.idsList
-      val allComposeInfo = snapshot.composeInfoList.associateBy { it.viewId }
-      val metrics = LayoutInspectorMetrics(model.project, processDescriptor, snapshotMetadata = metadata)
-      fun logEvent(eventType: DynamicLayoutInspectorEvent.DynamicLayoutInspectorEventType) = metrics.logEvent(eventType, stats)
-      rootIds.map { allWindows[it] }.forEach { windowInfo ->
-        // should always be true
-        if (windowInfo != null) {
-          val composeInfo = allComposeInfo[windowInfo.layout.rootView.id]
-          val composeResult = composeInfo?.let { GetComposablesResult(it.composables, false) }
-          val data = ViewLayoutInspectorClient.Data(0, rootIds, windowInfo.layout, composeResult)
-
-          val treeLoader = AppInspectionTreeLoader(model.project, ::logEvent, SkiaParserImpl({}))
-          val treeData = treeLoader.loadComponentTree(data, model.resourceLookup, processDescriptor) ?: throw Exception()
-          capabilities.addAll(treeData.dynamicCapabilities)
-          model.update(treeData.window, rootIds, treeData.generation)
-          viewPropertiesCache.setAllFrom(windowInfo.properties)
-          composeInfo?.composeParameters?.let { composeParametersCache.setAllFrom(it) }
-        }
-      }
-      snapshot.foldInfo?.let {
-        model.foldInfo = it.convert()
+      metadata = Metadata.parseDelimitedFrom(input).convert(options.version)
+      if (options.version == ProtocolVersion.Version4) {
+        loadSnapshot(Snapshot.parseDelimitedFrom(input), model, stats)
       }
+      options.version
+    }
+    if (version == ProtocolVersion.Version5) {
+      loadChunks(SnapshotChunks(file).also { chunks = it }, model, stats)
     }
     return metadata
   }
+
+  override fun dispose() {
+    chunks?.close()
+  }
+
+  private fun loadSnapshot(snapshot: Snapshot, model: InspectorModel, stats: SessionStatistics) {
+    val viewPropertiesCache = DisconnectedViewPropertiesCache(model)
+    val composeParametersCache = ComposeParametersCache(null, model)
+    Disposer.register(this, viewPropertiesCache)
+    Disposer.register(this, composeParametersCache)
+    propertiesProvider = AppInspectionPropertiesProvider(viewPropertiesCache, composeParametersCache, model)
+    val response = snapshot.viewSnapshot
+    val allWindows = response.windowSnapshotsList.associateBy { it.layout.rootView.id }
+    val rootIds = response.windowRoots.idsList
+    val allComposeInfo = snapshot.composeInfoList.associateBy { it.viewId }
+    rootIds.map { allWindows[it] }.forEach { windowInfo ->
+      // should always be true
+      if (windowInfo != null) {
+        val composeInfo = allComposeInfo[windowInfo.layout.rootView.id]
+        val composeResult = composeInfo?.let { GetComposablesResult(it.composables, false) }
+        val data = ViewLayoutInspectorClient.Data(0, rootIds, windowInfo.layout, composeResult)
+        loadWindow(data, model, stats)
+        viewPropertiesCache.setAllFrom(windowInfo.properties)
+        composeInfo?.composeParameters?.let { composeParametersCache.setAllFrom(it) }
+      }
+    }
+    snapshot.foldInfo?.let {
+      model.foldInfo = it.convert()
+    }
+  }
+
+  private fun loadChunks(chunks: SnapshotChunks, model: InspectorModel, stats: SessionStatistics) {
+    val index = chunks.index
+    val allWindows = index.windowsList.associateBy { it.rootId }
+    val viewPropertiesCache = SnapshotViewPropertiesCache(model) { rootId ->
+      allWindows[rootId]?.takeIf { it.hasProperties() }?.let {
+        LayoutInspectorViewProtocol.PropertiesEvent.parseFrom(chunks.read(it.properties))
+      }
+    }
+    val composeParametersCache = ComposeParametersCache(null, model) { rootId ->
+      allWindows[rootId]?.takeIf { it.hasComposeParameters() }?.let {
+        GetAllParametersResponse.parseFrom(chunks.read(it.composeParameters))
+      }
+    }
+    composeParametersCache.allowFetching = true
+    // Disposed of before the chunks they read are closed.
+    Disposer.register(this, viewPropertiesCache)
+    Disposer.register(this, composeParametersCache)
+    propertiesProvider = AppInspectionPropertiesProvider(viewPropertiesCache, composeParametersCache, model)
+    val rootIds = index.windowRootsList
+    rootIds.mapNotNull { allWindows[it] }.forEach { window ->
+      val layout = LayoutInspectorViewProtocol.LayoutEvent.parseFrom(chunks.read(window.layout))
+      val composeResult = window.takeIf { it.hasComposables() }?.let {
+        GetComposablesResult(GetComposablesResponse.parseFrom(chunks.read(it.composables)), false)
+      }
+      val loadScreenshot = window.takeIf { it.hasScreenshot() }?.let { { chunks.read(it.screenshot) } }
+      loadWindow(ViewLayoutInspectorClient.Data(0, rootIds, layout, composeResult, loadScreenshot), model, stats)
+    }
+    index.foldInfo?.let {
+      model.foldInfo = it.convert()
+    }
+  }
+
+  private fun loadWindow(data: ViewLayoutInspectorClient.Data, model: InspectorModel, stats: SessionStatistics) {
+    val metrics = LayoutInspectorMetrics(model.project, processDescriptor, snapshotMetadata = metadata)
+    fun logEvent(eventType: DynamicLayoutInspectorEvent.DynamicLayoutInspectorEventType) = metrics.logEvent(eventType, stats)
+
+    val treeLoader = AppInspectionTreeLoader(model.project, ::logEvent, SkiaParserImpl({}))
+    val treeData = treeLoader.loadComponentTree(data, model.resourceLookup, processDescriptor) ?: throw Exception()
+    capabilities.addAll(treeData.dynamicCapabilities)
+    model.update(treeData.window, data.rootIds, treeData.generation)
+  }
+}
+
+/**
+ * The chunks of a version 5 snapshot, each read from the file when needed, through a channel kept open until closed.
+ *
+ * A version 5 snapshot starts like a version 4 one, with the options and the [Metadata], followed by the chunks, then the [SnapshotIndex]
+ * locating the chunks, and finally the offset and size of the index.
+ */
+private class SnapshotChunks(file: Path) : Closeable {
+  // Only read at explicit positions, which can be done from several threads at once.
+  private val channel = FileChannel.open(file)
+
+  val index: SnapshotIndex = try {
+    val location = ByteBuffer.wrap(read(channel.size() - INDEX_LOCATION_SIZE, INDEX_LOCATION_SIZE))
+    SnapshotIndex.parseFrom(read(location.long, location.int))
+  }
+  catch (ex: Exception) {
+    channel.close()
+    throw ex
+  }
+
+  fun read(chunk: SnapshotIndex.Chunk): ByteArray = read(chunk.offset, chunk.size)
+
+  override fun close() {
+    channel.close()
+  }
+
+  private fun read(offset: Long, size: Int): ByteArray {
+    val buffer = ByteBuffer.allocate(size)
+    while (buffer.hasRemaining()) {
+      if (channel.read(buffer, offset + buffer.position()) < 0) {
+        throw SnapshotLoaderException("The snapshot file is truncated.")
+      }
+    }
+    return buffer.array()
+  }
 }
 
 fun saveAppInspectorSnapshot(
@@ -123,6 +232,10 @@ fun saveAppInspectorSnapshot(
   saveAppInspectorSnapshot(path, response, composeInfo, snapshotMetadata, foldInfo)
 }
 
+/**
+ * Saves a version 5 snapshot, with the layout, screenshot, properties, composables and compose parameters of each window in separate
+ * chunks. See [SnapshotChunks].
+ */
 fun saveAppInspectorSnapshot(
   path: Path,
   data: LayoutInspectorViewProtocol.CaptureSnapshotResponse,
@@ -131,25 +244,44 @@ fun saveAppInspectorSnapshot(
   foldInfo: InspectorModel.FoldInfo?
 ) {
   snapshotMetadata.containsCompose = composeInfo.isNotEmpty()
-  val snapshot = Snapshot.newBuilder().apply {
-    viewSnapshot = data
-    addAllComposeInfo(composeInfo.map { (viewId, composableAndParameters) ->
-      val (composables, composeParameters) = composableAndParameters
-      Snapshot.ComposeInfo.newBuilder().apply {
-        this.viewId = viewId
-        this.composables = composables?.response
-        this.composeParameters = composeParameters
-      }.build()
-    })
-    foldInfo?.toProto()?.let { this.foldInfo = it }
-  }.build()
-  val output = ByteArrayOutputStream()
-  ObjectOutputStream(output).use { objectOutput ->
+  val header = ByteArrayOutputStream()
+  ObjectOutputStream(header).use { objectOutput ->
     objectOutput.writeUTF(LayoutInspectorCaptureOptions(APP_INSPECTION_SNAPSHOT_VERSION,
                                                         snapshotMetadata.processName ?: "Unknown").toString())
     snapshotMetadata.toProto().writeDelimitedTo(objectOutput)
-    snapshot.writeDelimitedTo(objectOutput)
   }
-  path.write(output.toByteArray())
-}
+  DataOutputStream(BufferedOutputStream(Files.newOutputStream(path))).use { output ->
+    var offset = 0L
+    fun write(bytes: ByteString): SnapshotIndex.Chunk {
+      bytes.writeTo(output)
+      return SnapshotIndex.Chunk.newBuilder().setOffset(offset).setSize(bytes.size()).build().also { offset += bytes.size() }
+    }
+    fun write(message: MessageLite) = write(message.toByteString())
 
+    write(ByteString.copyFrom(header.toByteArray()))
+    val index = SnapshotIndex.newBuilder().apply {
+      addAllWindowRoots(data.windowRoots.idsList)
+      for (window in data.windowSnapshotsList) {
+        val rootId = window.layout.rootView.id
+        addWindowsBuilder().apply {
+          this.rootId = rootId
+          layout = write(window.layout.toBuilder().apply { screenshotBuilder.clearBytes() }.build())
+          if (!window.layout.screenshot.bytes.isEmpty) {
+            screenshot = write(window.layout.screenshot.bytes)
+          }
+          if (window.hasProperties()) {
+            properties = write(window.properties)
+          }
+          composeInfo[rootId]?.let { (composables, composeParameters) ->
+            composables?.let { this.composables = write(it.response) }
+            this.composeParameters = write(composeParameters)
+          }
+        }
+      }
+      foldInfo?.toProto()?.let { this.foldInfo = it }
+    }.build()
+    val indexChunk = write(index)
+    output.writeLong(indexChunk.offset)
+    output.writeInt(indexChunk.size)
+  }
+}
@@ -50,6 +50,7 @@ import com.intellij.openapi.fileTypes.FileTypeRegistry
 import com.intellij.openapi.project.DumbAware
 import com.intellij.openapi.project.Project
 import com.intellij.openapi.startup.StartupManager
+import com.intellij.openapi.util.Disposer
 import com.intellij.openapi.util.UserDataHolderBase
 import com.intellij.openapi.vfs.VfsUtil
 import com.intellij.openapi.vfs.VirtualFile
@@ -95,7 +96,7 @@ class LayoutInspectorFileEditor(val project: Project, private val path: Path) :
       contentPanel.add(workbench, BorderLayout.CENTER)
 
       // TODO: error handling
-      snapshotLoader = SnapshotLoader.createSnapshotLoader(path)
+      snapshotLoader = SnapshotLoader.createSnapshotLoader(path)?.also { Disposer.register(this, it) }
       val model = InspectorModel(project)
       stats = SessionStatisticsImpl(SNAPSHOT_CLIENT, model)
       metadata = snapshotLoader?.loadFile(path, model, stats) ?: throw Exception()
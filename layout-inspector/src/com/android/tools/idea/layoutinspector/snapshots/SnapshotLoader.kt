@@ -23,6 +23,7 @@ import com.android.tools.idea.layoutinspector.pipeline.InspectorClient
 import com.android.tools.idea.layoutinspector.properties.PropertiesProvider
 import com.google.gson.JsonObject
 import com.google.gson.JsonParser
+import com.intellij.openapi.Disposable
 import java.io.ObjectInputStream
 import java.nio.file.Files
 import java.nio.file.Path
@@ -31,7 +32,7 @@ import java.nio.file.Path
  * Mechanism for loading saved layout inspector snapshots. [SnapshotLoader.createSnapshotLoader] will create an appropriate concrete
  * [SnapshotLoader] given a snapshot file as input.
  */
-interface SnapshotLoader {
+interface SnapshotLoader : Disposable {
 
   val propertiesProvider: PropertiesProvider
   val metadata: SnapshotMetadata?
@@ -59,6 +60,11 @@ interface SnapshotLoader {
 
   fun loadFile(file: Path, model: InspectorModel, stats: SessionStatistics): SnapshotMetadata?
 
+  /**
+   * Releases what the loaded snapshot still reads from, e.g. the file.
+   */
+  override fun dispose() {}
+
   companion object {
     fun createSnapshotLoader(file: Path): SnapshotLoader? {
       val options = LayoutInspectorCaptureOptions()
@@ -70,7 +76,7 @@ interface SnapshotLoader {
       return when (options.version) {
         ProtocolVersion.Version1, ProtocolVersion.Version3 -> LegacySnapshotLoader()
         ProtocolVersion.Version2 -> null // Seems like version 2 was never implemented?
-        ProtocolVersion.Version4 -> AppInspectionSnapshotLoader()
+        ProtocolVersion.Version4, ProtocolVersion.Version5 -> AppInspectionSnapshotLoader()
       }
     }
   }
@@ -82,7 +88,8 @@ enum class ProtocolVersion(val value: String) {
   Version1("1"), // Legacy layout inspector
   Version2("2"), // Legacy version that was never implemented
   Version3("3"), // new inspector for API <= 28
-  Version4("4")  // Live layout inspector for API >= 29
+  Version4("4"), // Live layout inspector for API >= 29
+  Version5("5")  // Live layout inspector for API >= 29, with windows, properties and images in separate chunks
 }
 
 private const val VERSION = "version"
@@ -82,4 +82,5 @@ fun ProtocolVersion.toInt() = when(this) {
   ProtocolVersion.Version2 -> 2
   ProtocolVersion.Version3 -> 3
   ProtocolVersion.Version4 -> 4
+  ProtocolVersion.Version5 -> 5
 }
\ No newline at end of file
@@ -31,6 +31,7 @@ import com.google.wireless.android.sdk.stats.DynamicLayoutInspectorErrorInfo
 import org.junit.Rule
 import org.junit.Test
 import org.mockito.Mockito.verify
+import java.awt.Rectangle
 import kotlin.test.fail
 
 private const val TEST_DATA_PATH = "tools/adt/idea/layout-inspector/testData"
@@ -204,6 +205,100 @@ class InspectorModelTest {
     assertSingleRoot(model, FakeTreeSettings())
   }
 
+  @Test
+  fun testUpdateRemovesHiddenNodesWithoutDrawId() {
+    val model = model {
+      view(ROOT, 0, 0, 100, 200, qualifiedName = "rootType") {
+        view(VIEW1, 0, 0, 50, 50, qualifiedName = "v1Type") {
+          view(0L, 0, 0, 10, 10, qualifiedName = "noIdType")
+        }
+      }
+    }
+    model.hideSubtree(model[VIEW1]!!)
+    assertThat(model.hasHiddenNodes()).isTrue()
+
+    model.update(window(ROOT, ROOT, 0, 0, 100, 200, rootViewQualifiedName = "rootType") {
+      view(VIEW2, 0, 0, 50, 50, qualifiedName = "v2Type")
+    }, listOf(ROOT), 1)
+    assertThat(model.hasHiddenNodes()).isFalse()
+  }
+
+  @Test
+  fun testMaxRecompositionAfterUpdates() {
+    val model = model {
+      view(ROOT, 0, 0, 100, 200, qualifiedName = "rootType") {
+        compose(COMPOSE1, "Button", "button.kt", 123, composeCount = 5, composeSkips = 1) {
+          compose(COMPOSE2, "Text", "text.kt", 234, composeCount = 2, composeSkips = 7)
+        }
+      }
+    }
+    model.update(window(ROOT, ROOT, 0, 0, 100, 200, rootViewQualifiedName = "rootType") {
+      compose(COMPOSE1, "Button", "button.kt", 123, composeCount = 5, composeSkips = 1) {
+        compose(COMPOSE2, "Text", "text.kt", 234, composeCount = 9, composeSkips = 7)
+      }
+    }, listOf(ROOT), 1)
+    assertThat(model.maxRecomposition.count).isEqualTo(9)
+    assertThat(model.maxRecomposition.skips).isEqualTo(7)
+
+    // Removing the node with the maximum numbers lowers them.
+    model.update(window(ROOT, ROOT, 0, 0, 100, 200, rootViewQualifiedName = "rootType") {
+      compose(COMPOSE1, "Button", "button.kt", 123, composeCount = 6, composeSkips = 1)
+    }, listOf(ROOT), 2)
+    assertThat(model.maxRecomposition.count).isEqualTo(6)
+    assertThat(model.maxRecomposition.skips).isEqualTo(1)
+
+    // Lowered counts are taken into account too.
+    model.update(window(ROOT, ROOT, 0, 0, 100, 200, rootViewQualifiedName = "rootType") {
+      compose(COMPOSE1, "Button", "button.kt", 123, composeCount = 3, composeSkips = 0)
+    }, listOf(ROOT), 3)
+    assertThat(model.maxRecomposition.count).isEqualTo(3)
+    assertThat(model.maxRecomposition.skips).isEqualTo(0)
+  }
+
+  @Test
+  fun testConsecutiveUpdates() {
+    val model = model {
+      view(ROOT, 0, 0, 100, 200, qualifiedName = "rootType") {
+        view(VIEW1, 0, 0, 50, 50, qualifiedName = "v1Type") {
+          view(VIEW3, 0, 0, 10, 10, qualifiedName = "v3Type")
+        }
+        view(VIEW2, 0, 0, 20, 20, qualifiedName = "v2Type")
+      }
+    }
+    val origNodes = model.root.flattenedList().associateBy { it.drawId }
+
+    // Only VIEW3 and its ancestors change their transitive bounds.
+    model.update(window(ROOT, ROOT, 0, 0, 100, 200, rootViewQualifiedName = "rootType") {
+      view(VIEW1, 0, 0, 50, 50, qualifiedName = "v1Type") {
+        view(VIEW3, 0, 0, 300, 10, qualifiedName = "v3Type")
+      }
+      view(VIEW2, 0, 0, 20, 20, qualifiedName = "v2Type")
+    }, listOf(ROOT), 1)
+    for ((id, orig) in origNodes) {
+      assertThat(model[id]).isSameAs(orig)
+    }
+    assertThat(model[VIEW3]?.transitiveBounds).isEqualTo(Rectangle(0, 0, 300, 10))
+    assertThat(model[VIEW1]?.transitiveBounds).isEqualTo(Rectangle(0, 0, 300, 50))
+    assertThat(model[VIEW2]?.transitiveBounds).isEqualTo(Rectangle(0, 0, 20, 20))
+    assertThat(model.root.transitiveBounds).isEqualTo(Rectangle(0, 0, 300, 200))
+
+    // The nodes indexed by the previous update are used to apply the next one.
+    model.update(window(ROOT, ROOT, 0, 0, 100, 200, rootViewQualifiedName = "rootType") {
+      view(VIEW1, 0, 0, 50, 50, qualifiedName = "v1Type") {
+        view(VIEW3, 0, 0, 10, 10, qualifiedName = "v3Type")
+        view(VIEW4, 0, 0, 60, 30, qualifiedName = "v4Type")
+      }
+    }, listOf(ROOT), 2)
+    assertThat(model[VIEW1]).isSameAs(origNodes[VIEW1])
+    assertThat(model[VIEW3]).isSameAs(origNodes[VIEW3])
+    assertThat(model[VIEW2]).isNull()
+    assertThat(model[VIEW4]?.qualifiedName).isEqualTo("v4Type")
+    assertThat(children(model[VIEW1]!!).map { it.drawId }).containsExactly(VIEW3, VIEW4).inOrder()
+    assertThat(model[VIEW1]?.transitiveBounds).isEqualTo(Rectangle(0, 0, 60, 50))
+    assertThat(model.root.transitiveBounds).isEqualTo(Rectangle(0, 0, 100, 200))
+    assertSingleRoot(model, FakeTreeSettings())
+  }
+
   @Test
   fun testWindows() {
     val model = InspectorModel(mock())
@@ -29,17 +29,23 @@ import com.android.tools.idea.layoutinspector.model.VIEW2
 import com.android.tools.idea.layoutinspector.model.VIEW3
 import com.android.tools.idea.layoutinspector.model.VIEW4
 import com.android.tools.idea.layoutinspector.model.ViewNode
+import com.android.tools.idea.layoutinspector.pipeline.appinspection.view.SnapshotViewPropertiesCache
+import com.android.tools.idea.layoutinspector.view.inspection.LayoutInspectorViewProtocol.PropertiesEvent
 import com.android.tools.idea.layoutinspector.window
 import com.android.tools.idea.testing.registerServiceInstance
 import com.google.common.truth.Truth.assertThat
 import com.intellij.openapi.application.ApplicationManager
 import com.intellij.testFramework.ApplicationRule
+import com.intellij.openapi.util.Disposer
 import com.intellij.testFramework.DisposableRule
+import kotlinx.coroutines.CompletableDeferred
+import kotlinx.coroutines.async
 import kotlinx.coroutines.runBlocking
 import org.junit.Before
 import org.junit.ClassRule
 import org.junit.Rule
 import org.junit.Test
+import java.util.Collections
 import java.util.concurrent.Executors
 
 class ViewNodeCacheTest {
@@ -76,6 +82,7 @@ class ViewNodeCacheTest {
     val cache = object : ViewNodeCache<Int>(model) {
       override suspend fun fetchDataFor(root: ViewNode, node: ViewNode): Int = 7
     }
+    Disposer.register(disposableRule.disposable, cache)
     cache.allowFetching = true
     var stop = false
     var modelLoops = 0
@@ -121,6 +128,166 @@ class ViewNodeCacheTest {
     exception?.let { throw it }
   }
 
+  @Test
+  fun testPrefetchAncestorsAndSiblings() {
+    val model = model {
+      view(ROOT, qualifiedName = "root") {
+        view(VIEW1, qualifiedName = "v1Type") {
+          view(VIEW3, qualifiedName = "v3Type")
+        }
+        view(VIEW2, qualifiedName = "v2Type")
+      }
+    }
+    val fetched = Collections.synchronizedList(mutableListOf<Long>())
+    val cache = object : ViewNodeCache<Long>(model) {
+      override suspend fun fetchDataFor(root: ViewNode, node: ViewNode): Long = node.drawId.also { fetched.add(it) }
+    }
+    Disposer.register(disposableRule.disposable, cache)
+    cache.allowFetching = true
+
+    assertThat(runBlocking { cache.getDataFor(model[VIEW3]!!) }).isEqualTo(VIEW3)
+    waitFor { cache.getCachedDataFor(ROOT, ROOT) != null }
+    assertThat(cache.getCachedDataFor(ROOT, VIEW1)).isEqualTo(VIEW1)
+    assertThat(cache.getCachedDataFor(ROOT, VIEW2)).isNull()
+
+    assertThat(runBlocking { cache.getDataFor(model[VIEW1]!!) }).isEqualTo(VIEW1)
+    waitFor { cache.getCachedDataFor(ROOT, VIEW2) != null }
+    assertThat(fetched).containsExactly(VIEW3, VIEW1, ROOT, VIEW2).inOrder()
+  }
+
+  @Test
+  fun testEvictLeastRecentlyUsed() {
+    val model = model {
+      view(ROOT, qualifiedName = "root") {
+        view(VIEW1, qualifiedName = "v1Type")
+        view(VIEW2, qualifiedName = "v2Type")
+        view(VIEW3, qualifiedName = "v3Type")
+      }
+    }
+    val cache = object : ViewNodeCache<Long>(model, maxWeight = 2) {
+      override suspend fun fetchDataFor(root: ViewNode, node: ViewNode): Long = node.drawId
+
+      override fun canFetch(node: ViewNode) = false
+
+      fun set(viewId: Long) = setDataFor(ROOT, viewId, viewId)
+    }
+    Disposer.register(disposableRule.disposable, cache)
+    cache.allowFetching = true
+    cache.set(ROOT)
+
+    runBlocking {
+      cache.getDataFor(model[VIEW1]!!)
+      cache.getDataFor(model[VIEW2]!!)
+      cache.getDataFor(model[VIEW1]!!)
+      cache.getDataFor(model[VIEW3]!!)
+    }
+    assertThat(cache.getCachedDataFor(ROOT, VIEW1)).isEqualTo(VIEW1)
+    assertThat(cache.getCachedDataFor(ROOT, VIEW2)).isNull()
+    assertThat(cache.getCachedDataFor(ROOT, VIEW3)).isEqualTo(VIEW3)
+    // Data that was set rather than fetched isn't evicted, since it might not be possible to fetch it again.
+    assertThat(cache.getCachedDataFor(ROOT, ROOT)).isEqualTo(ROOT)
+  }
+
+  @Test
+  fun testDataFetchedBeforeClearIsNotCached() {
+    val model = model {
+      view(ROOT, qualifiedName = "root") {
+        view(VIEW1, qualifiedName = "v1Type")
+      }
+    }
+    val fetchStarted = CompletableDeferred<Unit>()
+    val response = CompletableDeferred<Long>()
+    val cache = object : ViewNodeCache<Long>(model) {
+      override suspend fun fetchDataFor(root: ViewNode, node: ViewNode): Long {
+        fetchStarted.complete(Unit)
+        return response.await()
+      }
+
+      override fun canFetch(node: ViewNode) = false
+    }
+    Disposer.register(disposableRule.disposable, cache)
+    cache.allowFetching = true
+
+    runBlocking {
+      val data = async { cache.getDataFor(model[VIEW1]!!) }
+      fetchStarted.await()
+      // A new layout event arrived while fetching.
+      cache.clearFor(ROOT)
+      response.complete(VIEW1)
+      assertThat(data.await()).isEqualTo(VIEW1)
+    }
+    assertThat(cache.getCachedDataFor(ROOT, VIEW1)).isNull()
+  }
+
+  @Test
+  fun testDisposeCancelsFetchInFlight() {
+    val model = model {
+      view(ROOT, qualifiedName = "root") {
+        view(VIEW1, qualifiedName = "v1Type")
+      }
+    }
+    val fetchStarted = CompletableDeferred<Unit>()
+    val fetchCancelled = CompletableDeferred<Unit>()
+    val cache = object : ViewNodeCache<Long>(model) {
+      override suspend fun fetchDataFor(root: ViewNode, node: ViewNode): Long {
+        fetchStarted.complete(Unit)
+        try {
+          return CompletableDeferred<Long>().await()
+        }
+        finally {
+          fetchCancelled.complete(Unit)
+        }
+      }
+    }
+    Disposer.register(disposableRule.disposable, cache)
+    cache.allowFetching = true
+
+    runBlocking {
+      val data = async { cache.getDataFor(model[VIEW1]!!) }
+      fetchStarted.await()
+      // The client disconnected while fetching.
+      Disposer.dispose(cache)
+      fetchCancelled.await()
+      assertThat(data.await()).isNull()
+    }
+    assertThat(cache.allowFetching).isFalse()
+  }
+
+  @Test
+  fun testSnapshotPropertiesReadOncePerWindow() {
+    val model = model {
+      view(ROOT, qualifiedName = "root") {
+        view(VIEW1, qualifiedName = "v1Type")
+        view(VIEW2, qualifiedName = "v2Type")
+      }
+    }
+    val loaded = Collections.synchronizedList(mutableListOf<Long>())
+    val cache = SnapshotViewPropertiesCache(model) { rootId ->
+      loaded.add(rootId)
+      PropertiesEvent.newBuilder().apply {
+        this.rootId = rootId
+        addPropertyGroupsBuilder().viewId = VIEW1
+      }.build()
+    }
+    Disposer.register(disposableRule.disposable, cache)
+
+    runBlocking {
+      assertThat(cache.getDataFor(model[VIEW1]!!)).isNotNull()
+      // VIEW2 has no properties in the snapshot, which doesn't make the window read again, nor do the prefetches.
+      assertThat(cache.getDataFor(model[VIEW2]!!)).isNull()
+      assertThat(cache.getDataFor(model[VIEW2]!!)).isNull()
+    }
+    assertThat(loaded).containsExactly(ROOT)
+  }
+
+  private fun waitFor(condition: () -> Boolean) {
+    val deadline = System.currentTimeMillis() + 10_000L
+    while (!condition()) {
+      assertThat(System.currentTimeMillis()).isLessThan(deadline)
+      Thread.sleep(10L)
+    }
+  }
+
   private fun window1() =
     window(ROOT, ROOT, 2, 4, 6, 8, rootViewQualifiedName = "rootType") {
       view(VIEW1, 8, 6, 4, 2, qualifiedName = "v1Type") {
@@ -0,0 +1,91 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.layoutinspector.pipeline.appinspection.view
+
+import com.android.tools.idea.layoutinspector.pipeline.appinspection.compress
+import com.android.tools.layoutinspector.BitmapType
+import com.android.tools.layoutinspector.toBytes
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+private const val BLACK = 0xFF000000.toInt()
+private const val WHITE = 0xFFFFFFFF.toInt()
+
+class BitmapDecoderTest {
+  @Test
+  fun testDecodeAlternatesImages() {
+    val decoder = BitmapDecoder()
+    val image1 = decoder.decode(screenshot(4, 4))!!
+    assertThat(image1.getRGB(1, 2)).isEqualTo(BLACK)
+
+    val bytes = screenshot(4, 4, whitePixels = listOf(1 to 2))
+    val image2 = decoder.decode(bytes)!!
+    assertThat(image2).isNotSameAs(image1)
+    // Decoding the same bytes again, e.g. after a zoom change.
+    assertThat(decoder.decode(bytes)).isSameAs(image2)
+    assertThat(image2.getRGB(1, 2)).isEqualTo(WHITE)
+    assertThat(image2.getRGB(1, 1)).isEqualTo(BLACK)
+    assertThat(image2.getRGB(1, 3)).isEqualTo(BLACK)
+    // The returned images are not modified afterwards.
+    assertThat(image1.getRGB(1, 2)).isEqualTo(BLACK)
+
+    // The same pixels in other bytes give the same image.
+    assertThat(decoder.decode(screenshot(4, 4, whitePixels = listOf(1 to 2)))).isSameAs(image2)
+
+    // The image before the previous one is brought up to date and reused.
+    assertThat(decoder.decode(screenshot(4, 4, whitePixels = listOf(0 to 0, 3 to 3)))).isSameAs(image1)
+    assertThat((0 until 4).map { image1.getRGB(it, it) }).containsExactly(WHITE, BLACK, BLACK, WHITE).inOrder()
+    assertThat(image1.getRGB(1, 2)).isEqualTo(BLACK)
+    assertThat(image2.getRGB(1, 2)).isEqualTo(WHITE)
+    assertThat(image2.getRGB(0, 0)).isEqualTo(BLACK)
+
+    assertThat(decoder.decode(screenshot(4, 4, whitePixels = listOf(2 to 1)))).isSameAs(image2)
+    assertThat(image2.getRGB(1, 2)).isEqualTo(BLACK)
+    assertThat(image2.getRGB(2, 1)).isEqualTo(WHITE)
+    assertThat(image1.getRGB(0, 0)).isEqualTo(WHITE)
+
+    val resized = decoder.decode(screenshot(2, 3))!!
+    assertThat(resized).isNotSameAs(image1)
+    assertThat(resized).isNotSameAs(image2)
+    assertThat(resized.width).isEqualTo(2)
+    assertThat(resized.height).isEqualTo(3)
+  }
+
+  @Test
+  fun testDecodeInterrupted() {
+    val decoder = BitmapDecoder()
+    val image1 = decoder.decode(screenshot(4, 4))!!
+    assertThat(decoder.decode(screenshot(4, 4, whitePixels = listOf(1 to 2))) { true }).isNull()
+
+    // The previous image is still the one of the previous screenshot.
+    val image2 = decoder.decode(screenshot(4, 4, whitePixels = listOf(2 to 1)))!!
+    assertThat(image1.getRGB(2, 1)).isEqualTo(BLACK)
+    assertThat(image2.getRGB(1, 2)).isEqualTo(BLACK)
+    assertThat(image2.getRGB(2, 1)).isEqualTo(WHITE)
+  }
+
+  /**
+   * Creates the compressed data of an RGB_565 screenshot as sent by the device, all black except for [whitePixels].
+   */
+  private fun screenshot(width: Int, height: Int, whitePixels: List<Pair<Int, Int>> = listOf()): ByteArray {
+    val pixels = ByteArray(width * height * BitmapType.RGB_565.pixelSize)
+    for ((x, y) in whitePixels) {
+      pixels[(y * width + x) * 2] = 0xFF.toByte()
+      pixels[(y * width + x) * 2 + 1] = 0xFF.toByte()
+    }
+    return (width.toBytes().asList() + height.toBytes().asList() + BitmapType.RGB_565.byteVal + pixels.asList()).toByteArray().compress()
+  }
+}
@@ -41,10 +41,14 @@ import com.android.tools.idea.layoutinspector.view.inspection.LayoutInspectorVie
 import com.android.tools.idea.testing.AndroidProjectRule
 import com.google.common.truth.Truth.assertThat
 import com.intellij.testFramework.DisposableRule
+import layoutinspector.snapshots.Snapshot
 import org.junit.Before
 import org.junit.Rule
 import org.junit.Test
 import org.junit.rules.RuleChain
+import java.io.ByteArrayOutputStream
+import java.io.ObjectOutputStream
+import java.nio.file.Files
 import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit
 import kotlin.concurrent.thread
@@ -214,6 +218,32 @@ class AppInspectionSnapshotSupportTest {
     checkSnapshot(newModel, snapshotLoader)
   }
 
+  @Test
+  fun loadVersion4Snapshot() {
+    // Snapshots saved before the chunked format are a single Snapshot message after the metadata.
+    val snapshot = Snapshot.newBuilder().apply {
+      viewSnapshotBuilder.apply {
+        addWindowSnapshotsBuilder().apply {
+          createLayoutEvent(layoutBuilder)
+          createPropertiesEvent(propertiesBuilder)
+        }
+        windowRootsBuilder.addIds(ROOT)
+      }
+    }.build()
+    val output = ByteArrayOutputStream()
+    ObjectOutputStream(output).use { objectOutput ->
+      objectOutput.writeUTF(LayoutInspectorCaptureOptions(ProtocolVersion.Version4, PROCESS.name).toString())
+      SnapshotMetadata(ProtocolVersion.Version4, processName = PROCESS.name).toProto().writeDelimitedTo(objectOutput)
+      snapshot.writeDelimitedTo(objectOutput)
+    }
+    Files.write(savePath, output.toByteArray())
+
+    val snapshotLoader = SnapshotLoader.createSnapshotLoader(savePath)!!
+    val newModel = InspectorModel(inspectorRule.project)
+    snapshotLoader.loadFile(savePath, newModel, inspectorRule.inspectorClient.stats)
+    checkSnapshot(newModel, snapshotLoader)
+  }
+
   private fun checkSnapshot(
     newModel: InspectorModel,
     snapshotLoader: SnapshotLoader
@@ -236,6 +266,7 @@ class AppInspectionSnapshotSupportTest {
     }
     snapshotLoader.propertiesProvider.requestProperties(newModel[VIEW2]!!).get()
     assertThat(checkedProperties).isTrue()
+    snapshotLoader.dispose()
   }
 
   private fun createPropertiesEvent(builder: LayoutInspectorViewProtocol.PropertiesEvent.Builder) {
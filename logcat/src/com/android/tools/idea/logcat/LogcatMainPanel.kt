@@ -42,15 +42,16 @@ import com.android.tools.idea.logcat.actions.LogcatScrollToTheEndToolbarAction
 import com.android.tools.idea.logcat.actions.LogcatSplitterActions
 import com.android.tools.idea.logcat.actions.LogcatToggleUseSoftWrapsToolbarAction
 import com.android.tools.idea.logcat.actions.NextOccurrenceToolbarAction
+import com.android.tools.idea.logcat.actions.OpenLogcatRecordingAction
 import com.android.tools.idea.logcat.actions.PauseLogcatAction
 import com.android.tools.idea.logcat.actions.PreviousOccurrenceToolbarAction
+import com.android.tools.idea.logcat.actions.RecordingPageAction
 import com.android.tools.idea.logcat.actions.RestartLogcatAction
 import com.android.tools.idea.logcat.actions.ToggleFilterAction
 import com.android.tools.idea.logcat.devices.Device
 import com.android.tools.idea.logcat.filters.LogcatFilter
 import com.android.tools.idea.logcat.filters.LogcatFilter.Companion.MY_PACKAGE
 import com.android.tools.idea.logcat.filters.LogcatFilterParser
-import com.android.tools.idea.logcat.filters.LogcatMasterFilter
 import com.android.tools.idea.logcat.folding.EditorFoldingDetector
 import com.android.tools.idea.logcat.folding.FoldingDetector
 import com.android.tools.idea.logcat.hyperlinks.EditorHyperlinkDetector
@@ -68,6 +69,7 @@ import com.android.tools.idea.logcat.messages.ProcessThreadFormat
 import com.android.tools.idea.logcat.messages.TextAccumulator
 import com.android.tools.idea.logcat.messages.TextAccumulator.FilterHint
 import com.android.tools.idea.logcat.messages.TimestampFormat
+import com.android.tools.idea.logcat.recording.LogcatRecording
 import com.android.tools.idea.logcat.service.LogcatService
 import com.android.tools.idea.logcat.service.LogcatServiceImpl
 import com.android.tools.idea.logcat.settings.AndroidLogcatSettings
@@ -123,6 +125,7 @@ import kotlinx.coroutines.Dispatchers
 import kotlinx.coroutines.Job
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.consumeEach
+import kotlinx.coroutines.ensureActive
 import kotlinx.coroutines.flow.collect
 import kotlinx.coroutines.isActive
 import kotlinx.coroutines.launch
@@ -149,6 +152,9 @@ private const val MAX_TAGS = 1000
 private const val MAX_PACKAGE_NAMES = 1000
 private const val MAX_PROCESS_NAMES = 1000
 
+// Number of backlog messages filtered at a time when reloading.
+private const val RELOAD_BATCH_SIZE = 10_000
+
 private val HAND_CURSOR = Cursor.getPredefinedCursor(Cursor.HAND_CURSOR)
 private val TEXT_CURSOR = Cursor.getPredefinedCursor(Cursor.TEXT_CURSOR)
 
@@ -202,6 +208,11 @@ internal class LogcatMainPanel(
   private val document = editor.document
   private val documentAppender = DocumentAppender(project, document, logcatSettings.bufferSize)
   private val coroutineScope = AndroidCoroutineScope(this)
+  private var reloadJob: Job? = null
+
+  // The recording opened by openRecording and the range of its segments in the view. Cleared when Logcat is resumed.
+  private var recording: LogcatRecording? = null
+  private var recordingPage = IntRange.EMPTY
 
   override var formattingOptions: FormattingOptions = state.getFormattingOptions()
     set(value) {
@@ -212,7 +223,7 @@ internal class LogcatMainPanel(
   private val messageFormatter = MessageFormatter(logcatColors, zoneId)
 
   @VisibleForTesting
-  internal val messageBacklog = AtomicReference(MessageBacklog(logcatSettings.bufferSize))
+  internal val messageBacklog = AtomicReference(createMessageBacklog())
   private val tags = MostRecentlyAddedSet<String>(MAX_TAGS)
   private val packages = MostRecentlyAddedSet<String>(MAX_PACKAGE_NAMES)
   private val processNames = MostRecentlyAddedSet<String>(MAX_PROCESS_NAMES)
@@ -438,7 +449,7 @@ internal class LogcatMainPanel(
   }
 
   override suspend fun appendMessages(textAccumulator: TextAccumulator) = withContext(uiThread(ModalityState.any())) {
-    if (!isActive) {
+    if (!isActive || textAccumulator.generation != messageProcessor.generation) {
       return@withContext
     }
     // Derived from similar code in ConsoleViewImpl. See initScrollToEndStateHandling()
@@ -491,26 +502,43 @@ internal class LogcatMainPanel(
 
   private fun isLogsMissing(): Boolean {
     return document.immutableCharSequence.isEmpty()
-           && messageBacklog.get().messages.isNotEmpty()
+           && !messageBacklog.get().isEmpty()
            && !isMissingApplicationIds()
            && headerPanel.filter.isNotEmpty()
   }
 
   @UiThread
   override fun reloadMessages() {
-    document.setText("")
-    coroutineScope.launch(workerThread) {
-      messageProcessor.appendMessages(messageBacklog.get().messages)
+    val generation = clearDocument()
+    reloadJob?.cancel()
+    reloadJob = coroutineScope.launch(workerThread) {
+      // Stream the matching messages in batches so the first ones show up without waiting for the whole backlog to be filtered.
+      messageBacklog.get().filterInBatches(messageProcessor.logcatFilter, RELOAD_BATCH_SIZE) {
+        ensureActive()
+        messageProcessor.appendFilteredMessages(it, generation)
+      }
       withContext(uiThread) {
         noLogsBanner.isVisible = isLogsMissing()
       }
     }
   }
 
+  /**
+   * Clears the document along with the messages still on their way to it, see [MessageProcessor.startNewGeneration].
+   *
+   * @return the new generation of the document.
+   */
+  @UiThread
+  private fun clearDocument(): Int {
+    val generation = messageProcessor.startNewGeneration()
+    document.setText("")
+    return generation
+  }
+
   override fun getConnectedDevice() = connectedDevice.get()
 
   override fun countFilterMatches(filter: String): Int {
-    return LogcatMasterFilter(logcatFilterParser.parse(filter)).filter(messageBacklog.get().messages).size
+    return messageBacklog.get().filter(logcatFilterParser.parse(filter)).size
   }
 
   override fun getTags(): Set<String> = tags
@@ -524,6 +552,11 @@ internal class LogcatMainPanel(
       add(ClearLogcatAction(this@LogcatMainPanel))
       add(PauseLogcatAction(this@LogcatMainPanel))
       add(RestartLogcatAction(this@LogcatMainPanel))
+      if (StudioFlags.LOGCAT_RECORDING.get()) {
+        add(OpenLogcatRecordingAction(this@LogcatMainPanel))
+        add(RecordingPageAction(this@LogcatMainPanel, earlier = true))
+        add(RecordingPageAction(this@LogcatMainPanel, earlier = false))
+      }
       add(LogcatScrollToTheEndToolbarAction(editor))
       add(PreviousOccurrenceToolbarAction(LogcatOccurrenceNavigator(project, editor)))
       add(NextOccurrenceToolbarAction(LogcatOccurrenceNavigator(project, editor)))
@@ -552,6 +585,7 @@ internal class LogcatMainPanel(
   @UiThread
   override fun resumeLogcat() {
     pausedBanner.isVisible = false
+    closeRecording()
     val device = connectedDevice.get() ?: return
     coroutineScope.launch {
       logcatServiceChannel.send(StartLogcat(device))
@@ -584,9 +618,9 @@ internal class LogcatMainPanel(
           }
         }
       }
-      messageBacklog.set(MessageBacklog(logcatSettings.bufferSize))
+      messageBacklog.set(createMessageBacklog())
       withContext(uiThread) {
-        document.setText("")
+        clearDocument()
         noLogsBanner.isVisible = isLogsMissing()
         processMessages(systemMessages)
       }
@@ -596,12 +630,59 @@ internal class LogcatMainPanel(
   @UiThread
   override fun restartLogcat() {
     val device = connectedDevice.get() ?: return
+    closeRecording()
     coroutineScope.launch {
       logcatServiceChannel.send(StartLogcat(device))
     }
   }
 
-  override fun isLogcatEmpty() = messageBacklog.get().messages.isEmpty()
+  @UiThread
+  override fun openRecording(recording: LogcatRecording) {
+    pauseLogcat()
+    this.recording = recording
+    // A page is as many messages as fit in the backlog, start with the most recent ones.
+    showRecordingPage(recording.getPageBefore(recording.segments.size, logcatSettings.bufferSize))
+  }
+
+  @UiThread
+  override fun hasRecordingPage(earlier: Boolean): Boolean {
+    val recording = recording ?: return false
+    return if (earlier) recordingPage.first > 0 else recordingPage.last < recording.segments.size - 1
+  }
+
+  @UiThread
+  override fun showRecordingPage(earlier: Boolean) {
+    val recording = recording ?: return
+    showRecordingPage(
+      if (earlier) recording.getPageBefore(recordingPage.first, logcatSettings.bufferSize)
+      else recording.getPageAfter(recordingPage.last + 1, logcatSettings.bufferSize))
+  }
+
+  @UiThread
+  private fun showRecordingPage(page: IntRange) {
+    val recording = recording ?: return
+    recordingPage = page
+    reloadJob?.cancel()
+    reloadJob = coroutineScope.launch(workerThread) {
+      // Only the segments of the page are decompressed.
+      val messages = recording.readSegments(page)
+      ensureActive()
+      messageBacklog.set(createMessageBacklog())
+      withContext(uiThread) {
+        clearDocument()
+      }
+      processMessages(messages)
+    }
+  }
+
+  private fun closeRecording() {
+    recording = null
+    recordingPage = IntRange.EMPTY
+  }
+
+  override fun isLogcatEmpty() = messageBacklog.get().isEmpty()
+
+  private fun createMessageBacklog() = MessageBacklog(logcatSettings.bufferSize, StudioFlags.LOGCAT_COMPACT_BACKLOG.get())
 
   override fun getData(dataId: String): Any? {
     val device = connectedDevice.get()
@@ -628,7 +709,7 @@ internal class LogcatMainPanel(
 
   private suspend fun startLogcat(device: Device): Job {
     withContext(uiThread) {
-      document.setText("")
+      clearDocument()
     }
     messageBacklog.get().clear()
 
@@ -21,6 +21,7 @@ import com.android.tools.idea.logcat.filters.LogcatFilter
 import com.android.tools.idea.logcat.message.LogcatMessage
 import com.android.tools.idea.logcat.messages.FormattingOptions
 import com.android.tools.idea.logcat.messages.TextAccumulator
+import com.android.tools.idea.logcat.recording.LogcatRecording
 import com.android.tools.idea.logcat.settings.AndroidLogcatSettings
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.actionSystem.DataKey
@@ -52,6 +53,24 @@ internal interface LogcatPresenter : TagsProvider, PackageNamesProvider, Process
   @UiThread
   fun restartLogcat()
 
+  /**
+   * Pauses Logcat and replaces the messages in the view with the most recent page of messages of a recording
+   */
+  @UiThread
+  fun openRecording(recording: LogcatRecording)
+
+  /**
+   * Returns true if a recording is open and has messages before, or after, the page in the view
+   */
+  @UiThread
+  fun hasRecordingPage(earlier: Boolean): Boolean
+
+  /**
+   * Replaces the messages in the view with the page of the open recording before, or after, the current one
+   */
+  @UiThread
+  fun showRecordingPage(earlier: Boolean)
+
   /**
    * Returns true if the attached logcat is empty
    */
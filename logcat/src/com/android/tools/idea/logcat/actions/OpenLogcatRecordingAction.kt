@@ -0,0 +1,50 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.actions
+
+import com.android.tools.idea.logcat.LogcatBundle
+import com.android.tools.idea.logcat.LogcatPresenter
+import com.android.tools.idea.logcat.recording.LogcatRecorder
+import com.android.tools.idea.logcat.recording.LogcatRecording
+import com.intellij.icons.AllIcons
+import com.intellij.openapi.actionSystem.AnActionEvent
+import com.intellij.openapi.fileChooser.FileChooser
+import com.intellij.openapi.fileChooser.FileChooserDescriptorFactory
+import com.intellij.openapi.project.DumbAwareAction
+import com.intellij.openapi.ui.Messages
+import com.intellij.openapi.vfs.LocalFileSystem
+import java.io.IOException
+
+/**
+ * Opens a recording made by [LogcatRecorder] in the Logcat panel.
+ */
+internal class OpenLogcatRecordingAction(private val logcatPresenter: LogcatPresenter)
+  : DumbAwareAction(LogcatBundle.message("logcat.open.recording.action.text"), null, AllIcons.Actions.MenuOpen) {
+
+  override fun actionPerformed(e: AnActionEvent) {
+    val recordingsDirectory = LocalFileSystem.getInstance().findFileByNioFile(LogcatRecorder.getRecordingsDirectory())
+    FileChooser.chooseFile(FileChooserDescriptorFactory.createSingleFolderDescriptor(), e.project, recordingsDirectory) { file ->
+      val recording = try {
+        LogcatRecording.open(file.toNioPath())
+      }
+      catch (ex: IOException) {
+        Messages.showErrorDialog(e.project, ex.message, LogcatBundle.message("logcat.open.recording.action.text"))
+        return@chooseFile
+      }
+      logcatPresenter.openRecording(recording)
+    }
+  }
+}
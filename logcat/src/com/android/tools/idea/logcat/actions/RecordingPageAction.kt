@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.actions
+
+import com.android.tools.idea.logcat.LogcatBundle
+import com.android.tools.idea.logcat.LogcatPresenter
+import com.intellij.icons.AllIcons
+import com.intellij.openapi.actionSystem.AnActionEvent
+import com.intellij.openapi.project.DumbAwareAction
+
+/**
+ * Shows the page of messages before, or after, the one in view of a recording opened with [OpenLogcatRecordingAction]
+ */
+internal class RecordingPageAction(private val logcatPresenter: LogcatPresenter, private val earlier: Boolean) : DumbAwareAction(
+  LogcatBundle.message(if (earlier) "logcat.recording.page.earlier.action.text" else "logcat.recording.page.later.action.text"),
+  null,
+  if (earlier) AllIcons.Actions.MoveUp else AllIcons.Actions.MoveDown) {
+
+  override fun update(e: AnActionEvent) {
+    e.presentation.isEnabled = logcatPresenter.hasRecordingPage(earlier)
+  }
+
+  override fun actionPerformed(e: AnActionEvent) {
+    logcatPresenter.showRecordingPage(earlier)
+  }
+}
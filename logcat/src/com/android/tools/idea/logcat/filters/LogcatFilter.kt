@@ -136,6 +136,13 @@ internal abstract class FieldFilter(
 ) : LogcatFilter(textRange) {
   override val displayText: String = message(stringResource, field.displayName, "'${string}'")
 
+  override fun matches(message: LogcatMessageWrapper) = matchesValue(field.getValue(message))
+
+  /**
+   * Matches the value of the filter's field. Lets callers that already know the value of a field, for example from an index of the
+   * distinct values seen so far, evaluate the filter without a message.
+   */
+  abstract fun matchesValue(value: String): Boolean
 }
 
 internal data class StringFilter(
@@ -143,7 +150,7 @@ internal data class StringFilter(
   val field: LogcatFilterField,
   override val textRange: TextRange,
 ) : FieldFilter(string, field, textRange, "logcat.filter.completion.hint.key") {
-  override fun matches(message: LogcatMessageWrapper) = field.getValue(message).contains(string, ignoreCase = true)
+  override fun matchesValue(value: String) = value.contains(string, ignoreCase = true)
 }
 
 internal data class NegatedStringFilter(
@@ -151,7 +158,7 @@ internal data class NegatedStringFilter(
   val field: LogcatFilterField,
   override val textRange: TextRange,
 ) : FieldFilter(string, field, textRange, "logcat.filter.completion.hint.key.negated") {
-  override fun matches(message: LogcatMessageWrapper) = !field.getValue(message).contains(string, ignoreCase = true)
+  override fun matchesValue(value: String) = !value.contains(string, ignoreCase = true)
 }
 
 internal data class ExactStringFilter(
@@ -159,7 +166,7 @@ internal data class ExactStringFilter(
   val field: LogcatFilterField,
   override val textRange: TextRange,
 ) : FieldFilter(string, field, textRange, "logcat.filter.completion.hint.key.exact") {
-  override fun matches(message: LogcatMessageWrapper) = field.getValue(message) == string
+  override fun matchesValue(value: String) = value == string
 }
 
 internal data class NegatedExactStringFilter(
@@ -167,7 +174,7 @@ internal data class NegatedExactStringFilter(
   val field: LogcatFilterField,
   override val textRange: TextRange,
 ) : FieldFilter(string, field, textRange, "logcat.filter.completion.hint.key.exact.negated") {
-  override fun matches(message: LogcatMessageWrapper) = field.getValue(message) != string
+  override fun matchesValue(value: String) = value != string
 }
 
 internal data class RegexFilter(
@@ -182,7 +189,7 @@ internal data class RegexFilter(
     throw LogcatFilterParseException(PsiErrorElementImpl("Invalid regular expression: $string"))
   }
 
-  override fun matches(message: LogcatMessageWrapper) = regex.containsMatchIn(field.getValue(message))
+  override fun matchesValue(value: String) = regex.containsMatchIn(value)
 }
 
 internal data class NegatedRegexFilter(
@@ -197,7 +204,7 @@ internal data class NegatedRegexFilter(
     throw LogcatFilterParseException(PsiErrorElementImpl("Invalid regular expression: $string"))
   }
 
-  override fun matches(message: LogcatMessageWrapper) = !regex.containsMatchIn(field.getValue(message))
+  override fun matchesValue(value: String) = !regex.containsMatchIn(value)
 }
 
 internal data class LevelFilter(
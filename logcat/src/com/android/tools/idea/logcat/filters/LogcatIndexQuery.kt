@@ -0,0 +1,136 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.filters
+
+import com.android.tools.idea.logcat.filters.LogcatFilterField.APP
+import com.android.tools.idea.logcat.filters.LogcatFilterField.IMPLICIT_LINE
+import com.android.tools.idea.logcat.filters.LogcatFilterField.LINE
+import com.android.tools.idea.logcat.filters.LogcatFilterField.MESSAGE
+import com.android.tools.idea.logcat.filters.LogcatFilterField.PROCESS
+import com.android.tools.idea.logcat.filters.LogcatFilterField.TAG
+import com.android.tools.idea.logcat.messages.MessageIndex
+import com.android.tools.idea.logcat.messages.MessageIndex.ValueDictionary
+import java.util.BitSet
+
+/**
+ * Evaluates a [LogcatFilter] against a [MessageIndex] to rule out messages without looking at them.
+ *
+ * [mayMatch] is conservative: it returns false only for messages the filter cannot match, so the filter itself must still be run on the
+ * others. Filters the index knows nothing about, for example [AgeFilter] or [ProjectAppFilter], match everything.
+ */
+internal class LogcatIndexQuery(filter: LogcatFilter, private val index: MessageIndex) {
+  private val predicate: ((Long) -> Boolean)? = createPredicate(filter)
+
+  /**
+   * True if the index can rule out messages for this filter at all.
+   */
+  val isSelective: Boolean
+    get() = predicate != null
+
+  fun mayMatch(seq: Long): Boolean = predicate?.invoke(seq) ?: true
+
+  private fun createPredicate(filter: LogcatFilter): ((Long) -> Boolean)? {
+    return when (filter) {
+      is AndLogcatFilter -> {
+        val children = filter.filters.mapNotNull { createPredicate(it) }
+        if (children.isEmpty()) {
+          return null
+        }
+        return { seq: Long -> children.all { it(seq) } }
+      }
+      is OrLogcatFilter -> {
+        val children = filter.filters.map { createPredicate(it) ?: return null }
+        return { seq: Long -> children.any { it(seq) } }
+      }
+      is LevelFilter -> {
+        val ordinal = filter.level.ordinal
+        return { seq: Long -> index.getLevelOrdinal(seq) >= ordinal }
+      }
+      is FieldFilter -> createFieldPredicate(filter)
+      else -> null
+    }
+  }
+
+  private fun createFieldPredicate(filter: FieldFilter): ((Long) -> Boolean)? {
+    val field = when (filter) {
+      is StringFilter -> filter.field
+      is NegatedStringFilter -> filter.field
+      is ExactStringFilter -> filter.field
+      is NegatedExactStringFilter -> filter.field
+      is RegexFilter -> filter.field
+      is NegatedRegexFilter -> filter.field
+      else -> return null
+    }
+    return when (field) {
+      // Filters on these fields only depend on the value, evaluate them once per distinct value.
+      TAG -> createDictionaryPredicate(filter, index.tags, index::getTagId)
+      APP -> createDictionaryPredicate(filter, index.applicationIds, index::getApplicationIdId)
+      PROCESS -> createDictionaryPredicate(filter, index.processNames, index::getProcessNameId)
+      MESSAGE -> {
+        val signature = (filter as? StringFilter)?.let { MessageIndex.getSignature(it.string) } ?: return null
+        return { seq: Long -> index.mayContain(seq, signature) }
+      }
+      LINE, IMPLICIT_LINE -> createLinePredicate(filter)
+    }
+  }
+
+  private fun createDictionaryPredicate(filter: FieldFilter, dictionary: ValueDictionary, getId: (Long) -> Int): (Long) -> Boolean {
+    val matcher = DictionaryMatcher(filter, dictionary)
+    return { seq -> matcher.matches(getId(seq)) }
+  }
+
+  /**
+   * A line is formatted by [LogcatMessageWrapper] as: "date time pid-tid tag applicationId level: message". A term made only of letters
+   * cannot match the date, time, ids or level, and cannot span several parts since they are separated by spaces and punctuation. So it
+   * can only be found in the tag, the application id or the message.
+   */
+  private fun createLinePredicate(filter: FieldFilter): ((Long) -> Boolean)? {
+    if (filter !is StringFilter || !filter.string.all { it.isLetter() || it == '_' }) {
+      return null
+    }
+    val signature = MessageIndex.getSignature(filter.string) ?: return null
+    val tagMatcher = DictionaryMatcher(filter, index.tags)
+    val applicationIdMatcher = DictionaryMatcher(filter, index.applicationIds)
+    return { seq: Long ->
+      index.mayContain(seq, signature)
+      || tagMatcher.matches(index.getTagId(seq))
+      || applicationIdMatcher.matches(index.getApplicationIdId(seq))
+    }
+  }
+
+  /**
+   * Caches the result of a [FieldFilter] for each value of a [ValueDictionary]. Values added to the dictionary later are evaluated when
+   * first seen, and the cache is dropped when the dictionary reassigns its ids.
+   */
+  private class DictionaryMatcher(private val filter: FieldFilter, private val dictionary: ValueDictionary) {
+    private val evaluated = BitSet()
+    private val matching = BitSet()
+    private var epoch = dictionary.epoch
+
+    fun matches(id: Int): Boolean {
+      if (epoch != dictionary.epoch) {
+        epoch = dictionary.epoch
+        evaluated.clear()
+        matching.clear()
+      }
+      if (!evaluated[id]) {
+        evaluated.set(id)
+        matching[id] = filter.matchesValue(dictionary[id])
+      }
+      return matching[id]
+    }
+  }
+}
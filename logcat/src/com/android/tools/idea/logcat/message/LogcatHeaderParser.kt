@@ -23,6 +23,7 @@ import com.android.tools.idea.logcat.message.LogcatHeaderParser.LogcatFormat.EPO
 import java.time.Instant
 import java.time.ZoneId
 import java.time.ZonedDateTime
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit.MILLISECONDS
 
 private val EPOCH = Regex("(?<epochSec>\\d+)\\.(?<epochMilli>\\d\\d\\d)")
@@ -39,6 +40,10 @@ private val PRIORITY = Regex("(?<priority>[VDIWEAF])")
 
 private val TAG = Regex("(?<tag>.*?)")
 
+// Headers are cached per process, thread and tag. The cache is dropped when it grows beyond this size so a device that spawns many
+// short-lived processes cannot grow it indefinitely.
+private const val MAX_CACHED_HEADERS = 4096
+
 /**
  * Pattern for "logcat -v long" ([ MM-DD HH:MM:SS.mmm PID:TID LEVEL/TAG ]) or "logcat -v long,epoch"
  * header ([ SSSSSSSSSS.mmm PID:TID LEVEL/TAG ]). Example:
@@ -64,6 +69,12 @@ private val HEADER_STANDARD_REGEX = Regex(
  *
  * Or:
  * `[ 06-02 19:00:00.710 +0000  1722: 2393 I/DisplayPowerController[0] ]`
+ *
+ * Apps log bursts of messages from the same process, thread and tag, so the last header parsed for each such tuple is kept and reused
+ * when the next one is identical, or copied with a new timestamp otherwise. This way the strings of a header are shared by all the
+ * messages of a tuple.
+ *
+ * This class is thread safe so headers of a batch can be parsed concurrently.
  */
 internal class LogcatHeaderParser(
   private val format: LogcatFormat,
@@ -77,6 +88,8 @@ internal class LogcatHeaderParser(
     STANDARD_FORMAT(HEADER_STANDARD_REGEX),
   }
 
+  private val headerCache = ConcurrentHashMap<HeaderKey, LogcatHeader>()
+
   /**
    * Parse a header line into a [LogcatHeader] object, or `null` if the input line
    * doesn't match the expected format.
@@ -88,6 +101,10 @@ internal class LogcatHeaderParser(
    * header.
    */
   fun parseHeader(line: String, serialNumber: String): LogcatHeader? {
+    // Most lines are message lines. Rule them out before running the regex.
+    if (!line.startsWith("[ ") || !line.endsWith(']')) {
+      return null
+    }
     val result = format.regex.matchEntire(line) ?: return null
 
     val timestamp = when (format) {
@@ -99,15 +116,24 @@ internal class LogcatHeaderParser(
     val groups = result.groups
     val pid = parsePid(groups["pid"]!!.value)
     val processNames = processNameMonitor.getProcessNames(serialNumber, pid)
-    return LogcatHeader(
-      parsePriority(groups["priority"]!!.value),
-      pid,
-      parseThreadId(groups["tid"]!!.value),
-      processNames?.applicationId ?: "",
-      if (pid == 0) "kernel" else processNames?.processName ?: "pid-$pid",
-      groups["tag"]!!.value,
-      timestamp
-    )
+    val logLevel = parsePriority(groups["priority"]!!.value)
+    val tid = parseThreadId(groups["tid"]!!.value)
+    val applicationId = processNames?.applicationId ?: ""
+    val processName = if (pid == 0) "kernel" else processNames?.processName ?: "pid-$pid"
+    val key = HeaderKey(logLevel, pid, tid, groups["tag"]!!.value)
+
+    val cached = headerCache[key]
+    val header = when {
+      cached == null || cached.applicationId != applicationId || cached.processName != processName ->
+        LogcatHeader(logLevel, pid, tid, applicationId, processName, key.tag, timestamp)
+      cached.timestamp == timestamp -> return cached
+      else -> cached.copy(timestamp = timestamp)
+    }
+    if (headerCache.size >= MAX_CACHED_HEADERS) {
+      headerCache.clear()
+    }
+    headerCache[key] = header
+    return header
   }
 
   /**
@@ -129,6 +155,8 @@ internal class LogcatHeaderParser(
     }
     return ASSERT
   }
+
+  private data class HeaderKey(val logLevel: LogLevel, val pid: Int, val tid: Int, val tag: String)
 }
 
 private fun MatchResult.getEpochTimestamp(): Instant {
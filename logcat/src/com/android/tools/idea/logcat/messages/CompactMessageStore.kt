@@ -0,0 +1,231 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.messages
+
+import com.android.tools.idea.logcat.SYSTEM_HEADER
+import com.android.tools.idea.logcat.message.LogLevel
+import com.android.tools.idea.logcat.message.LogcatHeader
+import com.android.tools.idea.logcat.message.LogcatMessage
+import com.google.common.annotations.VisibleForTesting
+import java.nio.ByteBuffer
+import java.time.Instant
+import kotlin.math.max
+import kotlin.text.Charsets.UTF_8
+
+private const val DEFAULT_CHUNK_SIZE = 256 * 1024
+
+// Record layout: template id (int), epoch seconds (long), nanos (int), UTF-8 length (int) followed by the UTF-8 bytes of the message.
+private const val RECORD_HEADER_SIZE = 4 + 8 + 4 + 4
+
+// Template id of messages using SYSTEM_HEADER, which is compared by identity and must be decoded to the same instance.
+private const val SYSTEM_TEMPLATE_ID = -1
+
+/**
+ * A [MessageStore] that encodes messages into a sequence of off-heap chunks used as a ring buffer.
+ *
+ * Every message is stored as a record referencing a shared [HeaderTemplate], which holds everything in a [LogcatHeader] except the
+ * timestamp, followed by the message text. Chatty apps log from a small set of process, thread and tag tuples so the templates, and the
+ * strings they reference, are shared by most messages. Messages are only decoded back into [LogcatMessage]s when [messages] is read.
+ *
+ * Chunks are released as soon as all of their messages were removed, and templates as soon as no message references them anymore, so
+ * memory stays bounded by the backlog size. Like the [ArrayDeque] based store this is not thread safe.
+ */
+internal class CompactMessageStore(private val chunkSize: Int = DEFAULT_CHUNK_SIZE) : MessageStore {
+  // Templates by id, ids of released templates are null until reused.
+  private val templates = ArrayList<HeaderTemplate?>()
+  private val templateIds = HashMap<HeaderTemplate, Int>()
+  private var templateRefCounts = IntArray(16)
+  private val freeTemplateIds = ArrayList<Int>()
+  private val chunks = ArrayList<Chunk>()
+  private var spareBuffer: ByteBuffer? = null
+
+  // Sequence number of the oldest message and of the next message to be added. Chunks are looked up by sequence number.
+  private var headSeq = 0L
+  private var tailSeq = 0L
+
+  override val messages: List<LogcatMessage> = MessagesView()
+
+  @VisibleForTesting
+  val chunkCount: Int
+    get() = chunks.size
+
+  @VisibleForTesting
+  val templateCount: Int
+    get() = templateIds.size
+
+  override fun addAll(collection: List<LogcatMessage>) {
+    collection.forEach { add(it) }
+  }
+
+  override fun removeFirst(): Int {
+    if (headSeq == tailSeq) {
+      throw NoSuchElementException("Store is empty")
+    }
+    val chunk = chunks[0]
+    val index = (headSeq - chunk.firstSeq).toInt()
+    val length = chunk.lengths[index]
+    releaseTemplate(chunk.buffer.getInt(chunk.offsets[index]))
+    headSeq++
+    if (headSeq == chunk.firstSeq + chunk.count) {
+      chunks.removeAt(0)
+      recycle(chunk)
+    }
+    return length
+  }
+
+  override fun clear() {
+    chunks.forEach { recycle(it) }
+    chunks.clear()
+    templates.clear()
+    templateIds.clear()
+    templateRefCounts.fill(0)
+    freeTemplateIds.clear()
+    headSeq = 0
+    tailSeq = 0
+  }
+
+  private fun add(message: LogcatMessage) {
+    val header = message.header
+    val templateId = if (header === SYSTEM_HEADER) SYSTEM_TEMPLATE_ID else getTemplateId(header)
+    val text = message.message.toByteArray(UTF_8)
+    val recordSize = RECORD_HEADER_SIZE + text.size
+
+    var chunk = chunks.lastOrNull()
+    if (chunk == null || chunk.buffer.remaining() < recordSize) {
+      chunk = Chunk(allocate(max(chunkSize, recordSize)), tailSeq)
+      chunks.add(chunk)
+    }
+    chunk.add(templateId, header.timestamp, text, message.message.length)
+    tailSeq++
+  }
+
+  private fun getTemplateId(header: LogcatHeader): Int {
+    val template = HeaderTemplate(header.logLevel, header.pid, header.tid, header.applicationId, header.processName, header.tag)
+    val id = templateIds.getOrPut(template) {
+      val freeId = freeTemplateIds.removeLastOrNull()
+      if (freeId != null) {
+        templates[freeId] = template
+        return@getOrPut freeId
+      }
+      templates.add(template)
+      if (templates.size > templateRefCounts.size) {
+        templateRefCounts = templateRefCounts.copyOf(templates.size * 2)
+      }
+      templates.size - 1
+    }
+    templateRefCounts[id]++
+    return id
+  }
+
+  private fun releaseTemplate(id: Int) {
+    if (id == SYSTEM_TEMPLATE_ID || --templateRefCounts[id] > 0) {
+      return
+    }
+    templateIds.remove(templates[id])
+    templates[id] = null
+    freeTemplateIds.add(id)
+  }
+
+  private fun decode(seq: Long): LogcatMessage {
+    val chunk = findChunk(seq)
+    val offset = chunk.offsets[(seq - chunk.firstSeq).toInt()]
+    val buffer = chunk.buffer
+    val templateId = buffer.getInt(offset)
+    val text = ByteArray(buffer.getInt(offset + 16))
+    buffer.duplicate().apply { position(offset + RECORD_HEADER_SIZE) }.get(text)
+    if (templateId == SYSTEM_TEMPLATE_ID) {
+      return LogcatMessage(SYSTEM_HEADER, String(text, UTF_8))
+    }
+    val template = templates[templateId] ?: throw IllegalStateException("Template $templateId was released")
+    val timestamp = Instant.ofEpochSecond(buffer.getLong(offset + 4), buffer.getInt(offset + 12).toLong())
+    return LogcatMessage(
+      LogcatHeader(template.logLevel, template.pid, template.tid, template.applicationId, template.processName, template.tag, timestamp),
+      String(text, UTF_8))
+  }
+
+  private fun findChunk(seq: Long): Chunk {
+    var low = 0
+    var high = chunks.size - 1
+    while (low < high) {
+      val mid = (low + high + 1) ushr 1
+      if (chunks[mid].firstSeq <= seq) {
+        low = mid
+      }
+      else {
+        high = mid - 1
+      }
+    }
+    return chunks[low]
+  }
+
+  private fun allocate(size: Int): ByteBuffer {
+    val spare = spareBuffer
+    if (spare != null && spare.capacity() >= size) {
+      spareBuffer = null
+      spare.clear()
+      return spare
+    }
+    return ByteBuffer.allocateDirect(size)
+  }
+
+  private fun recycle(chunk: Chunk) {
+    // Keep a single buffer around so a backlog at capacity does not allocate a new chunk every time it evicts one.
+    if (chunk.buffer.capacity() == chunkSize) {
+      spareBuffer = chunk.buffer
+    }
+  }
+
+  private inner class MessagesView : AbstractList<LogcatMessage>(), RandomAccess {
+    override val size: Int
+      get() = (tailSeq - headSeq).toInt()
+
+    override fun get(index: Int): LogcatMessage {
+      if (index < 0 || index >= size) {
+        throw IndexOutOfBoundsException("Index: $index, Size: $size")
+      }
+      return decode(headSeq + index)
+    }
+  }
+
+  /**
+   * The parts of a [LogcatHeader] shared by consecutive messages of a thread.
+   */
+  private data class HeaderTemplate(
+    val logLevel: LogLevel,
+    val pid: Int,
+    val tid: Int,
+    val applicationId: String,
+    val processName: String,
+    val tag: String,
+  )
+
+  private class Chunk(val buffer: ByteBuffer, val firstSeq: Long) {
+    var offsets = IntArray(64)
+    var lengths = IntArray(64)
+    var count = 0
+
+    fun add(templateId: Int, timestamp: Instant, text: ByteArray, length: Int) {
+      if (count == offsets.size) {
+        offsets = offsets.copyOf(count * 2)
+        lengths = lengths.copyOf(count * 2)
+      }
+      offsets[count] = buffer.position()
+      lengths[count] = length
+      count++
+      buffer.putInt(templateId).putLong(timestamp.epochSecond).putInt(timestamp.nano).putInt(text.size).put(text)
+    }
+  }
+}
@@ -15,8 +15,15 @@
  */
 package com.android.tools.idea.logcat.messages
 
+import com.android.tools.idea.logcat.SYSTEM_HEADER
+import com.android.tools.idea.logcat.filters.LogcatFilter
+import com.android.tools.idea.logcat.filters.LogcatIndexQuery
+import com.android.tools.idea.logcat.filters.LogcatMessageWrapper
 import com.android.tools.idea.logcat.message.LogcatMessage
+import java.time.ZoneId
 import java.util.Collections
+import kotlin.math.max
+import kotlin.math.min
 
 /**
  * Manages a cyclic collection of [LogcatMessage]s that is limited by the size in bytes of the payload.
@@ -29,14 +36,28 @@ import java.util.Collections
  * than the minimal size required to render a message. Therefore, the backlog will contain more messages than the actual displayed window,
  * even if no filters are applied and the formatting options are at their minimum.
  *
+ * If [compact] is true, messages are encoded into a [CompactMessageStore] and only decoded when [messages] is read, which keeps a large
+ * backlog mostly off-heap.
+ *
+ * A [MessageIndex] of the messages is maintained so [filter] and [filterInBatches] can skip messages that cannot match without
+ * formatting them.
+ *
  * TODO(aalbert): Maybe pass in the current formatting options setting and calculate the size more accurately.
  */
-internal class MessageBacklog(private var maxSize: Int) {
+internal class MessageBacklog(private var maxSize: Int, compact: Boolean = false) {
 
-  // The internal messages collection is exposed as a read-only list
-  private val _messages = ArrayDeque<LogcatMessage>()
+  private val store: MessageStore = if (compact) CompactMessageStore() else DequeMessageStore()
+  private val index = MessageIndex()
+
+  // Incremented by clear() so filterInBatches() can tell its index query is stale.
+  private var generation = 0
+
+  /**
+   * A read-only snapshot of the messages, taken under the backlog's lock. The store's own view reads its backing storage unsynchronized,
+   * so it is only used while holding the lock.
+   */
   val messages: List<LogcatMessage>
-    get() = Collections.unmodifiableList(_messages)
+    @Synchronized get() = Collections.unmodifiableList(ArrayList(store.messages))
 
   private var size = 0
 
@@ -44,6 +65,7 @@ internal class MessageBacklog(private var maxSize: Int) {
     assert(maxSize > 0)
   }
 
+  @Synchronized
   fun addAll(collection: List<LogcatMessage>) {
     val addedSize = collection.sumOf { it.message.length }
 
@@ -53,35 +75,159 @@ internal class MessageBacklog(private var maxSize: Int) {
     // It would be simpler to just add the messages and then remove the overflowing ones but this way is slightly more efficient in terms of
     // memory thrashing.
     if (addedSize >= maxSize) {
-      _messages.clear()
+      store.clear()
+      index.clear()
       size = addedSize
       val i = collection.indexOfFirst {
         size -= it.message.length
         size <= maxSize
       }
-      _messages.addAll(collection.subList(i + 1, collection.size))
+      val added = collection.subList(i + 1, collection.size)
+      store.addAll(added)
+      added.forEach(index::add)
     }
     else {
       size += addedSize
       while (size > maxSize) {
-        size -= _messages.removeFirst().message.length
+        size -= removeFirst()
       }
-      _messages.addAll(collection)
+      store.addAll(collection)
+      collection.forEach(index::add)
     }
   }
 
+  @Synchronized
   fun setMaxSize(newSize: Int) {
     if (newSize < maxSize) {
       while (size > newSize) {
-        size -= _messages.removeFirst().message.length
+        size -= removeFirst()
       }
     }
     maxSize = newSize
 
   }
 
+  @Synchronized
+  fun isEmpty() = store.messages.isEmpty()
+
+  @Synchronized
   fun clear() {
-    _messages.clear()
+    store.clear()
+    index.clear()
     size = 0
+    generation++
+  }
+
+  /**
+   * Returns the messages matching [logcatFilter]. Same as [com.android.tools.idea.logcat.filters.LogcatMasterFilter] applied to [messages]
+   * but only runs the filter on messages the index could not rule out.
+   */
+  fun filter(logcatFilter: LogcatFilter?, zoneId: ZoneId = ZoneId.systemDefault()): List<LogcatMessage> {
+    return synchronized(this) {
+      if (logcatFilter == null) {
+        return ArrayList(store.messages)
+      }
+      logcatFilter.prepare()
+      filterRange(logcatFilter, LogcatIndexQuery(logcatFilter, index), index.headSeq, index.tailSeq, zoneId)
+    }
+  }
+
+  /**
+   * Passes the messages matching [logcatFilter] to [consumer], in order, in batches obtained by scanning up to [batchSize] messages at a
+   * time. The backlog is only locked while a batch is computed so new messages can be added while the consumer renders earlier batches.
+   *
+   * Messages added after this is called are not included. Messages evicted before their batch is computed are skipped, and nothing more
+   * is passed to the consumer if the backlog is cleared.
+   */
+  suspend fun filterInBatches(
+    logcatFilter: LogcatFilter?,
+    batchSize: Int,
+    zoneId: ZoneId = ZoneId.systemDefault(),
+    consumer: suspend (List<LogcatMessage>) -> Unit,
+  ) {
+    val (startGeneration, query, endSeq) = synchronized(this) {
+      logcatFilter?.prepare()
+      Triple(generation, logcatFilter?.let { LogcatIndexQuery(it, index) }, index.tailSeq)
+    }
+    var seq = Long.MIN_VALUE
+    while (true) {
+      val batch = synchronized(this) {
+        if (generation != startGeneration) {
+          return
+        }
+        val from = max(seq, index.headSeq)
+        val to = min(from + batchSize, endSeq)
+        if (from >= to) {
+          return
+        }
+        seq = to
+        if (logcatFilter == null || query == null) store.messages.subList(index.position(from), index.position(to)).toList()
+        else filterRange(logcatFilter, query, from, to, zoneId)
+      }
+      if (batch.isNotEmpty()) {
+        consumer(batch)
+      }
+    }
+  }
+
+  private fun filterRange(logcatFilter: LogcatFilter, query: LogcatIndexQuery, fromSeq: Long, toSeq: Long, zoneId: ZoneId)
+    : List<LogcatMessage> {
+    val result = mutableListOf<LogcatMessage>()
+    val messages = store.messages
+    for (seq in fromSeq until toSeq) {
+      if (!index.isSystemMessage(seq) && !query.mayMatch(seq)) {
+        continue
+      }
+      val message = messages[index.position(seq)]
+      if (message.header === SYSTEM_HEADER || logcatFilter.matches(LogcatMessageWrapper(message, zoneId))) {
+        result.add(message)
+      }
+    }
+    return result
+  }
+
+  private fun removeFirst(): Int {
+    index.removeFirst()
+    return store.removeFirst()
+  }
+
+  /**
+   * Position of a message in [messages].
+   */
+  private fun MessageIndex.position(seq: Long) = (seq - headSeq).toInt()
+}
+
+/**
+ * Storage of the messages of a [MessageBacklog].
+ */
+internal interface MessageStore {
+  /**
+   * A read-only view of the stored messages, oldest first.
+   */
+  val messages: List<LogcatMessage>
+
+  fun addAll(collection: List<LogcatMessage>)
+
+  /**
+   * Removes the oldest message and returns the length of its [LogcatMessage.message].
+   */
+  fun removeFirst(): Int
+
+  fun clear()
+}
+
+private class DequeMessageStore : MessageStore {
+  private val _messages = ArrayDeque<LogcatMessage>()
+
+  override val messages: List<LogcatMessage> = Collections.unmodifiableList(_messages)
+
+  override fun addAll(collection: List<LogcatMessage>) {
+    _messages.addAll(collection)
+  }
+
+  override fun removeFirst(): Int = _messages.removeFirst().message.length
+
+  override fun clear() {
+    _messages.clear()
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.messages
+
+import com.android.tools.idea.logcat.SYSTEM_HEADER
+import com.android.tools.idea.logcat.message.LogLevel
+import com.android.tools.idea.logcat.message.LogcatMessage
+
+private const val INITIAL_CAPACITY = 1024
+
+// Number of longs in the n-gram signature of a message.
+private const val SIGNATURE_LONGS = 4
+private const val SIGNATURE_BITS = SIGNATURE_LONGS * 64
+
+private const val SYSTEM_LEVEL: Byte = -1
+
+// Number of values a dictionary may hold beyond twice the number of indexed messages before it is rebuilt from the indexed messages.
+private const val DICTIONARY_SLACK = 1024
+
+/**
+ * An index over the messages of a [MessageBacklog] used to skip messages that cannot match a filter without decoding or formatting them.
+ *
+ * Messages are addressed by a sequence number that increases with every added message, so positions stay valid while old messages are
+ * evicted. For every message the index keeps:
+ * * The ids of its tag, application id and process name in dictionaries of distinct values, so a field filter only needs to be evaluated
+ *   once per distinct value. Values of evicted messages are dropped from the dictionaries once they outnumber the indexed messages.
+ * * Its log level.
+ * * A small signature of the trigrams of its text, similar to a bloom filter. A message whose signature lacks any trigram of a search term
+ *   cannot contain the term. False positives are possible so the actual filter must still be run on messages that pass.
+ *
+ * Not thread safe.
+ */
+internal class MessageIndex {
+  val tags = ValueDictionary()
+  val applicationIds = ValueDictionary()
+  val processNames = ValueDictionary()
+
+  private var tagIds = IntArray(INITIAL_CAPACITY)
+  private var applicationIdIds = IntArray(INITIAL_CAPACITY)
+  private var processNameIds = IntArray(INITIAL_CAPACITY)
+  private var levels = ByteArray(INITIAL_CAPACITY)
+  private var signatures = LongArray(INITIAL_CAPACITY * SIGNATURE_LONGS)
+
+  /**
+   * Sequence number of the oldest message in the index.
+   */
+  var headSeq = 0L
+    private set
+
+  /**
+   * Sequence number the next message added to the index will get.
+   */
+  var tailSeq = 0L
+    private set
+
+  val size: Int
+    get() = (tailSeq - headSeq).toInt()
+
+  fun add(message: LogcatMessage) {
+    if (size == levels.size) {
+      grow()
+    }
+    val position = position(tailSeq)
+    val header = message.header
+    tagIds[position] = tags.getId(header.tag)
+    applicationIdIds[position] = applicationIds.getId(header.applicationId)
+    processNameIds[position] = processNames.getId(header.processName)
+    levels[position] = if (header === SYSTEM_HEADER) SYSTEM_LEVEL else header.logLevel.ordinal.toByte()
+    signatures.fill(0, position * SIGNATURE_LONGS, (position + 1) * SIGNATURE_LONGS)
+    forEachTrigramBit(message.message) { bit ->
+      signatures[position * SIGNATURE_LONGS + (bit ushr 6)] = signatures[position * SIGNATURE_LONGS + (bit ushr 6)] or (1L shl bit)
+    }
+    tailSeq++
+  }
+
+  fun removeFirst() {
+    if (headSeq == tailSeq) {
+      throw NoSuchElementException("Index is empty")
+    }
+    headSeq++
+    compact(tags, tagIds)
+    compact(applicationIds, applicationIdIds)
+    compact(processNames, processNameIds)
+  }
+
+  fun clear() {
+    tags.clear()
+    applicationIds.clear()
+    processNames.clear()
+    // Keep sequence numbers increasing so positions obtained before the clear are never reused.
+    headSeq = tailSeq
+  }
+
+  fun isSystemMessage(seq: Long) = levels[position(seq)] == SYSTEM_LEVEL
+
+  /**
+   * Returns the ordinal of the [LogLevel] of a message. Only valid for messages that are not system messages.
+   */
+  fun getLevelOrdinal(seq: Long): Int = levels[position(seq)].toInt()
+
+  fun getTagId(seq: Long) = tagIds[position(seq)]
+
+  fun getApplicationIdId(seq: Long) = applicationIdIds[position(seq)]
+
+  fun getProcessNameId(seq: Long) = processNameIds[position(seq)]
+
+  /**
+   * Returns false if the text of a message definitely does not contain the term [signature] was computed from with [getSignature].
+   */
+  fun mayContain(seq: Long, signature: LongArray): Boolean {
+    val offset = position(seq) * SIGNATURE_LONGS
+    for (i in 0 until SIGNATURE_LONGS) {
+      if ((signatures[offset + i] and signature[i]) != signature[i]) {
+        return false
+      }
+    }
+    return true
+  }
+
+  private fun position(seq: Long) = (seq and (levels.size - 1).toLong()).toInt()
+
+  /**
+   * Rebuilds [dictionary] with only the values of the indexed messages if it grew too large, which keeps it bounded by the backlog size
+   * when evicted messages had distinct values (e.g. short lived processes). Each rebuild is paid for by the values added since the last
+   * one, so this is amortized constant time per message.
+   */
+  private fun compact(dictionary: ValueDictionary, ids: IntArray) {
+    if (dictionary.size <= size * 2 + DICTIONARY_SLACK) {
+      return
+    }
+    val newIds = IntArray(dictionary.size) { -1 }
+    val values = mutableListOf<String>()
+    for (seq in headSeq until tailSeq) {
+      val position = position(seq)
+      val id = ids[position]
+      if (newIds[id] < 0) {
+        newIds[id] = values.size
+        values.add(dictionary[id])
+      }
+      ids[position] = newIds[id]
+    }
+    dictionary.reset(values)
+  }
+
+  private fun grow() {
+    val capacity = levels.size * 2
+    val newTagIds = IntArray(capacity)
+    val newApplicationIdIds = IntArray(capacity)
+    val newProcessNameIds = IntArray(capacity)
+    val newLevels = ByteArray(capacity)
+    val newSignatures = LongArray(capacity * SIGNATURE_LONGS)
+    for (seq in headSeq until tailSeq) {
+      val from = position(seq)
+      val to = (seq and (capacity - 1).toLong()).toInt()
+      newTagIds[to] = tagIds[from]
+      newApplicationIdIds[to] = applicationIdIds[from]
+      newProcessNameIds[to] = processNameIds[from]
+      newLevels[to] = levels[from]
+      System.arraycopy(signatures, from * SIGNATURE_LONGS, newSignatures, to * SIGNATURE_LONGS, SIGNATURE_LONGS)
+    }
+    tagIds = newTagIds
+    applicationIdIds = newApplicationIdIds
+    processNameIds = newProcessNameIds
+    levels = newLevels
+    signatures = newSignatures
+  }
+
+  /**
+   * The distinct values of a field, each assigned a dense id.
+   */
+  class ValueDictionary {
+    private val values = mutableListOf<String>()
+    private val ids = HashMap<String, Int>()
+
+    /**
+     * Incremented whenever existing ids are reassigned, so anything cached by id must be discarded.
+     */
+    var epoch = 0
+      private set
+
+    val size: Int
+      get() = values.size
+
+    operator fun get(id: Int) = values[id]
+
+    fun getId(value: String): Int = ids.getOrPut(value) {
+      values.add(value)
+      values.size - 1
+    }
+
+    fun clear() {
+      reset(emptyList())
+    }
+
+    /**
+     * Replaces the values with [newValues], which get the ids of their positions.
+     */
+    fun reset(newValues: List<String>) {
+      values.clear()
+      ids.clear()
+      newValues.forEach { getId(it) }
+      epoch++
+    }
+  }
+
+  companion object {
+    /**
+     * Returns the signature of a term to pass to [mayContain], or null if the term is too short to be looked up in the index.
+     */
+    fun getSignature(term: String): LongArray? {
+      if (term.length < 3) {
+        return null
+      }
+      val signature = LongArray(SIGNATURE_LONGS)
+      forEachTrigramBit(term) { bit -> signature[bit ushr 6] = signature[bit ushr 6] or (1L shl bit) }
+      return signature
+    }
+  }
+}
+
+private inline fun forEachTrigramBit(text: String, consumer: (Int) -> Unit) {
+  if (text.length < 3) {
+    return
+  }
+  var c0 = normalize(text[0])
+  var c1 = normalize(text[1])
+  for (i in 2 until text.length) {
+    val c2 = normalize(text[i])
+    val hash = ((c0.code * 31 + c1.code) * 31 + c2.code) * -0x61c88647
+    consumer(hash ushr (32 - Integer.numberOfTrailingZeros(SIGNATURE_BITS)))
+    c0 = c1
+    c1 = c2
+  }
+}
+
+// Both sides of a case insensitive comparison map to the same character, see String.regionMatches().
+private fun normalize(c: Char) = Character.toLowerCase(Character.toUpperCase(c))
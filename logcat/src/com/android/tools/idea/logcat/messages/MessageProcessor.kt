@@ -60,7 +60,15 @@ internal class MessageProcessor @TestOnly constructor(
     StudioFlags.LOGCAT_MAX_MESSAGES_PER_BATCH.get(),
     autoStart = true)
 
-  private val messageChannel = Channel<List<LogcatMessage>>(CHANNEL_CAPACITY)
+  private val messageChannel = Channel<Batch>(CHANNEL_CAPACITY)
+
+  /**
+   * Incremented by [startNewGeneration] when the document is cleared. Batches sent and text formatted for an earlier generation are
+   * dropped instead of being appended to the cleared document.
+   */
+  @Volatile
+  var generation = 0
+    private set
 
   init {
     if (autoStart) {
@@ -70,12 +78,30 @@ internal class MessageProcessor @TestOnly constructor(
 
   internal suspend fun appendMessages(messages: List<LogcatMessage>): List<LogcatMessage> {
     val filteredMessages = LogcatMasterFilter(logcatFilter).filter(messages)
-    if (filteredMessages.isNotEmpty()) {
-      messageChannel.send(filteredMessages)
-    }
+    appendFilteredMessages(filteredMessages)
     return filteredMessages
   }
 
+  /**
+   * Appends messages that were already filtered with [logcatFilter], for example by [MessageBacklog.filterInBatches].
+   *
+   * @param generation the generation the messages belong to, they are dropped if it is not the current one anymore by the time they
+   * are appended.
+   */
+  internal suspend fun appendFilteredMessages(messages: List<LogcatMessage>, generation: Int = this.generation) {
+    if (messages.isNotEmpty()) {
+      messageChannel.send(Batch(generation, messages))
+    }
+  }
+
+  /**
+   * Starts a new generation, dropping everything sent before. Call this on the UI thread along with clearing the document, so that
+   * [LogcatPresenter.appendMessages] can tell text of the previous generation by its [TextAccumulator.generation].
+   *
+   * @return the new generation, to pass to [appendFilteredMessages] for messages reloaded into the cleared document.
+   */
+  internal fun startNewGeneration(): Int = ++generation
+
   // TODO(b/200212377): @ExperimentalCoroutinesApi ReceiveChannel#isEmpty is required. See bug for details.
   @Suppress("OPT_IN_USAGE")
   @TestOnly
@@ -88,26 +114,34 @@ internal class MessageProcessor @TestOnly constructor(
     }
     AndroidCoroutineScope(logcatPresenter, workerThread).launch(exceptionHandler) {
       // TODO(b/200322275): Manage the life cycle of textAccumulator in a more GC friendly way.
-      var textAccumulator = TextAccumulator()
+      var textAccumulator = TextAccumulator(generation)
       var totalMessages = 0 // Number of messages in current batch
       var numMessages = 0 // Number of messages in current batch
       var lastFlushTime = 0L // The last time we flushed a batch
       var startTime = 0L // Time of arrival of the first message - used in debug log
 
       while (true) {
-        val messages = messageChannel.receive()
-        if (startTime == 0L) {
-          startTime = clock.millis()
-          lastFlushTime = startTime
+        val (batchGeneration, messages) = messageChannel.receive()
+        // Batches sent before the document was last cleared are dropped, and so is the text formatted from them.
+        if (textAccumulator.generation != generation) {
+          textAccumulator = TextAccumulator(generation)
+          numMessages = 0
+        }
+        if (batchGeneration == generation) {
+          if (startTime == 0L) {
+            startTime = clock.millis()
+            lastFlushTime = startTime
+          }
+          numMessages += messages.size
+          totalMessages += messages.size
+          formatMessagesInto(textAccumulator, messages)
         }
-        numMessages += messages.size
-        totalMessages += messages.size
-        formatMessagesInto(textAccumulator, messages)
 
         // TODO(b/200212377): @ExperimentalCoroutinesApi ReceiveChannel#isEmpty is required. See bug for details.
         val now = clock.millis()
         @Suppress("OPT_IN_USAGE")
-        if (messageChannel.isEmpty || now - lastFlushTime > maxTimePerBatchMs || numMessages > maxMessagesPerBatch) {
+        if (numMessages > 0
+            && (messageChannel.isEmpty || now - lastFlushTime > maxTimePerBatchMs || numMessages > maxMessagesPerBatch)) {
           val timeInAppendMessages = measureTimeMillis { logcatPresenter.appendMessages(textAccumulator) }
           LOGGER.debug {
             val timeSinceStart = now - startTime
@@ -118,11 +152,13 @@ internal class MessageProcessor @TestOnly constructor(
             "totalMessages=$totalMessages " +
             "timeInAppendMessages=$timeInAppendMessages"
           }
-          textAccumulator = TextAccumulator()
+          textAccumulator = TextAccumulator(generation)
           lastFlushTime = now
           numMessages = 0
         }
       }
     }
   }
+
+  private data class Batch(val generation: Int, val messages: List<LogcatMessage>)
 }
@@ -22,8 +22,10 @@ import com.intellij.openapi.editor.markup.TextAttributes
 
 /**
  * Accumulates fragments of text into a text buffer and a list of colored ranges.
+ *
+ * @param generation the [MessageProcessor.generation] the text was formatted for.
  */
-internal class TextAccumulator {
+internal class TextAccumulator(val generation: Int = 0) {
   private val stringBuilder = StringBuilder()
 
   val text: String get() = stringBuilder.toString()
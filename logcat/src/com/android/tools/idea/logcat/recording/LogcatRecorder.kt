@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.recording
+
+import com.android.tools.idea.logcat.SYSTEM_HEADER
+import com.android.tools.idea.logcat.devices.Device
+import com.android.tools.idea.logcat.message.LogcatMessage
+import com.android.tools.idea.logcat.util.LOGGER
+import com.intellij.openapi.application.PathManager
+import com.intellij.openapi.util.io.FileUtil
+import java.io.BufferedOutputStream
+import java.io.Closeable
+import java.io.DataOutputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.Paths
+import java.nio.file.StandardOpenOption.CREATE_NEW
+import java.time.LocalDateTime
+import java.time.format.DateTimeFormatter
+import java.util.zip.GZIPOutputStream
+import kotlin.math.max
+import kotlin.math.min
+import kotlin.streams.toList
+
+private const val DEFAULT_MAX_SEGMENT_MESSAGES = 10_000
+
+// Number of recordings kept in the recordings directory. Older ones are deleted when a new recording starts.
+private const val MAX_RECORDINGS = 20
+
+private val RECORDING_NAME_FORMATTER = DateTimeFormatter.ofPattern("yyyyMMdd-HHmmss")
+
+/**
+ * Writes [LogcatMessage]s received from a device to a recording directory that can be read back with [LogcatRecording].
+ *
+ * Messages are written to GZIP compressed segments of up to [maxSegmentMessages] messages. When a segment is complete, its time range,
+ * levels and size are appended to the index so a reader can seek to a point in time, or skip segments without a level of interest, without
+ * decompressing anything.
+ *
+ * Not thread safe. Messages of the segment being written only become visible to readers once the segment is closed.
+ */
+internal class LogcatRecorder(
+  val directory: Path,
+  private val maxSegmentMessages: Int = DEFAULT_MAX_SEGMENT_MESSAGES,
+) : Closeable {
+  private val index: DataOutputStream
+  private var segment: SegmentWriter? = null
+  private var nextSegmentNumber = 0
+  private var isClosed = false
+
+  init {
+    Files.createDirectories(directory)
+    index = DataOutputStream(BufferedOutputStream(Files.newOutputStream(directory.resolve(INDEX_FILE_NAME), CREATE_NEW)))
+    index.writeInt(INDEX_MAGIC)
+    index.writeInt(INDEX_VERSION)
+    index.flush()
+  }
+
+  fun write(messages: List<LogcatMessage>) {
+    check(!isClosed) { "Recorder is closed" }
+    for (message in messages) {
+      val writer = segment ?: SegmentWriter(nextSegmentNumber++).also { segment = it }
+      writer.write(message)
+      if (writer.messageCount >= maxSegmentMessages) {
+        closeSegment()
+      }
+    }
+  }
+
+  override fun close() {
+    if (isClosed) {
+      return
+    }
+    isClosed = true
+    try {
+      closeSegment()
+    }
+    finally {
+      index.close()
+    }
+  }
+
+  private fun closeSegment() {
+    val writer = segment ?: return
+    segment = null
+    writer.close()
+    writer.toSegmentInfo().write(index)
+    index.flush()
+  }
+
+  private inner class SegmentWriter(private val number: Int) {
+    private val output = DataOutputStream(BufferedOutputStream(GZIPOutputStream(Files.newOutputStream(getSegmentPath(directory, number)))))
+    var messageCount = 0
+      private set
+    private var textLength = 0L
+    private var firstTimestamp = Long.MAX_VALUE
+    private var lastTimestamp = Long.MIN_VALUE
+    private var levelMask = 0
+
+    fun write(message: LogcatMessage) {
+      output.writeMessage(message)
+      messageCount++
+      textLength += message.message.length
+      val header = message.header
+      if (header === SYSTEM_HEADER) {
+        levelMask = levelMask or SYSTEM_LEVEL_BIT
+      }
+      else {
+        val timestamp = header.timestamp.toEpochMilli()
+        firstTimestamp = min(firstTimestamp, timestamp)
+        lastTimestamp = max(lastTimestamp, timestamp)
+        levelMask = levelMask or (1 shl header.logLevel.ordinal)
+      }
+    }
+
+    fun close() {
+      output.close()
+    }
+
+    fun toSegmentInfo() = SegmentInfo(number, messageCount, textLength, firstTimestamp, lastTimestamp, levelMask)
+  }
+
+  companion object {
+    fun getRecordingsDirectory(): Path = Paths.get(PathManager.getSystemPath(), "logcat", "recordings")
+
+    /**
+     * Creates a recorder for a new recording of a device in [getRecordingsDirectory], deleting the oldest recordings if there are too many.
+     */
+    fun create(device: Device): LogcatRecorder {
+      val root = getRecordingsDirectory()
+      deleteOldRecordings(root)
+      val name = "${FileUtil.sanitizeFileName(device.serialNumber)}-${RECORDING_NAME_FORMATTER.format(LocalDateTime.now())}"
+      return LogcatRecorder(FileUtil.findSequentNonexistentFile(root.toFile(), name, "").toPath())
+    }
+
+    private fun deleteOldRecordings(root: Path) {
+      if (!Files.isDirectory(root)) {
+        return
+      }
+      val recordings = Files.list(root).use { paths -> paths.filter { Files.isDirectory(it) }.toList() }
+      recordings.sortedByDescending { Files.getLastModifiedTime(it) }.drop(MAX_RECORDINGS - 1).forEach {
+        try {
+          FileUtil.delete(it)
+        }
+        catch (e: IOException) {
+          LOGGER.warn("Failed to delete old Logcat recording $it", e)
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.recording
+
+import com.android.tools.idea.logcat.message.LogcatMessage
+import java.io.BufferedInputStream
+import java.io.DataInputStream
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.util.zip.GZIPInputStream
+
+/**
+ * Read access to a recording written by [LogcatRecorder].
+ *
+ * Only the index is loaded when a recording is opened. Segments are decompressed on demand, a page at a time, so even recordings of several
+ * hours can be browsed without holding them in memory.
+ */
+internal class LogcatRecording private constructor(val directory: Path, val segments: List<SegmentInfo>) {
+
+  val messageCount: Long
+    get() = segments.sumOf { it.messageCount.toLong() }
+
+  fun readSegment(segment: SegmentInfo): List<LogcatMessage> {
+    DataInputStream(BufferedInputStream(GZIPInputStream(Files.newInputStream(getSegmentPath(directory, segment.number))))).use { input ->
+      return List(segment.messageCount) { input.readMessage() }
+    }
+  }
+
+  fun readSegments(range: IntRange): List<LogcatMessage> = segments.slice(range).flatMap { readSegment(it) }
+
+  /**
+   * Returns the range of segments that make up the page of messages right before segment [end]: the fewest segments whose total text
+   * length is at least [maxLength], or all segments before [end] if they are shorter.
+   */
+  fun getPageBefore(end: Int, maxLength: Int): IntRange {
+    var length = 0L
+    var first = end
+    while (first > 0 && length < maxLength) {
+      first--
+      length += segments[first].textLength
+    }
+    return first until end
+  }
+
+  /**
+   * Returns the range of segments that make up the page of messages starting at segment [start], see [getPageBefore].
+   */
+  fun getPageAfter(start: Int, maxLength: Int): IntRange {
+    var length = 0L
+    var last = start - 1
+    while (last < segments.size - 1 && length < maxLength) {
+      last++
+      length += segments[last].textLength
+    }
+    return start..last
+  }
+
+  companion object {
+    /**
+     * Opens a recording by reading its index.
+     *
+     * @throws IOException if the directory is not a recording or its index cannot be read
+     */
+    fun open(directory: Path): LogcatRecording {
+      val indexPath = directory.resolve(INDEX_FILE_NAME)
+      if (!Files.isRegularFile(indexPath)) {
+        throw IOException("$directory is not a Logcat recording")
+      }
+      val size = Files.size(indexPath)
+      DataInputStream(BufferedInputStream(Files.newInputStream(indexPath))).use { input ->
+        if (size < INDEX_HEADER_SIZE || input.readInt() != INDEX_MAGIC) {
+          throw IOException("$directory is not a Logcat recording")
+        }
+        val version = input.readInt()
+        if (version != INDEX_VERSION) {
+          throw IOException("Unsupported Logcat recording version $version")
+        }
+        // An entry cut short by a crash while it was being written is ignored.
+        val count = ((size - INDEX_HEADER_SIZE) / INDEX_ENTRY_SIZE).toInt()
+        return LogcatRecording(directory, List(count) { SegmentInfo.read(input) })
+      }
+    }
+  }
+}
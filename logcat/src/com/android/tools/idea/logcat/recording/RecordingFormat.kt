@@ -0,0 +1,130 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.recording
+
+import com.android.tools.idea.logcat.SYSTEM_HEADER
+import com.android.tools.idea.logcat.message.LogLevel
+import com.android.tools.idea.logcat.message.LogcatHeader
+import com.android.tools.idea.logcat.message.LogcatMessage
+import java.io.DataInputStream
+import java.io.DataOutputStream
+import java.nio.file.Path
+import java.time.Instant
+import kotlin.text.Charsets.UTF_8
+
+/*
+ * A recording is a directory with an index file and a sequence of segment files.
+ *
+ * The index starts with INDEX_MAGIC and INDEX_VERSION followed by a fixed size entry for each complete segment, see [SegmentInfo]. An entry
+ * is only appended once its segment is closed, so a recording interrupted by a crash is still readable up to the last complete segment.
+ *
+ * Each segment is a GZIP stream of messages. A message is its level ordinal, or SYSTEM_LEVEL for system messages, followed by the header
+ * fields if it's not a system message, followed by the message text.
+ */
+
+internal const val INDEX_FILE_NAME = "index"
+internal const val INDEX_MAGIC = 0x4c434154 // "LCAT"
+internal const val INDEX_VERSION = 1
+internal const val INDEX_HEADER_SIZE = 4 + 4
+
+// Segment number (int), message count (int), text length (long), first and last timestamps in epoch millis (long), level mask (int).
+internal const val INDEX_ENTRY_SIZE = 4 + 4 + 8 + 8 + 8 + 4
+
+private const val SYSTEM_LEVEL: Byte = -1
+
+// Bit set in the level mask of a segment that contains system messages.
+internal const val SYSTEM_LEVEL_BIT = 1 shl 31
+
+internal fun getSegmentPath(directory: Path, number: Int): Path = directory.resolve("segment-%06d.gz".format(number))
+
+/**
+ * Summary of a complete segment as stored in the index.
+ *
+ * @param firstTimestamp the earliest timestamp of a non-system message, or [Long.MAX_VALUE] if there is none
+ * @param lastTimestamp the latest timestamp of a non-system message, or [Long.MIN_VALUE] if there is none
+ * @param levelMask a bit for each [LogLevel] ordinal present in the segment, plus [SYSTEM_LEVEL_BIT]
+ */
+internal data class SegmentInfo(
+  val number: Int,
+  val messageCount: Int,
+  val textLength: Long,
+  val firstTimestamp: Long,
+  val lastTimestamp: Long,
+  val levelMask: Int,
+) {
+  fun write(output: DataOutputStream) {
+    output.writeInt(number)
+    output.writeInt(messageCount)
+    output.writeLong(textLength)
+    output.writeLong(firstTimestamp)
+    output.writeLong(lastTimestamp)
+    output.writeInt(levelMask)
+  }
+
+  companion object {
+    fun read(input: DataInputStream): SegmentInfo =
+      SegmentInfo(input.readInt(), input.readInt(), input.readLong(), input.readLong(), input.readLong(), input.readInt())
+  }
+}
+
+internal fun DataOutputStream.writeMessage(message: LogcatMessage) {
+  val header = message.header
+  if (header === SYSTEM_HEADER) {
+    writeByte(SYSTEM_LEVEL.toInt())
+  }
+  else {
+    writeByte(header.logLevel.ordinal)
+    writeInt(header.pid)
+    writeInt(header.tid)
+    writeString(header.applicationId)
+    writeString(header.processName)
+    writeString(header.tag)
+    writeLong(header.timestamp.epochSecond)
+    writeInt(header.timestamp.nano)
+  }
+  writeString(message.message)
+}
+
+internal fun DataInputStream.readMessage(): LogcatMessage {
+  val level = readByte()
+  val header = if (level == SYSTEM_LEVEL) {
+    SYSTEM_HEADER
+  }
+  else {
+    LogcatHeader(
+      LogLevel.values()[level.toInt()],
+      pid = readInt(),
+      tid = readInt(),
+      applicationId = readString(),
+      processName = readString(),
+      tag = readString(),
+      timestamp = Instant.ofEpochSecond(readLong(), readInt().toLong()))
+  }
+  return LogcatMessage(header, readString())
+}
+
+// DataOutputStream.writeUTF() is limited to 64K bytes which a long message could exceed.
+private fun DataOutputStream.writeString(value: String) {
+  val bytes = value.toByteArray(UTF_8)
+  writeInt(bytes.size)
+  write(bytes)
+}
+
+private fun DataInputStream.readString(): String {
+  val bytes = ByteArray(readInt())
+  readFully(bytes)
+  return String(bytes, UTF_8)
+}
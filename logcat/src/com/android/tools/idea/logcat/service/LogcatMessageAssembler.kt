@@ -24,7 +24,13 @@ import com.android.tools.idea.logcat.message.LogcatHeaderParser
 import com.android.tools.idea.logcat.message.LogcatMessage
 import com.intellij.openapi.Disposable
 import com.intellij.openapi.util.Disposer
+import com.intellij.util.concurrency.AppExecutorUtil
+import kotlinx.coroutines.CoroutineDispatcher
+import kotlinx.coroutines.async
+import kotlinx.coroutines.asCoroutineDispatcher
+import kotlinx.coroutines.awaitAll
 import kotlinx.coroutines.channels.SendChannel
+import kotlinx.coroutines.coroutineScope
 import kotlinx.coroutines.delay
 import kotlinx.coroutines.launch
 import java.util.concurrent.atomic.AtomicReference
@@ -32,6 +38,18 @@ import kotlin.coroutines.CoroutineContext
 
 private const val SYSTEM_LINE_PREFIX = "--------- beginning of "
 
+/**
+ * Batches of up to this many lines are parsed on the calling coroutine. Larger batches are split into chunks of this size and parsed
+ * concurrently.
+ */
+private const val PARSING_CHUNK_SIZE = 2000
+
+/**
+ * A worker pool shared by the assemblers of all devices, so bursts from several devices don't use more threads than there are cores.
+ */
+private val headerParsingDispatcher: CoroutineDispatcher = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+  "Logcat Header Parser", Runtime.getRuntime().availableProcessors().coerceAtLeast(1)).asCoroutineDispatcher()
+
 /**
  * Receives batches of lines from an `adb logcat -v long` process and assembles them into complete [LogcatMessage]'s.
  *
@@ -51,6 +69,9 @@ private const val SYSTEM_LINE_PREFIX = "--------- beginning of "
  * Note:
  * This is flaky by definition but given the Logcat ambiguous format, it's the best we can do.
  *
+ * Parsing a line does not depend on the lines before it, so large batches are parsed in chunks on a bounded worker pool. Only grouping
+ * parsed lines into messages is sequential, which keeps messages in the order they were received.
+ *
  * This class is derived from [com.android.tools.idea.logcat.AndroidLogcatReceiver]
  */
 internal class LogcatMessageAssembler(
@@ -61,6 +82,7 @@ internal class LogcatMessageAssembler(
   processNameMonitor: ProcessNameMonitor,
   coroutineContext: CoroutineContext,
   private val lastMessageDelayMs: Long,
+  private val parsingDispatcher: CoroutineDispatcher = headerParsingDispatcher,
 ) : Disposable {
   private val coroutineScope = AndroidCoroutineScope(this, coroutineContext)
 
@@ -100,7 +122,7 @@ internal class LogcatMessageAssembler(
     val state = previousState.getAndReset()
 
     // Parse new lines and send log messages
-    val batch: Batch = parseNewLines(state, newLines)
+    val batch: Batch = assembleMessages(state, parseNewLines(newLines))
     if (batch.messages.isNotEmpty()) {
       channel.send(batch.messages)
     }
@@ -128,19 +150,36 @@ internal class LogcatMessageAssembler(
 
   override fun dispose() {}
 
-  private fun parseNewLines(
-    state: PartialMessage?, newLines: List<String>): Batch {
+  /**
+   * Parses a batch of lines, concurrently if the batch is large. The returned list has an entry for each line, in order.
+   */
+  private suspend fun parseNewLines(newLines: List<String>): List<ParsedLine> {
+    if (newLines.size <= PARSING_CHUNK_SIZE) {
+      return newLines.map { parseLine(it) }
+    }
+    return coroutineScope {
+      newLines.chunked(PARSING_CHUNK_SIZE)
+        .map { chunk -> async(parsingDispatcher) { chunk.map { parseLine(it) } } }
+        .awaitAll()
+        .flatten()
+    }
+  }
+
+  private fun parseLine(rawLine: String): ParsedLine {
+    val line = rawLine.fixLine()
+    return ParsedLine(line, if (line.isSystemLine()) SYSTEM_HEADER else headerParser.parseHeader(line, serialNumber))
+  }
 
+  private fun assembleMessages(state: PartialMessage?, parsedLines: List<ParsedLine>): Batch {
     var lastHeader = state?.header
     val lastLines = state?.lines?.toMutableList() ?: mutableListOf()
     val batchMessages = mutableListOf<LogcatMessage>()
 
-    for (line in newLines.map { it.fixLine() }) {
-      if (line.isSystemLine()) {
+    for ((line, header) in parsedLines) {
+      if (header === SYSTEM_HEADER) {
         batchMessages.add(LogcatMessage(SYSTEM_HEADER, line))
         continue
       }
-      val header = headerParser.parseHeader(line, serialNumber)
       if (header != null) {
         // It's a header, flush active lines.
         if (lastHeader != null && lastLines.isNotEmpty()) {
@@ -157,6 +196,11 @@ internal class LogcatMessageAssembler(
     return Batch(batchMessages, lastHeader, lastLines)
   }
 
+  /**
+   * A line and its parsed header. The header is [SYSTEM_HEADER] for system lines and null for message lines.
+   */
+  private data class ParsedLine(val line: String, val header: LogcatHeader?)
+
   /**
    * A batch consists of the first n-1 log entries in a batch. The last entry can be incomplete and is stored as a header and a list of
    * lines.
@@ -6,24 +6,40 @@ import com.android.adblib.shellAsText
 import com.android.adblib.utils.LineBatchShellCollector
 import com.android.sdklib.AndroidVersion
 import com.android.tools.idea.adb.processnamemonitor.ProcessNameMonitor
+import com.android.tools.idea.flags.StudioFlags
+import com.android.tools.idea.logcat.LogcatBundle
 import com.android.tools.idea.logcat.SYSTEM_HEADER
 import com.android.tools.idea.logcat.devices.Device
 import com.android.tools.idea.logcat.message.LogcatHeaderParser.LogcatFormat
 import com.android.tools.idea.logcat.message.LogcatHeaderParser.LogcatFormat.EPOCH_FORMAT
 import com.android.tools.idea.logcat.message.LogcatHeaderParser.LogcatFormat.STANDARD_FORMAT
 import com.android.tools.idea.logcat.message.LogcatMessage
+import com.android.tools.idea.logcat.recording.LogcatRecorder
+import com.android.tools.idea.logcat.util.LOGGER
 import com.intellij.openapi.Disposable
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.flow.Flow
 import kotlinx.coroutines.flow.channelFlow
 import kotlinx.coroutines.flow.collect
+import kotlinx.coroutines.launch
 import org.jetbrains.annotations.VisibleForTesting
+import java.io.IOException
 import java.time.Duration
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.coroutines.CoroutineContext
 
 /**
  * Last message in batch will be posted after a delay, to allow for more log lines if another batch is pending.
  */
 private const val LOGCAT_IDLE_TIMEOUT_MILLIS = 100L
 
+/**
+ * Number of batches waiting to be written to a recording. If the recorder falls further behind, new batches are not recorded and a
+ * message noting the gap is recorded in their place.
+ */
+private const val RECORDING_BUFFER_CAPACITY = 256
+
 /**
  * Implementation of a [LogcatService]
  */
@@ -32,14 +48,61 @@ internal class LogcatServiceImpl @VisibleForTesting constructor (
   private val deviceServicesFactory: () -> AdbDeviceServices,
   private val processNameMonitor: ProcessNameMonitor,
   private val lastMessageDelayMs: Long,
+  private val recorderFactory: ((Device) -> LogcatRecorder)? = null,
+  private val recordingContext: CoroutineContext = Dispatchers.IO,
 ) : LogcatService {
   constructor(
     disposableParent: Disposable,
     deviceServicesFactory: () -> AdbDeviceServices,
     processNameMonitor: ProcessNameMonitor,
-  ): this(disposableParent, deviceServicesFactory, processNameMonitor, LOGCAT_IDLE_TIMEOUT_MILLIS)
+  ): this(disposableParent, deviceServicesFactory, processNameMonitor, LOGCAT_IDLE_TIMEOUT_MILLIS,
+          if (StudioFlags.LOGCAT_RECORDING.get()) { device -> LogcatRecorder.create(device) } else null)
 
   override suspend fun readLogcat(device: Device): Flow<List<LogcatMessage>> {
+    val messages = readMessages(device)
+    val recorderFactory = recorderFactory ?: return messages
+    @Suppress("OPT_IN_USAGE")
+    return channelFlow {
+      // Creating the recording and writing to it is blocking I/O, so it's done by a separate coroutine that is handed the batches and
+      // never holds up the messages. Recording is best effort, so when the recorder can't keep up batches are dropped rather than
+      // buffering an unbounded amount of messages. The flow completes once the recording is closed.
+      val batches = RecordingBuffer(RECORDING_BUFFER_CAPACITY)
+      launch(recordingContext) { record(device, recorderFactory, batches) }
+      try {
+        messages.collect {
+          batches.offer(it)
+          send(it)
+        }
+      }
+      finally {
+        batches.close()
+      }
+    }
+  }
+
+  private suspend fun record(device: Device, recorderFactory: (Device) -> LogcatRecorder, batches: RecordingBuffer) {
+    val recorder = try {
+      recorderFactory(device)
+    }
+    catch (e: IOException) {
+      LOGGER.warn("Failed to create Logcat recording", e)
+      batches.cancel()
+      return
+    }
+    try {
+      batches.forEach { recorder.write(it) }
+    }
+    catch (e: IOException) {
+      // Recording is best effort. Stop recording but keep reading logcat.
+      LOGGER.warn("Failed to write Logcat recording ${recorder.directory}", e)
+      batches.cancel()
+    }
+    finally {
+      recorder.closeQuietly()
+    }
+  }
+
+  private fun readMessages(device: Device): Flow<List<LogcatMessage>> {
     val deviceSelector = DeviceSelector.fromSerialNumber(device.serialNumber)
     @Suppress("OPT_IN_USAGE")
     return channelFlow {
@@ -84,6 +147,67 @@ internal class LogcatServiceImpl @VisibleForTesting constructor (
   }
 }
 
+/**
+ * Bounded buffer of the batches waiting to be written to a recording.
+ *
+ * [offer] never suspends: when the buffer is full the batch is dropped. [forEach] replays the batches that were kept and, in place of
+ * the ones that were dropped, a system message with the number of messages missing, so the gap shows when the recording is viewed.
+ */
+@VisibleForTesting
+internal class RecordingBuffer(capacity: Int) {
+  private class Batch(val messages: List<LogcatMessage>, val droppedBefore: Int)
+
+  private val batches = Channel<Batch>(capacity)
+
+  /**
+   * Number of messages dropped since the last batch that was kept.
+   */
+  private val dropped = AtomicInteger()
+
+  fun offer(messages: List<LogcatMessage>) {
+    val droppedBefore = dropped.getAndSet(0)
+    if (!batches.trySend(Batch(messages, droppedBefore)).isSuccess) {
+      dropped.addAndGet(droppedBefore + messages.size)
+    }
+  }
+
+  fun close() {
+    batches.close()
+  }
+
+  fun cancel() {
+    batches.cancel()
+  }
+
+  /**
+   * Calls [action] with every batch kept until the buffer is closed.
+   */
+  suspend fun forEach(action: (List<LogcatMessage>) -> Unit) {
+    for (batch in batches) {
+      if (batch.droppedBefore > 0) {
+        action(listOf(gapMessage(batch.droppedBefore)))
+      }
+      action(batch.messages)
+    }
+    // The buffer is closed once nothing more is offered, so this also accounts for the batches dropped last.
+    val droppedLast = dropped.getAndSet(0)
+    if (droppedLast > 0) {
+      action(listOf(gapMessage(droppedLast)))
+    }
+  }
+
+  private fun gapMessage(count: Int) = LogcatMessage(SYSTEM_HEADER, LogcatBundle.message("logcat.recording.gap", count))
+}
+
+private fun LogcatRecorder.closeQuietly() {
+  try {
+    close()
+  }
+  catch (e: IOException) {
+    LOGGER.warn("Failed to close Logcat recording $directory", e)
+  }
+}
+
 private val Device.logcatFormat get() = if (sdk >= AndroidVersion.VersionCodes.N) EPOCH_FORMAT else STANDARD_FORMAT
 
 private fun buildLogcatCommand(logcatFormat: LogcatFormat): String {
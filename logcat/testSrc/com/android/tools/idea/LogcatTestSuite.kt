@@ -17,9 +17,13 @@ package com.android.tools.idea
 
 import com.android.testutils.JarTestSuiteRunner
 import com.android.testutils.JarTestSuiteRunner.ExcludeClasses
+import com.android.tools.idea.logcat.performance.LogcatMessageAssemblerPerformanceTest
 import com.android.tools.tests.IdeaTestSuiteBase
 import org.junit.runner.RunWith
 
 @RunWith(JarTestSuiteRunner::class)
-@ExcludeClasses(LogcatTestSuite::class) // a suite mustn't contain itself
+@ExcludeClasses(
+  LogcatTestSuite::class, // a suite mustn't contain itself
+  LogcatMessageAssemblerPerformanceTest::class, // benchmark, run on demand
+)
 class LogcatTestSuite : IdeaTestSuiteBase()
\ No newline at end of file
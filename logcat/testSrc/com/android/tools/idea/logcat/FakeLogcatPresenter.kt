@@ -20,6 +20,7 @@ import com.android.tools.idea.logcat.filters.LogcatFilter
 import com.android.tools.idea.logcat.message.LogcatMessage
 import com.android.tools.idea.logcat.messages.FormattingOptions
 import com.android.tools.idea.logcat.messages.TextAccumulator
+import com.android.tools.idea.logcat.recording.LogcatRecording
 import com.android.tools.idea.logcat.settings.AndroidLogcatSettings
 
 /*
@@ -65,6 +66,16 @@ internal class FakeLogcatPresenter : LogcatPresenter {
     logcatRestartedCount++
   }
 
+  override fun openRecording(recording: LogcatRecording) {
+    TODO("Not yet implemented")
+  }
+
+  override fun hasRecordingPage(earlier: Boolean): Boolean = false
+
+  override fun showRecordingPage(earlier: Boolean) {
+    TODO("Not yet implemented")
+  }
+
   override fun isLogcatEmpty(): Boolean = lineBatches.isEmpty()
 
   override suspend fun processMessages(messages: List<LogcatMessage>) {
@@ -56,6 +56,8 @@ import com.android.tools.idea.logcat.messages.FormattingOptions.Style.COMPACT
 import com.android.tools.idea.logcat.messages.FormattingOptions.Style.STANDARD
 import com.android.tools.idea.logcat.messages.LogcatColors
 import com.android.tools.idea.logcat.messages.TagFormat
+import com.android.tools.idea.logcat.recording.LogcatRecorder
+import com.android.tools.idea.logcat.recording.LogcatRecording
 import com.android.tools.idea.logcat.service.LogcatService
 import com.android.tools.idea.logcat.settings.AndroidLogcatSettings
 import com.android.tools.idea.logcat.testing.TestDevice
@@ -104,6 +106,7 @@ import kotlinx.coroutines.runBlocking
 import org.junit.Before
 import org.junit.Rule
 import org.junit.Test
+import org.junit.rules.TemporaryFolder
 import org.mockito.Mockito.times
 import org.mockito.Mockito.verify
 import java.awt.BorderLayout
@@ -128,9 +131,11 @@ class LogcatMainPanelTest {
   private val popupRule = PopupRule()
   private val androidExecutorsRule = AndroidExecutorsRule(workerThreadExecutor = executor)
   private val usageTrackerRule = UsageTrackerRule()
+  private val temporaryFolder = TemporaryFolder()
 
   @get:Rule
-  val rule = RuleChain(projectRule, EdtRule(), androidExecutorsRule, popupRule, LogcatFilterLanguageRule(), usageTrackerRule)
+  val rule =
+    RuleChain(projectRule, EdtRule(), androidExecutorsRule, popupRule, LogcatFilterLanguageRule(), usageTrackerRule, temporaryFolder)
 
   private val mockHyperlinkDetector = mock<HyperlinkDetector>()
   private val mockFoldingDetector = mock<FoldingDetector>()
@@ -669,6 +674,33 @@ class LogcatMainPanelTest {
     }
   }
 
+  @Test
+  fun openRecording_pagesThroughSegments(): Unit = runBlocking {
+    val directory = temporaryFolder.root.toPath().resolve("recording")
+    val messages = List(30) { logcatMessage(message = "%05d".format(it)) }
+    LogcatRecorder(directory, maxSegmentMessages = 10).use { it.write(messages) }
+    // Each segment holds 50 characters so a page is a single segment.
+    val logcatMainPanel = runInEdtAndGet { logcatMainPanel(logcatSettings = AndroidLogcatSettings(bufferSize = 50)) }
+    fun lastMessage() = logcatMainPanel.messageBacklog.get().messages.lastOrNull()
+    fun hasPage(earlier: Boolean) = runInEdtAndGet { logcatMainPanel.hasRecordingPage(earlier) }
+
+    runInEdtAndWait { logcatMainPanel.openRecording(LogcatRecording.open(directory)) }
+    waitForCondition { lastMessage() == messages[29] }
+    assertThat(hasPage(earlier = true)).isTrue()
+    assertThat(hasPage(earlier = false)).isFalse()
+
+    runInEdtAndWait { logcatMainPanel.showRecordingPage(earlier = true) }
+    waitForCondition { lastMessage() == messages[19] }
+    runInEdtAndWait { logcatMainPanel.showRecordingPage(earlier = true) }
+    waitForCondition { lastMessage() == messages[9] }
+    assertThat(hasPage(earlier = true)).isFalse()
+    assertThat(hasPage(earlier = false)).isTrue()
+
+    runInEdtAndWait { logcatMainPanel.showRecordingPage(earlier = false) }
+    waitForCondition { lastMessage() == messages[19] }
+    assertThat(logcatMainPanel.messageBacklog.get().messages).containsNoneIn(messages.subList(0, 10) + messages.subList(20, 30))
+  }
+
   @Test
   fun processMessage_updatesTags(): Unit = runBlocking {
     val logcatMainPanel = runInEdtAndGet(this@LogcatMainPanelTest::logcatMainPanel)
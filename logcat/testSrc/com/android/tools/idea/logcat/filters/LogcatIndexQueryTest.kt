@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.filters
+
+import com.android.tools.idea.logcat.filters.LogcatFilterField.APP
+import com.android.tools.idea.logcat.filters.LogcatFilterField.IMPLICIT_LINE
+import com.android.tools.idea.logcat.filters.LogcatFilterField.LINE
+import com.android.tools.idea.logcat.filters.LogcatFilterField.MESSAGE
+import com.android.tools.idea.logcat.filters.LogcatFilterField.TAG
+import com.android.tools.idea.logcat.logcatMessage
+import com.android.tools.idea.logcat.message.LogLevel.DEBUG
+import com.android.tools.idea.logcat.message.LogLevel.ERROR
+import com.android.tools.idea.logcat.message.LogLevel.INFO
+import com.android.tools.idea.logcat.message.LogLevel.WARN
+import com.android.tools.idea.logcat.messages.MessageIndex
+import com.google.common.truth.Truth.assertThat
+import com.intellij.openapi.util.TextRange.EMPTY_RANGE
+import org.junit.Test
+import java.time.Clock
+
+private val MESSAGES = listOf(
+  logcatMessage(logLevel = DEBUG, appId = "com.app1", tag = "Network", message = "Connection opened"),
+  logcatMessage(logLevel = INFO, appId = "com.app1", tag = "Network", message = "Connection closed"),
+  logcatMessage(logLevel = WARN, appId = "com.app2", tag = "Storage", message = "Disk almost full"),
+  logcatMessage(logLevel = ERROR, appId = "com.app2", tag = "Storage", message = "Disk full"),
+)
+
+/**
+ * Tests for [LogcatIndexQuery]
+ */
+class LogcatIndexQueryTest {
+  private val index = MessageIndex().apply { MESSAGES.forEach(::add) }
+
+  @Test
+  fun levelFilter() {
+    assertThat(mayMatch(LevelFilter(WARN, EMPTY_RANGE))).containsExactly(2, 3)
+  }
+
+  @Test
+  fun tagFilters() {
+    assertThat(mayMatch(StringFilter("netw", TAG, EMPTY_RANGE))).containsExactly(0, 1)
+    assertThat(mayMatch(NegatedExactStringFilter("Network", TAG, EMPTY_RANGE))).containsExactly(2, 3)
+    assertThat(mayMatch(RegexFilter("^Sto", TAG, EMPTY_RANGE))).containsExactly(2, 3)
+  }
+
+  @Test
+  fun appFilter() {
+    assertThat(mayMatch(ExactStringFilter("com.app1", APP, EMPTY_RANGE))).containsExactly(0, 1)
+  }
+
+  @Test
+  fun messageFilter() {
+    assertThat(mayMatch(StringFilter("DISK", MESSAGE, EMPTY_RANGE))).containsExactly(2, 3)
+  }
+
+  @Test
+  fun messageFilter_shortTerm_notSelective() {
+    assertThat(LogcatIndexQuery(StringFilter("di", MESSAGE, EMPTY_RANGE), index).isSelective).isFalse()
+  }
+
+  @Test
+  fun lineFilter_matchesTagAndMessage() {
+    assertThat(mayMatch(StringFilter("storage", IMPLICIT_LINE, EMPTY_RANGE))).containsExactly(2, 3)
+    assertThat(mayMatch(StringFilter("opened", LINE, EMPTY_RANGE))).containsExactly(0)
+  }
+
+  @Test
+  fun lineFilter_nonLetters_notSelective() {
+    assertThat(LogcatIndexQuery(StringFilter("12:00", IMPLICIT_LINE, EMPTY_RANGE), index).isSelective).isFalse()
+  }
+
+  @Test
+  fun andFilter_ignoresUnknownFilters() {
+    val filter = AndLogcatFilter(LevelFilter(ERROR, EMPTY_RANGE), AgeFilter("10s", Clock.systemUTC(), EMPTY_RANGE))
+
+    assertThat(mayMatch(filter)).containsExactly(3)
+  }
+
+  @Test
+  fun orFilter_unknownFilter_notSelective() {
+    val filter = OrLogcatFilter(LevelFilter(ERROR, EMPTY_RANGE), AgeFilter("10s", Clock.systemUTC(), EMPTY_RANGE))
+
+    assertThat(LogcatIndexQuery(filter, index).isSelective).isFalse()
+  }
+
+  @Test
+  fun orFilter() {
+    val filter = OrLogcatFilter(LevelFilter(ERROR, EMPTY_RANGE), StringFilter("opened", MESSAGE, EMPTY_RANGE))
+
+    assertThat(mayMatch(filter)).containsExactly(0, 3)
+  }
+
+  @Test
+  fun tagFilter_dictionaryCompacted() {
+    val index = MessageIndex()
+    val query = LogcatIndexQuery(ExactStringFilter("Network", TAG, EMPTY_RANGE), index)
+    index.add(logcatMessage(tag = "Network"))
+    assertThat(query.mayMatch(index.headSeq)).isTrue()
+
+    // Messages of short lived tags come and go, so the dictionary gets rebuilt and the ids reassigned.
+    repeat(5000) {
+      index.add(logcatMessage(tag = "tag$it"))
+      index.removeFirst()
+    }
+    index.add(logcatMessage(tag = "Network"))
+
+    assertThat(index.tags.size).isLessThan(2000)
+    assertThat(query.mayMatch(index.headSeq)).isFalse()
+    assertThat(query.mayMatch(index.headSeq + 1)).isTrue()
+  }
+
+  /**
+   * Returns the indices of the messages that may match. The test messages are chosen so the signatures don't produce false positives.
+   */
+  private fun mayMatch(filter: LogcatFilter): List<Int> {
+    val query = LogcatIndexQuery(filter, index)
+    return MESSAGES.indices.filter { query.mayMatch(index.headSeq + it) }
+  }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.messages
+
+import com.android.tools.idea.logcat.SYSTEM_HEADER
+import com.android.tools.idea.logcat.logcatMessage
+import com.android.tools.idea.logcat.message.LogLevel.ERROR
+import com.android.tools.idea.logcat.message.LogcatMessage
+import com.google.common.truth.Truth.assertThat
+import com.intellij.testFramework.UsefulTestCase.assertThrows
+import org.junit.Test
+import java.time.Instant
+
+/**
+ * Tests for [CompactMessageStore]
+ */
+class CompactMessageStoreTest {
+
+  @Test
+  fun addAll_decodesMessages() {
+    val store = CompactMessageStore()
+    val messages = listOf(
+      logcatMessage(message = "Message 1"),
+      logcatMessage(logLevel = ERROR, pid = 3, tid = 4, appId = "app", processName = "process", tag = "tag",
+                    timestamp = Instant.ofEpochSecond(100, 123456789), message = "Unicode é中"),
+      logcatMessage(message = ""),
+    )
+
+    store.addAll(messages)
+
+    assertThat(store.messages).containsExactlyElementsIn(messages).inOrder()
+  }
+
+  @Test
+  fun addAll_sharesHeaderTemplates() {
+    val store = CompactMessageStore()
+
+    store.addAll(List(100) { logcatMessage(timestamp = Instant.ofEpochSecond(it.toLong()), message = "Message $it") })
+    store.addAll(listOf(logcatMessage(tag = "OtherTag")))
+
+    assertThat(store.templateCount).isEqualTo(2)
+  }
+
+  @Test
+  fun removeFirst_releasesChunks() {
+    val store = CompactMessageStore(chunkSize = 100)
+    val messages = List(10) { logcatMessage(message = "Message $it") }
+    store.addAll(messages)
+    val chunkCount = store.chunkCount
+    assertThat(chunkCount).isGreaterThan(1)
+
+    repeat(5) { assertThat(store.removeFirst()).isEqualTo(messages[it].message.length) }
+
+    assertThat(store.messages).containsExactlyElementsIn(messages.subList(5, 10)).inOrder()
+    assertThat(store.chunkCount).isLessThan(chunkCount)
+  }
+
+  @Test
+  fun removeFirst_releasesTemplates() {
+    val store = CompactMessageStore()
+    store.addAll(List(10) { logcatMessage(tag = "Tag $it") })
+    store.addAll(listOf(logcatMessage(tag = "Tag 0")))
+
+    repeat(5) { store.removeFirst() }
+
+    assertThat(store.templateCount).isEqualTo(6)
+    val messages = List(5) { logcatMessage(tag = "New tag $it") }
+    store.addAll(messages)
+    assertThat(store.templateCount).isEqualTo(11)
+    assertThat(store.messages.takeLast(5)).containsExactlyElementsIn(messages).inOrder()
+  }
+
+  @Test
+  fun addAll_messageLargerThanChunk() {
+    val store = CompactMessageStore(chunkSize = 100)
+    val message = logcatMessage(message = "x".repeat(1000))
+
+    store.addAll(listOf(logcatMessage(), message, logcatMessage()))
+
+    assertThat(store.messages[1]).isEqualTo(message)
+  }
+
+  @Test
+  fun addAll_keepsSystemHeaderIdentity() {
+    val store = CompactMessageStore()
+
+    store.addAll(listOf(LogcatMessage(SYSTEM_HEADER, "System message")))
+
+    assertThat(store.messages[0].header).isSameInstanceAs(SYSTEM_HEADER)
+  }
+
+  @Test
+  fun removeFirst_empty() {
+    assertThrows(NoSuchElementException::class.java) { CompactMessageStore().removeFirst() }
+  }
+
+  @Test
+  fun clear() {
+    val store = CompactMessageStore()
+    store.addAll(listOf(logcatMessage()))
+
+    store.clear()
+    store.addAll(listOf(logcatMessage(message = "After clear")))
+
+    assertThat(store.messages).containsExactly(logcatMessage(message = "After clear"))
+    assertThat(store.templateCount).isEqualTo(1)
+  }
+}
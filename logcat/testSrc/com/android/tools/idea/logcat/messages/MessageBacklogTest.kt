@@ -15,10 +15,19 @@
  */
 package com.android.tools.idea.logcat.messages
 
+import com.android.tools.idea.logcat.SYSTEM_HEADER
+import com.android.tools.idea.logcat.filters.AndLogcatFilter
+import com.android.tools.idea.logcat.filters.LevelFilter
+import com.android.tools.idea.logcat.filters.LogcatFilterField
+import com.android.tools.idea.logcat.filters.LogcatMasterFilter
+import com.android.tools.idea.logcat.filters.StringFilter
 import com.android.tools.idea.logcat.logcatMessage
+import com.android.tools.idea.logcat.message.LogLevel
 import com.android.tools.idea.logcat.message.LogcatMessage
 import com.google.common.truth.Truth.assertThat
+import com.intellij.openapi.util.TextRange.EMPTY_RANGE
 import com.intellij.testFramework.UsefulTestCase.assertThrows
+import kotlinx.coroutines.runBlocking
 import org.junit.Test
 
 /**
@@ -101,4 +110,96 @@ class MessageBacklogTest {
 
     assertThrows(UnsupportedOperationException::class.java, mutableList::clear)
   }
-}
\ No newline at end of file
+
+  @Test
+  fun compact_addAll_multipleBatches() {
+    val messageBacklog = MessageBacklog(20, compact = true)
+
+    messageBacklog.addAll(listOf(message1))
+    messageBacklog.addAll(listOf(message2))
+    messageBacklog.addAll(listOf(message3))
+
+    assertThat(messageBacklog.messages).containsExactly(message2, message3)
+  }
+
+  @Test
+  fun compact_setMaxSize() {
+    val messageBacklog = MessageBacklog(20, compact = true)
+    messageBacklog.addAll(listOf(message1, message2))
+
+    messageBacklog.setMaxSize(10)
+
+    assertThat(messageBacklog.messages).containsExactly(message2)
+  }
+
+  @Test
+  fun compact_messages_isUnmodifiable() {
+    val mutableList = MessageBacklog(20, compact = true).messages as MutableList<LogcatMessage>
+
+    assertThrows(UnsupportedOperationException::class.java, mutableList::clear)
+  }
+
+  @Test
+  fun compact_messages_isSnapshot() {
+    val messageBacklog = MessageBacklog(20, compact = true)
+    messageBacklog.addAll(listOf(message1, message2))
+    val messages = messageBacklog.messages
+
+    messageBacklog.addAll(listOf(message3))
+
+    assertThat(messages).containsExactly(message1, message2).inOrder()
+    assertThat(messageBacklog.messages).containsExactly(message2, message3).inOrder()
+    assertThat(messageBacklog.isEmpty()).isFalse()
+    messageBacklog.clear()
+    assertThat(messageBacklog.isEmpty()).isTrue()
+  }
+
+  @Test
+  fun filter_sameAsMasterFilter() {
+    val messages = List(100) {
+      logcatMessage(logLevel = LogLevel.values()[it % 6], tag = "Tag${it % 7}", message = "Message ${it % 11} with some words")
+    }
+    val messageBacklog = MessageBacklog(10_000)
+    messageBacklog.addAll(messages)
+    messageBacklog.addAll(listOf(LogcatMessage(SYSTEM_HEADER, "System")))
+
+    for (filter in listOf(
+      null,
+      LevelFilter(LogLevel.WARN, EMPTY_RANGE),
+      StringFilter("tag3", LogcatFilterField.TAG, EMPTY_RANGE),
+      StringFilter("words", LogcatFilterField.IMPLICIT_LINE, EMPTY_RANGE),
+      AndLogcatFilter(LevelFilter(LogLevel.ERROR, EMPTY_RANGE), StringFilter("Message 5", LogcatFilterField.MESSAGE, EMPTY_RANGE)),
+    )) {
+      assertThat(messageBacklog.filter(filter)).containsExactlyElementsIn(LogcatMasterFilter(filter).filter(messageBacklog.messages))
+        .inOrder()
+    }
+  }
+
+  @Test
+  fun filterInBatches() = runBlocking {
+    val messages = List(25) { logcatMessage(logLevel = if (it % 2 == 0) LogLevel.INFO else LogLevel.ERROR, message = "Message $it") }
+    val messageBacklog = MessageBacklog(10_000, compact = true)
+    messageBacklog.addAll(messages)
+    val batches = mutableListOf<List<LogcatMessage>>()
+
+    messageBacklog.filterInBatches(LevelFilter(LogLevel.ERROR, EMPTY_RANGE), batchSize = 10) { batches.add(it) }
+
+    assertThat(batches.map { it.size }).containsExactly(5, 5, 2).inOrder()
+    assertThat(batches.flatten()).containsExactlyElementsIn(messages.filter { it.header.logLevel == LogLevel.ERROR }).inOrder()
+  }
+
+  @Test
+  fun filterInBatches_skipsEvictedMessages() = runBlocking {
+    val messageBacklog = MessageBacklog(20)
+    messageBacklog.addAll(listOf(message1, message2))
+    val batches = mutableListOf<List<LogcatMessage>>()
+
+    messageBacklog.filterInBatches(null, batchSize = 1) {
+      batches.add(it)
+      // Evicts message2 before its batch is computed.
+      messageBacklog.addAll(listOf(message3, message3))
+    }
+
+    assertThat(batches).containsExactly(listOf(message1))
+  }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.performance
+
+import com.android.testutils.TestResources
+import com.android.tools.idea.adb.processnamemonitor.testing.FakeProcessNameMonitor
+import com.android.tools.idea.logcat.message.LogcatHeaderParser.LogcatFormat.EPOCH_FORMAT
+import com.android.tools.idea.logcat.message.LogcatMessage
+import com.android.tools.idea.logcat.service.LogcatMessageAssembler
+import com.android.tools.perflogger.Benchmark
+import com.android.tools.perflogger.Metric
+import com.android.tools.perflogger.WindowDeviationAnalyzer
+import com.google.common.truth.Truth.assertThat
+import com.intellij.openapi.util.Disposer
+import kotlinx.coroutines.Dispatchers
+import kotlinx.coroutines.channels.Channel
+import kotlinx.coroutines.channels.Channel.Factory.UNLIMITED
+import kotlinx.coroutines.runBlocking
+import org.junit.Test
+import java.time.Instant
+import java.util.concurrent.TimeUnit
+
+private const val WARMUP_ITERATIONS = 3
+private const val ITERATIONS = 10
+private const val BATCH_SIZE = 8192
+
+/**
+ * Measures the throughput of [LogcatMessageAssembler] on recorded logcat dumps, with header parsing on the worker pool and on the calling
+ * thread. Throughput is reported in lines per millisecond.
+ */
+class LogcatMessageAssemblerPerformanceTest {
+  private val benchmark = Benchmark.Builder("Logcat Message Assembler Throughput (lines per ms)").setProject("Android Studio Logcat").build()
+
+  @Test
+  fun runPerformanceTest() {
+    val dumps = mapOf(
+      "Logcat-50000" to TestResources.getFile("/logcatFiles/logcat-50000.txt").readLines(),
+      "Real-Logcat" to TestResources.getFile("/logcatFiles/real-logcat-from-device.txt").readLines(),
+    )
+    val metrics = mutableListOf<Metric>()
+    for ((name, lines) in dumps) {
+      val batches = lines.chunked(BATCH_SIZE)
+      val (parallelMetric, parallelMessages) = measure("$name-Parallel", batches, parallel = true)
+      val (sequentialMetric, sequentialMessages) = measure("$name-Sequential", batches, parallel = false)
+      // Parsing headers on the worker pool must not change the messages.
+      assertThat(parallelMessages).containsExactlyElementsIn(sequentialMessages).inOrder()
+      metrics.add(parallelMetric)
+      metrics.add(sequentialMetric)
+    }
+    metrics.forEach {
+      it.setAnalyzers(benchmark, setOf(WindowDeviationAnalyzer.Builder()
+                                         .addMeanTolerance(WindowDeviationAnalyzer.MeanToleranceParams.Builder().build())
+                                         .build()))
+      it.commit()
+    }
+  }
+
+  /**
+   * Returns the throughput of one mode, and the messages it assembled, which are the same on every run.
+   */
+  private fun measure(name: String, batches: List<List<String>>, parallel: Boolean): Pair<Metric, List<LogcatMessage>> {
+    val metric = Metric(name)
+    val lineCount = batches.sumOf { it.size }
+    var messages: List<LogcatMessage>? = null
+    repeat(WARMUP_ITERATIONS + ITERATIONS) { iteration ->
+      val startTime = System.nanoTime()
+      val result = assemble(batches, parallel)
+      val elapsedMs = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startTime).coerceAtLeast(1)
+
+      messages?.let { assertThat(result).containsExactlyElementsIn(it).inOrder() }
+      messages = result
+      if (iteration >= WARMUP_ITERATIONS) {
+        metric.addSamples(benchmark, Metric.MetricSample(Instant.now().toEpochMilli(), lineCount / elapsedMs))
+      }
+    }
+    return metric to messages!!
+  }
+
+  /**
+   * Runs all batches through a new assembler and returns the assembled messages.
+   */
+  private fun assemble(batches: List<List<String>>, parallel: Boolean): List<LogcatMessage> = runBlocking {
+    val disposable = Disposer.newDisposable()
+    val channel = Channel<List<LogcatMessage>>(UNLIMITED)
+    val processNameMonitor = FakeProcessNameMonitor()
+    val assembler = if (parallel) {
+      LogcatMessageAssembler(disposable, "device", EPOCH_FORMAT, channel, processNameMonitor, coroutineContext, lastMessageDelayMs = 60_000)
+    }
+    else {
+      LogcatMessageAssembler(disposable, "device", EPOCH_FORMAT, channel, processNameMonitor, coroutineContext, lastMessageDelayMs = 60_000,
+                             parsingDispatcher = Dispatchers.Unconfined)
+    }
+    try {
+      val messages = ArrayList<LogcatMessage>()
+      for (batch in batches) {
+        assembler.processNewLines(batch)
+        while (true) {
+          messages.addAll(channel.tryReceive().getOrNull() ?: break)
+        }
+      }
+      assembler.getAndResetLastMessage()?.let { messages.add(it) }
+      messages
+    }
+    finally {
+      // Cancels the pending flush of the last message.
+      Disposer.dispose(disposable)
+    }
+  }
+}
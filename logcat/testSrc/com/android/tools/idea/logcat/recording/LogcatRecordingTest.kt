@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.idea.logcat.recording
+
+import com.android.tools.idea.logcat.SYSTEM_HEADER
+import com.android.tools.idea.logcat.logcatMessage
+import com.android.tools.idea.logcat.message.LogLevel.ERROR
+import com.android.tools.idea.logcat.message.LogcatMessage
+import com.google.common.truth.Truth.assertThat
+import com.intellij.testFramework.UsefulTestCase.assertThrows
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.IOException
+import java.nio.file.Files
+import java.nio.file.Path
+import java.nio.file.StandardOpenOption.APPEND
+import java.time.Instant
+
+/**
+ * Tests for [LogcatRecorder] and [LogcatRecording]
+ */
+class LogcatRecordingTest {
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  private val directory: Path by lazy { temporaryFolder.root.toPath().resolve("recording") }
+
+  @Test
+  fun write_readBack() {
+    val messages = listOf(
+      logcatMessage(logLevel = ERROR, pid = 3, tid = 4, appId = "app", processName = "process", tag = "tag",
+                    timestamp = Instant.ofEpochSecond(100, 123456789), message = "Unicode é中"),
+      LogcatMessage(SYSTEM_HEADER, "System message"),
+      logcatMessage(message = "x".repeat(100_000)),
+    )
+
+    LogcatRecorder(directory).use { it.write(messages) }
+
+    val recording = LogcatRecording.open(directory)
+    val readMessages = recording.readSegments(recording.segments.indices)
+    assertThat(readMessages).containsExactlyElementsIn(messages).inOrder()
+    assertThat(readMessages[1].header).isSameInstanceAs(SYSTEM_HEADER)
+  }
+
+  @Test
+  fun write_splitsSegments() {
+    val messages = List(25) { logcatMessage(timestamp = Instant.ofEpochSecond(it.toLong()), message = "Message $it") }
+
+    LogcatRecorder(directory, maxSegmentMessages = 10).use { it.write(messages) }
+
+    val recording = LogcatRecording.open(directory)
+    assertThat(recording.segments.map { it.messageCount }).containsExactly(10, 10, 5).inOrder()
+    assertThat(recording.segments[1].firstTimestamp).isEqualTo(10_000)
+    assertThat(recording.segments[1].lastTimestamp).isEqualTo(19_000)
+    assertThat(recording.messageCount).isEqualTo(25)
+    assertThat(recording.readSegment(recording.segments[2])).containsExactlyElementsIn(messages.subList(20, 25)).inOrder()
+  }
+
+  @Test
+  fun getPage_coversMaxLength() {
+    val messages = List(30) { logcatMessage(message = "%05d".format(it)) }
+    LogcatRecorder(directory, maxSegmentMessages = 10).use { it.write(messages) }
+
+    val recording = LogcatRecording.open(directory)
+
+    // Each segment holds 50 characters so 60 characters need 2 segments.
+    assertThat(recording.getPageBefore(3, 60)).isEqualTo(1..2)
+    assertThat(recording.getPageBefore(1, 60)).isEqualTo(0..0)
+    assertThat(recording.getPageBefore(0, 60)).isEmpty()
+    assertThat(recording.getPageAfter(0, 60)).isEqualTo(0..1)
+    assertThat(recording.getPageAfter(2, 60)).isEqualTo(2..2)
+    assertThat(recording.readSegments(1..2)).containsExactlyElementsIn(messages.subList(10, 30)).inOrder()
+  }
+
+  @Test
+  fun open_ignoresIncompleteSegments() {
+    val recorder = LogcatRecorder(directory, maxSegmentMessages = 10)
+    recorder.write(List(15) { logcatMessage(message = "Message $it") })
+
+    // The second segment is still open so it is not in the index yet.
+    assertThat(LogcatRecording.open(directory).segments).hasSize(1)
+
+    recorder.close()
+    assertThat(LogcatRecording.open(directory).segments).hasSize(2)
+  }
+
+  @Test
+  fun open_ignoresTruncatedIndexEntry() {
+    LogcatRecorder(directory, maxSegmentMessages = 10).use { it.write(List(10) { logcatMessage(message = "Message $it") }) }
+    Files.write(directory.resolve(INDEX_FILE_NAME), byteArrayOf(0, 0, 0), APPEND)
+
+    assertThat(LogcatRecording.open(directory).segments).hasSize(1)
+  }
+
+  @Test
+  fun open_notRecording() {
+    Files.createDirectories(directory)
+
+    assertThrows(IOException::class.java) { LogcatRecording.open(directory) }
+  }
+}
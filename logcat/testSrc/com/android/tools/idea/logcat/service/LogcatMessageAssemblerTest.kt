@@ -28,10 +28,12 @@ import com.android.tools.idea.logcat.message.LogcatMessage
 import com.google.common.truth.Truth.assertThat
 import com.intellij.testFramework.ProjectRule
 import com.intellij.testFramework.RuleChain
+import kotlinx.coroutines.CoroutineDispatcher
 import kotlinx.coroutines.channels.Channel
 import kotlinx.coroutines.channels.Channel.Factory.UNLIMITED
 import kotlinx.coroutines.channels.SendChannel
 import kotlinx.coroutines.channels.toList
+import kotlinx.coroutines.runBlocking
 import kotlinx.coroutines.test.TestCoroutineScope
 import kotlinx.coroutines.test.advanceUntilIdle
 import kotlinx.coroutines.test.runBlockingTest
@@ -44,6 +46,7 @@ import java.io.InputStreamReader
 import java.nio.CharBuffer
 import java.time.Instant
 import java.util.concurrent.TimeUnit.MILLISECONDS
+import kotlin.coroutines.ContinuationInterceptor
 import kotlin.text.Charsets.UTF_8
 
 /**
@@ -414,6 +417,23 @@ class LogcatMessageAssemblerTest {
     }
   }
 
+  @Test
+  fun largeBatch_parsedOnWorkerPool_keepsOrder() = runBlocking {
+    val logcat = TestResources.getFile("/logcatFiles/logcat-50000.txt").readLines()
+    val assembler = LogcatMessageAssembler(
+      projectRule.project, "device1", EPOCH_FORMAT, channel, processNameMonitor, coroutineContext, lastMessageDelayMs = 100)
+
+    assembler.processNewLines(logcat)
+
+    val messages = channel.receive() + listOfNotNull(assembler.getAndResetLastMessage())
+    val actualLines = messages.joinToString("\n") { it.toString() }.split('\n')
+    val expectedLines = TestResources.getFile("/logcatFiles/logcat-50000-expected.txt").readLines()
+    assertThat(actualLines).hasSize(expectedLines.size)
+    actualLines.zip(expectedLines).forEachIndexed { index, (actual, expected) ->
+      assertThat(actual).named("Line $index").isEqualTo(expected)
+    }
+  }
+
   @Test
   fun missingApplicationId_usesProcessName() = runBlockingTest {
     processNameMonitor.addProcessName("device1", 5, "", "processName")
@@ -446,7 +466,9 @@ class LogcatMessageAssemblerTest {
       channel,
       processNameMonitor,
       coroutineContext,
-      lastMessageDelayMs = 100)
+      lastMessageDelayMs = 100,
+      // Parse on the test dispatcher so runBlockingTest can run large batches to completion.
+      parsingDispatcher = coroutineContext[ContinuationInterceptor] as CoroutineDispatcher)
 }
 
 private fun logcatMessage(
@@ -28,11 +28,14 @@ import com.android.fakeadbserver.shellcommandhandlers.LogcatCommandHandler
 import com.android.testutils.TestResources
 import com.android.tools.idea.adb.processnamemonitor.ProcessNameMonitor
 import com.android.tools.idea.adb.processnamemonitor.testing.FakeProcessNameMonitor
+import com.android.tools.idea.logcat.LogcatBundle
 import com.android.tools.idea.logcat.SYSTEM_HEADER
 import com.android.tools.idea.logcat.logcatMessage
 import com.android.tools.idea.logcat.message.LogLevel.DEBUG
 import com.android.tools.idea.logcat.message.LogLevel.INFO
 import com.android.tools.idea.logcat.message.LogcatMessage
+import com.android.tools.idea.logcat.recording.LogcatRecorder
+import com.android.tools.idea.logcat.recording.LogcatRecording
 import com.android.tools.idea.logcat.testing.TestDevice
 import com.android.tools.idea.logcat.testing.attachDevice
 import com.google.common.truth.Truth.assertThat
@@ -44,10 +47,12 @@ import kotlinx.coroutines.runBlocking
 import org.junit.Before
 import org.junit.Rule
 import org.junit.Test
+import org.junit.rules.TemporaryFolder
 import java.io.EOFException
 import java.net.Socket
 import java.time.Duration
 import java.time.Instant
+import java.util.concurrent.CountDownLatch
 import java.util.concurrent.TimeUnit.MILLISECONDS
 import java.util.concurrent.TimeUnit.SECONDS
 
@@ -70,9 +75,10 @@ class LogcatServiceImplTest {
   private val projectRule = ProjectRule()
   private val fakeAdb = FakeAdbRule()
   private val closeables = CloseablesRule()
+  private val temporaryFolder = TemporaryFolder()
 
   @get:Rule
-  val rule = RuleChain(projectRule, fakeAdb, closeables)
+  val rule = RuleChain(projectRule, fakeAdb, closeables, temporaryFolder)
 
   private val device30 = TestDevice("device", ONLINE, release = 10, sdk = 30, manufacturer = "Google", model = "Pixel")
   private val device23 = TestDevice("device", ONLINE, release = 7, sdk = 23, manufacturer = "Google", model = "Pixel")
@@ -246,6 +252,108 @@ class LogcatServiceImplTest {
     )
   }
 
+  @Test
+  fun readLogcat_recordsMessages(): Unit = runBlocking {
+    val recordingDirectory = temporaryFolder.root.toPath().resolve("recording")
+    val service = LogcatServiceImpl(
+      projectRule.project,
+      deviceServicesFactory = { fakeAdb.createAdbSession(closeables).deviceServices },
+      processNameMonitor = fakeProcessNameMonitor,
+      lastMessageDelayMs = 100,
+      recorderFactory = { LogcatRecorder(recordingDirectory) },
+    )
+    val deviceState = fakeAdb.attachDevice(device30)
+    deviceState.addLogcatMessage(
+      """
+        [          1650711610.619  1: 1000 D/Tag  ]
+        A message
+
+        [          1650711610.700  1: 1000 I/Tag  ]
+        Another message
+
+      """.trimIndent())
+
+    val messages = mutableListOf<LogcatMessage>()
+    val job = launch {
+      service.readLogcat(device30.device).collect {
+        messages.addAll(it)
+      }
+    }
+    yieldUntil(Duration.ofSeconds(10)) { messages.size == 2 }
+    fakeAdb.stop()
+    job.join()
+
+    // The recording is closed when the flow completes.
+    val recording = LogcatRecording.open(recordingDirectory)
+    assertThat(recording.readSegments(recording.segments.indices)).containsExactlyElementsIn(messages).inOrder()
+  }
+
+  @Test
+  fun readLogcat_slowRecorderDoesNotDelayMessages(): Unit = runBlocking {
+    val recordingDirectory = temporaryFolder.root.toPath().resolve("recording")
+    val recorderCreated = CountDownLatch(1)
+    val service = LogcatServiceImpl(
+      projectRule.project,
+      deviceServicesFactory = { fakeAdb.createAdbSession(closeables).deviceServices },
+      processNameMonitor = fakeProcessNameMonitor,
+      lastMessageDelayMs = 100,
+      recorderFactory = {
+        recorderCreated.await()
+        LogcatRecorder(recordingDirectory)
+      },
+    )
+    val deviceState = fakeAdb.attachDevice(device30)
+    deviceState.addLogcatMessage(
+      """
+        [          1650711610.619  1: 1000 D/Tag  ]
+        A message
+
+      """.trimIndent())
+
+    val messages = mutableListOf<LogcatMessage>()
+    val job = launch {
+      service.readLogcat(device30.device).collect {
+        messages.addAll(it)
+      }
+    }
+    // Messages flow while the recorder is still being created.
+    yieldUntil(Duration.ofSeconds(10)) { messages.size == 1 }
+    recorderCreated.countDown()
+    fakeAdb.stop()
+    job.join()
+
+    val recording = LogcatRecording.open(recordingDirectory)
+    assertThat(recording.readSegments(recording.segments.indices)).containsExactlyElementsIn(messages).inOrder()
+  }
+
+  @Test
+  fun recordingBuffer_replacesDroppedBatchesWithGapMessage(): Unit = runBlocking {
+    val buffer = RecordingBuffer(capacity = 1)
+    val recorded = mutableListOf<LogcatMessage>()
+    buffer.offer(listOf(LogcatMessage(SYSTEM_HEADER, "1")))
+    // The buffer is full, so this batch is dropped.
+    buffer.offer(listOf(LogcatMessage(SYSTEM_HEADER, "2"), LogcatMessage(SYSTEM_HEADER, "3")))
+    val job = launch { buffer.forEach { recorded.addAll(it) } }
+    yieldUntil { recorded.size == 1 }
+    buffer.offer(listOf(LogcatMessage(SYSTEM_HEADER, "4")))
+    yieldUntil { recorded.size == 3 }
+    // "5" goes straight to the waiting recorder and "6" fills the buffer, so "7" is dropped.
+    buffer.offer(listOf(LogcatMessage(SYSTEM_HEADER, "5")))
+    buffer.offer(listOf(LogcatMessage(SYSTEM_HEADER, "6")))
+    buffer.offer(listOf(LogcatMessage(SYSTEM_HEADER, "7")))
+    buffer.close()
+    job.join()
+
+    assertThat(recorded.map { it.message }).containsExactly(
+      "1",
+      LogcatBundle.message("logcat.recording.gap", 2),
+      "4",
+      "5",
+      "6",
+      LogcatBundle.message("logcat.recording.gap", 1),
+    ).inOrder()
+  }
+
   @Test
   fun clearLogcat_launchesLogcat() = runBlocking {
     val device = device30
@@ -291,7 +291,7 @@ public class AndroidProfilerToolWindow implements Disposable {
                            @NotNull IntellijProfilerServices ideProfilerServices) {
       myProject = project;
       myWindow = window;
-      ProfilerClient client = new ProfilerClient(TransportService.getChannelName());
+      ProfilerClient client = new ProfilerClient(TransportService.getChannelName(), service::openBytesStream);
       myProfilers = new StudioProfilers(client, ideProfilerServices);
       CodeNavigator navigator = ideProfilerServices.getCodeNavigator();
       // CPU ABI architecture, when needed by the code navigator, should be retrieved from StudioProfiler selected session.
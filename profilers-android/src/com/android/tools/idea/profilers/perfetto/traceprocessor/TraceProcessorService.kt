@@ -179,7 +179,8 @@ class TraceProcessorServiceImpl(
       handleRequest(traceId, ideProfilerServices, FeatureTracker::trackTraceProcessorProcessMetadata,
                     RequestBuilder({ processMetadataRequest = QueryParameters.ProcessMetadataParameters.getDefaultInstance() },
                              { modelBuilder.addProcessMetadata(it.processMetadataResult) }))
-      modelBuilder.build().getProcesses()
+      // Copy the processes, as the list of the model is a view over the model.
+      modelBuilder.build().getProcesses().toList()
     }
 
   override fun loadCpuData(traceId: Long,
@@ -342,14 +342,14 @@ public final class MemoryClassSetView extends AspectObserver {
 
       @Override
       public void expandNode() {
-        if (myMemoizedChildrenCount == myChildren.size()) {
-          return;
-        }
-
-        myMemoizedChildrenCount = myClassSet.getInstancesCount();
-        myClassSet.getInstancesStream().forEach(subAdapter -> InstanceNodeKt.addChild(this, subAdapter, LeafNode::new));
-
-        if (myTreeModel != null) {
+        // A class can have millions of instances, so only the nodes of the pages shown are built.
+        boolean built = buildShownChildren(myClassSet.getInstancesStream(), subAdapter -> {
+          LeafNode<InstanceObject> node = new LeafNode<>(subAdapter);
+          node.setTreeModel(myTreeModel);
+          return node;
+        });
+
+        if (built && myTreeModel != null) {
           myTreeModel.nodeChanged(this);
         }
       }
@@ -439,7 +439,10 @@ public final class MemoryClassSetView extends AspectObserver {
         return;
       }
     }
-    mySelection.selectInstanceObject(null);
+    // Only the instances on the pages shown have nodes, so the selected one may still be in the class set.
+    if (myClassSet.getInstancesStream().noneMatch(instance -> instance == myInstanceObject)) {
+      mySelection.selectInstanceObject(null);
+    }
   }
 
   @Nullable
@@ -19,6 +19,7 @@ import com.android.tools.adtui.model.DefaultTimeline
 import com.android.tools.adtui.model.RangedSeries
 import com.android.tools.adtui.model.SeriesData
 import com.android.tools.profilers.cpu.systemtrace.RssMemoryTooltip
+import com.android.tools.profilers.cpu.systemtrace.ViewportDataSeries
 import com.google.common.truth.Truth.assertThat
 import org.junit.Test
 import java.util.concurrent.TimeUnit
@@ -46,6 +47,26 @@ class RssMemoryTooltipViewTest {
     assertThat(tooltipView.valueLabel.text).endsWith("2.0 MB")
   }
 
+  @Test
+  fun textShowsValueAtTooltipInsideViewportWindow() {
+    val timeline = DefaultTimeline()
+    // One value every millisecond, so that windows of the series start between values.
+    val values = (0L..9L).map { SeriesData(TimeUnit.MILLISECONDS.toMicros(it), it * 1024L) }
+    val series = ViewportDataSeries { startUs, endUs, _ ->
+      val from = maxOf(0, values.indexOfLast { it.x < startUs })
+      values.subList(from, values.size).filter { it.x < endUs }
+    }
+    val tooltip = RssMemoryTooltip(timeline, "mem.rss", RangedSeries(timeline.dataRange, series))
+    val tooltipView = RssMemoryTooltipView(JPanel(), tooltip)
+
+    timeline.dataRange.set(0.0, TimeUnit.MILLISECONDS.toMicros(10).toDouble())
+    timeline.tooltipRange.set(TimeUnit.MILLISECONDS.toMicros(5).toDouble() + 500.0, TimeUnit.MILLISECONDS.toMicros(5).toDouble() + 500.0)
+    assertThat(tooltipView.valueLabel.text).endsWith("5.0 KB")
+
+    timeline.tooltipRange.set(TimeUnit.MILLISECONDS.toMicros(8).toDouble(), TimeUnit.MILLISECONDS.toMicros(8).toDouble())
+    assertThat(tooltipView.valueLabel.text).endsWith("8.0 KB")
+  }
+
   private companion object {
     val RSS_MEMORY_VALUES = listOf(
       SeriesData(0, 0L),
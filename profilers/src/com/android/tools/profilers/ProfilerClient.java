@@ -28,9 +28,12 @@ import com.android.tools.profiler.proto.TransportServiceGrpc;
 import com.google.common.annotations.VisibleForTesting;
 import com.android.tools.idea.io.grpc.ManagedChannel;
 import com.android.tools.idea.io.grpc.inprocess.InProcessChannelBuilder;
+import java.io.InputStream;
 import java.util.concurrent.CompletableFuture;
 import java.util.concurrent.Executor;
+import java.util.function.Function;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class ProfilerClient {
 
@@ -41,15 +44,28 @@ public class ProfilerClient {
   @NotNull private final NetworkServiceGrpc.NetworkServiceBlockingStub myNetworkClient;
   @NotNull private final EventServiceGrpc.EventServiceBlockingStub myEventClient;
   @NotNull private final EnergyServiceGrpc.EnergyServiceBlockingStub myEnergyClient;
+  @NotNull private final Function<Transport.BytesRequest, InputStream> myBytesStreamOpener;
 
   public ProfilerClient(@NotNull String name) {
+    this(name, null);
+  }
+
+  /**
+   * @param bytesStreamOpener opens streams over the bytes stored in the datastore when it runs in this process, see
+   *                          {@link #openBytesStream}. If null, bytes are read through the {@code getBytes} rpc.
+   */
+  public ProfilerClient(@NotNull String name, @Nullable Function<Transport.BytesRequest, InputStream> bytesStreamOpener) {
     // Optimization - In-process direct-executor channel which allows us to communicate between the profiler and transport-database without
     // going through the thread pool. This gives us a speed boost per grpc call plus the full caller's stack in transport-database.
-    this(InProcessChannelBuilder.forName(name).usePlaintext().directExecutor().build());
+    this(InProcessChannelBuilder.forName(name).usePlaintext().directExecutor().build(), bytesStreamOpener);
   }
 
   @VisibleForTesting
   public ProfilerClient(@NotNull ManagedChannel channel) {
+    this(channel, null);
+  }
+
+  private ProfilerClient(@NotNull ManagedChannel channel, @Nullable Function<Transport.BytesRequest, InputStream> bytesStreamOpener) {
     myTransportClient = TransportServiceGrpc.newBlockingStub(channel);
     myProfilerClient = ProfilerServiceGrpc.newBlockingStub(channel);
     myMemoryClient = MemoryServiceGrpc.newBlockingStub(channel);
@@ -57,6 +73,8 @@ public class ProfilerClient {
     myNetworkClient = NetworkServiceGrpc.newBlockingStub(channel);
     myEventClient = EventServiceGrpc.newBlockingStub(channel);
     myEnergyClient = EnergyServiceGrpc.newBlockingStub(channel);
+    myBytesStreamOpener =
+      bytesStreamOpener != null ? bytesStreamOpener : request -> myTransportClient.getBytes(request).getContents().newInput();
   }
 
   @NotNull
@@ -64,6 +82,15 @@ public class ProfilerClient {
     return myTransportClient;
   }
 
+  /**
+   * Returns a stream over the contents of the requested bytes, empty if there are none. Prefer this over the {@code getBytes} rpc for
+   * payloads that can be large, e.g. heap dumps and traces, as the in process datastore then never holds the whole payload in memory.
+   */
+  @NotNull
+  public InputStream openBytesStream(@NotNull Transport.BytesRequest request) {
+    return myBytesStreamOpener.apply(request);
+  }
+
   public CompletableFuture<Transport.ExecuteResponse> executeAsync(Commands.Command command, Executor executor) {
     return TransportClient.executeAsync(myTransportClient, command, executor);
   }
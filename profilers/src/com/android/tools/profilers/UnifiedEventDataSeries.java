@@ -16,6 +16,7 @@
 package com.android.tools.profilers;
 
 import com.android.tools.adtui.model.DataSeries;
+import com.android.tools.adtui.model.LongSeriesDataView;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.SeriesData;
 import com.android.tools.profiler.proto.Common;
@@ -26,7 +27,7 @@ import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
-import java.util.stream.Collectors;
+import java.util.function.ToLongFunction;
 import org.jetbrains.annotations.NotNull;
 
 /**
@@ -90,12 +91,19 @@ public class UnifiedEventDataSeries<T> implements DataSeries<T> {
    * Helper function that constructs list data extractor from a field extractor for the simple case of extracting one field out of every
    * {@link Common.Event}.
    *
-   * @param fieldExtractor a {@link Function} that extracts a Long field from an {@link Common.Event}.
-   * @return a {@link Function} that converts a list of events into a list of {@link SeriesData}.
+   * @param fieldExtractor a {@link ToLongFunction} that extracts a long field from an {@link Common.Event}.
+   * @return a {@link Function} that converts a list of events into a {@link LongSeriesDataView}.
    */
-  public static Function<List<Common.Event>, List<SeriesData<Long>>> fromFieldToDataExtractor(Function<Common.Event, Long> fieldExtractor) {
-    return events -> events.stream()
-      .map(event -> new SeriesData<>(TimeUnit.NANOSECONDS.toMicros(event.getTimestamp()), fieldExtractor.apply(event)))
-      .collect(Collectors.toList());
+  public static Function<List<Common.Event>, List<SeriesData<Long>>> fromFieldToDataExtractor(ToLongFunction<Common.Event> fieldExtractor) {
+    return events -> {
+      long[] xs = new long[events.size()];
+      long[] values = new long[events.size()];
+      for (int i = 0; i < events.size(); i++) {
+        Common.Event event = events.get(i);
+        xs[i] = TimeUnit.NANOSECONDS.toMicros(event.getTimestamp());
+        values[i] = fieldExtractor.applyAsLong(event);
+      }
+      return LongSeriesDataView.of(xs, values);
+    };
   }
 }
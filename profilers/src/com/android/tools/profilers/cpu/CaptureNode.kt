@@ -23,8 +23,11 @@ import com.android.tools.perflib.vmtrace.ClockType
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
 import com.google.common.annotations.VisibleForTesting
 import java.util.PriorityQueue
+import java.util.Spliterator
+import java.util.Spliterators
 import java.util.function.Predicate
 import java.util.stream.Stream
+import java.util.stream.StreamSupport
 import kotlin.reflect.KMutableProperty1
 
 open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : HNode<CaptureNode> {
@@ -85,7 +88,26 @@ open class CaptureNode(val data: CaptureNodeModel, var clockType: ClockType) : H
    * @return all descendants in pre-order (i.e. node, left, right) as a stream.
    */
   val descendantsStream: Stream<CaptureNode>
-    get() = Stream.concat(Stream.of(this), children.stream().flatMap { it.descendantsStream })
+    get() = StreamSupport.stream(Spliterators.spliteratorUnknownSize(descendantsIterator(), Spliterator.ORDERED or Spliterator.NONNULL),
+                                 false)
+
+  /**
+   * Iterates over all descendants in pre-order with an explicit stack, rather than nesting a stream per node which is slow and can
+   * overflow the stack on deep trees.
+   */
+  private fun descendantsIterator() = object : Iterator<CaptureNode> {
+    private val stack = ArrayDeque<CaptureNode>().apply { addLast(this@CaptureNode) }
+
+    override fun hasNext() = stack.isNotEmpty()
+
+    override fun next(): CaptureNode {
+      val node = stack.removeLast()
+      for (i in node.childrenList.indices.reversed()) {
+        stack.addLast(node.childrenList[i])
+      }
+      return node
+    }
+  }
 
   open fun addChild(node: CaptureNode) {
     childrenList.add(node)
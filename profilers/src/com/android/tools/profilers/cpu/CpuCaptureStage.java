@@ -17,6 +17,7 @@ package com.android.tools.profilers.cpu;
 
 import com.android.tools.adtui.model.AspectModel;
 import com.android.tools.adtui.model.BoxSelectionModel;
+import com.android.tools.adtui.model.DataSeries;
 import com.android.tools.adtui.model.DefaultTimeline;
 import com.android.tools.adtui.model.MultiSelectionModel;
 import com.android.tools.adtui.model.RangedSeries;
@@ -81,8 +82,8 @@ import com.intellij.openapi.util.io.FileUtil;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
-import java.util.Collections;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Locale;
@@ -136,10 +137,18 @@ public class CpuCaptureStage extends Stage<Timeline> {
    */
   @NotNull
   public static File saveCapture(long traceId, ByteString data) {
-    try {
+    return saveCapture(traceId, data.newInput());
+  }
+
+  /**
+   * Same as {@link #saveCapture(long, ByteString)}, but copies the trace from {@code data} as it is read, and closes it.
+   */
+  @NotNull
+  public static File saveCapture(long traceId, @NotNull InputStream data) {
+    try (InputStream in = data) {
       File trace = FileUtil.createTempFile(String.format(Locale.US, "cpu_trace_%d", traceId), ".trace", true);
       try (FileOutputStream out = new FileOutputStream(trace)) {
-        out.write(data.toByteArray());
+        FileUtil.copy(in, out);
       }
       return trace;
     }
@@ -154,11 +163,13 @@ public class CpuCaptureStage extends Stage<Timeline> {
       .setStreamId(profilers.getSession().getStreamId())
       .setId(String.valueOf(traceId))
       .build();
-    Transport.BytesResponse traceResponse = profilers.getClient().getTransportClient().getBytes(traceRequest);
-    if (!traceResponse.getContents().isEmpty()) {
-      return saveCapture(traceId, traceResponse.getContents());
+    // Stream the trace to disk so large traces are never held in memory whole.
+    File trace = saveCapture(traceId, profilers.getClient().openBytesStream(traceRequest));
+    if (trace.length() == 0) {
+      FileUtil.delete(trace);
+      return null;
     }
-    return null;
+    return trace;
   }
 
   /**
@@ -727,7 +738,7 @@ public class CpuCaptureStage extends Stage<Timeline> {
     for (int cpuId = 0; cpuId < cpuCount; ++cpuId) {
       // CPU Core scheduling.
       final int coreId = cpuId;
-      LazyDataSeries<CpuThreadSliceInfo> coreSchedSeries = new LazyDataSeries<>(() -> systemTraceData.getCpuThreadSliceInfoStates(coreId));
+      DataSeries<CpuThreadSliceInfo> coreSchedSeries = systemTraceData.getCpuThreadSliceInfoSeries(coreId);
       CpuKernelTooltip kernelTooltip = new CpuKernelTooltip(myTrackGroupTimeline, mainThreadId);
       kernelTooltip.setCpuSeries(cpuId, coreSchedSeries);
       cores.addTrackModel(TrackModel.newBuilder(new CpuCoreTrackModel(coreSchedSeries, myTrackGroupTimeline.getViewRange(), mainThreadId),
@@ -735,7 +746,7 @@ public class CpuCaptureStage extends Stage<Timeline> {
 
       // CPU Core frequency.
       String cpuFrequencyTitle = "CPU " + cpuId + " Frequency";
-      List<SeriesData<Long>> cpuFreqCounters = systemTraceData.getCpuCounters().get(cpuId).getOrDefault("cpufreq", Collections.emptyList());
+      DataSeries<Long> cpuFreqCounters = systemTraceData.getCpuCounterSeries(cpuId, "cpufreq");
       CpuFrequencyTrackModel cpuFreqTrackModel = new CpuFrequencyTrackModel(cpuFreqCounters, myTrackGroupTimeline.getViewRange());
       CpuFrequencyTooltip cpuFreqTooltip = new CpuFrequencyTooltip(myTrackGroupTimeline, cpuId, cpuFreqTrackModel.getCpuFrequencySeries());
       cores.addTrackModel(TrackModel.newBuilder(cpuFreqTrackModel, ProfilerTrackRendererType.CPU_FREQUENCY, cpuFrequencyTitle)
@@ -755,9 +766,10 @@ public class CpuCaptureStage extends Stage<Timeline> {
       .build();
     RssMemoryTrackModel.Companion.getIncludedCountersNameMap().forEach(
       (counterName, displayName) -> {
-        if (systemTraceData.getMemoryCounters().containsKey(counterName)) {
-          RssMemoryTrackModel trackModel =
-            new RssMemoryTrackModel(systemTraceData.getMemoryCounters().get(counterName), myTrackGroupTimeline.getViewRange());
+        Long maxValue = systemTraceData.getMemoryCounterMax(counterName);
+        if (maxValue != null) {
+          RssMemoryTrackModel trackModel = new RssMemoryTrackModel(systemTraceData.getMemoryCounterSeries(counterName), maxValue,
+                                                                   myTrackGroupTimeline.getViewRange());
           RssMemoryTooltip tooltip = new RssMemoryTooltip(myTrackGroupTimeline, counterName, trackModel.getMemoryCounterSeries());
           memory.addTrackModel(
             TrackModel.newBuilder(trackModel, ProfilerTrackRendererType.RSS_MEMORY, displayName).setDefaultTooltipModel(tooltip));
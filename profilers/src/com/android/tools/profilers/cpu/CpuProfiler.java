@@ -35,10 +35,10 @@ import com.intellij.openapi.diagnostic.Logger;
 import com.intellij.openapi.util.Pair;
 import com.intellij.openapi.util.io.FileUtil;
 import com.intellij.openapi.util.text.StringUtil;
-import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.OutputStream;
 import java.nio.file.Files;
 import java.nio.file.Paths;
@@ -161,14 +161,11 @@ public class CpuProfiler implements StudioProfiler {
    * Copies the content of the trace file corresponding to a {@link CpuTraceInfo} to a given {@link FileOutputStream}.
    */
   static void saveCaptureToFile(@NotNull StudioProfilers profilers, @NotNull CpuTraceInfo info, @NotNull OutputStream outputStream) {
-
-    try {
-      Transport.BytesRequest traceRequest = Transport.BytesRequest.newBuilder()
-        .setStreamId(profilers.getSession().getStreamId())
-        .setId(String.valueOf(info.getTraceId()))
-        .build();
-      Transport.BytesResponse traceResponse = profilers.getClient().getTransportClient().getBytes(traceRequest);
-
+    Transport.BytesRequest traceRequest = Transport.BytesRequest.newBuilder()
+      .setStreamId(profilers.getSession().getStreamId())
+      .setId(String.valueOf(info.getTraceId()))
+      .build();
+    try (InputStream traceStream = profilers.getClient().openBytesStream(traceRequest)) {
       // Atrace Format = [HEADER|ZlibData][HEADER|ZlibData]
       // Systrace Expected format = [HEADER|ZlipData]
       // As such exporting the file raw Systrace will only read the first header/data chunk.
@@ -179,12 +176,12 @@ public class CpuProfiler implements StudioProfiler {
       if (info.getConfiguration().getUserOptions().getTraceType() == CpuTraceType.ATRACE) {
         File trace = FileUtil.createTempFile(String.format("cpu_trace_%d", info.getTraceId()), ".trace", true);
         try (FileOutputStream out = new FileOutputStream(trace)) {
-          out.write(traceResponse.getContents().toByteArray());
+          FileUtil.copy(traceStream, out);
         }
         AtraceExporter.export(trace, outputStream);
       }
       else {
-        FileUtil.copy(new ByteArrayInputStream(traceResponse.getContents().toByteArray()), outputStream);
+        FileUtil.copy(traceStream, outputStream);
         if (info.getConfiguration().getUserOptions().getTraceType() == CpuTraceType.PERFETTO) {
           // TODO (b/184681183): Uncomment this when we know what we want the user experience to be.
           //PerfettoTrace.Trace trace = PerfettoTrace.Trace.newBuilder()
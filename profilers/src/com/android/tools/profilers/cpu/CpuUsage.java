@@ -17,6 +17,7 @@ package com.android.tools.profilers.cpu;
 
 import com.android.tools.adtui.model.DataSeries;
 import com.android.tools.adtui.model.LineChartModel;
+import com.android.tools.adtui.model.LongSeriesDataView;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.RangedContinuousSeries;
 import com.android.tools.adtui.model.SeriesData;
@@ -27,8 +28,6 @@ import com.android.tools.profilers.UnifiedEventDataSeries;
 import com.android.tools.profilers.cpu.systemtrace.SystemTraceCpuCapture;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
-import java.util.stream.Collectors;
-import java.util.stream.IntStream;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -83,18 +82,22 @@ public class CpuUsage extends LineChartModel {
   /**
    * Extracts CPU usage percentage data from a list of {@link Common.Event}.
    *
-   * @return a list of SeriesData containing CPU usage percentage.
+   * @return a {@link LongSeriesDataView} containing CPU usage percentage.
    */
   protected static List<SeriesData<Long>> extractData(List<Common.Event> dataList, boolean isOtherProcess) {
-    return IntStream.range(0, dataList.size() - 1)
+    int size = Math.max(dataList.size() - 1, 0);
+    long[] timestamps = new long[size];
+    long[] usages = new long[size];
+    for (int index = 0; index < size; index++) {
       // Calculate CPU usage percentage from two adjacent CPU usage data.
-      .mapToObj(index -> getCpuUsageData(dataList.get(index).getCpuUsage(), dataList.get(index + 1).getCpuUsage(), isOtherProcess))
-      .collect(Collectors.toList());
+      Cpu.CpuUsageData data = dataList.get(index + 1).getCpuUsage();
+      timestamps[index] = TimeUnit.NANOSECONDS.toMicros(data.getEndTimestamp());
+      usages[index] = getCpuUsagePercentage(dataList.get(index).getCpuUsage(), data, isOtherProcess);
+    }
+    return LongSeriesDataView.of(timestamps, usages);
   }
 
-  // TODO: make private after LegacyCpuUsageDataSeries is deprecated.
-  protected static SeriesData<Long> getCpuUsageData(Cpu.CpuUsageData prevData, Cpu.CpuUsageData data, boolean isOtherProcess) {
-    long dataTimestamp = TimeUnit.NANOSECONDS.toMicros(data.getEndTimestamp());
+  private static long getCpuUsagePercentage(Cpu.CpuUsageData prevData, Cpu.CpuUsageData data, boolean isOtherProcess) {
     long elapsed = (data.getElapsedTimeInMillisec() - prevData.getElapsedTimeInMillisec());
     // TODO: consider using raw data instead of percentage to improve efficiency.
     double app = 100.0 * (data.getAppCpuTimeInMillisec() - prevData.getAppCpuTimeInMillisec()) / elapsed;
@@ -108,6 +111,6 @@ public class CpuUsage extends LineChartModel {
     system = Math.max(0, Math.min(system, 100.0));
     app = Math.max(0, Math.min(app, system));
 
-    return new SeriesData<>(dataTimestamp, (long)(isOtherProcess ? system - app : app));
+    return (long)(isOtherProcess ? system - app : app);
   }
 }
@@ -16,6 +16,7 @@
 package com.android.tools.profilers.cpu;
 
 import com.android.tools.adtui.model.DataSeries;
+import com.android.tools.adtui.model.LongSeriesDataView;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.SeriesData;
 import java.util.ArrayList;
@@ -58,13 +59,20 @@ abstract class InMemoryDataSeries<T> implements DataSeries<T> {
       maxIndex = Math.min(-maxIndex - 1, seriesDataList.size() - 1);
     }
     // Return all data points from minIndex to maxIndex, both inclusive.
-    result.addAll(seriesDataList.subList(minIndex, maxIndex + 1));
+    List<SeriesData<T>> inRange = seriesDataList.subList(minIndex, maxIndex + 1);
+    if (inRange instanceof LongSeriesDataView) {
+      // Primitive views are immutable and box samples on access, so return the sub-view rather than boxing every sample into a copy.
+      return inRange;
+    }
+    result.addAll(inRange);
     return result;
   }
 
   /**
    * @return all the {@link SeriesData} stored in memory (sorted by {@link SeriesData#x}, to be filtered by range in
    * {@link #getDataForRange(Range)}. Note that for best performance it is recommended to returning a {@link java.util.RandomAccess} list.
+   * Returning a {@link LongSeriesDataView} (e.g. from {@link com.android.tools.adtui.model.LongDataSeries#getAllData()}) avoids allocating
+   * a {@link SeriesData} per sample.
    */
   @NotNull
   protected abstract List<SeriesData<T>> inMemoryDataList();
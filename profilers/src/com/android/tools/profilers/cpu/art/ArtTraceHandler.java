@@ -23,16 +23,41 @@ import com.android.tools.profilers.cpu.CpuThreadInfo;
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import com.android.tools.profilers.cpu.nodemodel.JavaMethodModel;
 import com.android.tools.profilers.cpu.nodemodel.SingleNameModel;
+import com.google.common.annotations.VisibleForTesting;
 import java.util.ArrayDeque;
+import java.util.Arrays;
 import java.util.Deque;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.AtomicInteger;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
+/**
+ * Builds the call trees of an ART trace from the events reported by {@link com.android.tools.perflib.vmtrace.VmTraceParser}.
+ * <p>
+ * The parser reports the events of all threads interleaved, so the events are recorded per thread in blocks of compact arrays. As soon as
+ * a block is full it is added to the tree of its thread in the background, after the previous block of the thread, and released. The
+ * trees of the threads are thus built incrementally and in parallel while the trace is parsed, and only the blocks waiting to be added
+ * are buffered. {@link #getThreadsGraph()} adds the last partial blocks and waits for the trees.
+ */
 public class ArtTraceHandler implements VmTraceHandler {
   private static final String MAIN_THREAD_NAME = "main";
   private static final String KEY_ELAPSED_TIME_US = "elapsed-time-usec";
+
+  /**
+   * Maximum number of events in a block of {@link ThreadActions}.
+   */
+  @VisibleForTesting static final int ACTION_BLOCK_SIZE = 4096;
+
+  /**
+   * Maximum number of full blocks of a thread waiting to be added to its tree. Beyond that recording waits for the tree to catch up, so
+   * the buffered events stay bounded when building is slower than parsing.
+   */
+  @VisibleForTesting static final int MAX_PENDING_BLOCKS = 16;
+
   private long myStartTimeUs;
   private long myElapsedTimeUs;
 
@@ -47,9 +72,9 @@ public class ArtTraceHandler implements VmTraceHandler {
   private final Map<Long, CaptureNodeModel> myMethods = new HashMap<>();
 
   /**
-   * Map from thread id to per thread stack call constructor.
+   * Map from thread id to the builder of the tree of the thread.
    */
-  private final Map<Integer, CaptureNodeConstructor> myNodeConstructors = new HashMap<>();
+  private final Map<Integer, ThreadTreeBuilder> myThreadBuilders = new HashMap<>();
 
   @Nullable
   private Map<CpuThreadInfo, CaptureNode> myThreadsGraph;
@@ -77,13 +102,12 @@ public class ArtTraceHandler implements VmTraceHandler {
       myMethods.put(methodId, new SingleNameModel("unknown"));
     }
 
-    CaptureNodeConstructor constructor = myNodeConstructors.get(threadId);
-    if (constructor == null) {
-      CaptureNodeModel topLevelModel = createUniqueMethodForThread(threadId);
-      constructor = new CaptureNodeConstructor(topLevelModel);
-      myNodeConstructors.put(threadId, constructor);
+    ThreadTreeBuilder builder = myThreadBuilders.get(threadId);
+    if (builder == null) {
+      builder = new ThreadTreeBuilder(createUniqueMethodForThread(threadId));
+      myThreadBuilders.put(threadId, builder);
     }
-    constructor.addTraceAction(myMethods.get(methodId), methodAction, threadTime, globalTime);
+    builder.add(myMethods.get(methodId), methodAction, threadTime, globalTime);
   }
 
   private CaptureNodeModel createUniqueMethodForThread(int threadId) {
@@ -104,30 +128,30 @@ public class ArtTraceHandler implements VmTraceHandler {
 
   @NotNull
   private Map<CpuThreadInfo, CaptureNode> createThreadsGraph() {
-    Map<CpuThreadInfo, CaptureNode> threadsGraph = new HashMap<>(myThreads.size());
-
+    Map<CpuThreadInfo, CompletableFuture<CaptureNode>> futures = new HashMap<>(myThreadBuilders.size());
     for (Map.Entry<Integer, String> entry : myThreads.entrySet()) {
       final int id = entry.getKey();
       final String name = entry.getValue();
-
-      CaptureNodeConstructor constructor = myNodeConstructors.get(id);
-      if (constructor == null) {
-        continue;
+      ThreadTreeBuilder builder = myThreadBuilders.remove(id);
+      if (builder != null) {
+        futures.put(new CpuThreadInfo(id, name, name.equals(MAIN_THREAD_NAME)), builder.finish().thenApply(this::adjustThreadTree));
       }
-
-      CaptureNode topLevelCall = constructor.getTopLevel();
-      assert topLevelCall != null;
-      CpuThreadInfo info = new CpuThreadInfo(id, name, name.equals(MAIN_THREAD_NAME));
-
-      long topLevelGlobalStart = topLevelCall.getStartGlobal() + myStartTimeUs;
-      adjustNodesTimeAndDepth(topLevelCall, topLevelGlobalStart);
-
-      threadsGraph.put(info, topLevelCall);
     }
 
+    Map<CpuThreadInfo, CaptureNode> threadsGraph = new HashMap<>(futures.size());
+    futures.forEach((info, future) -> threadsGraph.put(info, join(future)));
     return threadsGraph;
   }
 
+  @NotNull
+  private CaptureNode adjustThreadTree(@Nullable CaptureNode topLevelCall) {
+    assert topLevelCall != null;
+
+    long topLevelGlobalStart = topLevelCall.getStartGlobal() + myStartTimeUs;
+    adjustNodesTimeAndDepth(topLevelCall, topLevelGlobalStart);
+    return topLevelCall;
+  }
+
   /**
    * Adjusts global and thread time from relative to absolute time and the depth of nodes.
    */
@@ -178,4 +202,103 @@ public class ArtTraceHandler implements VmTraceHandler {
   public void setVersion(int version) {
     // We don't need this information
   }
+
+  /**
+   * Waits for a build task, rethrowing the exception it failed with.
+   */
+  private static <T> T join(@NotNull CompletableFuture<T> future) {
+    try {
+      return future.join();
+    }
+    catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException) {
+        throw (RuntimeException)e.getCause();
+      }
+      throw e;
+    }
+  }
+
+  /**
+   * Builds the tree of a thread from its method enter and exit events, in blocks of at most {@link #ACTION_BLOCK_SIZE} events.
+   */
+  private static final class ThreadTreeBuilder {
+    @NotNull private final CaptureNodeConstructor myConstructor;
+    @NotNull private ActionBlock myBlock = new ActionBlock();
+
+    /**
+     * Completes once every block submitted so far has been added to the tree. Each block is added by a task chained to this future, so
+     * the blocks of a thread are added one at a time and in order.
+     */
+    @NotNull private CompletableFuture<Void> myPending = CompletableFuture.completedFuture(null);
+    private final AtomicInteger myPendingBlocks = new AtomicInteger();
+
+    private ThreadTreeBuilder(@NotNull CaptureNodeModel topLevelModel) {
+      myConstructor = new CaptureNodeConstructor(topLevelModel);
+    }
+
+    private void add(@NotNull CaptureNodeModel model, @NotNull TraceAction action, int threadTime, int globalTime) {
+      myBlock.add(model, action, threadTime, globalTime);
+      if (myBlock.mySize == ACTION_BLOCK_SIZE) {
+        submitBlock();
+      }
+    }
+
+    private void submitBlock() {
+      if (myPendingBlocks.get() >= MAX_PENDING_BLOCKS) {
+        join(myPending);
+      }
+      ActionBlock block = myBlock;
+      myBlock = new ActionBlock();
+      myPendingBlocks.incrementAndGet();
+      myPending = myPending.thenRunAsync(() -> {
+        block.addTo(myConstructor);
+        myPendingBlocks.decrementAndGet();
+      });
+    }
+
+    /**
+     * Adds the remaining events and returns the top-level call of the thread once all events have been added.
+     */
+    @NotNull
+    private CompletableFuture<CaptureNode> finish() {
+      if (myBlock.mySize > 0) {
+        submitBlock();
+      }
+      return myPending.thenApply(unused -> myConstructor.getTopLevel());
+    }
+  }
+
+  /**
+   * Parallel arrays of events. They start small and grow up to {@link #ACTION_BLOCK_SIZE}, so threads with few events stay cheap.
+   */
+  private static final class ActionBlock {
+    private static final int INITIAL_CAPACITY = 64;
+
+    @NotNull private CaptureNodeModel[] myModels = new CaptureNodeModel[INITIAL_CAPACITY];
+    @NotNull private TraceAction[] myActions = new TraceAction[INITIAL_CAPACITY];
+    @NotNull private int[] myThreadTimes = new int[INITIAL_CAPACITY];
+    @NotNull private int[] myGlobalTimes = new int[INITIAL_CAPACITY];
+    private int mySize;
+
+    private void add(@NotNull CaptureNodeModel model, @NotNull TraceAction action, int threadTime, int globalTime) {
+      if (mySize == myModels.length) {
+        int capacity = Math.min(mySize * 2, ACTION_BLOCK_SIZE);
+        myModels = Arrays.copyOf(myModels, capacity);
+        myActions = Arrays.copyOf(myActions, capacity);
+        myThreadTimes = Arrays.copyOf(myThreadTimes, capacity);
+        myGlobalTimes = Arrays.copyOf(myGlobalTimes, capacity);
+      }
+      myModels[mySize] = model;
+      myActions[mySize] = action;
+      myThreadTimes[mySize] = threadTime;
+      myGlobalTimes[mySize] = globalTime;
+      mySize++;
+    }
+
+    private void addTo(@NotNull CaptureNodeConstructor constructor) {
+      for (int i = 0; i < mySize; i++) {
+        constructor.addTraceAction(myModels[i], myActions[i], myThreadTimes[i], myGlobalTimes[i]);
+      }
+    }
+  }
 }
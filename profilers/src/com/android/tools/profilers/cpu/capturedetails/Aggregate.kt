@@ -20,50 +20,78 @@ import com.android.tools.perflib.vmtrace.ClockType
 import com.android.tools.profilers.cpu.CaptureNode
 import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
 import com.android.tools.profilers.cpu.nodemodel.SingleNameModel
-import java.util.IdentityHashMap
-import java.util.Stack
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap
+import it.unimi.dsi.fastutil.ints.IntArrayList
 
 /**
  * The full aggregation (e.g. top-down/bottom-up) not restricted to any range,
- * that expands lazily
+ * that expands lazily.
+ *
+ * The calls merged into a node are rows of a [CompactCallTree] built once for the whole aggregation, so a node keeps an int per call
+ * instead of a reference to a [CaptureNode].
+ *
+ * The totals over a range are computed from [IntervalIndex]es built on first use for each clock type, so dragging a selection doesn't
+ * scan every call of every method again. The last total computed is kept, for when the same range is queried again.
  */
 abstract class Aggregate<T: Aggregate<T>> {
   abstract val id: String
-  abstract val nodes: List<CaptureNode>
+  internal abstract val tree: CompactCallTree
+
+  /**
+   * The rows of [tree] merged into this node, in pre-order.
+   */
+  abstract val rows: IntArray
   abstract val children: List<T>
   abstract val methodModel: CaptureNodeModel
   abstract val filterType: CaptureNode.FilterType
   val isUnmatched get() = filterType == CaptureNode.FilterType.UNMATCH
-  abstract fun totalOver(clockType: ClockType, range: Range): Summary
-  fun overlapsWith(range: Range) = nodes.any { it.start < range.max && range.min < it.end }
+  private val nodeIndexes = arrayOfNulls<IntervalIndex>(ClockType.values().size)
+  private var lastTotal: RangeTotal? = null
+
+  fun totalOver(clockType: ClockType, range: Range): Summary {
+    val cached = lastTotal
+    if (cached != null && cached.clockType == clockType && cached.min == range.min && cached.max == range.max) {
+      return cached.summary
+    }
+    return computeTotalOver(clockType, range).also { lastTotal = RangeTotal(clockType, range.min, range.max, it) }
+  }
+
+  protected abstract fun computeTotalOver(clockType: ClockType, range: Range): Summary
+
+  fun overlapsWith(range: Range) =
+    rows.isNotEmpty() && nodeIndex(tree.clockType).overlaps(range.min, range.max)
+
+  protected fun nodeIndex(clockType: ClockType) =
+    nodeIndexes[clockType.ordinal] ?: IntervalIndex(tree, rows, clockType).also { nodeIndexes[clockType.ordinal] = it }
+
   data class Summary(val total: Double, val childrenTotal: Double)
 
-  class TopDown private constructor(override val id: String, override val nodes: List<CaptureNode>): Aggregate<TopDown>() {
-    override val methodModel: CaptureNodeModel get() = nodes[0].data
-    override val filterType: CaptureNode.FilterType get() = nodes[0].filterType
+  private class RangeTotal(val clockType: ClockType, val min: Double, val max: Double, val summary: Summary)
+
+  class TopDown private constructor(override val id: String,
+                                    override val tree: CompactCallTree,
+                                    override val rows: IntArray): Aggregate<TopDown>() {
+    override val methodModel: CaptureNodeModel get() = tree.getModel(rows[0])
+    override val filterType: CaptureNode.FilterType get() = tree.getFilterType(rows[0])
     override val children: List<TopDown> = lazyList(
-      { nodes.asSequence()
-        .flatMap(CaptureNode::children)
-        .groupBy { it.isUnmatched to it.data.id }
-        .map { (key, nodes) -> TopDown(key.second, nodes) }
+      { RowGroups(tree).apply { tree.childrenOf(rows).forEach { add(it, it) } }
+          .groups.map { TopDown(it.id, tree, it.rows.toIntArray()) }
       },
-      { nodes.all { it.childCount == 0 } }
+      { rows.all { tree.getChildCount(it) == 0 } }
     )
 
-    override fun totalOver(clockType: ClockType, range: Range): Summary {
-      var total = 0.0
-      var childrenTotal = 0.0
-      for (node in nodes) {
-        total += getIntersection(range, node, clockType)
-        for (child in node.children) {
-          childrenTotal += getIntersection(range, child, clockType)
-        }
-      }
-      return Summary(total, childrenTotal)
+    private val childIndexes = arrayOfNulls<IntervalIndex>(ClockType.values().size)
+
+    override fun computeTotalOver(clockType: ClockType, range: Range): Summary {
+      val childIndex = childIndexes[clockType.ordinal]
+                       ?: IntervalIndex(tree, tree.childrenOf(rows), clockType).also { childIndexes[clockType.ordinal] = it }
+      return Summary(nodeIndex(clockType).intersectionLength(range.min, range.max),
+                     childIndex.intersectionLength(range.min, range.max))
     }
 
     companion object {
-      @JvmStatic fun rootAt(node: CaptureNode) = TopDown(node.data.id, listOf(node))
+      @JvmStatic fun rootAt(node: CaptureNode) = rootAt(CompactCallTree.fromCaptureNode(node))
+      @JvmStatic internal fun rootAt(tree: CompactCallTree) = TopDown(tree.getModel(0).id, tree, intArrayOf(0))
     }
   }
 
@@ -71,96 +99,123 @@ abstract class Aggregate<T: Aggregate<T>> {
    * Represents a bottom-up node in the bottom-view. To create a new bottom-up graph
    * at a {@link CaptureNode}, see {@link BottomUpNode.rootAt(CaptureNode)}
    */
-  sealed class BottomUp private constructor(override val id: String): Aggregate<BottomUp>() {
-    class Root(node: CaptureNode): BottomUp("Root") {
-      override val nodes = listOf(node)
-      override val children = buildChildren(node.preOrderTraversal().map { it to it })
+  sealed class BottomUp private constructor(override val id: String, override val tree: CompactCallTree): Aggregate<BottomUp>() {
+    class Root internal constructor(tree: CompactCallTree): BottomUp("Root", tree) {
+      override val rows = intArrayOf(0)
+      override val children = RowGroups(tree).apply {
+        // If we don't have an Id then we exclude this node from being added as a child to the parent.
+        // The only known occurrence of this is the empty root node used to aggregate multiple selected objects.
+        for (row in 0 until tree.size) {
+          if (tree.getModel(row).id.isNotEmpty()) add(row, row)
+        }
+      }.toChildren()
       override val methodModel = SingleNameModel("") // sample entry for the root
       override val filterType get() = CaptureNode.FilterType.MATCH
     }
-    class Child(id: String, private val pathNodes: List<CaptureNode>, override val nodes: List<CaptureNode>): BottomUp(id) {
-      override val methodModel get() = pathNodes[0].data
-      override val filterType get() = pathNodes[0].filterType
+    class Child internal constructor(id: String, tree: CompactCallTree, private val pathRows: IntArray, override val rows: IntArray): BottomUp(id, tree) {
+      override val methodModel get() = tree.getModel(pathRows[0])
+      override val filterType get() = tree.getFilterType(pathRows[0])
       override val children: List<Child> = lazyList(
-        { buildChildren((pathNodes.asSequence() zip nodes.asSequence())
-                          .mapNotNull { (pathNode, node) -> pathNode.parent?.let { it to node } })
+        { RowGroups(tree).apply {
+            for (i in pathRows.indices) {
+              val parent = tree.getParent(pathRows[i])
+              if (parent >= 0) add(parent, rows[i])
+            }
+          }.toChildren()
         },
-        { pathNodes.all { it.parent == null } }
+        { pathRows.all { tree.getParent(it) < 0 } }
       )
     }
 
-    override fun totalOver(clockType: ClockType, range: Range): Summary {
+    private val bottomUpIndexes = arrayOfNulls<BottomUpIndex>(ClockType.values().size)
+
+    override fun computeTotalOver(clockType: ClockType, range: Range): Summary {
+      val index = bottomUpIndexes[clockType.ordinal] ?: BottomUpIndex(clockType).also { bottomUpIndexes[clockType.ordinal] = it }
       // how much time was spent in this call stack path, and in the functions it called
-      var total = 0.0
+      val total = index.outerNodes.sumOf { it.intersectionLength(range.min, range.max) }
+      // how much time was spent doing work directly in this call stack path
+      val self = nodeIndex(clockType).intersectionLength(range.min, range.max) -
+                 index.children.intersectionLength(range.min, range.max)
+      val childrenTotal = total - self
+      return Summary(total, childrenTotal)
+    }
 
-      // The node that is at the top of the call stack, e.g if the call stack looks like B [0..30] -> B [1..20],
-      // then the second method can't be outerSoFarByParent.
-      // It's used to exclude nodes which aren't at the top of the
-      // call stack from the total time calculation.
-      // When multiple threads with the same ID are selected, the nodes are merged. When this happens nodes may be interlaced between
-      // each of the threads. As such we keep a mapping of outer so far by parents to keep the book keeping done properly.
-      val outerSoFarByParent = IdentityHashMap<CaptureNode, CaptureNode>()
+    /**
+     * The range independent part of the bottom-up totals of [rows] in one clock type.
+     */
+    private inner class BottomUpIndex(clockType: ClockType) {
+      /**
+       * The nodes that are at the top of the call stack, per tree. E.g if the call stack looks like B [0..30] -> B [1..20],
+       * then the second method isn't. They are used to exclude nodes which aren't at the top of the call stack from the total time.
+       * When multiple threads with the same ID are selected, the nodes are merged and may be interlaced between each of the threads,
+       * so the nodes at the top are found for each tree independently and their totals are summed after the fact.
+       */
+      val outerNodes: List<IntervalIndex>
 
-      // how much time was spent doing work directly in this call stack path
-      var self = 0.0
-      // myNodes is sorted by CaptureNode#getStart() in increasing order,
-      // if they are equal then ancestor comes first
-      for (node in nodes) {
-        // We use the root node to distinguish if two nodes share the same tree. In the event of multi-select we want to compute the bottom
-        // up calculation independently for each tree then sum them after the fact.
-        // TODO(153306735): Cache the root calculation, otherwise our update algorithm is going to be O(n*depth) instead of O(n)
-        val root = node.findRootNode()
-        val outerSoFar = outerSoFarByParent[root]
-        if (outerSoFar == null || node.end > outerSoFar.end) {
-          if (outerSoFar != null) {
-            // |outerSoFarByParent| is at the top of the call stack
-            total += getIntersection(range, outerSoFar, clockType)
+      /**
+       * The children of all of [rows], subtracted from their time to get the self time.
+       */
+      val children = IntervalIndex(tree, tree.childrenOf(rows), clockType)
+
+      init {
+        val outerRowsByRoot = Int2ObjectLinkedOpenHashMap<IntArrayList>()
+        // rows are in pre-order, so sorted by start in increasing order and if they are equal then ancestor comes first
+        for (row in rows) {
+          val root = tree.findRoot(row)
+          val outer = outerRowsByRoot.get(root) ?: IntArrayList().also { outerRowsByRoot.put(root, it) }
+          if (outer.isEmpty() || tree.getEnd(row, clockType) > tree.getEnd(outer.getInt(outer.size - 1), clockType)) {
+            outer.add(row)
           }
-          outerSoFarByParent[root] = node
         }
-        self += getIntersection(range, node, clockType) -
-                node.children.sumOf { getIntersection(range, it, clockType) }
-      }
-      for (outerSoFar in outerSoFarByParent.values) {
-        // |outerSoFarByParent| is at the top of the call stack
-        total += getIntersection(range, outerSoFar, clockType)
+        outerNodes = outerRowsByRoot.values.map { IntervalIndex(tree, it.toIntArray(), clockType) }
       }
-      val childrenTotal = total - self
-      return Summary(total, childrenTotal)
     }
 
     companion object {
-      @JvmStatic fun rootAt(node: CaptureNode): BottomUp = Root(node)
-
-      protected fun buildChildren(pathNodesAndNodes: Sequence<Pair<CaptureNode, CaptureNode>>): List<Child> =
-        pathNodesAndNodes
-          // We use a separate map for unmatched children, because we can not merge unmatched with matched,
-          // i.e all merged children should have the same {@link CaptureNode.FilterType};
-          .groupBy { (pathNode, _) -> pathNode.isUnmatched to pathNode.data.id }
-          .map { (key, nodePairs) ->
-            val (pathNodes, nodes) = nodePairs.unzip()
-            Child(key.second, pathNodes, nodes)
-          }
+      @JvmStatic fun rootAt(node: CaptureNode): BottomUp = rootAt(CompactCallTree.fromCaptureNode(node))
+      @JvmStatic internal fun rootAt(tree: CompactCallTree): BottomUp = Root(tree)
 
-      private fun CaptureNode.preOrderTraversal() = sequence<CaptureNode> {
-        val stack = Stack<CaptureNode>().also { it.add(this@preOrderTraversal) }
-        while (stack.isNotEmpty()) {
-          val next = stack.pop()
-          stack.addAll(next.children.asReversed()) // reversed order so that first child is processed first
-          // If we don't have an Id then we exclude this node from being added as a child to the parent.
-          // The only known occurrence of this is the empty root node used to aggregate multiple selected objects.
-          if (next.data.id.isNotEmpty()) yield(next)
-        }
-      }
+      private fun RowGroups.toChildren() = groups.map { Child(it.id, tree, it.pathRows.toIntArray(), it.rows.toIntArray()) }
     }
   }
 
-  companion object {
-    internal fun getIntersection(range: Range, node: CaptureNode, type: ClockType): Double = when (type) {
-      ClockType.GLOBAL -> range.getIntersectionLength(node.startGlobal.toDouble(), node.endGlobal.toDouble())
-      ClockType.THREAD -> range.getIntersectionLength(node.startThread.toDouble(), node.endThread.toDouble())
+  /**
+   * Groups rows by the method of their path row, in the order the groups first appear. For top-down nodes the path row is the row itself,
+   * for bottom-up nodes it is the ancestor of the row at the depth of the node. We use separate groups for unmatched rows, because we can
+   * not merge unmatched with matched, i.e all merged rows should have the same [CaptureNode.FilterType].
+   */
+  private class RowGroups(val tree: CompactCallTree) {
+    private val matched = HashMap<String, Group>()
+    private val unmatched = HashMap<String, Group>()
+    val groups = mutableListOf<Group>()
+
+    fun add(pathRow: Int, row: Int) {
+      val id = tree.getModel(pathRow).id
+      val byId = if (tree.getFilterType(pathRow) == CaptureNode.FilterType.UNMATCH) unmatched else matched
+      val group = byId.getOrPut(id) { Group(id).also(groups::add) }
+      group.pathRows.add(pathRow)
+      group.rows.add(row)
+    }
+
+    class Group(val id: String) {
+      val pathRows = IntArrayList()
+      val rows = IntArrayList()
+    }
+  }
+}
+
+/**
+ * Returns the children of all [rows], in order.
+ */
+private fun CompactCallTree.childrenOf(rows: IntArray): IntArray {
+  val children = IntArray(rows.sumOf { getChildCount(it) })
+  var i = 0
+  for (row in rows) {
+    for (childIndex in 0 until getChildCount(row)) {
+      children[i++] = getChild(row, childIndex)
     }
   }
+  return children
 }
 
 /**
@@ -125,21 +125,25 @@ sealed class CaptureDetails(val clockType: ClockType, val capture: CpuCapture) {
         visual.startGlobal = captureNodes[0].startGlobal
         visual.startThread = captureNodes[0].startThread
 
-        val treeRange = Range(0.0, Double.MAX_VALUE)
-        var topDownNode = CpuTreeNode.of(TopDownTree.rootAt(visual), clockType, treeRange, null)
-
         // This gets mapped to the sum of all children. This assumes that this node has 0 self time,
         // which is true because we create it.
         // We map to the sum of all children because when multiple nodes are selected, nodes with the same Id are merged.
         // When they are merged, the sum of time is less than or equal to the total time of each node. We need the time to
         // be accurate as when we compute the capture space to screen space, calculations for the graph we need to know what
         // 100% is.
+        // The end is set before building the top-down tree, which copies the times of the nodes.
+        val childrenTotal = captureNodes.sumOf {
+          if (clockType == ClockType.THREAD) it.endThread - it.startThread else it.endGlobal - it.startGlobal
+        }
         // TODO: One of the numbers below is garbage
-        visual.endGlobal = visual.startGlobal + topDownNode.childrenTotal.toLong()
-        visual.endThread = visual.startThread + topDownNode.childrenTotal.toLong()
+        visual.endGlobal = visual.startGlobal + childrenTotal
+        visual.endThread = visual.startThread + childrenTotal
 
         node = visual
 
+        val treeRange = Range(0.0, Double.MAX_VALUE)
+        var topDownNode = CpuTreeNode.of(TopDownTree.rootAt(visual), clockType, treeRange, null)
+
         val selectionRangeChanged =
           AsyncUpdater.by(
             ApplicationManager.getApplication()::invokeAndWait,
@@ -152,7 +156,7 @@ sealed class CaptureDetails(val clockType: ClockType, val capture: CpuCapture) {
               val node = when {
                 // If the new selection range intersects the root node, we should reconstruct the flame chart node.
                 topDownNode.total > 0 -> {
-                  val start = max(topDownNode.base.nodes[0].start.toDouble(), selectionRange.min)
+                  val start = max(topDownNode.base.let { it.tree.getStart(it.rows[0], clockType) }.toDouble(), selectionRange.min)
                   val newNode = convertToFlameChart(topDownNode, start, 0)
                   // The intersection check (root.getTotal() > 0) may be a false positive because the root's global total is the
                   // sum of all its children for the purpose of mapping a multi-node tree to flame chart space. Thus we need to look at
@@ -191,10 +195,10 @@ sealed class CaptureDetails(val clockType: ClockType, val capture: CpuCapture) {
      * are combined into one wider bar. It converts it from [TopDownNode] as it's similar to FlameChart.
      */
     private fun convertToFlameChart(topDown: CpuTreeNode<TopDownTree>, start: Double, depth: Int): CaptureNode =
-      CaptureNode(topDown.base.nodes[0].data, clockType).apply {
+      CaptureNode(topDown.base.methodModel, clockType).apply {
         assert(topDown.total > 0)
 
-        filterType = topDown.base.nodes[0].filterType
+        filterType = topDown.base.filterType
         startGlobal = start.toLong()
         startThread = start.toLong()
         // TODO: One of the numbers below is garbage
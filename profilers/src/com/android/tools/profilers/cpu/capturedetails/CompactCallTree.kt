@@ -0,0 +1,256 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails
+
+import com.android.tools.perflib.vmtrace.ClockType
+import com.android.tools.profilers.cpu.CaptureNode
+import com.android.tools.profilers.cpu.CaptureNode.FilterType
+import com.android.tools.profilers.cpu.VisualNodeCaptureNode
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel
+import java.util.IdentityHashMap
+
+private const val INITIAL_CAPACITY = 1024
+
+/**
+ * An immutable copy of a [CaptureNode] tree stored as a struct of arrays, which [Aggregate] merges the calls of.
+ *
+ * Every call is a row identified by an int index. Rows are in pre-order, so the root is row 0 and the descendants of a row are the
+ * contiguous rows up to [getSubtreeEnd]. For each row the tree keeps the parent index, the depth, the index of its model in a table of
+ * interned [CaptureNodeModel]s, its [FilterType] and its four timestamps. The children of all rows are kept in a single
+ * index array with per-row offsets, so getting the n-th child of a row is constant time like with [CaptureNode.children].
+ *
+ * It is built with [fromCaptureNode] for the calls an aggregation covers and lives as long as the aggregation, next to the capture's
+ * [CaptureNode]s. It lets the aggregation keep an int per merged call instead of a reference, and index the timestamps of the calls
+ * in primitive arrays, see [IntervalIndex].
+ *
+ * When [isGroupingRoot] is true, the root only groups the top-level calls like a [VisualNodeCaptureNode] does, and is not their parent:
+ * [getParent] returns -1 for its children.
+ */
+internal class CompactCallTree private constructor(
+  private val parents: IntArray,
+  private val depths: IntArray,
+  private val subtreeEnds: IntArray,
+  private val modelIds: IntArray,
+  private val filterTypes: ByteArray,
+  private val startsGlobal: LongArray,
+  private val endsGlobal: LongArray,
+  private val startsThread: LongArray,
+  private val endsThread: LongArray,
+  private val childOffsets: IntArray,
+  private val childIndices: IntArray,
+  private val models: List<CaptureNodeModel>,
+  val isGroupingRoot: Boolean,
+) {
+  /**
+   * Selects the timestamps returned by [getStart] and [getEnd], like [CaptureNode.clockType].
+   */
+  var clockType = ClockType.GLOBAL
+
+  val size: Int
+    get() = parents.size
+
+  fun getModel(index: Int): CaptureNodeModel = models[modelIds[index]]
+
+  fun getFilterType(index: Int): FilterType = FILTER_TYPES[filterTypes[index].toInt()]
+
+  /**
+   * Returns the index of the parent of a row or -1 for the root, and for the top-level calls of a grouping root.
+   */
+  fun getParent(index: Int) = parents[index].let { if (it == 0 && isGroupingRoot) -1 else it }
+
+  /**
+   * Returns the index of the outermost ancestor of a row, the one found by following [getParent] until -1.
+   */
+  fun findRoot(index: Int): Int {
+    if (!isGroupingRoot || index == 0) {
+      return 0
+    }
+    // The top-level calls are in pre-order, so the call containing the row is the last one starting at or before it.
+    var low = childOffsets[0]
+    var high = childOffsets[1] - 1
+    while (low < high) {
+      val mid = (low + high + 1) ushr 1
+      if (childIndices[mid] <= index) {
+        low = mid
+      }
+      else {
+        high = mid - 1
+      }
+    }
+    return childIndices[low]
+  }
+
+  fun getDepth(index: Int) = depths[index]
+
+  fun getChildCount(index: Int) = childOffsets[index + 1] - childOffsets[index]
+
+  fun getChild(index: Int, childIndex: Int): Int {
+    if (childIndex < 0 || childIndex >= getChildCount(index)) {
+      throw IndexOutOfBoundsException("Index: $childIndex, Size: ${getChildCount(index)}")
+    }
+    return childIndices[childOffsets[index] + childIndex]
+  }
+
+  /**
+   * Returns the index after the last descendant of a row. The row and its descendants are the rows from [index] until this index.
+   */
+  fun getSubtreeEnd(index: Int) = subtreeEnds[index]
+
+  fun getStartGlobal(index: Int) = startsGlobal[index]
+  fun getEndGlobal(index: Int) = endsGlobal[index]
+  fun getStartThread(index: Int) = startsThread[index]
+  fun getEndThread(index: Int) = endsThread[index]
+
+  fun getStart(index: Int) = getStart(index, clockType)
+  fun getEnd(index: Int) = getEnd(index, clockType)
+
+  fun getStart(index: Int, clockType: ClockType) = if (clockType == ClockType.THREAD) startsThread[index] else startsGlobal[index]
+  fun getEnd(index: Int, clockType: ClockType) = if (clockType == ClockType.THREAD) endsThread[index] else endsGlobal[index]
+
+  /**
+   * Builds a [CompactCallTree] from the enter and exit events of the calls, in the order they happened. Models are interned by identity,
+   * parsers already share a model between the calls of a method. Models with the same id are not merged since some of them, like
+   * [com.android.tools.profilers.cpu.nodemodel.SystemTraceNodeModel], hold more than their id.
+   */
+  class Builder {
+    private var parents = IntArray(INITIAL_CAPACITY)
+    private var depths = IntArray(INITIAL_CAPACITY)
+    private var subtreeEnds = IntArray(INITIAL_CAPACITY)
+    private var modelIds = IntArray(INITIAL_CAPACITY)
+    private var filterTypes = ByteArray(INITIAL_CAPACITY)
+    private var startsGlobal = LongArray(INITIAL_CAPACITY)
+    private var endsGlobal = LongArray(INITIAL_CAPACITY)
+    private var startsThread = LongArray(INITIAL_CAPACITY)
+    private var endsThread = LongArray(INITIAL_CAPACITY)
+    private var size = 0
+
+    private val models = mutableListOf<CaptureNodeModel>()
+    private val modelIdByModel = IdentityHashMap<CaptureNodeModel, Int>()
+
+    // Rows that were entered but not exited yet, innermost last.
+    private var openRows = IntArray(64)
+    private var openCount = 0
+
+    /**
+     * Starts a call, as a child of the innermost call that has not exited yet. Returns the index of the new row.
+     */
+    @JvmOverloads
+    fun enter(model: CaptureNodeModel, startGlobal: Long, startThread: Long, filterType: FilterType = FilterType.MATCH): Int {
+      check(openCount > 0 || size == 0) { "A call tree has a single root" }
+      if (size == parents.size) {
+        grow()
+      }
+      val row = size++
+      parents[row] = if (openCount == 0) -1 else openRows[openCount - 1]
+      depths[row] = openCount
+      modelIds[row] = intern(model)
+      filterTypes[row] = filterType.ordinal.toByte()
+      startsGlobal[row] = startGlobal
+      startsThread[row] = startThread
+      if (openCount == openRows.size) {
+        openRows = openRows.copyOf(openCount * 2)
+      }
+      openRows[openCount++] = row
+      return row
+    }
+
+    /**
+     * Ends the innermost call that has not exited yet.
+     */
+    fun exit(endGlobal: Long, endThread: Long) {
+      check(openCount > 0) { "No call to exit" }
+      val row = openRows[--openCount]
+      endsGlobal[row] = endGlobal
+      endsThread[row] = endThread
+      subtreeEnds[row] = size
+    }
+
+    /**
+     * @param isGroupingRoot whether the root only groups the top-level calls, see [CompactCallTree.isGroupingRoot].
+     */
+    @JvmOverloads
+    fun build(isGroupingRoot: Boolean = false): CompactCallTree {
+      check(size > 0) { "Empty call tree" }
+      check(openCount == 0) { "$openCount calls did not exit" }
+
+      // Rows are in pre-order, so sorting children by parent with a counting sort keeps siblings in call order.
+      val childOffsets = IntArray(size + 1)
+      for (row in 1 until size) {
+        childOffsets[parents[row] + 1]++
+      }
+      for (row in 0 until size) {
+        childOffsets[row + 1] += childOffsets[row]
+      }
+      val childIndices = IntArray(size - 1)
+      val next = childOffsets.copyOf(size)
+      for (row in 1 until size) {
+        childIndices[next[parents[row]]++] = row
+      }
+      return CompactCallTree(
+        parents.copyOf(size), depths.copyOf(size), subtreeEnds.copyOf(size), modelIds.copyOf(size), filterTypes.copyOf(size),
+        startsGlobal.copyOf(size), endsGlobal.copyOf(size), startsThread.copyOf(size), endsThread.copyOf(size),
+        childOffsets, childIndices, models.toList(), isGroupingRoot)
+    }
+
+    private fun intern(model: CaptureNodeModel): Int = modelIdByModel.getOrPut(model) {
+      models.add(model)
+      models.size - 1
+    }
+
+    private fun grow() {
+      val capacity = parents.size * 2
+      parents = parents.copyOf(capacity)
+      depths = depths.copyOf(capacity)
+      subtreeEnds = subtreeEnds.copyOf(capacity)
+      modelIds = modelIds.copyOf(capacity)
+      filterTypes = filterTypes.copyOf(capacity)
+      startsGlobal = startsGlobal.copyOf(capacity)
+      endsGlobal = endsGlobal.copyOf(capacity)
+      startsThread = startsThread.copyOf(capacity)
+      endsThread = endsThread.copyOf(capacity)
+    }
+  }
+
+  companion object {
+    private val FILTER_TYPES = FilterType.values()
+
+    /**
+     * Converts a [CaptureNode] tree, along with the current [FilterType] of its nodes. The depth of the rows is relative to
+     * [root], and a [VisualNodeCaptureNode] root becomes a grouping root. Ancestors of [root] are not converted.
+     */
+    @JvmStatic
+    fun fromCaptureNode(root: CaptureNode): CompactCallTree {
+      val builder = Builder()
+      // Iterative depth first traversal, deep call stacks could overflow the thread's stack.
+      val stack = ArrayDeque<Pair<CaptureNode, Int>>()
+      builder.enter(root.data, root.startGlobal, root.startThread, root.filterType)
+      stack.addLast(root to 0)
+      while (stack.isNotEmpty()) {
+        val (node, nextChild) = stack.removeLast()
+        if (nextChild < node.childCount) {
+          stack.addLast(node to nextChild + 1)
+          val child = node.getChildAt(nextChild)
+          builder.enter(child.data, child.startGlobal, child.startThread, child.filterType)
+          stack.addLast(child to 0)
+        }
+        else {
+          builder.exit(node.endGlobal, node.endThread)
+        }
+      }
+      return builder.build(root is VisualNodeCaptureNode).also { it.clockType = root.clockType }
+    }
+  }
+}
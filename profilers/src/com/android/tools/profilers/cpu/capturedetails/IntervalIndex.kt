@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails
+
+import com.android.tools.perflib.vmtrace.ClockType
+
+/**
+ * The intervals of a list of calls in one [ClockType], indexed to compute how much of a range they cover.
+ *
+ * When both the starts and the ends of the calls are in increasing order, which holds for calls that don't overlap such as the calls
+ * merged in a top-down node, queries use binary searches over prefix sums and take O(log n). Otherwise they scan all the calls.
+ */
+internal class IntervalIndex private constructor(private val starts: LongArray, private val ends: LongArray) {
+  // Prefix sums of the starts and ends relative to the first start, to stay far from overflowing. Null if the calls are not sorted.
+  private val startSums: LongArray?
+  private val endSums: LongArray?
+  private val base: Long
+
+  val size get() = starts.size
+
+  /**
+   * Indexes the calls of [rows] of [tree].
+   */
+  constructor(tree: CompactCallTree, rows: IntArray, clockType: ClockType) :
+    this(LongArray(rows.size) { tree.getStart(rows[it], clockType) }, LongArray(rows.size) { tree.getEnd(rows[it], clockType) })
+
+  init {
+    val sorted = (1 until size).all { i -> starts[i] >= starts[i - 1] && ends[i] >= ends[i - 1] }
+    base = starts.firstOrNull() ?: 0
+    if (sorted) {
+      startSums = LongArray(size + 1)
+      endSums = LongArray(size + 1)
+      for (i in starts.indices) {
+        startSums[i + 1] = startSums[i] + (starts[i] - base)
+        endSums[i + 1] = endSums[i] + (ends[i] - base)
+      }
+    }
+    else {
+      startSums = null
+      endSums = null
+    }
+  }
+
+  /**
+   * Returns the sum of the lengths of the intersections of the calls with [min, max], as [com.android.tools.adtui.model.Range]
+   * computes them.
+   */
+  fun intersectionLength(min: Double, max: Double): Double {
+    if (max <= min) {
+      return 0.0
+    }
+    if (startSums == null || endSums == null) {
+      return starts.indices.sumOf { i -> maxOf(0.0, minOf(max, ends[i].toDouble()) - maxOf(min, starts[i].toDouble())) }
+    }
+    // Calls that intersect the range are the ones from lo, the first one ending after min, until hi, the first one starting at max.
+    val lo = firstIndex { ends[it] > min }
+    val hi = firstIndex { starts[it] >= max }
+    if (lo >= hi) {
+      return 0.0
+    }
+    val relativeMin = min - base
+    val relativeMax = max - base
+    var length = (endSums[hi] - endSums[lo] - (startSums[hi] - startSums[lo])).toDouble()
+    // Cut the part before min of the calls that start before it, and the part after max of the calls that end after it.
+    val firstAfterMin = firstIndex { starts[it] >= min }.coerceIn(lo, hi)
+    length -= (firstAfterMin - lo) * relativeMin - (startSums[firstAfterMin] - startSums[lo])
+    val firstAfterMax = firstIndex { ends[it] > max }.coerceIn(lo, hi)
+    length -= (endSums[hi] - endSums[firstAfterMax]) - (hi - firstAfterMax) * relativeMax
+    return length
+  }
+
+  /**
+   * Returns whether any call starts before [max] and ends after [min].
+   */
+  fun overlaps(min: Double, max: Double): Boolean {
+    if (startSums == null) {
+      return starts.indices.any { i -> starts[i] < max && min < ends[i] }
+    }
+    // Starts are sorted, so the first call ending after min is the one that starts first among those.
+    val first = firstIndex { ends[it] > min }
+    return first < size && starts[first] < max
+  }
+
+  /**
+   * Returns the first index for which [predicate] is true, or [size] if there is none. The predicate must be false then true.
+   */
+  private inline fun firstIndex(predicate: (Int) -> Boolean): Int {
+    var low = 0
+    var high = size
+    while (low < high) {
+      val mid = (low + high) ushr 1
+      if (predicate(mid)) {
+        high = mid
+      }
+      else {
+        low = mid + 1
+      }
+    }
+    return low
+  }
+}
@@ -16,6 +16,8 @@
 package com.android.tools.profilers.cpu.simpleperf;
 
 import com.android.tools.adtui.model.Range;
+import com.android.tools.idea.protobuf.InvalidProtocolBufferException;
+import com.android.tools.idea.protobuf.WireFormat;
 import com.android.tools.perflib.vmtrace.ClockType;
 import com.android.tools.profiler.proto.Cpu;
 import com.android.tools.profiler.proto.SimpleperfReport;
@@ -33,6 +35,7 @@ import com.intellij.openapi.diagnostic.Logger;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.MappedByteBuffer;
@@ -41,15 +44,23 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
 
 /**
  * Parses a trace file obtained using simpleperf to a map threadId -> {@link CaptureNode}.
+ * <p>
+ * The trace is read in two passes over the memory mapped file. The first pass decodes every record except the samples, since the files,
+ * threads and meta info the samples refer to are usually written after them. The second pass decodes the samples in chunks of
+ * {@link #DEFAULT_SAMPLE_CHUNK_SIZE} in parallel, then extends the call tree of each thread that has samples in the chunk in parallel.
+ * Only one chunk of samples is in memory at a time, and the work scales with the number of cores.
  */
 public class SimpleperfTraceParser implements TraceParser {
 
@@ -70,6 +81,11 @@ public class SimpleperfTraceParser implements TraceParser {
    */
   private static final String DATA_APP_DIR = "/data/app";
 
+  /**
+   * Number of samples decoded together before they are added to the call trees.
+   */
+  private static final int DEFAULT_SAMPLE_CHUNK_SIZE = 4096;
+
   /**
    * The name of the event that should be used in simpleperf record command to support thread time.
    * <p>
@@ -102,14 +118,33 @@ public class SimpleperfTraceParser implements TraceParser {
   private final Map<Integer, SimpleperfReport.Thread> myThreads;
 
   /**
-   * List of samples containing method trace data.
+   * Maps a {@link CpuThreadInfo} to its correspondent method call tree.
    */
-  @VisibleForTesting final List<SimpleperfReport.Sample> mySamples;
+  private final Map<CpuThreadInfo, CaptureNode> myCaptureTrees;
 
   /**
-   * Maps a {@link CpuThreadInfo} to its correspondent method call tree.
+   * Maps a thread id to the builder of its call tree, while the samples are being parsed.
    */
-  private final Map<CpuThreadInfo, CaptureNode> myCaptureTrees;
+  private final Map<Integer, ThreadTreeBuilder> myTreeBuilders = new HashMap<>();
+
+  /**
+   * Caches the models created for call chain entries, so each symbol is only parsed by {@link NodeNameParser} once and all the calls of a
+   * symbol share its model. Accessed concurrently while building the call trees.
+   */
+  private final Map<SymbolKey, CaptureNodeModel> myModelCache = new ConcurrentHashMap<>();
+
+  /**
+   * Memory mapped trace file, positioned on the first record.
+   */
+  private ByteBuffer myTraceBuffer;
+
+  private final int mySampleChunkSize;
+
+  /**
+   * Timestamps of the first and last samples of the trace, or -1 before the samples are parsed.
+   */
+  private long myFirstSampleTimeNs = -1;
+  private long myLastSampleTimeNs = -1;
 
   /**
    * Number of samples read from trace file.
@@ -150,10 +185,15 @@ public class SimpleperfTraceParser implements TraceParser {
   private Set<String> myTags = new TreeSet<>(TAG_COMPARATOR);
 
   public SimpleperfTraceParser() {
+    this(DEFAULT_SAMPLE_CHUNK_SIZE);
+  }
+
+  @VisibleForTesting
+  SimpleperfTraceParser(int sampleChunkSize) {
     myFiles = new HashMap<>();
-    mySamples = new ArrayList<>();
     myCaptureTrees = new HashMap<>();
     myThreads = new HashMap<>();
+    mySampleChunkSize = sampleChunkSize;
   }
 
   /**
@@ -240,23 +280,30 @@ public class SimpleperfTraceParser implements TraceParser {
    * message Record(record_N) (having record_size_N bytes)
    * LittleEndian32(0)
    * <p>
-   * Parsed data is stored in {@link #myFiles} and {@link #mySamples}.
+   * Parsed data is stored in {@link #myFiles} and {@link #myThreads}. Samples are only counted, they are decoded by
+   * {@link #parseSampleData()}.
    */
   @VisibleForTesting
   void parseTraceFile(File trace) throws IOException {
     ByteBuffer buffer = byteBufferFromFile(trace, ByteOrder.LITTLE_ENDIAN);
     verifyMagicNumber(buffer);
     parseVersionNumber(buffer);
+    myTraceBuffer = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
 
+    long samplesRead = 0;
     // Read the first record size
     int recordSize = buffer.getInt();
 
     // 0 is used to indicate the end of the trace
     while (recordSize != 0) {
       // The next recordSize bytes should represent the record
-      byte[] recordBytes = new byte[recordSize];
-      buffer.get(recordBytes);
-      SimpleperfReport.Record record = SimpleperfReport.Record.parseFrom(recordBytes);
+      ByteBuffer recordBuffer = nextRecord(buffer, recordSize);
+      if (getRecordDataFieldNumber(recordBuffer) == SimpleperfReport.Record.SAMPLE_FIELD_NUMBER) {
+        samplesRead++;
+        recordSize = buffer.getInt();
+        continue;
+      }
+      SimpleperfReport.Record record = SimpleperfReport.Record.parseFrom(recordBuffer);
 
       switch (record.getRecordDataCase()) {
         case FILE:
@@ -269,10 +316,6 @@ public class SimpleperfTraceParser implements TraceParser {
           mySampleCount = situation.getSampleCount();
           myLostSampleCount = situation.getLostCount();
           break;
-        case SAMPLE:
-          SimpleperfReport.Sample sample = record.getSample();
-          mySamples.add(sample);
-          break;
         case THREAD:
           SimpleperfReport.Thread thread = record.getThread();
           myThreads.put(thread.getThreadId(), thread);
@@ -291,7 +334,7 @@ public class SimpleperfTraceParser implements TraceParser {
       recordSize = buffer.getInt();
     }
 
-    if (mySamples.size() != mySampleCount) {
+    if (samplesRead != mySampleCount) {
       // TODO: create a trace file to test this exception is thrown when it should.
       throw new IllegalStateException("Samples count doesn't match the number of samples read.");
     }
@@ -299,6 +342,34 @@ public class SimpleperfTraceParser implements TraceParser {
     myCpuClockEventTypeId = myEventTypes.indexOf(CPU_CLOCK_EVENT);
   }
 
+  /**
+   * Returns the next record of the given {@link ByteBuffer}, without copying it, and moves the buffer past it.
+   */
+  private static ByteBuffer nextRecord(ByteBuffer buffer, int recordSize) {
+    ByteBuffer record = buffer.slice();
+    record.limit(recordSize);
+    buffer.position(buffer.position() + recordSize);
+    return record;
+  }
+
+  /**
+   * Returns the field number of the record_data of a serialized {@link SimpleperfReport.Record} without decoding it. A record only has
+   * its record_data field, and the tag of the fields of a record fits in the first byte.
+   */
+  private static int getRecordDataFieldNumber(ByteBuffer record) {
+    return WireFormat.getTagFieldNumber(record.get(0));
+  }
+
+  @NotNull
+  private static SimpleperfReport.Sample parseSample(@NotNull ByteBuffer record) {
+    try {
+      return SimpleperfReport.Record.parseFrom(record).getSample();
+    }
+    catch (InvalidProtocolBufferException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
   /**
    * Parses the next 16-bit number of the given {@link ByteBuffer} as the trace version.
    */
@@ -319,40 +390,72 @@ public class SimpleperfTraceParser implements TraceParser {
   }
 
   /**
-   * Parses the data from {@link #mySamples} into a map of tid -> {@link CaptureNode}.
+   * Parses the samples of the trace into a map of tid -> {@link CaptureNode}, one chunk of samples at a time.
    */
-  private void parseSampleData() {
-    if (mySamples.isEmpty()) {
+  private void parseSampleData() throws IOException {
+    ByteBuffer buffer = myTraceBuffer;
+    myTraceBuffer = null;
+
+    List<ByteBuffer> chunk = new ArrayList<>(mySampleChunkSize);
+    int recordSize = buffer.getInt();
+    while (recordSize != 0) {
+      ByteBuffer record = nextRecord(buffer, recordSize);
+      if (getRecordDataFieldNumber(record) == SimpleperfReport.Record.SAMPLE_FIELD_NUMBER) {
+        chunk.add(record);
+        if (chunk.size() == mySampleChunkSize) {
+          parseSampleChunk(chunk);
+          chunk.clear();
+        }
+      }
+      recordSize = buffer.getInt();
+    }
+    if (!chunk.isEmpty()) {
+      parseSampleChunk(chunk);
+    }
+
+    if (myFirstSampleTimeNs < 0) {
       myCaptureRange.clear();
       return;
     }
     // Set the capture range
-    long startTimestamp = mySamples.get(0).getTime();
-    long endTimestamp = mySamples.get(mySamples.size() - 1).getTime();
-    myCaptureRange.set(TimeUnit.NANOSECONDS.toMicros(startTimestamp), TimeUnit.NANOSECONDS.toMicros(endTimestamp));
-
-    // Split the samples per thread.
-    Map<Integer, List<SimpleperfReport.Sample>> threadSamples = splitSamplesPerThread();
+    myCaptureRange.set(TimeUnit.NANOSECONDS.toMicros(myFirstSampleTimeNs), TimeUnit.NANOSECONDS.toMicros(myLastSampleTimeNs));
 
-    // Process the samples for each thread
-    for (Map.Entry<Integer, List<SimpleperfReport.Sample>> threadSamplesEntry : threadSamples.entrySet()) {
-      parseThreadSamples(threadSamplesEntry.getKey(), threadSamplesEntry.getValue());
+    for (ThreadTreeBuilder builder : myTreeBuilders.values()) {
+      builder.finish(myLastSampleTimeNs);
+    }
+    myTreeBuilders.clear();
+    for (CaptureNodeModel model : myModelCache.values()) {
+      if (model.getTag() != null) {
+        myTags.add(model.getTag());
+      }
     }
   }
 
   /**
-   * Group the samples collected by thread.
+   * Decodes a chunk of sample records in parallel, then adds the samples to the call trees of their threads. The trees of different
+   * threads are independent, so they are extended in parallel.
    */
-  private Map<Integer, List<SimpleperfReport.Sample>> splitSamplesPerThread() {
-    Map<Integer, List<SimpleperfReport.Sample>> threadSamples = new HashMap<>();
-    for (SimpleperfReport.Sample sample : mySamples) {
-      int threadId = sample.getThreadId();
-      if (!threadSamples.containsKey(threadId)) {
-        threadSamples.put(threadId, new ArrayList<>());
-      }
-      threadSamples.get(threadId).add(sample);
+  private void parseSampleChunk(@NotNull List<ByteBuffer> chunk) throws IOException {
+    List<SimpleperfReport.Sample> samples;
+    try {
+      samples = chunk.parallelStream().map(SimpleperfTraceParser::parseSample).collect(Collectors.toList());
+    }
+    catch (UncheckedIOException e) {
+      throw e.getCause();
+    }
+
+    if (myFirstSampleTimeNs < 0) {
+      myFirstSampleTimeNs = samples.get(0).getTime();
     }
-    return threadSamples;
+    myLastSampleTimeNs = samples.get(samples.size() - 1).getTime();
+
+    // Split the samples per thread, keeping the order of the samples of each thread.
+    Map<ThreadTreeBuilder, List<SimpleperfReport.Sample>> threadSamples = new LinkedHashMap<>();
+    for (SimpleperfReport.Sample sample : samples) {
+      ThreadTreeBuilder builder = myTreeBuilders.computeIfAbsent(sample.getThreadId(), ThreadTreeBuilder::new);
+      threadSamples.computeIfAbsent(builder, b -> new ArrayList<>()).add(sample);
+    }
+    threadSamples.entrySet().parallelStream().forEach(entry -> entry.getKey().addSamples(entry.getValue()));
   }
 
   private static void setNodeStartTime(CaptureNode node, long startGlobalNs, long startThreadNs) {
@@ -366,57 +469,59 @@ public class SimpleperfTraceParser implements TraceParser {
   }
 
   /**
-   * Parses the list of samples of a thread into a {@link CaptureNode} tree.
+   * Builds the {@link CaptureNode} tree of a thread from its samples, which are added in the order they were collected. A builder is
+   * only used by one thread at a time.
    */
-  private void parseThreadSamples(int threadId, List<SimpleperfReport.Sample> threadSamples) {
-    if (threadSamples.isEmpty()) {
-      getLog().warn(String.format("Warning: No samples read for thread %s (%d)", myThreads.get(threadId), threadId));
-      return;
-    }
-
-    if (!myThreads.containsKey(threadId)) {
-      throw new IllegalStateException("Malformed trace file: thread with id " + threadId + " not found.");
+  private final class ThreadTreeBuilder {
+    @NotNull private final CaptureNode myRoot;
+    @NotNull private CaptureNode myLastVisitedNode;
+    @NotNull private List<SimpleperfReport.Sample.CallChainEntry> myPreviousCallChain = Collections.emptyList();
+    private long myThreadTimeNs = -1;
+
+    private ThreadTreeBuilder(int threadId) {
+      SimpleperfReport.Thread thread = myThreads.get(threadId);
+      if (thread == null) {
+        throw new IllegalStateException("Malformed trace file: thread with id " + threadId + " not found.");
+      }
+      // Add a root node to represent the thread itself. Its start time is set by the first sample.
+      myRoot = new CaptureNode(new SingleNameModel(thread.getThreadName()), ClockType.GLOBAL);
+      myRoot.setDepth(0);
+      myLastVisitedNode = myRoot;
+      myCaptureTrees.put(new CpuThreadInfo(threadId, thread.getThreadName(), threadId == thread.getProcessId()), myRoot);
     }
 
-    // Add a root node to represent the thread itself.
-    long firstTimestamp = threadSamples.get(0).getTime();
-    // Align the start of each thread's thread time to the start of wall-clock start time, to comply with the logic
-    // that synchronizes the two clocks in CpuAnalysisChartModel, similar to adjustNodesTimeAndDepth() in
-    // ArtTraceHandler.
-    long threadTimeNs = firstTimestamp;
-    SimpleperfReport.Thread thread = myThreads.get(threadId);
-    CaptureNode root = createCaptureNode(new SingleNameModel(thread.getThreadName()), firstTimestamp, threadTimeNs);
-    root.setDepth(0);
-    myCaptureTrees.put(new CpuThreadInfo(threadId, thread.getThreadName(), threadId == thread.getProcessId()), root);
-
-    // Parse the first call chain so we have a value for lastCallchain
-    List<SimpleperfReport.Sample.CallChainEntry> previousCallChain = Lists.reverse(threadSamples.get(0).getCallchainList());
-    // Node used to traverse the tree. In the first traversal we pass an empty list as previous call chain and root as last visited node.
-    CaptureNode lastVisitedNode = parseCallChain(previousCallChain, Collections.emptyList(), firstTimestamp,
-                                                 threadTimeNs, root);
-
-    // Now parse all the rest of the samples collected for this thread
-    for (int i = 1; i < threadSamples.size(); i++) {
-      SimpleperfReport.Sample sample = threadSamples.get(i);
-      // Reverse the call chain order because simpleperf returns the call chains ordered from leaf to root,
-      // so reversing it makes the traversal easier.
-      List<SimpleperfReport.Sample.CallChainEntry> callChain = Lists.reverse(sample.getCallchainList());
-      // A sample may be triggered by the when the thread is scheduled off the CPU, if --trace-offcpu is used
-      // while collecting the trace.
-      if (isThreadTimeSupported() && sample.getEventTypeId() == myCpuClockEventTypeId) {
-        threadTimeNs += sample.getEventCount();
+    private void addSamples(@NotNull List<SimpleperfReport.Sample> samples) {
+      for (SimpleperfReport.Sample sample : samples) {
+        // Reverse the call chain order because simpleperf returns the call chains ordered from leaf to root,
+        // so reversing it makes the traversal easier.
+        List<SimpleperfReport.Sample.CallChainEntry> callChain = Lists.reverse(sample.getCallchainList());
+        if (myThreadTimeNs < 0) {
+          // Align the start of each thread's thread time to the start of wall-clock start time, to comply with the logic
+          // that synchronizes the two clocks in CpuAnalysisChartModel, similar to adjustNodesTimeAndDepth() in
+          // ArtTraceHandler.
+          myThreadTimeNs = sample.getTime();
+          setNodeStartTime(myRoot, sample.getTime(), myThreadTimeNs);
+        }
+        // A sample may be triggered by the when the thread is scheduled off the CPU, if --trace-offcpu is used
+        // while collecting the trace. The first sample of a thread only sets its start time.
+        else if (isThreadTimeSupported() && sample.getEventTypeId() == myCpuClockEventTypeId) {
+          myThreadTimeNs += sample.getEventCount();
+        }
+        // TODO: when --trace-offcpu is supported, we will need to call updateAncestorsEndTime if sample has a "schedule" out event.
+        myLastVisitedNode = parseCallChain(callChain, myPreviousCallChain, sample.getTime(), myThreadTimeNs, myLastVisitedNode);
+        myPreviousCallChain = callChain;
       }
-      // TODO: when --trace-offcpu is supported, we will need to call updateAncestorsEndTime if sample has a "schedule" out event.
-      lastVisitedNode = parseCallChain(callChain, previousCallChain, sample.getTime(), threadTimeNs, lastVisitedNode);
-      previousCallChain = callChain;
     }
 
-    // Finally, update the end timestamp of the nodes in the last sample of the thread, which should be the last sample's timestamp.
-    // TODO: when --trace-offcpu is supported, we need to check if the last sample has a "schedule" out event before updating the end time.
-    long lastTimestamp = mySamples.get(mySamples.size() - 1).getTime();
-    updateAncestorsEndTime(lastTimestamp, threadTimeNs, lastVisitedNode);
-    // update the root timestamp
-    setNodeEndTime(root, lastTimestamp, threadTimeNs);
+    /**
+     * Updates the end timestamp of the nodes in the last sample of the thread, which should be the last sample's timestamp.
+     */
+    private void finish(long lastTimestamp) {
+      // TODO: when --trace-offcpu is supported, we need to check if the last sample has a "schedule" out event before updating the end time.
+      updateAncestorsEndTime(lastTimestamp, myThreadTimeNs, myLastVisitedNode);
+      // update the root timestamp
+      setNodeEndTime(myRoot, lastTimestamp, myThreadTimeNs);
+    }
   }
 
   /**
@@ -501,6 +606,15 @@ public class SimpleperfTraceParser implements TraceParser {
   }
 
   private CaptureNodeModel methodModelFromCallchainEntry(SimpleperfReport.Sample.CallChainEntry callChainEntry, long parentVAddress) {
+    // Symbols are identified by their file and id. Native models also hold the address they are called from, and models of entries without
+    // a symbol are named after their own address.
+    SymbolKey key = callChainEntry.getSymbolId() == INVALID_SYMBOL_ID
+                    ? new SymbolKey(callChainEntry.getFileId(), INVALID_SYMBOL_ID, callChainEntry.getVaddrInFile())
+                    : new SymbolKey(callChainEntry.getFileId(), callChainEntry.getSymbolId(), parentVAddress);
+    return myModelCache.computeIfAbsent(key, k -> createMethodModel(callChainEntry, parentVAddress));
+  }
+
+  private CaptureNodeModel createMethodModel(SimpleperfReport.Sample.CallChainEntry callChainEntry, long parentVAddress) {
     int symbolId = callChainEntry.getSymbolId();
     SimpleperfReport.File symbolFile = myFiles.get(callChainEntry.getFileId());
     if (symbolFile == null) {
@@ -510,20 +624,38 @@ public class SimpleperfTraceParser implements TraceParser {
       // if symbol_id is -1, we report the method as fileName+vAddress (e.g. program.so+0x3039)
       String hexAddress = "0x" + Long.toHexString(callChainEntry.getVaddrInFile());
       String methodName = fileNameFromPath(symbolFile.getPath()) + "+" + hexAddress;
-      return nodeWithTagAdded(new NoSymbolModel(symbolFile.getPath(), methodName));
+      return new NoSymbolModel(symbolFile.getPath(), methodName);
     }
     // Otherwise, read the method from the symbol table and parse it into a CaptureNodeModel. User's code symbols come from
     // files located inside the app's directory, therefore we check if the symbol path has the same prefix of such directory.
     boolean isUserWritten = symbolFile.getPath().startsWith(myAppDataFolderPrefix);
-    return nodeWithTagAdded(NodeNameParser.parseNodeName(symbolFile.getSymbol(symbolId),
-                                                         isUserWritten, symbolFile.getPath(), parentVAddress));
+    return NodeNameParser.parseNodeName(symbolFile.getSymbol(symbolId), isUserWritten, symbolFile.getPath(), parentVAddress);
   }
 
-  private CaptureNodeModel nodeWithTagAdded(CaptureNodeModel node) {
-    if (node.getTag() != null) {
-      myTags.add(node.getTag());
+  private static final class SymbolKey {
+    private final int myFileId;
+    private final int mySymbolId;
+    private final long myVAddress;
+
+    private SymbolKey(int fileId, int symbolId, long vAddress) {
+      myFileId = fileId;
+      mySymbolId = symbolId;
+      myVAddress = vAddress;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!(o instanceof SymbolKey)) {
+        return false;
+      }
+      SymbolKey other = (SymbolKey)o;
+      return myFileId == other.myFileId && mySymbolId == other.mySymbolId && myVAddress == other.myVAddress;
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * (31 * myFileId + mySymbolId) + Long.hashCode(myVAddress);
     }
-    return node;
   }
 
   // Order the tags coarsely depending on whether they're full paths or wild cards
@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers.cpu.systemtrace
 
+import com.android.tools.adtui.model.DataSeries
 import com.android.tools.adtui.model.LineChartModel
 import com.android.tools.adtui.model.Range
 import com.android.tools.adtui.model.RangedContinuousSeries
@@ -25,9 +26,10 @@ import java.util.function.Supplier
 /**
  * Track model for CPU frequency counter in CPU capture stage.
  */
-class CpuFrequencyTrackModel(dataSeries: List<SeriesData<Long>>, viewRange: Range) : LineChartModel() {
-  val cpuFrequencySeries = RangedContinuousSeries("CPU Frequency", viewRange, Range(0.0, MAX_FREQ_KHZ),
-                                                  LazyDataSeries(Supplier { dataSeries }))
+class CpuFrequencyTrackModel(dataSeries: DataSeries<Long>, viewRange: Range) : LineChartModel() {
+  constructor(dataSeries: List<SeriesData<Long>>, viewRange: Range) : this(LazyDataSeries(Supplier { dataSeries }), viewRange)
+
+  val cpuFrequencySeries = RangedContinuousSeries("CPU Frequency", viewRange, Range(0.0, MAX_FREQ_KHZ), dataSeries)
 
   init {
     add(cpuFrequencySeries)
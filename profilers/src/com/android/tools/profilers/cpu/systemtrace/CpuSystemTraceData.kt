@@ -15,8 +15,10 @@
  */
 package com.android.tools.profilers.cpu.systemtrace
 
+import com.android.tools.adtui.model.DataSeries
 import com.android.tools.adtui.model.SeriesData
 import com.android.tools.profiler.perfetto.proto.TraceProcessor
+import com.android.tools.profilers.cpu.LazyDataSeries
 import com.android.tools.profilers.cpu.ThreadState
 import com.android.tools.profilers.cpu.systemtrace.SystemTraceFrame.FrameThread
 
@@ -106,4 +108,32 @@ interface CpuSystemTraceData {
    * Android FrameTimeline events for jank detection. Supported since Android S.
    */
   val androidFrameTimelineEvents: List<AndroidFrameTimelineEvent>
+
+  // Series for the tracks, which only need the visible range of the capture. Implementations backed by a queryable model return series
+  // that fetch the visible window at the resolution of the track, the defaults filter the complete lists above.
+  /**
+   * @return the data series of [getThreadStatesForThread].
+   */
+  fun getThreadStateSeries(threadId: Int): DataSeries<ThreadState> = LazyDataSeries { getThreadStatesForThread(threadId) }
+
+  /**
+   * @return the data series of [getCpuThreadSliceInfoStates].
+   */
+  fun getCpuThreadSliceInfoSeries(cpu: Int): DataSeries<CpuThreadSliceInfo> = LazyDataSeries { getCpuThreadSliceInfoStates(cpu) }
+
+  /**
+   * @return the data series of counter [counterName] of CPU core [cpu] in [cpuCounters].
+   */
+  fun getCpuCounterSeries(cpu: Int, counterName: String): DataSeries<Long> =
+    LazyDataSeries { cpuCounters.getOrNull(cpu)?.get(counterName) ?: emptyList() }
+
+  /**
+   * @return the data series of counter [counterName] in [memoryCounters].
+   */
+  fun getMemoryCounterSeries(counterName: String): DataSeries<Long> = LazyDataSeries { memoryCounters[counterName] ?: emptyList() }
+
+  /**
+   * @return the largest value of counter [counterName] in [memoryCounters], 0 if it has no values, or null if there is no such counter.
+   */
+  fun getMemoryCounterMax(counterName: String): Long? = memoryCounters[counterName]?.let { values -> values.maxOfOrNull { it.value } ?: 0L }
 }
\ No newline at end of file
@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers.cpu.systemtrace
 
+import com.android.tools.adtui.model.DataSeries
 import com.android.tools.adtui.model.LineChartModel
 import com.android.tools.adtui.model.Range
 import com.android.tools.adtui.model.RangedContinuousSeries
@@ -27,17 +28,17 @@ import com.android.tools.profilers.cpu.LazyDataSeries
 /**
  * Track model for RSS (Resident Set Size) memory counter in CPU capture stage.
  */
-class RssMemoryTrackModel(dataSeries: List<SeriesData<Long>>, viewRange: Range) : LineChartModel() {
+class RssMemoryTrackModel(dataSeries: DataSeries<Long>, maxValue: Long, viewRange: Range) : LineChartModel() {
   val memoryCounterSeries: RangedContinuousSeries
   val axisComponentModel: AxisComponentModel
 
+  constructor(dataSeries: List<SeriesData<Long>>, viewRange: Range)
+    : this(LazyDataSeries { dataSeries }, dataSeries.asSequence().map { it.value }.maxOrNull() ?: 0, viewRange)
+
   init {
-    val maxValue = dataSeries.asSequence().map { it.value }.maxOrNull() ?: 0
     val yRange = Range(0.0, maxValue.toDouble())
     axisComponentModel = ResizingAxisComponentModel.Builder(yRange, axisFormatter).build()
-    memoryCounterSeries = RangedContinuousSeries(
-      "RSS", viewRange, yRange, LazyDataSeries { dataSeries }
-    )
+    memoryCounterSeries = RangedContinuousSeries("RSS", viewRange, yRange, dataSeries)
     add(memoryCounterSeries)
   }
 
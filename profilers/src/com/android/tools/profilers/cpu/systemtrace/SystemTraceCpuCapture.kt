@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers.cpu.systemtrace
 
+import com.android.tools.adtui.model.DataSeries
 import com.android.tools.adtui.model.Range
 import com.android.tools.adtui.model.SeriesData
 import com.android.tools.profilers.CachedFunction
@@ -28,13 +29,14 @@ import kotlin.streams.asSequence
 import kotlin.streams.toList
 
 class SystemTraceCpuCapture(traceId: Long,
-                            model: SystemTraceModelAdapter,
+                            private val model: SystemTraceModelAdapter,
+                            private val mainProcessId: Int,
                             captureNodes: Map<CpuThreadInfo, CaptureNode>,
-                            private val threadStateDataSeries: Map<Int, List<SeriesData<ThreadState>>>,
-                            private val cpuThreadSliceInfoStates: Map<Int, List<SeriesData<CpuThreadSliceInfo>>>,
-                            override val cpuUtilizationSeries: List<SeriesData<Long>>,
-                            override val cpuCounters: List<Map<String, List<SeriesData<Long>>>>,
-                            override val memoryCounters: Map<String, List<SeriesData<Long>>>,
+                            threadStateData: Lazy<Map<Int, List<SeriesData<ThreadState>>>>,
+                            cpuThreadSliceInfoData: Lazy<Map<Int, List<SeriesData<CpuThreadSliceInfo>>>>,
+                            cpuUtilizationData: Lazy<List<SeriesData<Long>>>,
+                            cpuCountersData: Lazy<List<Map<String, List<SeriesData<Long>>>>>,
+                            memoryCountersData: Lazy<Map<String, List<SeriesData<Long>>>>,
                             private val blastBufferQueueCounter: List<SeriesData<Long>>,
                             private val frameManager: SystemTraceFrameManager,
                             private val surfaceflingerManager: SystemTraceSurfaceflingerManager,
@@ -47,7 +49,12 @@ class SystemTraceCpuCapture(traceId: Long,
   override val isMissingData = model.isCapturePossibleCorrupted()
   override val androidFrameLayers = model.getAndroidFrameLayers()
   override val androidFrameTimelineEvents = model.getAndroidFrameTimelineEvents()
-  override val cpuCount get() = cpuThreadSliceInfoStates.size
+  override val cpuCount get() = model.getCpuCores().size
+  override val cpuUtilizationSeries by cpuUtilizationData
+  override val cpuCounters by cpuCountersData
+  override val memoryCounters by memoryCountersData
+  private val threadStateDataSeries by threadStateData
+  private val cpuThreadSliceInfoStates by cpuThreadSliceInfoData
   override val surfaceflingerEvents get() = surfaceflingerManager.surfaceflingerEvents
   override val vsyncCounterValues get() = surfaceflingerManager.vsyncCounterValues
   override val renderThreadId get() = frameManager.renderThreadId
@@ -105,6 +112,60 @@ class SystemTraceCpuCapture(traceId: Long,
    */
   override fun getCpuThreadSliceInfoStates(cpu: Int) = cpuThreadSliceInfoStates[cpu] ?: listOf()
   override fun getFrames(threadType: FrameThread) = frameManager.getFrames(threadType)
+
+  override fun getThreadStateSeries(threadId: Int): DataSeries<ThreadState> = when {
+    model.isRangeQueryEfficient() -> ViewportDataSeries { startUs, endUs, resolutionUs ->
+      val states = mutableListOf<SeriesData<ThreadState>>()
+      for (sched in model.getThreadSchedulingEvents(threadId, startUs, endUs)) {
+        if (sched.state !== states.lastOrNull()?.value) {
+          states.add(SeriesData(sched.startTimestampUs, sched.state))
+        }
+      }
+      ViewportDataSeries.reduceStates(states, resolutionUs)
+    }
+    else -> super.getThreadStateSeries(threadId)
+  }
+
+  override fun getCpuThreadSliceInfoSeries(cpu: Int): DataSeries<CpuThreadSliceInfo> = when {
+    model.isRangeQueryEfficient() -> ViewportDataSeries { startUs, endUs, resolutionUs ->
+      val slices = mutableListOf<SeriesData<CpuThreadSliceInfo>>()
+      // Starting from the window start adds the placeholder entry there when no thread is using this cpu at that time.
+      var lastSliceEnd = startUs
+      for (sched in model.getCpuSchedulingEvents(cpu, startUs, endUs)) {
+        // If we have a gap, add a placeholder entry representing no threads using this cpu.
+        if (sched.startTimestampUs > lastSliceEnd) {
+          slices.add(SeriesData(lastSliceEnd, CpuThreadSliceInfo.NULL_THREAD))
+        }
+        slices.add(SeriesData(sched.startTimestampUs, SystemTraceCpuCaptureBuilder.getCpuThreadSliceInfo(model, sched)))
+        lastSliceEnd = sched.endTimestampUs
+      }
+      if (lastSliceEnd < endUs) {
+        slices.add(SeriesData(lastSliceEnd, CpuThreadSliceInfo.NULL_THREAD))
+      }
+      ViewportDataSeries.reduceStates(slices, resolutionUs)
+    }
+    else -> super.getCpuThreadSliceInfoSeries(cpu)
+  }
+
+  override fun getCpuCounterSeries(cpu: Int, counterName: String): DataSeries<Long> = when {
+    model.isRangeQueryEfficient() -> ViewportDataSeries { startUs, endUs, resolutionUs ->
+      ViewportDataSeries.reduceCounter(model.getCpuCounterValues(cpu, counterName, startUs, endUs - 1), resolutionUs)
+    }
+    else -> super.getCpuCounterSeries(cpu, counterName)
+  }
+
+  override fun getMemoryCounterSeries(counterName: String): DataSeries<Long> = when {
+    model.isRangeQueryEfficient() -> ViewportDataSeries { startUs, endUs, resolutionUs ->
+      ViewportDataSeries.reduceCounter(model.getProcessCounterValues(mainProcessId, counterName, startUs, endUs - 1), resolutionUs)
+    }
+    else -> super.getMemoryCounterSeries(counterName)
+  }
+
+  override fun getMemoryCounterMax(counterName: String): Long? = when {
+    model.isRangeQueryEfficient() ->
+      if (counterName in model.getProcessMemoryCounterNames(mainProcessId)) model.getProcessCounterMax(mainProcessId, counterName) else null
+    else -> super.getMemoryCounterMax(counterName)
+  }
   override fun getSystemTraceData() = this
 
   companion object {
@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers.cpu.systemtrace
 
+import com.android.tools.adtui.model.LongDataSeries
 import com.android.tools.adtui.model.Range
 import com.android.tools.adtui.model.SeriesData
 import com.android.tools.perflib.vmtrace.ClockType
@@ -23,7 +24,6 @@ import com.android.tools.profilers.cpu.CpuThreadInfo
 import com.android.tools.profilers.cpu.ThreadState
 import com.android.tools.profilers.cpu.nodemodel.SystemTraceNodeFactory
 import java.util.concurrent.TimeUnit
-import java.util.function.UnaryOperator
 import kotlin.math.max
 
 class SystemTraceCpuCaptureBuilder(private val model: SystemTraceModelAdapter) {
@@ -31,6 +31,19 @@ class SystemTraceCpuCaptureBuilder(private val model: SystemTraceModelAdapter) {
   companion object {
     val UTILIZATION_BUCKET_LENGTH_US = TimeUnit.MILLISECONDS.toMicros(50)
     val BLAST_BUFFER_QUEUE_COUNTER_REGEX = Regex("QueuedBuffer - .+BLAST#\\d")
+
+    /**
+     * Returns the [CpuThreadSliceInfo] of a scheduling event of a CPU core.
+     */
+    fun getCpuThreadSliceInfo(model: SystemTraceModelAdapter, sched: SchedulingEventModel): CpuThreadSliceInfo {
+      // Some of PIDs and TIDs are not present on the process/thread lists, so we do our best to find their data here.
+      val processName = model.getProcessById(sched.processId)?.getSafeProcessName() ?: ""
+      // Start by checking threads in the known processes, fallback to dangling threads and again to an empty name.
+      val threadName = model.getProcessById(sched.processId)?.threadById?.get(sched.threadId)?.name
+                       ?: model.getDanglingThread(sched.threadId)?.name
+                       ?: ""
+      return CpuThreadSliceInfo(sched.threadId, threadName, sched.processId, processName, sched.durationUs)
+    }
   }
 
   fun build(traceId: Long, mainProcessId: Int, initialViewRange: Range): SystemTraceCpuCapture {
@@ -39,16 +52,18 @@ class SystemTraceCpuCaptureBuilder(private val model: SystemTraceModelAdapter) {
       "A process with the id $mainProcessId was not found while parsing the capture.")
 
     val captureTreeNodes = buildCaptureTreeNodes(mainProcess)
-    val threadState = buildThreadStateData(mainProcess)
-    val cpuState = buildCpuStateData(mainProcess)
-    val cpuCounters = buildCpuCountersData()
-    val memoryCounters = buildMainProcessMemoryCountersData(mainProcess)
+    // The series of the whole capture are only built when read. Tracks query the ranges they show instead when the model supports it.
+    val threadState = lazy { buildThreadStateData(mainProcess) }
+    val cpuScheduling = lazy { buildCpuSchedulingData() }
+    val cpuUtilization = lazy { buildCpuUtilizationData(mainProcess) }
+    val cpuCounters = lazy { buildCpuCountersData() }
+    val memoryCounters = lazy { buildMainProcessMemoryCountersData(mainProcess) }
     val blastBufferQueueCounter = buildBlastBufferQueueCounterData(mainProcess)
 
     val frameManager = SystemTraceFrameManager(mainProcess)
     val sfManager = SystemTraceSurfaceflingerManager(model, mainProcess.name)
 
-    return SystemTraceCpuCapture(traceId, model, captureTreeNodes, threadState, cpuState.schedulingData, cpuState.utilizationData,
+    return SystemTraceCpuCapture(traceId, model, mainProcessId, captureTreeNodes, threadState, cpuScheduling, cpuUtilization,
                                  cpuCounters, memoryCounters, blastBufferQueueCounter, frameManager, sfManager, initialViewRange)
   }
 
@@ -117,30 +132,14 @@ class SystemTraceCpuCaptureBuilder(private val model: SystemTraceModelAdapter) {
     return threadToStateSeries
   }
 
-  private data class CpuStateData(
-    val schedulingData: Map<Int, List<SeriesData<CpuThreadSliceInfo>>>,
-    val utilizationData: List<SeriesData<Long>>)
-
   /**
-   * Builds a map of CPU ids to a list of [CpuThreadInfo] series. While building the CPU map it also builds a CPU utilization series.
+   * Builds a map of CPU ids to a list of [CpuThreadInfo] series.
    */
-  private fun buildCpuStateData(mainProcessModel: ProcessModel): CpuStateData {
-
-    // Initialize utilizationData with the buckets.
-    val utilizationData = mutableListOf<SeriesData<Long>>()
+  private fun buildCpuSchedulingData(): Map<Int, List<SeriesData<CpuThreadSliceInfo>>> {
     val startUserTimeUs: Long = model.getCaptureStartTimestampUs()
     val endUserTimeUs: Long = model.getCaptureEndTimestampUs()
-    var i = startUserTimeUs
-    while (i < endUserTimeUs + UTILIZATION_BUCKET_LENGTH_US) {
-      utilizationData.add(SeriesData(i, 0L))
-      i += UTILIZATION_BUCKET_LENGTH_US
-    }
-
     val schedData = mutableMapOf<Int, List<SeriesData<CpuThreadSliceInfo>>>()
 
-    // Create a lookup table for thread names, to be used when the full process info is missing
-    val threadNames = model.getProcesses().flatMap { it.getThreads() }.map { it.id to it.name }.toMap()
-
     for (cpu in model.getCpuCores()) {
       val processList: MutableList<SeriesData<CpuThreadSliceInfo>> = ArrayList()
       var lastSliceEnd = cpu.schedulingEvents.firstOrNull()?.endTimestampUs ?: startUserTimeUs
@@ -151,20 +150,30 @@ class SystemTraceCpuCaptureBuilder(private val model: SystemTraceModelAdapter) {
           processList.add(SeriesData(lastSliceEnd, CpuThreadSliceInfo.NULL_THREAD))
         }
 
-        // Some of PIDs and TIDs are not present on the process/thread lists, so we do our best to find their data here.
-        val processName = model.getProcessById(sched.processId)?.getSafeProcessName() ?: ""
-        // Start by checking threads in the known processes, fallback to dangling threads and again to an empty name.
-        val threadName = model.getProcessById(sched.processId)?.threadById?.get(sched.threadId)?.name
-                         ?: model.getDanglingThread(sched.threadId)?.name
-                         ?: ""
-
-        processList.add(
-          SeriesData(sched.startTimestampUs,
-                     CpuThreadSliceInfo(
-                       sched.threadId, threadName,
-                       sched.processId, processName,
-                       sched.durationUs)))
+        processList.add(SeriesData(sched.startTimestampUs, getCpuThreadSliceInfo(model, sched)))
         lastSliceEnd = sched.endTimestampUs
+      }
+
+      // We are done with this Cpu so we add a null process at the end to properly render this segment.
+      processList.add(SeriesData(endUserTimeUs, CpuThreadSliceInfo.NULL_THREAD))
+      schedData[cpu.id] = processList
+    }
+    return schedData
+  }
+
+  /**
+   * Builds the CPU utilization series of the main process.
+   */
+  private fun buildCpuUtilizationData(mainProcessModel: ProcessModel): List<SeriesData<Long>> {
+
+    // Initialize the utilization values, one per bucket starting before endUserTimeUs + UTILIZATION_BUCKET_LENGTH_US.
+    val startUserTimeUs: Long = model.getCaptureStartTimestampUs()
+    val endUserTimeUs: Long = model.getCaptureEndTimestampUs()
+    val bucketCount = (endUserTimeUs - startUserTimeUs + 2 * UTILIZATION_BUCKET_LENGTH_US - 1) / UTILIZATION_BUCKET_LENGTH_US
+    val utilizationData = LongArray(max(0, bucketCount).toInt())
+
+    for (cpu in model.getCpuCores()) {
+      for (sched in cpu.schedulingEvents) {
         if (sched.processId == mainProcessModel.id) {
           // Calculate our start time.
           val startBucket = (sched.startTimestampUs - startUserTimeUs) / UTILIZATION_BUCKET_LENGTH_US
@@ -177,34 +186,28 @@ class SystemTraceCpuCaptureBuilder(private val model: SystemTraceModelAdapter) {
             val bucketEndTime = startUserTimeUs + UTILIZATION_BUCKET_LENGTH_US * (i + 1)
             // Because the time to the end of the bucket may (and often is) longer than our total time we take the min of the two.
             val bucketTime = minOf(bucketEndTime, sched.endTimestampUs) - sliceTimeInBucket
-            utilizationData[i].value += bucketTime
+            utilizationData[i] += bucketTime
             sliceTimeInBucket += bucketTime
             i++
           }
         }
       }
-
-      // We are done with this Cpu so we add a null process at the end to properly render this segment.
-      processList.add(SeriesData(endUserTimeUs, CpuThreadSliceInfo.NULL_THREAD))
-      schedData[cpu.id] = processList
     }
 
     // When we have finished processing all CPUs the utilization series contains the total time each CPU spent in each bucket.
     // Here we normalize this value across the max total wall clock time that could be spent in each bucket and end with our utilization.
     val utilizationTotalTime: Double = UTILIZATION_BUCKET_LENGTH_US * model.getCpuCores().size.toDouble()
-    utilizationData.replaceAll(UnaryOperator { series: SeriesData<Long> ->
+    val utilizationSeries = LongDataSeries(utilizationData.size)
+    utilizationData.forEachIndexed { i, time ->
       // Normalize the utilization time as a percent form 0-1 then scale up to 0-100.
-      series.value = (series.value / utilizationTotalTime * 100.0).toLong()
-      series
-    })
-
-    return CpuStateData(schedData, utilizationData)
+      utilizationSeries.add(startUserTimeUs + i * UTILIZATION_BUCKET_LENGTH_US, (time / utilizationTotalTime * 100.0).toLong())
+    }
+    return utilizationSeries.allData
   }
 
   private fun buildMainProcessMemoryCountersData(mainProcessModel: ProcessModel): Map<String, List<SeriesData<Long>>> {
-    return mainProcessModel.counterByName.entries
-      .filter { it.key.startsWith("mem.") }
-      .map { it.key to convertCounterToSeriesData(it.value) }
+    return model.getProcessMemoryCounterNames(mainProcessModel.id)
+      .mapNotNull { name -> mainProcessModel.counterByName[name]?.let { name to convertCounterToSeriesData(it) } }
       .toMap()
       .toSortedMap()
   }
@@ -230,6 +233,8 @@ class SystemTraceCpuCaptureBuilder(private val model: SystemTraceModelAdapter) {
   }
 
   private fun convertCounterToSeriesData(counter: CounterModel): List<SeriesData<Long>> {
-    return counter.valuesByTimestampUs.map { SeriesData(it.key, it.value.toLong()) }.toList()
+    val series = LongDataSeries(counter.valuesByTimestampUs.size)
+    counter.valuesByTimestampUs.forEach { (timestampUs, value) -> series.add(timestampUs, value.toLong()) }
+    return series.allData
   }
 }
\ No newline at end of file
@@ -22,6 +22,8 @@ import com.android.tools.profilers.cpu.ThreadState
 import perfetto.protos.PerfettoTrace
 import java.io.Serializable
 import java.util.SortedMap
+import java.util.SortedSet
+import java.util.TreeSet
 
 /**
  * SystemTraceModelAdapter exposes a common API for accessing the raw model data from system trace
@@ -62,6 +64,77 @@ interface SystemTraceModelAdapter {
    * @return Android FrameTimeline events for jank detection. Supported since Android S.
    */
   fun getAndroidFrameTimelineEvents(): List<AndroidFrameTimelineEvent>
+
+  /**
+   * @return true if the range queries below are answered without walking the whole capture, in which case tracks should query the range
+   * they show instead of holding complete data series.
+   */
+  fun isRangeQueryEfficient(): Boolean = false
+
+  /**
+   * @return the top level trace events of thread [tid] that start before [endUs] and end after [startUs]. Tracks that only show a range
+   * of the capture should use this instead of [ThreadModel.traceEvents], as models may answer it without walking every event.
+   */
+  fun getThreadTraceEvents(tid: Int, startUs: Long, endUs: Long): List<TraceEventModel> =
+    findThread(tid)?.traceEvents?.filter { it.startTimestampUs < endUs && it.endTimestampUs > startUs } ?: emptyList()
+
+  /**
+   * @return the scheduling events of thread [tid] that start before [endUs] and end after [startUs].
+   */
+  fun getThreadSchedulingEvents(tid: Int, startUs: Long, endUs: Long): List<SchedulingEventModel> =
+    findThread(tid)?.schedulingEvents?.filter { it.startTimestampUs < endUs && it.endTimestampUs > startUs } ?: emptyList()
+
+  /**
+   * @return the scheduling events of CPU core [cpu] that start before [endUs] and end after [startUs].
+   */
+  fun getCpuSchedulingEvents(cpu: Int, startUs: Long, endUs: Long): List<SchedulingEventModel> =
+    getCpuCores().find { it.id == cpu }?.schedulingEvents?.filter { it.startTimestampUs < endUs && it.endTimestampUs > startUs }
+    ?: emptyList()
+
+  /**
+   * @return the values of counter [counterName] of process [pid] timestamped in [startUs, endUs], preceded by the last value before
+   * [startUs] if there is one, so that the value at the start of the range is known.
+   */
+  fun getProcessCounterValues(pid: Int, counterName: String, startUs: Long, endUs: Long): List<Pair<Long, Double>> {
+    val values = getProcessById(pid)?.counterByName?.get(counterName)?.valuesByTimestampUs ?: return emptyList()
+    return values.valuesIn(startUs, endUs)
+  }
+
+  /**
+   * @return the values of counter [counterName] of CPU core [cpu] timestamped in [startUs, endUs], preceded by the last value before
+   * [startUs] if there is one.
+   */
+  fun getCpuCounterValues(cpu: Int, counterName: String, startUs: Long, endUs: Long): List<Pair<Long, Double>> {
+    val values = getCpuCores().find { it.id == cpu }?.countersMap?.get(counterName)?.valuesByTimestampUs ?: return emptyList()
+    return values.valuesIn(startUs, endUs)
+  }
+
+  /**
+   * @return the names of the memory counters of process [pid], sorted by name. These are the counters whose name starts with
+   * [MEMORY_COUNTER_PREFIX].
+   */
+  fun getProcessMemoryCounterNames(pid: Int): SortedSet<String> =
+    getProcessById(pid)?.counterByName?.keys?.filterTo(TreeSet()) { it.startsWith(MEMORY_COUNTER_PREFIX) } ?: TreeSet()
+
+  /**
+   * @return the largest value of counter [counterName] of process [pid], 0 if it has no values, or null if there is no such counter.
+   */
+  fun getProcessCounterMax(pid: Int, counterName: String): Long? =
+    getProcessById(pid)?.counterByName?.get(counterName)?.let { counter ->
+      counter.valuesByTimestampUs.values.maxOfOrNull { it.toLong() } ?: 0L
+    }
+
+  private fun findThread(tid: Int): ThreadModel? =
+    getProcesses().asSequence().mapNotNull { it.threadById[tid] }.firstOrNull() ?: getDanglingThread(tid)
+
+  private fun SortedMap<Long, Double>.valuesIn(startUs: Long, endUs: Long): List<Pair<Long, Double>> {
+    val before = headMap(startUs).entries.lastOrNull()
+    return listOfNotNull(before?.toPair()) + tailMap(startUs).entries.takeWhile { it.key <= endUs }.map { it.toPair() }
+  }
+
+  companion object {
+    const val MEMORY_COUNTER_PREFIX = "mem."
+  }
 }
 
 data class ProcessModel(
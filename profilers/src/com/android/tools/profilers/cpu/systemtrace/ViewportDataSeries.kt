@@ -0,0 +1,121 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.systemtrace
+
+import com.android.tools.adtui.model.DataSeries
+import com.android.tools.adtui.model.Range
+import com.android.tools.adtui.model.SeriesData
+import com.android.tools.profilers.CachedFunction
+import com.android.tools.profilers.CappedLRUMap
+import kotlin.math.ceil
+import kotlin.math.max
+
+/**
+ * A [DataSeries] that queries only the windows of data around the requested range, at a resolution matching the length of the range.
+ *
+ * The time axis is cut into windows of [SAMPLES_PER_WINDOW] buckets, with a bucket length that is a power of two microseconds so that
+ * the windows fetched for a zoom level are reused while panning and while zooming within a factor of two. The most recently used windows
+ * are kept in an LRU cache. The windows are trimmed to the requested range, keeping the last point at or before its start and the first
+ * point at or after its end, so the first point is the one that holds at the start of the range, as tooltips expect.
+ *
+ * @param query returns the points timestamped in [startUs, endUs), preceded by the last point before startUs if there is one, reduced to
+ * about one or a few points per bucket of resolutionUs. See [reduceStates] and [reduceCounter].
+ */
+class ViewportDataSeries<T>(private val query: (startUs: Long, endUs: Long, resolutionUs: Long) -> List<SeriesData<T>>,
+                            cacheSize: Int = DEFAULT_CACHE_SIZE) : DataSeries<T> {
+  private data class Window(val startUs: Long, val endUs: Long, val resolutionUs: Long)
+
+  private val windows = CachedFunction(CappedLRUMap<Window, List<SeriesData<T>>>(cacheSize)) {
+    query(it.startUs, it.endUs, it.resolutionUs)
+  }
+
+  @Synchronized
+  override fun getDataForRange(range: Range): List<SeriesData<T>> {
+    if (range.isEmpty) {
+      return emptyList()
+    }
+    val resolutionUs = resolutionFor(range.length)
+    val windowLengthUs = resolutionUs * SAMPLES_PER_WINDOW
+    val firstWindow = Math.floorDiv(range.min.toLong(), windowLengthUs)
+    val lastWindow = Math.floorDiv(range.max.toLong(), windowLengthUs)
+    val result = ArrayList<SeriesData<T>>()
+    for (window in firstWindow..lastWindow) {
+      val startUs = window * windowLengthUs
+      val data = windows(Window(startUs, startUs + windowLengthUs, resolutionUs))
+      // Only the first window contributes the point before its start, the others' is the last point of the previous window.
+      data.filterTo(result) { result.isEmpty() || it.x >= startUs }
+    }
+    val from = max(0, result.indexOfLast { it.x <= range.min })
+    val firstAfter = result.indexOfFirst { it.x >= range.max }
+    val to = if (firstAfter < 0) result.size else max(firstAfter, from) + 1
+    return result.subList(from, to)
+  }
+
+  companion object {
+    /**
+     * Number of buckets per window, in the order of the width of a track in pixels.
+     */
+    const val SAMPLES_PER_WINDOW = 2048
+    const val DEFAULT_CACHE_SIZE = 8
+
+    /**
+     * Returns the smallest power of two bucket length for which a window covers [rangeLength].
+     */
+    fun resolutionFor(rangeLength: Double): Long {
+      val minResolution = max(1L, ceil(rangeLength / SAMPLES_PER_WINDOW).toLong())
+      return java.lang.Long.highestOneBit(minResolution).let { if (it < minResolution) it shl 1 else it }
+    }
+
+    /**
+     * Reduces state changes to the first and last change of each bucket of [resolutionUs], which keeps the state at each bucket
+     * boundary.
+     */
+    fun <T> reduceStates(states: List<SeriesData<T>>, resolutionUs: Long): List<SeriesData<T>> {
+      if (resolutionUs <= 1) {
+        return states
+      }
+      return states.filterIndexed { i, state ->
+        val bucket = Math.floorDiv(state.x, resolutionUs)
+        i == 0 || i == states.size - 1
+        || Math.floorDiv(states[i - 1].x, resolutionUs) != bucket || Math.floorDiv(states[i + 1].x, resolutionUs) != bucket
+      }
+    }
+
+    /**
+     * Reduces counter values to the first, smallest, largest and last values of each bucket of [resolutionUs], in time order, so that
+     * peaks are still drawn.
+     */
+    fun reduceCounter(values: List<Pair<Long, Double>>, resolutionUs: Long): List<SeriesData<Long>> {
+      val result = ArrayList<SeriesData<Long>>()
+      var from = 0
+      while (from < values.size) {
+        val bucket = Math.floorDiv(values[from].first, resolutionUs)
+        var to = from + 1
+        while (to < values.size && Math.floorDiv(values[to].first, resolutionUs) == bucket) {
+          to++
+        }
+        val bucketValues = values.subList(from, to)
+        val minIndex = bucketValues.indices.minByOrNull { bucketValues[it].second }!!
+        val maxIndex = bucketValues.indices.maxByOrNull { bucketValues[it].second }!!
+        sortedSetOf(0, minIndex, maxIndex, bucketValues.size - 1).mapTo(result) {
+          SeriesData(bucketValues[it].first, bucketValues[it].second.toLong())
+        }
+        from = to
+      }
+      return result
+    }
+  }
+}
@@ -101,6 +101,10 @@ abstract class BaseMemoryProfilerStage(profilers: StudioProfilers, protected val
             val loadedCaptureObject = future.get()
             if (captureSelection.finishSelectingCaptureObject(loadedCaptureObject)) {
               captureSelection.selectHeapSet((loadedCaptureObject.heapSets).getDefault())
+              // Refresh again when the data analyzed after loading, like retained sizes, comes in.
+              loadedCaptureObject.analysisFuture.takeUnless { it.isDone }?.addListener(Runnable {
+                if (captureSelection.selectedCapture === loadedCaptureObject) captureSelection.refreshSelectedHeap()
+              }, joiner ?: MoreExecutors.directExecutor())
             }
             else {
               // Capture loading failed.
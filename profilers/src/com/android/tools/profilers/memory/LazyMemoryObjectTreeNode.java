@@ -22,8 +22,16 @@ import org.jetbrains.annotations.Nullable;
 
 import javax.swing.tree.DefaultTreeModel;
 import javax.swing.tree.TreeNode;
+import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.Enumeration;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
 /**
  * This class optimizes tree nodes building/expansion to prevent running out of memory on tree construction when there are many many nodes:
@@ -31,6 +39,8 @@ import java.util.List;
  * 1. A node's children are not constructed until {@link #expandNode()} is called.
  * 2. A node's children are paged in on demand once the count surpasses {@link #NUM_CHILDREN_PER_PAGE}, a placeholder paging node is added
  * to the end which, when selected, would dynamically page in more sibling nodes.
+ * 3. Nodes with many children can build only the ones on the pages shown so far with {@link #buildShownChildren}, so that expanding them
+ * doesn't create a node per child.
  */
 public abstract class LazyMemoryObjectTreeNode<T extends MemoryObject> extends MemoryObjectTreeNode<T> {
   static final int INVALID_CHILDREN_COUNT = -1;
@@ -49,6 +59,12 @@ public abstract class LazyMemoryObjectTreeNode<T extends MemoryObject> extends M
 
   @Nullable private MemoryObjectTreeNode<MemoryObject> myPagingNode;
 
+  /**
+   * The number of children and the order {@link #buildShownChildren} built the children for, if it was used.
+   */
+  private int myShownChildrenCount = INVALID_CHILDREN_COUNT;
+  @Nullable private Comparator<MemoryObjectTreeNode<T>> myShownChildrenComparator;
+
   public LazyMemoryObjectTreeNode(@NotNull T adapter, boolean usePaging) {
     super(adapter);
 
@@ -73,12 +89,68 @@ public abstract class LazyMemoryObjectTreeNode<T extends MemoryObject> extends M
 
   public abstract void expandNode();
 
+  /**
+   * Builds the nodes of the first children of {@code adapters} in the current order, on the pages shown so far, unless they are already
+   * built. The adapters are ordered before nodes are made, so only the shown ones get a node, and the nodes already built are reused, so
+   * expanding a node with millions of children makes a few pages of nodes, and paging in more keeps the ones in the tree.
+   *
+   * @return whether the children were built again.
+   */
+  protected <S extends MemoryObject> boolean buildShownChildren(@NotNull Stream<S> adapters,
+                                                                @NotNull Function<S, ? extends MemoryObjectTreeNode<?>> makeNode) {
+    getChildCount();
+    int shownCount = Math.min(myMemoizedChildrenCount, getShownChildrenLimit());
+    Comparator<MemoryObjectTreeNode<T>> comparator = myParent != null ? myParent.myComparator : myComparator;
+    if (shownCount == myShownChildrenCount && comparator == myShownChildrenComparator) {
+      return false;
+    }
+
+    Map<MemoryObject, MemoryObjectTreeNode<T>> builtNodes = new IdentityHashMap<>();
+    myChildren.forEach(child -> builtNodes.put(child.getAdapter(), child));
+    //noinspection unchecked
+    Function<S, MemoryObjectTreeNode<T>> nodeOf =
+      adapter -> builtNodes.containsKey(adapter) ? builtNodes.get(adapter) : (MemoryObjectTreeNode<T>)makeNode.apply(adapter);
+    List<MemoryObjectTreeNode<T>> shownNodes;
+    if (comparator == null) {
+      shownNodes = adapters.limit(shownCount).map(nodeOf).collect(Collectors.toList());
+    }
+    else {
+      // The node comparator compares adapters through two nodes reused for all of them.
+      ProbeNode<T> left = new ProbeNode<>(getAdapter());
+      ProbeNode<T> right = new ProbeNode<>(getAdapter());
+      //noinspection unchecked
+      Comparator<S> adapterComparator = (a, b) -> comparator.compare(left.probe((T)a), right.probe((T)b));
+      // Keeps the shown adapters in a heap whose head is the last one in order, to be replaced by any adapter coming before it.
+      PriorityQueue<S> lastAdapters = new PriorityQueue<>(Math.max(1, shownCount), adapterComparator.reversed());
+      adapters.forEach(adapter -> {
+        if (lastAdapters.size() < shownCount) {
+          lastAdapters.add(adapter);
+        }
+        else if (shownCount > 0 && adapterComparator.compare(adapter, lastAdapters.peek()) < 0) {
+          lastAdapters.poll();
+          lastAdapters.add(adapter);
+        }
+      });
+      shownNodes = lastAdapters.stream().map(nodeOf).collect(Collectors.toList());
+    }
+
+    removeAll();
+    shownNodes.forEach(this::add);
+    myShownChildrenCount = shownCount;
+    myShownChildrenComparator = comparator;
+    return true;
+  }
+
+  private int getShownChildrenLimit() {
+    return myPagingNode != null ? myCurrentPageCount * NUM_CHILDREN_PER_PAGE : Integer.MAX_VALUE;
+  }
+
   @Override
   public TreeNode getChildAt(int i) {
     expandNode();
     ensureOrder();
 
-    if (myPagingNode != null && myChildren.size() == myChildrenView.size() && i >= myChildren.size()) {
+    if (myPagingNode != null && myMemoizedChildrenCount == myChildrenView.size() && i >= myChildrenView.size()) {
       // Custom exception handling for the case where all children are displayed.
       // Otherwise we allow the index to be myChildrenView.size() + 1 to account for the paging node.
       throw new IndexOutOfBoundsException();
@@ -146,6 +218,8 @@ public abstract class LazyMemoryObjectTreeNode<T extends MemoryObject> extends M
     myMemoizedChildrenCount = INVALID_CHILDREN_COUNT;
     myCurrentPageCount = 1;
     myChildrenView = myChildren.subList(0, 0);
+    myShownChildrenCount = INVALID_CHILDREN_COUNT;
+    myShownChildrenComparator = null;
   }
 
   @Override
@@ -156,21 +230,48 @@ public abstract class LazyMemoryObjectTreeNode<T extends MemoryObject> extends M
       0, Math.min(myChildren.size(), myPagingNode != null ? myCurrentPageCount * NUM_CHILDREN_PER_PAGE : myMemoizedChildrenCount));
   }
 
+  /**
+   * A node whose adapter can be swapped, so that a node comparator can compare adapters without a node being made for each.
+   */
+  private static class ProbeNode<T extends MemoryObject> extends MemoryObjectTreeNode<T> {
+    @NotNull private T myProbedAdapter;
+
+    ProbeNode(@NotNull T adapter) {
+      super(adapter);
+      myProbedAdapter = adapter;
+    }
+
+    @NotNull
+    ProbeNode<T> probe(@NotNull T adapter) {
+      myProbedAdapter = adapter;
+      return this;
+    }
+
+    @NotNull
+    @Override
+    public T getAdapter() {
+      return myProbedAdapter;
+    }
+  }
+
   private static class PagingNode extends MemoryObjectTreeNode<MemoryObject> {
     @NotNull private final LazyMemoryObjectTreeNode myOwnerNode;
 
     public PagingNode(@NotNull LazyMemoryObjectTreeNode ownerNode) {
       super(() -> String.format("Click to see next %d...",
-                                Math.min(NUM_CHILDREN_PER_PAGE, ownerNode.myChildren.size() - ownerNode.myChildrenView.size())));
+                                Math.min(NUM_CHILDREN_PER_PAGE, ownerNode.myMemoizedChildrenCount - ownerNode.myChildrenView.size())));
       myOwnerNode = ownerNode;
     }
 
     @Override
     public void select() {
+      int previousViewSize = myOwnerNode.myChildrenView.size();
       myOwnerNode.myCurrentPageCount++;
+      // Builds the children of the new page, if only the shown ones are built.
+      myOwnerNode.expandNode();
       int[] newIndices;
-      if (myOwnerNode.myCurrentPageCount * NUM_CHILDREN_PER_PAGE >= myOwnerNode.myChildren.size()) {
-        newIndices = new int[myOwnerNode.myChildren.size() - myOwnerNode.myChildrenView.size()];
+      if (myOwnerNode.myCurrentPageCount * NUM_CHILDREN_PER_PAGE >= myOwnerNode.myMemoizedChildrenCount) {
+        newIndices = new int[myOwnerNode.myMemoizedChildrenCount - previousViewSize];
       }
       else {
         // Note the +1 offset to account for the paging node that needs to be appended to the end.
@@ -178,14 +279,12 @@ public abstract class LazyMemoryObjectTreeNode<T extends MemoryObject> extends M
       }
 
       for (int i = 0; i < newIndices.length; i++) {
-        newIndices[i] = myOwnerNode.myChildrenView.size() + i;
+        newIndices[i] = previousViewSize + i;
       }
 
       assert myOwnerNode.myTreeModel != null;
-      int previousViewSize = myOwnerNode.myChildrenView.size();
-      myOwnerNode.myChildrenView =
-        myOwnerNode.myChildren
-          .subList(0, Math.min(myOwnerNode.myChildren.size(), myOwnerNode.myCurrentPageCount * NUM_CHILDREN_PER_PAGE));
+      // Sorts the children of the new page, and shows them.
+      myOwnerNode.ensureOrder();
       // First remove the existing paging node.
       myOwnerNode.myTreeModel.nodesWereRemoved(myOwnerNode, new int[]{previousViewSize}, new Object[]{this});
       // Fires the rest of the new node insertion events.
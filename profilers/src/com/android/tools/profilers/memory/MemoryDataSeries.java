@@ -16,6 +16,7 @@
 package com.android.tools.profilers.memory;
 
 import com.android.tools.adtui.model.DataSeries;
+import com.android.tools.adtui.model.LongSeriesDataView;
 import com.android.tools.adtui.model.Range;
 import com.android.tools.adtui.model.SeriesData;
 import com.android.tools.profiler.proto.Common;
@@ -23,7 +24,6 @@ import com.android.tools.profiler.proto.MemoryProfiler.MemoryData;
 import com.android.tools.profiler.proto.MemoryProfiler.MemoryData.MemorySample;
 import com.android.tools.profiler.proto.MemoryProfiler.MemoryRequest;
 import com.android.tools.profiler.proto.MemoryServiceGrpc;
-import java.util.ArrayList;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
@@ -52,11 +52,14 @@ public final class MemoryDataSeries implements DataSeries<Long> {
       .setEndTime(TimeUnit.MICROSECONDS.toNanos((long)timeCurrentRangeUs.getMax()) + bufferNs);
     MemoryData response = myClient.getData(dataRequestBuilder.build());
 
-    List<SeriesData<Long>> seriesData = new ArrayList<>();
-    for (MemoryData.MemorySample sample : response.getMemSamplesList()) {
-      long dataTimestamp = TimeUnit.NANOSECONDS.toMicros(sample.getTimestamp());
-      seriesData.add(new SeriesData<>(dataTimestamp, mySampleTransformer.apply(sample)));
+    List<MemorySample> samples = response.getMemSamplesList();
+    long[] timestamps = new long[samples.size()];
+    long[] values = new long[samples.size()];
+    for (int i = 0; i < samples.size(); i++) {
+      MemorySample sample = samples.get(i);
+      timestamps[i] = TimeUnit.NANOSECONDS.toMicros(sample.getTimestamp());
+      values[i] = mySampleTransformer.apply(sample);
     }
-    return seriesData;
+    return LongSeriesDataView.of(timestamps, values);
   }
 }
@@ -251,16 +251,14 @@ class MemoryProfiler(private val profilers: StudioProfilers) : StudioProfiler {
 
     private fun saveToFile(client: ProfilerClient, session: Common.Session, startTime: Long, outputStream: OutputStream,
                            onFinished: () -> Unit, errorMsg: String) {
-      val response = client.transportClient
-        .getBytes(Transport.BytesRequest.newBuilder().setStreamId(session.streamId).setId(startTime.toString()).build())
-      if (response.contents !== ByteString.EMPTY) {
-        try {
-          response.contents.writeTo(outputStream)
+      val request = Transport.BytesRequest.newBuilder().setStreamId(session.streamId).setId(startTime.toString()).build()
+      try {
+        if (client.openBytesStream(request).use { it.copyTo(outputStream) } > 0) {
           onFinished()
         }
-        catch (exception: IOException) {
-          logger.warn("$errorMsg:\n$exception")
-        }
+      }
+      catch (exception: IOException) {
+        logger.warn("$errorMsg:\n$exception")
       }
     }
 
@@ -28,6 +28,7 @@ import com.android.tools.profilers.memory.adapters.classifiers.ClassifierSet;
 import com.android.tools.profilers.memory.adapters.classifiers.HeapSet;
 import com.android.tools.profilers.memory.adapters.instancefilters.ActivityFragmentLeakInstanceFilter;
 import com.android.tools.profilers.memory.adapters.instancefilters.CaptureObjectInstanceFilter;
+import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.ListenableFutureTask;
 import java.io.IOException;
@@ -247,6 +248,15 @@ public interface CaptureObject extends MemoryObject {
     return true;
   }
 
+  /**
+   * Returns the future of the analysis that completes the data of the capture after it is loaded, like the retained sizes of a heap dump.
+   * It completes on the joiner the capture was loaded with, once the heap sets are up to date.
+   */
+  @NotNull
+  default ListenableFuture<Void> getAnalysisFuture() {
+    return Futures.immediateFuture(null);
+  }
+
   final class Utils {
     static ListenableFutureTask<Void> makeEmptyTask() {
       return ListenableFutureTask.create(() -> null);
@@ -18,7 +18,6 @@
 package com.android.tools.profilers.memory.adapters
 
 import com.android.tools.adtui.model.Range
-import com.android.tools.idea.protobuf.ByteString
 import com.android.tools.perflib.heap.ClassObj
 import com.android.tools.perflib.heap.Instance
 import com.android.tools.perflib.heap.Snapshot
@@ -41,21 +40,26 @@ import com.android.tools.profilers.memory.adapters.CaptureObject.ClassifierAttri
 import com.android.tools.profilers.memory.adapters.CaptureObject.InstanceAttribute
 import com.android.tools.profilers.memory.adapters.classifiers.AllHeapSet
 import com.android.tools.profilers.memory.adapters.classifiers.HeapSet
+import com.android.tools.profilers.memory.adapters.hprof.HprofHeapAnalysis
+import com.android.tools.profilers.memory.adapters.hprof.HprofIndex
 import com.android.tools.profilers.memory.adapters.instancefilters.ActivityFragmentLeakInstanceFilter
 import com.android.tools.profilers.memory.adapters.instancefilters.CaptureObjectInstanceFilter
 import com.android.tools.profilers.memory.adapters.instancefilters.ProjectClassesInstanceFilter
 import com.android.tools.proguard.ProguardMap
 import com.google.common.annotations.VisibleForTesting
+import com.google.common.util.concurrent.Futures
 import com.google.common.util.concurrent.ListenableFuture
 import com.google.common.util.concurrent.MoreExecutors
 import com.google.common.util.concurrent.ThreadFactoryBuilder
 import com.google.wireless.android.sdk.stats.AndroidProfilerEvent.Loading
 import gnu.trove.TObjectProcedure
+import it.unimi.dsi.fastutil.ints.Int2ObjectLinkedOpenHashMap
 import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap
+import java.io.File
 import java.io.OutputStream
+import java.nio.ByteBuffer
 import java.util.concurrent.Executor
 import java.util.concurrent.Executors
-import java.util.stream.Collectors
 import java.util.stream.Stream
 
 open class HeapDumpCaptureObject(private val client: ProfilerClient,
@@ -67,6 +71,25 @@ open class HeapDumpCaptureObject(private val client: ProfilerClient,
   private val _heapSets: MutableMap<Int, HeapSet> = HashMap()
   private val instanceIndex = Long2ObjectOpenHashMap<InstanceObject>()
 
+  /**
+   * The index of a dump too large to be parsed in memory, and the class entries of its classes. Objects of the dump are
+   * [HprofIndexInstanceObject]s created on demand instead of being kept in [instanceIndex].
+   */
+  internal var hprofIndex: HprofIndex? = null
+    private set
+  private var indexedClassEntries = emptyArray<ClassDb.ClassEntry?>()
+  // The groups of the objects of a class in a heap, by [HprofIndex.groupKey].
+  private val indexedInstanceGroups = Int2ObjectLinkedOpenHashMap<InstanceGroup>()
+  private var indexedHprofFile: File? = null
+
+  /**
+   * The retained sizes, depths and referrers of the objects of [hprofIndex], computed in the background after it is loaded.
+   */
+  @Volatile
+  internal var heapAnalysis: HprofHeapAnalysis? = null
+    private set
+  private var analysisFuture: ListenableFuture<Void?> = Futures.immediateFuture(null)
+
   @get:VisibleForTesting
   val classDb = ClassDb()
 
@@ -85,12 +108,50 @@ open class HeapDumpCaptureObject(private val client: ProfilerClient,
     Executors.newSingleThreadExecutor(ThreadFactoryBuilder().setNameFormat("memory-heapdump-instancefilters").build())
   )
 
+  /**
+   * The instances the current instance filters let in, or null if they let all of them in. The instances of a dump loaded through an
+   * [HprofIndex] are kept in [shownGroupInstances] instead.
+   */
+  private var shownInstances: Set<InstanceObject>? = null
+
+  /**
+   * The instances the current instance filters let in of each [InstanceGroup] that they don't let in whole. The heap sets hold these
+   * instances one by one, and the groups that are missing here whole.
+   */
+  private val shownGroupInstances = HashMap<InstanceGroup, Set<InstanceObject>>()
+
   private val allInstances: Set<InstanceObject>
-    get() = HashSet<InstanceObject>(instanceIndex.size).also { instanceIndex.values.forEach(it::add) }
+    get() = when (hprofIndex) {
+      null -> HashSet<InstanceObject>(instanceIndex.size).also { instanceIndex.values.forEach(it::add) }
+      else -> indexedInstances { null }
+    }
+
+  // The instances the current instance filters let in, as held by the heap sets once the last refresh is applied.
+  private val filteredInstances: Set<InstanceObject>
+    get() = when (hprofIndex) {
+      null -> shownInstances ?: allInstances
+      else -> indexedInstances { shownGroupInstances[it] }
+    }
 
   @VisibleForTesting
   val instanceFilterExecutor get() = executorService
 
+  /**
+   * A view of the indexed objects, created as they are iterated, holding the instances [shownOf] returns for each group, or the whole
+   * group if it returns null.
+   */
+  private fun indexedInstances(shownOf: (InstanceGroup) -> Set<InstanceObject>?) = object : AbstractSet<InstanceObject>() {
+    override val size get() = indexedInstanceGroups.values.sumOf { shownOf(it)?.size ?: it.size }
+    override fun contains(element: InstanceObject) = element is HprofIndexInstanceObject &&
+                                                     element.captureObject === this@HeapDumpCaptureObject &&
+                                                     getIndexedClassEntry(element.ordinal) != null &&
+                                                     shownOf(indexedGroupOf(element))?.contains(element) ?: true
+    override fun iterator(): Iterator<InstanceObject> =
+      indexedInstanceGroups.values.stream().flatMap { shownOf(it)?.stream() ?: it.stream() }.iterator()
+  }
+
+  private fun indexedGroupOf(instance: HprofIndexInstanceObject) = indexedInstanceGroups[hprofIndex!!.groupKeyOf(instance.ordinal)]
+
   override fun getName() = "Heap Dump"
   override fun isExportable() = true
   override fun getExportableExtension() = "hprof"
@@ -104,15 +165,43 @@ open class HeapDumpCaptureObject(private val client: ProfilerClient,
   override fun getClassDatabase() = classDb
   override fun getSession() = _session
 
-  override fun load(queryRange: Range?, queryJoiner: Executor?) = doGetBytesRequest().let { response ->
-    if (response.contents === ByteString.EMPTY) false.also { isLoadingError = true }
-    else true.also {
-      ideProfilerServices.featureTracker.trackLoading(Loading.Type.HPROF,
-                                                      sizeKb = countBytes() / 1024,
-                                                      measure = { instanceIndex.size.toLong() }) {
-        load(InMemoryBuffer(response.contents.asReadOnlyByteBuffer()))
-      }
+  override fun load(queryRange: Range?, queryJoiner: Executor?): Boolean {
+    val (sizeKb, loadDump) = fetchHeapDump(queryJoiner ?: MoreExecutors.directExecutor()) ?: return false.also { isLoadingError = true }
+    ideProfilerServices.featureTracker.trackLoading(Loading.Type.HPROF,
+                                                    sizeKb = sizeKb,
+                                                    measure = { (hprofIndex?.objectCount ?: instanceIndex.size).toLong() },
+                                                    run = loadDump)
+    return true
+  }
+
+  /**
+   * Fetches the dump and returns its size in KB with the task loading it, or null if it is missing. The dump is streamed chunk by chunk
+   * to a temporary file, so it is never held in memory whole before its size is known. A dump small enough to parse on the heap is read
+   * back and the file deleted, a larger one is indexed from the file, which is deleted on [unload], if it cannot be loaded, or at the
+   * latest when the IDE exits.
+   */
+  private fun fetchHeapDump(joiner: Executor): Pair<Int, () -> Unit>? {
+    val file = File.createTempFile("heapdump", ".hprof").apply { deleteOnExit() }
+    val size = deletingOnFailure(file) { openBytesStream().use { input -> file.outputStream().use(input::copyTo) } }
+    if (size == 0L) return null.also { file.delete() }
+    if (MainMemoryProfilerStage.canSafelyLoadHprof(size)) {
+      val contents = try { file.readBytes() } finally { file.delete() }
+      return (size / 1024).toInt() to { load(InMemoryBuffer(ByteBuffer.wrap(contents).asReadOnlyBuffer())) }
     }
+    indexedHprofFile = file
+    return (size / 1024).toInt() to { deletingOnFailure(file) { load(HprofIndex.build(file), joiner) } }
+  }
+
+  /**
+   * Runs [block], closing the index and deleting the temporary dump [file] if it throws.
+   */
+  private inline fun <T> deletingOnFailure(file: File, block: () -> T): T = try {
+    block()
+  }
+  catch (e: Throwable) {
+    hprofIndex?.close()
+    file.delete()
+    throw e
   }
 
   @VisibleForTesting
@@ -149,16 +238,67 @@ open class HeapDumpCaptureObject(private val client: ProfilerClient,
     }
   }
 
+  /**
+   * Loads the objects of a dump indexed by [HprofIndex], with their shallow sizes. Their retained sizes, depths and references are
+   * computed in the background, then published together on [joiner] and followed by [getAnalysisFuture]. See [HprofHeapAnalysis] for
+   * why they don't come in progressively.
+   */
+  @VisibleForTesting
+  @JvmOverloads
+  fun load(index: HprofIndex, joiner: Executor = MoreExecutors.directExecutor()) {
+    hprofIndex = index
+    indexedClassEntries = arrayOfNulls(index.classes.size)
+    index.classes.forEach { cls ->
+      val superClass = index.classes.getOrNull(cls.superIndex)
+      val name = proguardMap?.getClassName(cls.name) ?: cls.name
+      indexedClassEntries[cls.index] =
+        if (superClass != null) classDb.registerClass(cls.id, superClass.id, name) else classDb.registerClass(cls.id, name)
+    }
+    hasLoaded = true
+    val heapSets = index.heaps.map { HeapSet(this, it.name, it.id) }
+    val superHeap = AllHeapSet(this, heapSets.toTypedArray()).also {
+      it.clearClassifierSets() // forces sub-classifier creation
+      _heapSets[it.id] = it
+    }
+    // Objects are added a class and heap at a time, as groups whose instances are only created when they are listed.
+    index.classes.forEach { cls ->
+      index.heaps.indices.filter { !index.instanceRange(cls, it).isEmpty() }.forEach {
+        indexedInstanceGroups.put(index.groupKey(cls, it), HprofIndexInstanceGroup(this, cls, it))
+      }
+    }
+    indexedInstanceGroups.values.forEach(superHeap::addDeltaInstanceGroup)
+    heapSets.forEach { heapSet ->
+      if (HprofIndex.DEFAULT_HEAP_NAME != heapSet.name || heapSets.size == 1 || !heapSet.isEmpty) {
+        _heapSets.put(heapSet.id, heapSet)
+      }
+    }
+    // Instance filters run on the same executor, so the ones that need depths see the analysis.
+    val analysis = executorService.submit<Unit> { heapAnalysis = HprofHeapAnalysis.compute(index) }
+    analysisFuture = Futures.transform(analysis, {
+      _heapSets.values.forEach { it.invalidateRetainedSizes() }
+      null
+    }, joiner)
+  }
+
+  internal fun getIndexedClassEntry(ordinal: Int) = hprofIndex!!.classOf(ordinal)?.let { indexedClassEntries[it.index] }
+
+  internal fun findIndexedInstanceObject(id: Long) = hprofIndex?.ordinalOf(id)
+    ?.takeIf { it >= 0 && getIndexedClassEntry(it) != null }
+    ?.let { HprofIndexInstanceObject(this, it) }
+
   private fun addInstance(heapSet: HeapSet, id: Long, instObj: InstanceObject) {
     assert(!instanceIndex.containsKey(id))
     instanceIndex.put(id, instObj)
     heapSet.addDeltaInstanceObject(instObj)
   }
 
+  override fun getAnalysisFuture() = analysisFuture
   override fun isDoneLoading() = hasLoaded || isLoadingError
   override fun isError() = isLoadingError
   override fun unload() {
     executorService.shutdownNow()
+    hprofIndex?.close()
+    indexedHprofFile?.delete()
   }
 
   override fun getClassifierAttributes() =
@@ -187,9 +327,8 @@ open class HeapDumpCaptureObject(private val client: ProfilerClient,
     assert(supportedInstanceFilters.contains(filterToAdd))
     currentInstanceFilters.add(filterToAdd)
     return executorService.submit<Void?> {
-      // Run the analyzers on the currently existing InstanceObjects in the HeapSets.
-      val currentInstances = _heapSets.values.stream().flatMap { it.instancesStream }.collect(Collectors.toSet())
-      refreshInstances(filterToAdd.filter(currentInstances), analyzeJoiner)
+      // Run the analyzers on the instances the other filters let in.
+      refreshInstances(filterToAdd.filter(filteredInstances), analyzeJoiner)
     }
   }
 
@@ -201,7 +340,11 @@ open class HeapDumpCaptureObject(private val client: ProfilerClient,
       executorService.submit<Void?> {
         // Run the remaining analyzers on the full instance set, since we don't know that the instances that have been removed from the
         // HeapSets using the filter that we are removing.
-        refreshInstances(currentInstanceFilters.fold(allInstances) { instances, filter -> filter.filter(instances) }, analyzeJoiner)
+        val instances = when {
+          currentInstanceFilters.isEmpty() -> null
+          else -> currentInstanceFilters.fold(allInstances) { filtered, filter -> filter.filter(filtered) }
+        }
+        refreshInstances(instances, analyzeJoiner)
       }
     }
   }
@@ -214,28 +357,83 @@ open class HeapDumpCaptureObject(private val client: ProfilerClient,
 
   override fun removeAllFilters(analyzeJoiner: Executor): ListenableFuture<Void?> {
     currentInstanceFilters.clear()
-    return executorService.submit<Void?> { refreshInstances(allInstances, analyzeJoiner) }
+    return executorService.submit<Void?> { refreshInstances(null, analyzeJoiner) }
   }
 
-  private fun refreshInstances(instances: Set<InstanceObject>, executor: Executor): Void? {
-    executor.execute {
-      _heapSets.values.forEach { it.clearClassifierSets() }
-      when (val h = _heapSets.values.find {it is AllHeapSet}) {
-        null -> instances.forEach { _heapSets[it.heapId]!!.addDeltaInstanceObject(it) }
-        else -> instances.forEach { h.addDeltaInstanceObject(it) }
+  /**
+   * Shows [instances] in the heap sets, or all instances if null. The changes are worked out here, on the instance filter executor, from
+   * what the previous refresh showed, and applied on [executor]. Only the instances the filters let in or out move, so the classifier sets
+   * of the others, under all the groupings built so far, are kept as they are instead of being classified again. The groups of an indexed
+   * dump that the filters let in whole stay whole, so that their instances are still only created when they are listed.
+   */
+  private fun refreshInstances(instances: Set<InstanceObject>?, executor: Executor): Void? {
+    val removedGroups = ArrayList<InstanceGroup>()
+    val addedGroups = ArrayList<InstanceGroup>()
+    val removed = ArrayList<InstanceObject>()
+    val added = ArrayList<InstanceObject>()
+    if (hprofIndex == null) {
+      val wasShown = shownInstances
+      when {
+        wasShown == null && instances == null -> {}
+        wasShown == null -> instanceIndex.values.filterTo(removed) { it !in instances!! }
+        instances == null -> instanceIndex.values.filterTo(added) { it !in wasShown }
+        else -> {
+          wasShown.filterTo(removed) { it !in instances }
+          instances.filterTo(added) { it !in wasShown }
+        }
       }
+      shownInstances = instances
+    }
+    else {
+      val instancesByGroup = instances?.let {
+        HashMap<InstanceGroup, MutableSet<InstanceObject>>().apply {
+          it.forEach { instance -> getOrPut(indexedGroupOf(instance as HprofIndexInstanceObject)) { HashSet() }.add(instance) }
+        }
+      }
+      for (group in indexedInstanceGroups.values) {
+        val inGroup = instancesByGroup?.get(group)
+        // The instances of the group to show one by one, or null to show the group whole.
+        val shown: Set<InstanceObject>? = when {
+          instancesByGroup == null -> null
+          inGroup == null -> emptySet()
+          inGroup.size == group.size -> null
+          else -> inGroup
+        }
+        val wasShown = shownGroupInstances[group]
+        when {
+          wasShown == null && shown == null -> {}
+          wasShown == null -> {
+            removedGroups.add(group)
+            added.addAll(shown!!)
+          }
+          shown == null -> {
+            removed.addAll(wasShown)
+            addedGroups.add(group)
+          }
+          else -> {
+            wasShown.filterTo(removed) { it !in shown }
+            shown.filterTo(added) { it !in wasShown }
+          }
+        }
+        if (shown == null) shownGroupInstances.remove(group) else shownGroupInstances[group] = shown
+      }
+    }
+    executor.execute {
+      val allHeapSet = _heapSets.values.find { it is AllHeapSet }
+      val heapSetOf = { instance: InstanceObject -> allHeapSet ?: _heapSets[instance.heapId]!! }
+      // Groups leave before their instances are added one by one, and come back after those are removed.
+      removedGroups.forEach { heapSetOf(it.representative).removeDeltaInstanceGroup(it) }
+      removed.forEach { heapSetOf(it).removeAddedDeltaInstanceObject(it) }
+      added.forEach { heapSetOf(it).addDeltaInstanceObject(it) }
+      addedGroups.forEach { heapSetOf(it.representative).addDeltaInstanceGroup(it) }
     }
     return null
   }
 
-  override fun canSafelyLoad() = MainMemoryProfilerStage.canSafelyLoadHprof(countBytes().toLong())
-
-  private fun doGetBytesRequest() = client.transportClient.getBytes(Transport.BytesRequest.newBuilder()
-                                                                      .setStreamId(_session.streamId)
-                                                                      .setId(heapDumpInfo.startTime.toString())
-                                                                      .build())
-
-  private fun countBytes() = doGetBytesRequest().serializedSize
+  private fun openBytesStream() = client.openBytesStream(Transport.BytesRequest.newBuilder()
+                                                           .setStreamId(_session.streamId)
+                                                           .setId(heapDumpInfo.startTime.toString())
+                                                           .build())
 
   private fun ClassObj.makeEntry(name: String = this.className) =
     if (superClassObj != null) classDb.registerClass(id, superClassObj!!.id, name, totalRetainedSize)
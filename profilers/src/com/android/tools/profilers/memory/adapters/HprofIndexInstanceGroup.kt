@@ -0,0 +1,48 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters
+
+import com.android.tools.profilers.memory.adapters.hprof.HprofClass
+import com.android.tools.profilers.memory.adapters.hprof.HprofIndex
+import java.util.stream.IntStream
+import java.util.stream.Stream
+
+/**
+ * The objects of class [cls] in the heap at index [heap] of a heap dump loaded through an [HprofIndex]. It only holds their range in the
+ * objects the index groups by class and heap, and creates [HprofIndexInstanceObject]s for them when enumerated.
+ */
+internal class HprofIndexInstanceGroup(private val captureObject: HeapDumpCaptureObject,
+                                       private val cls: HprofClass,
+                                       private val heap: Int) : InstanceGroup {
+  private val index: HprofIndex get() = captureObject.hprofIndex!!
+  private val positions = index.instanceRange(cls, heap)
+
+  override val representative get() = instanceAt(positions.first)
+  override val size get() = positions.last - positions.first + 1
+  override val shallowSize = index.let { index ->
+    var size = 0L
+    for (position in positions) size += index.shallowSizeOf(index.instanceAt(position))
+    size
+  }
+
+  override fun contains(instance: InstanceObject) =
+    instance is HprofIndexInstanceObject && instance.captureObject === captureObject &&
+    index.classOf(instance.ordinal) === cls && index.heapOf(instance.ordinal) === index.heaps[heap]
+
+  override fun stream(): Stream<InstanceObject> = IntStream.rangeClosed(positions.first, positions.last).mapToObj(::instanceAt)
+
+  private fun instanceAt(position: Int): InstanceObject = HprofIndexInstanceObject(captureObject, index.instanceAt(position))
+}
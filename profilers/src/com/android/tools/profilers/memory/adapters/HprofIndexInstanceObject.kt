@@ -0,0 +1,159 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters
+
+import com.android.tools.profilers.memory.adapters.hprof.HprofField
+import com.android.tools.profilers.memory.adapters.hprof.HprofIndex
+import com.android.tools.profilers.memory.adapters.hprof.HprofObjectKind
+import com.android.tools.profilers.memory.adapters.hprof.HprofType
+import java.util.Locale
+
+/**
+ * A UI representation of an object of a heap dump loaded through an [HprofIndex]. It only holds the ordinal of the object, so that
+ * millions of them stay cheap. Everything else is read from the index, or from the capture's analysis of it, when asked.
+ */
+internal class HprofIndexInstanceObject(val captureObject: HeapDumpCaptureObject, val ordinal: Int) : InstanceObject {
+  private val index: HprofIndex get() = captureObject.hprofIndex!!
+
+  override fun equals(other: Any?) = other is HprofIndexInstanceObject && captureObject === other.captureObject && ordinal == other.ordinal
+  override fun hashCode() = ordinal
+
+  override fun getName() = ""
+
+  override fun getValueText(): String = index.idOf(ordinal).let { id ->
+    String.format(Locale.US, NAME_FORMATTER, classEntry.simpleClassName, id, id)
+  }
+
+  override fun getToStringText() = when (valueType) {
+    ValueObject.ValueType.STRING -> when (val text = index.stringValueOf(ordinal, MAX_VALUE_TEXT_LENGTH)) {
+      null -> INVALID_STRING_VALUE
+      else -> {
+        val content = when (val textLength = text.length) {
+          MAX_VALUE_TEXT_LENGTH -> "${text.substring(0, textLength - 1)}..."
+          else -> text
+        }
+        "\"$content\""
+      }
+    }
+    else -> ""
+  }
+
+  override fun getHeapId() = index.heapOf(ordinal).id
+  override fun getClassEntry() = captureObject.getIndexedClassEntry(ordinal)!!
+  override fun getShallowSize() = index.shallowSizeOf(ordinal)
+  override fun getIsRoot() = index.isRoot(ordinal)
+
+  // Available once the capture has analyzed the dump.
+  override fun getDepth() = captureObject.heapAnalysis?.depthOf(ordinal) ?: Int.MAX_VALUE
+  override fun getRetainedSize() = captureObject.heapAnalysis?.retainedSizeOf(ordinal) ?: MemoryObject.INVALID_VALUE.toLong()
+
+  override fun getReferences(): List<ReferenceObject> {
+    val analysis = captureObject.heapAnalysis
+    if (analysis == null || isRoot) return listOf()
+    val id = index.idOf(ordinal)
+    val referrers = mutableListOf<Int>()
+    analysis.forEachReferrer(ordinal) { referrers.add(it) }
+    // Closest to the roots first, as for parsed dumps.
+    return referrers.sortedWith(compareBy(analysis::depthOf, index::idOf)).mapNotNull { referrer ->
+      val fieldNames = index.fieldsOf(referrer).mapNotNull { field ->
+        field.name.takeIf { field.type == HprofType.OBJECT && field.value == id }
+      }
+      captureObject.findIndexedInstanceObject(index.idOf(referrer))?.let { ReferenceObject(fieldNames, it) }
+    }
+  }
+
+  override fun getValueType() = when (index.kindOf(ordinal)) {
+    HprofObjectKind.CLASS -> ValueObject.ValueType.CLASS
+    HprofObjectKind.OBJECT_ARRAY, HprofObjectKind.PRIMITIVE_ARRAY -> ValueObject.ValueType.ARRAY
+    HprofObjectKind.INSTANCE -> when (classEntry.className) {
+      ClassDb.JAVA_LANG_STRING -> ValueObject.ValueType.STRING
+      else -> ValueObject.ValueType.OBJECT
+    }
+  }
+
+  override fun getFieldCount() = when (index.kindOf(ordinal)) {
+    HprofObjectKind.OBJECT_ARRAY, HprofObjectKind.PRIMITIVE_ARRAY -> index.arrayLength(ordinal)
+    else -> index.fieldsOf(ordinal).size
+  }
+
+  override fun getFields(): List<FieldObject> = index.fieldsOf(ordinal).map { HprofIndexFieldObject(captureObject, it) }
+
+  override fun getArrayObject() = when (val type = index.elementType(ordinal)) {
+    null -> null
+    else -> object : ArrayObject {
+      override fun getArrayElementType() = VALUE_TYPE_MAP.getValue(type)
+      override fun getAsByteArray() = index.bytesOf(ordinal)
+      override fun getAsCharArray() = index.charsOf(ordinal)
+      override fun getAsArray() = index.fieldsOf(ordinal).map { it.value }.toTypedArray()
+      override fun getArrayLength() = index.arrayLength(ordinal)
+    }
+  }
+
+  companion object {
+    private const val NAME_FORMATTER = "%s@%d (0x%x)"
+    private const val MAX_VALUE_TEXT_LENGTH = 1024
+    private const val INVALID_STRING_VALUE = " ...<invalid string value>..."
+    internal val VALUE_TYPE_MAP = mapOf(
+      HprofType.BOOLEAN to ValueObject.ValueType.BOOLEAN,
+      HprofType.BYTE to ValueObject.ValueType.BYTE,
+      HprofType.CHAR to ValueObject.ValueType.CHAR,
+      HprofType.SHORT to ValueObject.ValueType.SHORT,
+      HprofType.INT to ValueObject.ValueType.INT,
+      HprofType.LONG to ValueObject.ValueType.LONG,
+      HprofType.FLOAT to ValueObject.ValueType.FLOAT,
+      HprofType.DOUBLE to ValueObject.ValueType.DOUBLE,
+      HprofType.OBJECT to ValueObject.ValueType.OBJECT,
+    )
+  }
+}
+
+/**
+ * A field of an [HprofIndexInstanceObject], with the same presentation as [HeapDumpFieldObject].
+ */
+internal class HprofIndexFieldObject(captureObject: HeapDumpCaptureObject, private val field: HprofField) : FieldObject {
+  private val instanceObject = (field.value as? Long)?.let(captureObject::findIndexedInstanceObject)
+  private val valueType = when {
+    field.type != HprofType.OBJECT -> HprofIndexInstanceObject.VALUE_TYPE_MAP.getValue(field.type)
+    instanceObject == null -> ValueObject.ValueType.NULL
+    else -> instanceObject.valueType
+  }
+
+  override fun equals(other: Any?) =
+    other is HprofIndexFieldObject && field == other.field && instanceObject == other.instanceObject
+  override fun hashCode() = field.hashCode()
+
+  override fun getName() = fieldName
+  override fun getFieldName() = field.name
+  override fun getAsInstance() = instanceObject
+  override fun getValue() = instanceObject ?: field.value
+  override fun getValueType() = valueType
+
+  override fun getNativeSize() = 0L
+  override fun getShallowSize() = instanceObject?.shallowSize ?: if (valueType == ValueObject.ValueType.NULL) 0 else field.type.sizeWith(0)
+  override fun getRetainedSize() = instanceObject?.retainedSize ?: shallowSize.toLong()
+
+  override fun getValueText() = when {
+    valueType.isPrimitive -> ""
+    instanceObject == null -> "null"
+    else -> "{${instanceObject.classEntry.simpleClassName}}"
+  }
+
+  override fun getToStringText() = when {
+    valueType == ValueObject.ValueType.NULL -> ""
+    valueType.isPrimitive -> field.value.toString()
+    else -> instanceObject?.toStringText ?: ""
+  }
+}
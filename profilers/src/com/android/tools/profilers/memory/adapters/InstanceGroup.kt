@@ -0,0 +1,39 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters
+
+import com.android.tools.profilers.memory.adapters.classifiers.ClassifierSet
+import java.util.stream.Stream
+
+/**
+ * Instances that every [ClassifierSet] classifies alike, because they share their class and heap and have neither time data nor call
+ * stacks. A classifier set keeps such a group as a whole instead of its instances, which are only created when it is enumerated.
+ */
+interface InstanceGroup {
+  /**
+   * Any instance of the group, classified on behalf of all of them.
+   */
+  val representative: InstanceObject
+  val size: Int
+  val shallowSize: Long
+
+  operator fun contains(instance: InstanceObject): Boolean
+
+  /**
+   * Returns the instances of the group, created anew on each call.
+   */
+  fun stream(): Stream<InstanceObject>
+}
@@ -26,7 +26,9 @@ class AllHeapSet(obj: CaptureObject, private val subHeaps: Array<HeapSet>): Heap
 
   override fun setClassGrouping(classGrouping: ClassGrouping) {
     subHeaps?.forEach { it.setClassGrouping(classGrouping) }
-    super.setClassGrouping(classGrouping)
+    // Instances are partitioned by heap whatever the grouping, so only the sub-heaps need to regroup theirs.
+    myClassGrouping = classGrouping
+    needsRefiltering = true
   }
 
   override fun createSubClassifier() = Classifier.of(InstanceObject::getHeapId, { subHeaps.first { h -> h.id == it } })
@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers.memory.adapters.classifiers
 
+import com.android.tools.profilers.memory.adapters.InstanceGroup
 import com.android.tools.profilers.memory.adapters.InstanceObject
 
 /**
@@ -24,16 +25,28 @@ sealed class Classifier {
   object Id: Classifier() {
     override val classifierSetSequence get(): Sequence<ClassifierSet> = sequenceOf()
     override fun getClassifierSet(instance: InstanceObject, createIfAbsent: Boolean) = throw UnsupportedOperationException()
+    // Makes no set, and is shared.
+    override var instanceTable: InstanceTable?
+      get() = null
+      set(_) {}
   }
   class Join<T: Any>(private val classify: (InstanceObject) -> T?,
                      private val makeSet: (T) -> ClassifierSet,
                      private val rest: Classifier): Classifier() {
     private val cache = LinkedHashMap<T, ClassifierSet>()
+    override var instanceTable: InstanceTable? = null
+      set(table) {
+        field = table
+        rest.instanceTable = table
+      }
     override fun getClassifierSet(instance: InstanceObject, createIfAbsent: Boolean): ClassifierSet? =
       when (val k = classify(instance)) {
         null -> rest.getClassifierSet(instance, createIfAbsent)
         else -> cache[k].let { classifierSet -> when {
-          classifierSet == null && createIfAbsent -> makeSet(k).also { cache[k] = it }
+          classifierSet == null && createIfAbsent -> makeSet(k).also { set ->
+            instanceTable?.let(set::shareInstanceTable)
+            cache[k] = set
+          }
           else -> classifierSet
         } }
       }
@@ -45,6 +58,11 @@ sealed class Classifier {
    */
   val isTerminalClassifier: Boolean get() = this is Id
   val allClassifierSets get() = classifierSetSequence.toList()
+
+  /**
+   * The table of the instances of the set this classifier partitions, which the sets it makes share.
+   */
+  internal abstract var instanceTable: InstanceTable?
   val filteredClassifierSets get() = classifierSetSequence.filter { !it.isFiltered }.toList()
   protected abstract val classifierSetSequence: Sequence<ClassifierSet>
 
@@ -55,13 +73,18 @@ sealed class Classifier {
   abstract fun getClassifierSet(instance: InstanceObject, createIfAbsent: Boolean): ClassifierSet?
 
   /**
-   * Partitions [InstanceObject]s in `snapshotInstances` and `myDeltaInstances` according to the current
-   * [ClassifierSet]'s strategy. This will consume the instances from the input.
+   * Partitions [InstanceObject]s in `snapshotInstances` and `myDeltaInstances`, and the [InstanceGroup]s in `deltaGroups`, according to
+   * the current [ClassifierSet]'s strategy. This will consume the instances from the input.
    */
-  fun partition(snapshotInstances: Collection<InstanceObject>, deltaInstances: Collection<InstanceObject>) {
+  @JvmOverloads
+  fun partition(snapshotInstances: Collection<InstanceObject>,
+                deltaInstances: Collection<InstanceObject>,
+                deltaGroups: Collection<InstanceGroup> = listOf()) {
     if (isTerminalClassifier) {
       return
     }
+    // A group is classified as a whole through any of its instances.
+    deltaGroups.forEach { getClassifierSet(it.representative, true)!!.addDeltaInstanceGroup(it) }
     snapshotInstances.forEach { getClassifierSet(it, true)!!.addSnapshotInstanceObject(it) }
     deltaInstances.forEach {
       if (it.hasTimeData()) {
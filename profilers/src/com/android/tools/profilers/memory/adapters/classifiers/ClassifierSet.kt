@@ -17,6 +17,7 @@ package com.android.tools.profilers.memory.adapters.classifiers
 
 import com.android.tools.adtui.model.filter.Filter
 import com.android.tools.profilers.CachedFunction
+import com.android.tools.profilers.memory.adapters.InstanceGroup
 import com.android.tools.profilers.memory.adapters.InstanceObject
 import com.android.tools.profilers.memory.adapters.MemoryObject
 import com.android.tools.profilers.memory.adapters.instancefilters.CaptureObjectInstanceFilter
@@ -25,7 +26,6 @@ import java.util.IdentityHashMap
 import java.util.Objects
 import java.util.stream.Stream
 import kotlin.math.min
-import kotlin.streams.toList
 
 /**
  * A general base class for classifying/filtering objects into categories.
@@ -40,31 +40,55 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
       // The set of instances that have delta events (e.g. delta allocations/deallocations within a selection range).
       // Note that instances here can also appear in the set of snapshot instances (e.g. when a instance is allocated before the selection
       // and deallocation within the selection).
-      val deltaInstances: MutableSet<InstanceObject>): State() {
+      val deltaInstances: MutableSet<InstanceObject>,
+      // Groups of delta instances without time data, kept whole instead of in `deltaInstances` (see [InstanceGroup]).
+      val deltaGroups: MutableList<InstanceGroup>): State() {
       var retainedSize: Long = -1 // cached retained size. `-1` means stale
-      class Leaf(snapshotInstances: MutableSet<InstanceObject>, deltaInstances: MutableSet<InstanceObject>)
-        : Coalesced(snapshotInstances, deltaInstances)
+      class Leaf(snapshotInstances: MutableSet<InstanceObject>,
+                 deltaInstances: MutableSet<InstanceObject>,
+                 deltaGroups: MutableList<InstanceGroup>)
+        : Coalesced(snapshotInstances, deltaInstances, deltaGroups)
       class Delayed(val makeClassifier: () -> Classifier,
                     snapshotInstances: MutableSet<InstanceObject>,
-                    deltaInstances: MutableSet<InstanceObject>)
-        : Coalesced(snapshotInstances, deltaInstances)
+                    deltaInstances: MutableSet<InstanceObject>,
+                    deltaGroups: MutableList<InstanceGroup>)
+        : Coalesced(snapshotInstances, deltaInstances, deltaGroups)
+
+      fun containsDelta(instance: InstanceObject) = instance in deltaInstances || deltaGroups.any { instance in it }
+
+      /**
+       * Moves the instances of the group [instance] is in, if any, to [deltaInstances], so that it can be removed on its own.
+       */
+      fun ungroup(instance: InstanceObject) {
+        val i = deltaGroups.indexOfFirst { instance in it }
+        if (i >= 0) deltaGroups.removeAt(i).stream().forEach(deltaInstances::add)
+      }
+
+      // Releases the instances of a state that is dropped, from the table they are held in.
+      fun release() {
+        snapshotInstances.clear()
+        deltaInstances.clear()
+      }
+
+      val groupedInstanceStream: Stream<InstanceObject> get() = deltaGroups.stream().flatMap(InstanceGroup::stream)
     }
     class Partitioned(val classifier: Classifier): State()
 
-    fun retracted(makeClassifier: () -> Classifier): Coalesced = when (this) {
+    fun retracted(makeClassifier: () -> Classifier, makeSet: () -> MutableSet<InstanceObject>): Coalesced = when (this) {
       is Coalesced -> this
       is Partitioned -> classifier.allClassifierSets.let { subs ->
         fun instances(extract: (ClassifierSet) -> Stream<InstanceObject>) =
-          LinkedHashSet<InstanceObject>().apply { addAll(subs.stream().flatMap(extract).toList())}
-        Coalesced.Delayed(makeClassifier, instances { it.snapshotInstanceStream }, instances { it.deltaInstanceStream })
+          makeSet().apply { subs.stream().flatMap(extract).forEach(::add) }
+        Coalesced.Delayed(makeClassifier, instances { it.snapshotInstanceStream }, instances { it.deltaInstanceStream },
+                          subs.flatMapTo(ArrayList()) { it.deltaGroups })
       }
     }
 
     fun forced(): State /* Leaf | Partitioned */ = when (this) {
       is Partitioned, is Coalesced.Leaf -> this
       is Coalesced.Delayed -> when (val c = makeClassifier()) {
-        is Classifier.Id -> Coalesced.Leaf(snapshotInstances, deltaInstances)
-        is Classifier.Join<*> -> Partitioned(c.also { it.partition(snapshotInstances, deltaInstances) })
+        is Classifier.Id -> Coalesced.Leaf(snapshotInstances, deltaInstances, deltaGroups)
+        is Classifier.Join<*> -> Partitioned(c.also { it.partition(snapshotInstances, deltaInstances, deltaGroups) }).also { release() }
       }
     }
   }
@@ -72,8 +96,14 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
   constructor(name: String): this({ name })
   private val _name by lazy(supplyName)
 
+  // The table the instances of this set's own state are held in, which the sets it is partitioned into share.
+  private var instanceTable: InstanceTable? = null
+
   private var state: State = initState()
 
+  // The partitions built for the other groupings of the same instances, kept by [regroup] and changed along with the current one.
+  private var stashedStates: MutableMap<Any, State.Partitioned>? = null
+
   var totalObjectSetCount = 0
     private set
   var filteredObjectSetCount = 0
@@ -99,7 +129,7 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
         // In practice, this problem shows up when we support classstacks in the heap dump,
         // where a callstack may only have some of the instances of the classes.
         val maxRetainedSizeByClass =
-          (s.snapshotInstances.asSequence() + s.deltaInstances.asSequence())
+          (s.snapshotInstances.asSequence() + s.deltaInstances.asSequence() + s.deltaGroups.asSequence().map { it.representative })
             .map { it.classEntry }
             .distinct()
             .fold(0L) { sum, entry -> when {
@@ -107,7 +137,7 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
               else -> sum + entry.retainedSize
             }}
         val maxRetainedSizeByInstances =
-          (s.snapshotInstances.asSequence() + s.deltaInstances.asSequence())
+          (s.snapshotInstances.asSequence() + s.deltaInstances.asSequence() + s.groupedInstanceStream.iterator().asSequence())
             .sumOf { it.retainedSize.validOrZero() }
         val maxRetainedSize = min(maxRetainedSizeByClass, maxRetainedSizeByInstances)
         s.retainedSize = maxRetainedSize
@@ -144,10 +174,12 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
    * Gets a stream of all instances (including all descendants) in this ClassifierSet.
    */
   val instancesStream: Stream<InstanceObject>
-    get() = getStreamOf({true}) { Stream.concat(it.snapshotInstances.stream(), it.deltaInstances.stream()).distinct() }
+    get() = getStreamOf({true}) {
+      Stream.concat(Stream.concat(it.snapshotInstances.stream(), it.deltaInstances.stream()).distinct(), it.groupedInstanceStream)
+    }
 
   /**
-   * Return the stream of instance objects that contribute to the delta.
+   * Return the stream of instance objects that contribute to the delta, except for those in groups.
    * Note that there can be duplicated entries as [.getSnapshotInstanceStream].
    */
   protected val deltaInstanceStream: Stream<InstanceObject> get() = getStreamOf({true}) { it.deltaInstances.stream() }
@@ -158,7 +190,15 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
    */
   protected val snapshotInstanceStream: Stream<InstanceObject> get() = getStreamOf({true}) { it.snapshotInstances.stream() }
   val filterMatches: Stream<InstanceObject> get() =
-    getStreamOf({it.isMatched}) { Stream.concat(it.snapshotInstances.stream(), it.deltaInstances.stream()) }
+    getStreamOf({it.isMatched}) {
+      Stream.concat(Stream.concat(it.snapshotInstances.stream(), it.deltaInstances.stream()), it.groupedInstanceStream)
+    }
+
+  // The instance groups of this set and its descendants.
+  private val deltaGroups: List<InstanceGroup> get() = when (val s = state) {
+    is State.Coalesced -> s.deltaGroups
+    is State.Partitioned -> s.classifier.allClassifierSets.flatMap { it.deltaGroups }
+  }
 
   val childrenClassifierSets: List<ClassifierSet> get() = when (val s = ensurePartitioned()) {
     is State.Coalesced -> listOf()
@@ -176,9 +216,61 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
     is State.Coalesced -> s.retainedSize = -1
     else -> {}
   }
+  /**
+   * Drops the cached retained sizes of this set and its descendants, for when the retained sizes of their instances become known after
+   * they were added.
+   */
+  fun invalidateRetainedSizes() {
+    when (val s = state) {
+      is State.Coalesced -> s.retainedSize = -1
+      is State.Partitioned -> s.classifier.allClassifierSets.forEach { it.invalidateRetainedSizes() }
+    }
+    stashedStates?.values?.forEach { stashed -> stashed.classifier.allClassifierSets.forEach { it.invalidateRetainedSizes() } }
+  }
+
   private fun ensurePartitioned() = state.forced().also { state = it }
-  protected fun coalesce() {
-    state = state.retracted(::createSubClassifier)
+  /**
+   * Switches from grouping the instances by [previousGrouping] to [grouping], which [createSubClassifier] must already reflect.
+   * The partition of the previous grouping is kept, and instances added or removed later are added to or removed from it too, so that
+   * instances are only classified again the first time each grouping is used. The partitions share their instances' [InstanceTable].
+   */
+  protected fun regroup(previousGrouping: Any, grouping: Any) {
+    val stash = stashedStates ?: HashMap<Any, State.Partitioned>().also { stashedStates = it }
+    (state as? State.Partitioned)?.let { stash[previousGrouping] = it }
+    state = when (val stashed = stash.remove(grouping)) {
+      null -> state.retracted(::makeSubClassifier, ::makeInstanceSet)
+      else -> {
+        // The stashed partition has the instances of a state that was never partitioned.
+        (state as? State.Coalesced)?.release()
+        // The filter may have changed since the partition was stashed.
+        stashed.also { it.classifier.allClassifierSets.forEach(ClassifierSet::markForRefiltering) }
+      }
+    }
+  }
+
+  /**
+   * Makes this set hold its instances in [table] unless it already holds some, so that a tree of sets stores each instance once.
+   */
+  internal fun shareInstanceTable(table: InstanceTable) {
+    val s = state
+    if (s !is State.Coalesced || s.snapshotInstances.isEmpty() && s.deltaInstances.isEmpty()) {
+      instanceTable = table
+    }
+  }
+
+  private fun table() = instanceTable ?: InstanceTable().also { instanceTable = it }
+
+  private fun makeInstanceSet(): MutableSet<InstanceObject> = InstanceTable.IdSet { table() }
+
+  private fun makeSubClassifier() = createSubClassifier().also { it.instanceTable = table() }
+
+  // Applies a change of this set's instances to the partitions of the other groupings as well.
+  private fun forEachStashedSetOf(instance: InstanceObject, createIfAbsent: Boolean, change: (ClassifierSet) -> Unit) =
+    stashedStates?.values?.forEach { stashed -> stashed.classifier.getClassifierSet(instance, createIfAbsent)?.let(change) }
+
+  private fun markForRefiltering() {
+    needsRefiltering = true
+    (state as? State.Partitioned)?.classifier?.allClassifierSets?.forEach(ClassifierSet::markForRefiltering)
   }
 
   fun getInstanceFilterMatchCount(filter: CaptureObjectInstanceFilter): Int = instanceFilterMatchCounter.invoke(filter)
@@ -198,7 +290,7 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
 
   private fun changeSnapshotInstanceObject(instanceObject: InstanceObject, op: SetOperation): Boolean {
     val changed: Boolean
-    when (val s = state) {
+    when (val s = stateForSingleChange()) {
       is State.Partitioned -> {
         val classifierSet = s.classifier.getClassifierSet(instanceObject, op == SetOperation.ADD)
         changed = classifierSet != null && classifierSet.changeSnapshotInstanceObject(instanceObject, op)
@@ -213,6 +305,7 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
       totalNativeSize += op.countChange * instanceObject.nativeSize.validOrZero()
       totalShallowSize += op.countChange * instanceObject.shallowSize.toLong().validOrZero()
       invalidateRetainedSizeCache()
+      forEachStashedSetOf(instanceObject, op == SetOperation.ADD) { it.changeSnapshotInstanceObject(instanceObject, op) }
       if (!instanceObject.isCallStackEmpty) {
         instancesWithStackInfoCount += op.countChange
       }
@@ -251,7 +344,7 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
   }
 
   private fun changeDeltaInstanceInformation(instanceObject: InstanceObject, isAllocation: Boolean, op: SetOperation): DeltaChange {
-    val change = state.let { s ->
+    val change = stateForSingleChange().let { s ->
       when {
         s is State.Partitioned -> {
           val classifierSet = s.classifier.getClassifierSet(instanceObject, op == SetOperation.ADD)
@@ -261,7 +354,8 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
         (op == SetOperation.ADD || !instanceObject.hasTimeData()) &&
         // `contains` is more expensive, so deferred to after above test fails.
         // This line is run often enough to make a difference.
-        op == SetOperation.ADD != s.deltaInstances.contains(instanceObject) -> {
+        op == SetOperation.ADD != s.containsDelta(instanceObject) -> {
+          if (op == SetOperation.REMOVE) s.ungroup(instanceObject)
           op.invoke(s.deltaInstances, instanceObject)
           DeltaChange.INSTANCE_ADDED_OR_REMOVED
         }
@@ -285,6 +379,7 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
       this.deltaShallowSize += deltaShallowSize
       totalShallowSize += deltaShallowSize
       invalidateRetainedSizeCache()
+      forEachStashedSetOf(instanceObject, op == SetOperation.ADD) { it.changeDeltaInstanceInformation(instanceObject, isAllocation, op) }
       if (change.instanceChanged && !instanceObject.isCallStackEmpty) {
         instancesWithStackInfoCount += op.countChange
         needsRefiltering = true
@@ -296,8 +391,58 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
     return change
   }
 
+  /**
+   * Adds the instances of [group] as [addDeltaInstanceObject] would add them one by one, but keeps the group whole, so that its instances
+   * are only created when enumerated.
+   */
+  fun addDeltaInstanceGroup(group: InstanceGroup) {
+    when (val s = state) {
+      is State.Partitioned -> s.classifier.getClassifierSet(group.representative, true)!!.addDeltaInstanceGroup(group)
+      is State.Coalesced -> s.deltaGroups.add(group)
+    }
+    deltaAllocationCount += group.size
+    allocationSize += group.shallowSize
+    deltaShallowSize += group.shallowSize
+    totalShallowSize += group.shallowSize
+    invalidateRetainedSizeCache()
+    forEachStashedSetOf(group.representative, true) { it.addDeltaInstanceGroup(group) }
+    instanceFilterMatchCounter.invalidate()
+    needsRefiltering = true
+  }
+
+  /**
+   * Removes [group], added whole by [addDeltaInstanceGroup], without creating its instances.
+   * Return true if the set held the group prior to invocation.
+   */
+  fun removeDeltaInstanceGroup(group: InstanceGroup): Boolean {
+    val removed = when (val s = state) {
+      is State.Partitioned -> s.classifier.getClassifierSet(group.representative, false)?.removeDeltaInstanceGroup(group) ?: false
+      is State.Coalesced -> s.deltaGroups.remove(group)
+    }
+    if (removed) {
+      deltaAllocationCount -= group.size
+      allocationSize -= group.shallowSize
+      deltaShallowSize -= group.shallowSize
+      totalShallowSize -= group.shallowSize
+      invalidateRetainedSizeCache()
+      forEachStashedSetOf(group.representative, false) { it.removeDeltaInstanceGroup(group) }
+      instanceFilterMatchCounter.invalidate()
+      needsRefiltering = true
+    }
+    return removed
+  }
+
+  // Classifies the groups of a delayed set before one of its instances changes, so that only the few groups of a leaf are searched.
+  private fun stateForSingleChange() = when (val s = state) {
+    is State.Coalesced.Delayed -> if (s.deltaGroups.isEmpty()) s else ensurePartitioned()
+    else -> s
+  }
+
   fun clearClassifierSets() {
+    // The sets of the dropped partitions may still hold instances, so a new table is used.
+    instanceTable = null
     state = initState().forced()
+    stashedStates = null
     snapshotObjectCount = 0
     deltaAllocationCount = 0
     deltaDeallocationCount = 0
@@ -333,7 +478,7 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
    * @return the set that contains the `target`, or null otherwise.
    */
   fun findContainingClassifierSet(target: InstanceObject): ClassifierSet? = state.let { s -> when {
-    s is State.Coalesced && (target in s.snapshotInstances || target in s.deltaInstances) -> when (ensurePartitioned()) {
+    s is State.Coalesced && (target in s.snapshotInstances || s.containsDelta(target)) -> when (ensurePartitioned()) {
       is State.Coalesced -> this
       is State.Partitioned -> childrenClassifierSets.firstNonNullResult { it.findContainingClassifierSet(target) }
     }
@@ -374,6 +519,7 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
       s is State.Coalesced -> {
         remainders.removeAll(s.deltaInstances)
         remainders.removeAll(s.snapshotInstances)
+        s.deltaGroups.forEach { group -> remainders.removeIf { it in group } }
       }
       s is State.Partitioned && remainders.isNotEmpty() -> s.classifier.allClassifierSets.forEach { child ->
         child.filterOutInstances(remainders)
@@ -388,7 +534,8 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
    * @return Whether the node's immediate instances overlap with `targetSet`
    */
   fun immediateInstancesOverlapWith(targetSet: Set<InstanceObject>): Boolean = state.let { s ->
-    s is State.Coalesced && (overlaps(s.deltaInstances, targetSet) || overlaps(s.snapshotInstances, targetSet))
+    s is State.Coalesced && (overlaps(s.deltaInstances, targetSet) || overlaps(s.snapshotInstances, targetSet) ||
+                             s.deltaGroups.any { group -> targetSet.any { it in group } })
   }
 
   /**
@@ -455,12 +602,13 @@ abstract class ClassifierSet(supplyName: () -> String) : MemoryObject {
     needsRefiltering = false
   }
 
-  private fun initState() = State.Coalesced.Delayed(::createSubClassifier, LinkedHashSet(0), LinkedHashSet(0))
+  private fun initState() = State.Coalesced.Delayed(::makeSubClassifier, makeInstanceSet(), makeInstanceSet(), ArrayList(0))
 
   private fun countInstanceFilterMatch(filter: CaptureObjectInstanceFilter): Int = when (val s = state) {
     is State.Partitioned -> s.classifier.allClassifierSets.sumOf { it.getInstanceFilterMatchCount(filter) }
     is State.Coalesced -> s.deltaInstances.count(filter.instanceTest) +
-                          s.snapshotInstances.count { it !in s.deltaInstances && filter.instanceTest(it) }
+                          s.snapshotInstances.count { it !in s.deltaInstances && filter.instanceTest(it) } +
+                          s.groupedInstanceStream.filter { filter.instanceTest(it) }.count().toInt()
   }
 
   private enum class SetOperation(val invoke: (MutableSet<InstanceObject>, InstanceObject) -> Unit, val countChange: Int) {
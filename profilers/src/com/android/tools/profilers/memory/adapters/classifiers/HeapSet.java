@@ -46,8 +46,9 @@ public class HeapSet extends ClassifierSet {
     if (myClassGrouping == classGrouping) {
       return;
     }
+    ClassGrouping previousGrouping = myClassGrouping;
     myClassGrouping = classGrouping;
-    coalesce();
+    regroup(previousGrouping, classGrouping);
     needsRefiltering = true;
   }
 
@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters.classifiers;
+
+import com.android.tools.profilers.memory.adapters.InstanceObject;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntIterator;
+import it.unimi.dsi.fastutil.ints.IntLinkedOpenHashSet;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Supplier;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * The instances of a tree of {@link ClassifierSet}s, stored once and referred to by id from the {@link IdSet}s of all the groupings of the
+ * tree, so that each grouping kept costs a few bytes per instance instead of a hash set entry. An id is freed when no set holds it.
+ */
+public final class InstanceTable {
+  @NotNull private final List<InstanceObject> myInstances = new ArrayList<>();
+  @NotNull private final Object2IntOpenHashMap<InstanceObject> myIds = new Object2IntOpenHashMap<>();
+  @NotNull private final IntArrayList myHolderCounts = new IntArrayList();
+  @NotNull private final IntArrayList myFreeIds = new IntArrayList();
+
+  InstanceTable() {
+    myIds.defaultReturnValue(-1);
+  }
+
+  private int idOf(@NotNull Object instance) {
+    return myIds.getInt(instance);
+  }
+
+  private int hold(@NotNull InstanceObject instance) {
+    int id = myIds.getInt(instance);
+    if (id < 0) {
+      if (myFreeIds.isEmpty()) {
+        id = myInstances.size();
+        myInstances.add(instance);
+        myHolderCounts.add(0);
+      }
+      else {
+        id = myFreeIds.removeInt(myFreeIds.size() - 1);
+        myInstances.set(id, instance);
+      }
+      myIds.put(instance, id);
+    }
+    myHolderCounts.set(id, myHolderCounts.getInt(id) + 1);
+    return id;
+  }
+
+  private void release(int id) {
+    int count = myHolderCounts.getInt(id) - 1;
+    myHolderCounts.set(id, count);
+    if (count == 0) {
+      myIds.removeInt(myInstances.get(id));
+      myInstances.set(id, null);
+      myFreeIds.add(id);
+    }
+  }
+
+  /**
+   * A set of instances held as ids, in insertion order, in the table {@code table} supplies. The table may only change while the set is
+   * empty.
+   */
+  static final class IdSet extends AbstractSet<InstanceObject> {
+    @NotNull private final Supplier<InstanceTable> myTable;
+    @NotNull private final IntLinkedOpenHashSet myIds = new IntLinkedOpenHashSet(0);
+
+    IdSet(@NotNull Supplier<InstanceTable> table) {
+      myTable = table;
+    }
+
+    @Override
+    public int size() {
+      return myIds.size();
+    }
+
+    @Override
+    public boolean contains(Object o) {
+      if (!(o instanceof InstanceObject) || myIds.isEmpty()) {
+        return false;
+      }
+      int id = myTable.get().idOf(o);
+      return id >= 0 && myIds.contains(id);
+    }
+
+    @Override
+    public boolean add(@NotNull InstanceObject instance) {
+      InstanceTable table = myTable.get();
+      int id = table.hold(instance);
+      if (myIds.add(id)) {
+        return true;
+      }
+      table.release(id);
+      return false;
+    }
+
+    @Override
+    public boolean remove(Object o) {
+      if (!(o instanceof InstanceObject) || myIds.isEmpty()) {
+        return false;
+      }
+      InstanceTable table = myTable.get();
+      int id = table.idOf(o);
+      if (id < 0 || !myIds.remove(id)) {
+        return false;
+      }
+      table.release(id);
+      return true;
+    }
+
+    @Override
+    public void clear() {
+      InstanceTable table = myTable.get();
+      for (IntIterator ids = myIds.iterator(); ids.hasNext(); ) {
+        table.release(ids.nextInt());
+      }
+      myIds.clear();
+    }
+
+    @NotNull
+    @Override
+    public Iterator<InstanceObject> iterator() {
+      InstanceTable table = myTable.get();
+      IntIterator ids = myIds.iterator();
+      return new Iterator<InstanceObject>() {
+        private int myLastId = -1;
+
+        @Override
+        public boolean hasNext() {
+          return ids.hasNext();
+        }
+
+        @Override
+        public InstanceObject next() {
+          myLastId = ids.nextInt();
+          return table.myInstances.get(myLastId);
+        }
+
+        @Override
+        public void remove() {
+          ids.remove();
+          table.release(myLastId);
+        }
+      };
+    }
+  }
+}
@@ -15,11 +15,13 @@
  */
 package com.android.tools.profilers.memory.adapters.classifiers
 
+import com.android.tools.profiler.proto.Memory.AllocationStack
 import com.android.tools.profiler.proto.Memory.AllocationStack.FrameCase
 import com.android.tools.profilers.memory.adapters.CaptureObject
 import com.android.tools.profilers.memory.adapters.InstanceObject
 import com.android.tools.profilers.memory.adapters.classifiers.Classifier.Companion.of
 import com.google.common.base.Strings
+import java.util.IdentityHashMap
 
 /**
  * Classifies [InstanceObject]s based on a particular stack trace line of its allocation stack. If the end of the stack is reached or
@@ -56,27 +58,34 @@ class MethodSet(private val captureObject: CaptureObject, private val methodInfo
       Classifier.Join(getMethodInfo(captureObject, depth), { MethodSet(captureObject, it, depth + 1) },
                       of(InstanceObject::getClassEntry, ::ClassSet))
 
-    private fun getMethodInfo(captureObject: CaptureObject, depth: Int): (InstanceObject) -> MethodSetInfo? = { inst ->
-      val stackDepth = inst.callStackDepth
-      when {
-        stackDepth <= 0 || depth >= stackDepth -> null
-        else -> {
-          val frameIndex = stackDepth - depth - 1
-          val stack = inst.allocationCallStack
-          when {
-            stack == null -> {
-              val location = inst.allocationCodeLocations[frameIndex]
-              MethodSetInfo.ByName(Strings.nullToEmpty(location.className), Strings.nullToEmpty(location.methodName))
+    private fun getMethodInfo(captureObject: CaptureObject, depth: Int): (InstanceObject) -> MethodSetInfo? {
+      // Instances allocated at the same place share their stack, so its key at this depth is made once rather than once per instance.
+      val infoByStack = IdentityHashMap<AllocationStack, MethodSetInfo>()
+      return { inst ->
+        val stackDepth = inst.callStackDepth
+        when {
+          stackDepth <= 0 || depth >= stackDepth -> null
+          else -> {
+            val frameIndex = stackDepth - depth - 1
+            when (val stack = inst.allocationCallStack) {
+              null -> {
+                val location = inst.allocationCodeLocations[frameIndex]
+                MethodSetInfo.ByName(Strings.nullToEmpty(location.className), Strings.nullToEmpty(location.methodName))
+              }
+              else -> infoByStack.getOrPut(stack) {
+                when (stack.frameCase) {
+                  FrameCase.FULL_STACK -> {
+                    val stackFrame = stack.fullStack.getFrames(frameIndex)
+                    MethodSetInfo.ByName(stackFrame.className, stackFrame.methodName)
+                  }
+                  FrameCase.ENCODED_STACK -> {
+                    val smallFrame = stack.encodedStack.getFrames(frameIndex)
+                    MethodSetInfo.ById(captureObject, smallFrame.methodId)
+                  }
+                  else -> throw UnsupportedOperationException()
+                }
+              }
             }
-            stack.frameCase == FrameCase.FULL_STACK -> {
-              val stackFrame = stack.fullStack.getFrames(frameIndex)
-              MethodSetInfo.ByName(stackFrame.className, stackFrame.methodName)
-            }
-            stack.frameCase == FrameCase.ENCODED_STACK -> {
-              val smallFrame = stack.encodedStack.getFrames(frameIndex)
-              MethodSetInfo.ById(captureObject, smallFrame.methodId)
-            }
-            else -> throw UnsupportedOperationException()
           }
         }
       }
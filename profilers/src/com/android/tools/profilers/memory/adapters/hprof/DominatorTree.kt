@@ -0,0 +1,166 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters.hprof
+
+/**
+ * A directed graph of the vertices `0 until vertexCount`, with the successors of vertex `v` at
+ * `successors[offsets[v] until offsets[v + 1]]`.
+ */
+class IntGraph(val offsets: IntArray, val successors: IntArray) {
+  val vertexCount get() = offsets.size - 1
+  val edgeCount get() = successors.size
+
+  inline fun forEachSuccessor(vertex: Int, action: (Int) -> Unit) {
+    for (i in offsets[vertex] until offsets[vertex + 1]) action(successors[i])
+  }
+
+  fun outDegree(vertex: Int) = offsets[vertex + 1] - offsets[vertex]
+
+  /**
+   * Returns the graph with all edges reversed, with the predecessors of each vertex in increasing order.
+   */
+  fun reversed(): IntGraph {
+    val reversedOffsets = IntArray(offsets.size)
+    for (target in successors) reversedOffsets[target + 1]++
+    for (v in 1 until reversedOffsets.size) reversedOffsets[v] += reversedOffsets[v - 1]
+    val next = reversedOffsets.copyOf(vertexCount)
+    val predecessors = IntArray(edgeCount)
+    for (v in 0 until vertexCount) {
+      forEachSuccessor(v) { predecessors[next[it]++] = v }
+    }
+    return IntGraph(reversedOffsets, predecessors)
+  }
+}
+
+/**
+ * The dominator tree of the vertices of a graph reachable from a root, computed with the semi-NCA algorithm (Georgiadis, "Linear-Time
+ * Algorithms for Dominators and Related Problems", 2005). Everything is kept in int arrays indexed by the depth first preorder number of
+ * the vertices, so that graphs of tens of millions of vertices don't create any object per vertex.
+ */
+class DominatorTree private constructor(private val numbers: IntArray, private val vertices: IntArray, private val idoms: IntArray) {
+  /**
+   * The number of vertices reachable from the root, the root included.
+   */
+  val reachableCount get() = vertices.size
+
+  fun isReachable(vertex: Int) = numbers[vertex] >= 0
+
+  /**
+   * Returns the immediate dominator of [vertex], or -1 for the root and unreachable vertices.
+   */
+  fun immediateDominatorOf(vertex: Int) = when (val number = numbers[vertex]) {
+    -1, 0 -> -1
+    else -> vertices[idoms[number]]
+  }
+
+  /**
+   * Returns, for every vertex, the sum of the [weights] of the vertices it dominates, itself included, or 0 if it is unreachable.
+   */
+  fun dominatedSums(weights: IntArray): LongArray {
+    val sums = LongArray(vertices.size) { weights[vertices[it]].toLong() }
+    // Vertices are numbered after their dominators, so each sum is complete by the time it is added to its dominator's.
+    for (number in vertices.size - 1 downTo 1) sums[idoms[number]] += sums[number]
+    return LongArray(numbers.size) { vertex -> numbers[vertex].let { if (it >= 0) sums[it] else 0 } }
+  }
+
+  companion object {
+    /**
+     * Computes the dominators of [graph] from [root]. [predecessors] must be the reverse of [graph].
+     */
+    @JvmStatic
+    fun compute(graph: IntGraph, predecessors: IntGraph, root: Int): DominatorTree {
+      val numbers = IntArray(graph.vertexCount) { -1 }
+      val (vertices, parents) = depthFirstSearch(graph, root, numbers)
+      val count = vertices.size
+      val semis = IntArray(count) { it }
+      val labels = IntArray(count) { it }
+      val ancestors = IntArray(count) { -1 }
+      val path = IntArray(count)
+
+      fun eval(number: Int): Int {
+        if (ancestors[number] < 0) return number
+        // Compress the path to the root of the linked forest, iteratively since it can be as deep as the graph.
+        var size = 0
+        var v = number
+        while (ancestors[ancestors[v]] >= 0) {
+          path[size++] = v
+          v = ancestors[v]
+        }
+        while (size > 0) {
+          v = path[--size]
+          val ancestor = ancestors[v]
+          if (semis[labels[ancestor]] < semis[labels[v]]) labels[v] = labels[ancestor]
+          ancestors[v] = ancestors[ancestor]
+        }
+        return labels[number]
+      }
+
+      for (w in count - 1 downTo 1) {
+        predecessors.forEachSuccessor(vertices[w]) { predecessor ->
+          val u = numbers[predecessor]
+          if (u >= 0) {
+            val semi = semis[eval(u)]
+            if (semi < semis[w]) semis[w] = semi
+          }
+        }
+        ancestors[w] = parents[w]
+      }
+      // The immediate dominator is the nearest common ancestor of the parent and the semidominator in the tree built so far.
+      val idoms = parents
+      for (w in 1 until count) {
+        var x = parents[w]
+        while (x > semis[w]) x = idoms[x]
+        idoms[w] = x
+      }
+      return DominatorTree(numbers, vertices, idoms)
+    }
+
+    /**
+     * Numbers the vertices reachable from [root] in depth first preorder, and returns the vertices and the number of their parent in the
+     * search tree by number.
+     */
+    private fun depthFirstSearch(graph: IntGraph, root: Int, numbers: IntArray): Pair<IntArray, IntArray> {
+      val vertices = IntArray(graph.vertexCount)
+      val parents = IntArray(graph.vertexCount)
+      val stack = IntArray(graph.vertexCount)
+      val nextEdges = IntArray(graph.vertexCount)
+      var count = 0
+      var depth = 0
+      numbers[root] = count++
+      vertices[0] = root
+      stack[depth] = root
+      nextEdges[depth++] = graph.offsets[root]
+      while (depth > 0) {
+        val v = stack[depth - 1]
+        val edge = nextEdges[depth - 1]
+        if (edge == graph.offsets[v + 1]) {
+          depth--
+          continue
+        }
+        nextEdges[depth - 1]++
+        val w = graph.successors[edge]
+        if (numbers[w] < 0) {
+          parents[count] = numbers[v]
+          vertices[count] = w
+          numbers[w] = count++
+          stack[depth] = w
+          nextEdges[depth++] = graph.offsets[w]
+        }
+      }
+      return vertices.copyOf(count) to parents.copyOf(count)
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters.hprof
+
+import it.unimi.dsi.fastutil.ints.IntArrayList
+import java.util.stream.IntStream
+import kotlin.math.min
+
+/**
+ * The retained sizes, depths and referrers of the objects of an [HprofIndex].
+ *
+ * The reference graph is decoded from the dump in parallel, in chunks of objects, into primitive arrays. Dominators are then computed from
+ * a virtual root referencing all GC roots, with [DominatorTree]. As in perflib, the referents of java.lang.ref.Reference instances don't
+ * count as references, and objects unreachable from the roots retain nothing and have no depth.
+ *
+ * Only decoding runs in parallel: the dominator pass is sequential, but linear and cheap next to reading the dump. Retained sizes are
+ * published all at once rather than as they are computed, since the sizes of classes and heaps sum those of all their instances and
+ * would otherwise show misleading partial totals.
+ */
+class HprofHeapAnalysis private constructor(private val retainedSizes: LongArray,
+                                            private val depths: IntArray,
+                                            private val referrers: IntGraph) {
+  /**
+   * Returns the size of the objects [ordinal] keeps alive, its own size included.
+   */
+  fun retainedSizeOf(ordinal: Int) = retainedSizes[ordinal]
+
+  /**
+   * Returns the length of the shortest path from a GC root to [ordinal], which is 0 for roots and [Int.MAX_VALUE] for unreachable objects.
+   */
+  fun depthOf(ordinal: Int) = depths[ordinal]
+
+  /**
+   * Calls [action] with the ordinal of each object referencing [ordinal], once per object.
+   */
+  fun forEachReferrer(ordinal: Int, action: (Int) -> Unit) {
+    var previous = -1
+    referrers.forEachSuccessor(ordinal) {
+      // Referrers are sorted, with duplicates for objects referencing [ordinal] through several fields.
+      if (it != previous && it != referrers.vertexCount - 1) action(it)
+      previous = it
+    }
+  }
+
+  companion object {
+    private const val CHUNK_SIZE = 1 shl 14
+
+    @JvmStatic
+    fun compute(index: HprofIndex): HprofHeapAnalysis {
+      val shallowSizes = IntArray(index.objectCount + 1)
+      val references = buildReferenceGraph(index, shallowSizes)
+      val referrers = references.reversed()
+      val root = index.objectCount
+      val dominators = DominatorTree.compute(references, referrers, root)
+      val retainedSizes = dominators.dominatedSums(shallowSizes)
+      return HprofHeapAnalysis(retainedSizes, computeDepths(references, root), referrers)
+    }
+
+    /**
+     * Decodes the references of all objects, in parallel, into a graph whose last vertex is a virtual root referencing the GC roots. Also
+     * fills [shallowSizes] on the way, since it reads the same records.
+     */
+    private fun buildReferenceGraph(index: HprofIndex, shallowSizes: IntArray): IntGraph {
+      val n = index.objectCount
+      val chunkCount = (n + CHUNK_SIZE - 1) / CHUNK_SIZE
+      val offsets = IntArray(n + 2)
+      val chunks = arrayOfNulls<IntArrayList>(chunkCount)
+      IntStream.range(0, chunkCount).parallel().forEach { chunk ->
+        val targets = IntArrayList()
+        for (ordinal in chunk * CHUNK_SIZE until min(n, (chunk + 1) * CHUNK_SIZE)) {
+          val start = targets.size
+          index.forEachReference(ordinal, includeReferents = false) { targets.add(it) }
+          offsets[ordinal + 1] = targets.size - start
+          shallowSizes[ordinal] = index.shallowSizeOf(ordinal)
+        }
+        chunks[chunk] = targets
+      }
+      offsets[n + 1] = index.rootCount
+      for (v in 1 until offsets.size) offsets[v] += offsets[v - 1]
+      val successors = IntArray(offsets[n + 1])
+      IntStream.range(0, chunkCount).parallel().forEach { chunk ->
+        val targets = chunks[chunk]!!
+        targets.getElements(0, successors, offsets[chunk * CHUNK_SIZE], targets.size)
+      }
+      var next = offsets[n]
+      index.forEachRoot { successors[next++] = it }
+      return IntGraph(offsets, successors)
+    }
+
+    /**
+     * Computes the depths of the objects with a breadth first search from the virtual [root].
+     */
+    private fun computeDepths(references: IntGraph, root: Int): IntArray {
+      val depths = IntArray(root) { Int.MAX_VALUE }
+      val queue = IntArray(root)
+      var head = 0
+      var tail = 0
+      references.forEachSuccessor(root) {
+        if (depths[it] != 0) {
+          depths[it] = 0
+          queue[tail++] = it
+        }
+      }
+      while (head < tail) {
+        val v = queue[head++]
+        references.forEachSuccessor(v) {
+          if (depths[it] == Int.MAX_VALUE) {
+            depths[it] = depths[v] + 1
+            queue[tail++] = it
+          }
+        }
+      }
+      return depths
+    }
+  }
+}
@@ -0,0 +1,717 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters.hprof
+
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap
+import it.unimi.dsi.fastutil.longs.LongArrayList
+import java.io.Closeable
+import java.io.File
+import java.io.IOException
+import java.util.Locale
+
+/**
+ * An index of the objects and classes of an hprof file, for heap dumps too large to be parsed into an object graph on the Java heap.
+ *
+ * The dump is memory mapped and read twice. The first pass collects the strings, classes, heaps and GC roots, which are few, and counts
+ * the objects. The second pass fills primitive columns indexed by object ordinal, the rank of the object in the file: its offset, class
+ * and heap. These columns, the object ids sorted for lookups and the objects grouped by class and heap are kept in a memory mapped
+ * temporary file, so the Java heap only holds the classes. Field values and references are read from the dump on demand.
+ *
+ * Reads are thread safe.
+ */
+class HprofIndex private constructor(private val hprof: MappedFile,
+                                     private val columns: MappedFile,
+                                     private val columnsFile: File,
+                                     private val layout: Layout,
+                                     val idSize: Int,
+                                     val objectCount: Int,
+                                     val classes: List<HprofClass>,
+                                     val heaps: List<HprofHeap>,
+                                     private val roots: IntArray,
+                                     private val groupStarts: IntArray,
+                                     val javaLangClass: HprofClass) : Closeable {
+  private val classIndexById = Long2IntOpenHashMap(classes.size).apply {
+    defaultReturnValue(-1)
+    classes.forEach { put(it.id, it.index) }
+  }
+
+  private val referenceClassIndex = classes.indexOfFirst { it.name == JAVA_LANG_REF_REFERENCE }
+
+  val rootCount get() = roots.size
+
+  /**
+   * Returns the ordinal of the object with [id], or -1 if it is not in the dump.
+   */
+  fun ordinalOf(id: Long) = layout.ordinalOf(columns, id)
+
+  fun idOf(ordinal: Int) = readId(recordOf(ordinal) + 1)
+
+  fun kindOf(ordinal: Int) = when (val tag = hprof.getByte(recordOf(ordinal)).toInt() and 0xff) {
+    INSTANCE_DUMP -> HprofObjectKind.INSTANCE
+    OBJ_ARRAY_DUMP -> HprofObjectKind.OBJECT_ARRAY
+    PRIM_ARRAY_DUMP, PRIM_ARRAY_NODATA_DUMP -> HprofObjectKind.PRIMITIVE_ARRAY
+    CLASS_DUMP -> HprofObjectKind.CLASS
+    else -> throw IllegalStateException("Unexpected heap dump record 0x${Integer.toHexString(tag)}")
+  }
+
+  /**
+   * Returns the class of the object, which is java.lang.Class for class objects, or null if the dump doesn't have it. Classes missing
+   * from the dump are made up for class objects and primitive arrays.
+   */
+  fun classOf(ordinal: Int): HprofClass? = classes.getOrNull(columns.getInt(layout.classes + 4L * ordinal))
+
+  fun heapOf(ordinal: Int) = heaps[heapIndexOf(ordinal)]
+
+  /**
+   * Returns the index in [heaps] of the heap of the object.
+   */
+  fun heapIndexOf(ordinal: Int) = columns.getByte(layout.heaps + ordinal).toInt() and 0xff
+
+  /**
+   * Returns the key of the objects of the same class and heap as the object, which is the index of the class times the number of heaps
+   * plus the index of the heap, as for [instanceRange].
+   */
+  fun groupKeyOf(ordinal: Int) = columns.getInt(layout.classes + 4L * ordinal) * heaps.size + heapIndexOf(ordinal)
+
+  /**
+   * Returns the class whose class object is [ordinal], or null if it isn't a class object.
+   */
+  fun classObjectOf(ordinal: Int): HprofClass? = when (kindOf(ordinal)) {
+    HprofObjectKind.CLASS -> classes[classIndexById.get(idOf(ordinal))]
+    else -> null
+  }
+
+  fun isRoot(ordinal: Int) = roots.binarySearch(ordinal) >= 0
+
+  fun forEachRoot(action: (Int) -> Unit) = roots.forEach(action)
+
+  fun instanceCount(cls: HprofClass) = groupStarts[(cls.index + 1) * heaps.size] - groupStarts[cls.index * heaps.size]
+
+  /**
+   * Calls [action] with the ordinal of every object of class [cls], heap by heap and in file order within each heap.
+   */
+  fun forEachInstance(cls: HprofClass, action: (Int) -> Unit) {
+    for (i in groupStarts[cls.index * heaps.size] until groupStarts[(cls.index + 1) * heaps.size]) action(instanceAt(i))
+  }
+
+  /**
+   * Returns the range of the objects of class [cls] in heap [heap], which is the index of the heap in [heaps], as positions for
+   * [instanceAt]. Objects are grouped by class then heap, so these ranges let the objects of a class in a heap be counted and listed
+   * without holding their ordinals.
+   */
+  fun instanceRange(cls: HprofClass, heap: Int) = groupKey(cls, heap).let { groupStarts[it] until groupStarts[it + 1] }
+
+  fun groupKey(cls: HprofClass, heap: Int) = cls.index * heaps.size + heap
+
+  /**
+   * Returns the ordinal of the object at [position] of the objects grouped by class then heap.
+   */
+  fun instanceAt(position: Int) = columns.getInt(layout.instancesByClass + 4L * position)
+
+  fun shallowSizeOf(ordinal: Int): Int {
+    val record = recordOf(ordinal)
+    return when (kindOf(ordinal)) {
+      HprofObjectKind.INSTANCE -> classOf(ordinal)?.instanceSize ?: hprof.getInt(record + 1 + 2 * idSize + 4)
+      HprofObjectKind.OBJECT_ARRAY -> arrayLength(ordinal) * idSize
+      HprofObjectKind.PRIMITIVE_ARRAY -> arrayLength(ordinal) * elementType(ordinal)!!.sizeWith(idSize)
+      HprofObjectKind.CLASS -> {
+        var size = 0
+        forEachStaticField(classObjectOf(ordinal)!!) { _, type, _ -> size += type.sizeWith(idSize) }
+        size
+      }
+    }
+  }
+
+  fun arrayLength(ordinal: Int) = when (kindOf(ordinal)) {
+    HprofObjectKind.OBJECT_ARRAY, HprofObjectKind.PRIMITIVE_ARRAY -> hprof.getInt(recordOf(ordinal) + 1 + idSize + 4)
+    else -> 0
+  }
+
+  fun elementType(ordinal: Int) = when (kindOf(ordinal)) {
+    HprofObjectKind.OBJECT_ARRAY -> HprofType.OBJECT
+    HprofObjectKind.PRIMITIVE_ARRAY -> HprofType.of(hprof.getByte(recordOf(ordinal) + 1 + idSize + 8).toInt())
+    else -> null
+  }
+
+  /**
+   * Returns the field values of an instance, own fields first then those of its super classes, the static fields of a class object,
+   * or the elements of an array named by their index. Object values are the ids of the objects they reference, or null.
+   */
+  fun fieldsOf(ordinal: Int): List<HprofField> {
+    val fields = ArrayList<HprofField>()
+    when (kindOf(ordinal)) {
+      HprofObjectKind.INSTANCE -> forEachInstanceField(ordinal) { _, name, type, position ->
+        fields.add(HprofField(name, type, read(type, position)))
+      }
+      HprofObjectKind.CLASS -> fields.addAll(staticFields(classObjectOf(ordinal)!!))
+      HprofObjectKind.OBJECT_ARRAY, HprofObjectKind.PRIMITIVE_ARRAY -> {
+        val type = elementType(ordinal)!!
+        forEachElement(ordinal) { i, position -> fields.add(HprofField(i.toString(), type, read(type, position))) }
+      }
+    }
+    return fields
+  }
+
+  /**
+   * Calls [action] with the ordinal of each object referenced by the object at [ordinal], through instance fields, static fields or array
+   * elements. References to objects missing from the dump are skipped, and so are the referents of java.lang.ref.Reference instances
+   * unless [includeReferents] is true.
+   */
+  fun forEachReference(ordinal: Int, includeReferents: Boolean = true, action: (Int) -> Unit) {
+    fun visit(position: Long) {
+      val id = readId(position)
+      if (id != 0L) {
+        val target = ordinalOf(id)
+        if (target >= 0) action(target)
+      }
+    }
+    when (kindOf(ordinal)) {
+      HprofObjectKind.INSTANCE -> forEachInstanceField(ordinal) { cls, name, type, position ->
+        if (type == HprofType.OBJECT && (includeReferents || cls.index != referenceClassIndex || name != REFERENT_FIELD)) visit(position)
+      }
+      HprofObjectKind.OBJECT_ARRAY -> forEachElement(ordinal) { _, position -> visit(position) }
+      HprofObjectKind.CLASS -> forEachStaticField(classObjectOf(ordinal)!!) { _, type, position ->
+        if (type == HprofType.OBJECT) visit(position)
+      }
+      HprofObjectKind.PRIMITIVE_ARRAY -> {}
+    }
+  }
+
+  /**
+   * Returns the content of a byte array, or null if the object isn't one.
+   */
+  fun bytesOf(ordinal: Int) = when {
+    elementType(ordinal) != HprofType.BYTE || !hasArrayData(ordinal) -> null
+    else -> hprof.getBytes(arrayDataOf(ordinal), arrayLength(ordinal))
+  }
+
+  /**
+   * Returns the content of a char array, or null if the object isn't one.
+   */
+  fun charsOf(ordinal: Int) = when {
+    elementType(ordinal) != HprofType.CHAR || !hasArrayData(ordinal) -> null
+    else -> arrayDataOf(ordinal).let { data -> CharArray(arrayLength(ordinal)) { hprof.getShort(data + 2L * it).toChar() } }
+  }
+
+  /**
+   * Returns up to [maxLength] characters of a java.lang.String instance, or null if its content is missing from the dump.
+   */
+  fun stringValueOf(ordinal: Int, maxLength: Int): String? {
+    val fields = fieldsOf(ordinal)
+    val value = fields.find { it.name == "value" && it.type == HprofType.OBJECT }?.value as Long? ?: return null
+    val array = ordinalOf(value).takeIf { it >= 0 } ?: return null
+    val count = (fields.find { it.name == "count" && it.type == HprofType.INT }?.value as Int?)
+      ?.takeIf { it >= 0 && it <= arrayLength(array) } ?: arrayLength(array)
+    val length = minOf(count, maxLength)
+    // Compressed strings are stored as bytes, others as chars.
+    return bytesOf(array)?.let { String(it, 0, length, Charsets.ISO_8859_1) } ?: charsOf(array)?.let { String(it, 0, length) }
+  }
+
+  /**
+   * Returns the static field values of [cls], with object values as ids.
+   */
+  fun staticFields(cls: HprofClass): List<HprofField> = ArrayList<HprofField>().also { fields ->
+    forEachStaticField(cls) { name, type, position -> fields.add(HprofField(name, type, read(type, position))) }
+  }
+
+  override fun close() {
+    // The mappings are released when they are collected, which on some platforms keeps the file from being deleted until then.
+    if (!columnsFile.delete()) {
+      columnsFile.deleteOnExit()
+    }
+  }
+
+  private fun recordOf(ordinal: Int) = columns.getLong(layout.offsets + 8L * ordinal)
+
+  private fun readId(position: Long) = hprof.getId(position, idSize)
+
+  private fun read(type: HprofType, position: Long): Any? = when (type) {
+    HprofType.OBJECT -> readId(position).takeIf { it != 0L }
+    HprofType.BOOLEAN -> hprof.getByte(position) != 0.toByte()
+    HprofType.CHAR -> hprof.getShort(position).toChar()
+    HprofType.FLOAT -> java.lang.Float.intBitsToFloat(hprof.getInt(position))
+    HprofType.DOUBLE -> java.lang.Double.longBitsToDouble(hprof.getLong(position))
+    HprofType.BYTE -> hprof.getByte(position)
+    HprofType.SHORT -> hprof.getShort(position)
+    HprofType.INT -> hprof.getInt(position)
+    HprofType.LONG -> hprof.getLong(position)
+  }
+
+  private inline fun forEachInstanceField(ordinal: Int, visit: (HprofClass, String, HprofType, Long) -> Unit) {
+    val record = recordOf(ordinal)
+    val end = record + 1 + 2 * idSize + 8 + hprof.getUnsignedInt(record + 1 + 2 * idSize + 4)
+    var position = record + 1 + 2 * idSize + 8
+    var cls = classOf(ordinal)
+    while (cls != null) {
+      for (i in cls.fieldTypes.indices) {
+        val type = cls.fieldTypes[i]
+        if (position + type.sizeWith(idSize) > end) return
+        visit(cls, cls.fieldNames[i], type, position)
+        position += type.sizeWith(idSize)
+      }
+      cls = classes.getOrNull(cls.superIndex)
+    }
+  }
+
+  private inline fun forEachStaticField(cls: HprofClass, visit: (String, HprofType, Long) -> Unit) {
+    if (cls.dumpPosition < 0) return
+    var position = skipConstantPool(cls.dumpPosition)
+    val count = hprof.getUnsignedShort(position)
+    position += 2
+    repeat(count) {
+      val name = cls.names.getValue(readId(position))
+      val type = HprofType.of(hprof.getByte(position + idSize).toInt())
+      visit(name, type, position + idSize + 1)
+      position += idSize + 1 + type.sizeWith(idSize)
+    }
+  }
+
+  private fun skipConstantPool(classDump: Long): Long {
+    var position = classDump + 7 * idSize + 8
+    val count = hprof.getUnsignedShort(position)
+    position += 2
+    repeat(count) { position += 3 + HprofType.of(hprof.getByte(position + 2).toInt()).sizeWith(idSize) }
+    return position
+  }
+
+  private fun hasArrayData(ordinal: Int) = hprof.getByte(recordOf(ordinal)).toInt() and 0xff != PRIM_ARRAY_NODATA_DUMP
+
+  private fun arrayDataOf(ordinal: Int) = recordOf(ordinal) + 1 + when (kindOf(ordinal)) {
+    HprofObjectKind.OBJECT_ARRAY -> 2 * idSize + 8
+    else -> idSize + 9
+  }
+
+  private inline fun forEachElement(ordinal: Int, visit: (Int, Long) -> Unit) {
+    if (!hasArrayData(ordinal)) return
+    val data = arrayDataOf(ordinal)
+    val size = elementType(ordinal)!!.sizeWith(idSize)
+    for (i in 0 until arrayLength(ordinal)) {
+      visit(i, data + i.toLong() * size)
+    }
+  }
+
+  /**
+   * Positions of the columns in the index file, for [objectCount] objects. Each column is aligned on the size of its values, so values
+   * never span two mapped segments.
+   */
+  private class Layout(private val objectCount: Int) {
+    private val n = objectCount.toLong()
+    val offsets = 0L
+    val sortedIds = 8 * n
+    val sortedOrdinals = 16 * n
+    val classes = 20 * n
+    val instancesByClass = 24 * n
+    val heaps = 28 * n
+    val scratchIds = (29 * n + 7) and 7L.inv()
+    val scratchOrdinals = scratchIds + 8 * n
+    val size = scratchOrdinals + 4 * n
+
+    /**
+     * Binary searches the sorted ids, which are compared as unsigned addresses.
+     */
+    fun ordinalOf(columns: MappedFile, id: Long): Int {
+      var low = 0
+      var high = objectCount - 1
+      while (low <= high) {
+        val mid = (low + high) ushr 1
+        val cmp = java.lang.Long.compareUnsigned(columns.getLong(sortedIds + 8L * mid), id)
+        when {
+          cmp < 0 -> low = mid + 1
+          cmp > 0 -> high = mid - 1
+          else -> return columns.getInt(sortedOrdinals + 4L * mid)
+        }
+      }
+      return -1
+    }
+  }
+
+  private class Builder(private val hprof: MappedFile) {
+    private var idSize = 0
+    private var recordsStart = 0L
+    private val strings = Long2LongOpenHashMap().apply { defaultReturnValue(-1) }
+    private val classNameIds = Long2LongOpenHashMap()
+    private val rawClasses = ArrayList<RawClass>()
+    private val classIndexById = Long2IntOpenHashMap().apply { defaultReturnValue(-1) }
+    private val heaps = mutableListOf(HprofHeap(DEFAULT_HEAP_ID, DEFAULT_HEAP_NAME))
+    private val heapIndexById = hashMapOf(DEFAULT_HEAP_ID to 0)
+    private val rootIds = LongArrayList()
+    private var objectCount = 0L
+    private lateinit var classes: List<HprofClass>
+    private val primitiveArrayClasses = IntArray(PRIMITIVE_TYPE_TAGS) { -1 }
+    private var javaLangClassIndex = -1
+
+    fun build(hprofFile: File, tempDirectory: File?): HprofIndex {
+      readHeader()
+      scan(collect = true) { _, _, _ -> objectCount++ }
+      if (objectCount > Int.MAX_VALUE) throw IOException("Too many objects in heap dump: $objectCount")
+      classes = resolveClasses()
+      val n = objectCount.toInt()
+      val layout = Layout(n)
+      val columnsFile = File.createTempFile(hprofFile.nameWithoutExtension + "-index", ".bin", tempDirectory)
+      try {
+        val columns = MappedFile.create(columnsFile, layout.size)
+        var ordinal = 0
+        scan(collect = false) { tag, record, heap ->
+          columns.putLong(layout.offsets + 8L * ordinal, record)
+          columns.putInt(layout.classes + 4L * ordinal, classIndexOf(tag, record + 1))
+          columns.putByte(layout.heaps + ordinal, heap.toByte())
+          columns.putLong(layout.scratchIds + 8L * ordinal, readId(record + 1))
+          columns.putInt(layout.scratchOrdinals + 4L * ordinal, ordinal)
+          ordinal++
+        }
+        sortIds(columns, layout, n)
+        val groupStarts = groupByClassAndHeap(columns, layout, n)
+        val roots = rootIds.toLongArray().map { layout.ordinalOf(columns, it) }.filter { it >= 0 }.distinct().sorted().toIntArray()
+        return HprofIndex(hprof, columns, columnsFile, layout, idSize, n, classes, heaps, roots, groupStarts,
+                          classes[javaLangClassIndex])
+      }
+      catch (e: Throwable) {
+        columnsFile.delete()
+        throw e
+      }
+    }
+
+    private fun readHeader() {
+      var position = 0L
+      while (position < hprof.size && hprof.getByte(position) != 0.toByte()) position++
+      if (position + 13 > hprof.size) throw IOException("Invalid hprof header")
+      idSize = hprof.getInt(position + 1)
+      if (idSize !in SUPPORTED_ID_SIZES) throw IOException("Unsupported hprof id size: $idSize")
+      recordsStart = position + 13
+    }
+
+    /**
+     * Reads the records of the dump, and calls [onObject] with the tag, the position of the record and the heap of each object. If
+     * [collect] is true, also collects the strings, classes and roots.
+     */
+    private fun scan(collect: Boolean, onObject: (Int, Long, Int) -> Unit) {
+      var heap = 0
+      var position = recordsStart
+      while (position + 9 <= hprof.size) {
+        val tag = hprof.getByte(position).toInt() and 0xff
+        val body = position + 9
+        val end = body + hprof.getUnsignedInt(position + 5)
+        when {
+          tag == STRING && collect -> strings.put(readId(body), body)
+          tag == LOAD_CLASS && collect -> classNameIds.put(readId(body + 4), readId(body + 8 + idSize))
+          tag == HEAP_DUMP || tag == HEAP_DUMP_SEGMENT -> heap = scanHeapDump(body, minOf(end, hprof.size), heap, collect, onObject)
+        }
+        position = end
+      }
+    }
+
+    private fun scanHeapDump(start: Long, end: Long, initialHeap: Int, collect: Boolean, onObject: (Int, Long, Int) -> Unit): Int {
+      var heap = initialHeap
+      var position = start
+      while (position < end) {
+        val tag = hprof.getByte(position).toInt() and 0xff
+        val body = position + 1
+        val length = when (tag) {
+          ROOT_UNKNOWN, ROOT_STICKY_CLASS, ROOT_MONITOR_USED, ROOT_INTERNED_STRING, ROOT_FINALIZING, ROOT_DEBUGGER,
+          ROOT_REFERENCE_CLEANUP, ROOT_VM_INTERNAL, ROOT_UNREACHABLE -> root(body, collect, idSize)
+          ROOT_JNI_GLOBAL -> root(body, collect, 2 * idSize)
+          ROOT_NATIVE_STACK, ROOT_THREAD_BLOCK -> root(body, collect, idSize + 4)
+          ROOT_JNI_LOCAL, ROOT_JAVA_FRAME, ROOT_THREAD_OBJECT, ROOT_JNI_MONITOR -> root(body, collect, idSize + 8)
+          HEAP_DUMP_INFO -> {
+            heap = heapIndex(hprof.getInt(body), readId(body + 4))
+            4L + idSize
+          }
+          CLASS_DUMP -> {
+            onObject(tag, position, heap)
+            classDump(body, collect)
+          }
+          INSTANCE_DUMP -> {
+            onObject(tag, position, heap)
+            2L * idSize + 8 + hprof.getUnsignedInt(body + 2 * idSize + 4)
+          }
+          OBJ_ARRAY_DUMP -> {
+            onObject(tag, position, heap)
+            2L * idSize + 8 + hprof.getUnsignedInt(body + idSize + 4) * idSize
+          }
+          PRIM_ARRAY_DUMP -> {
+            onObject(tag, position, heap)
+            val type = HprofType.of(hprof.getByte(body + idSize + 8).toInt())
+            idSize + 9L + hprof.getUnsignedInt(body + idSize + 4) * type.sizeWith(idSize)
+          }
+          PRIM_ARRAY_NODATA_DUMP -> {
+            onObject(tag, position, heap)
+            idSize + 9L
+          }
+          else -> throw IOException("Unknown heap dump record 0x${Integer.toHexString(tag)} at $position")
+        }
+        position = body + length
+      }
+      return heap
+    }
+
+    private fun root(body: Long, collect: Boolean, length: Int): Long {
+      if (collect) rootIds.add(readId(body))
+      return length.toLong()
+    }
+
+    private fun heapIndex(id: Int, nameId: Long) = heapIndexById.getOrPut(id) {
+      heaps.add(HprofHeap(id, readString(nameId) ?: "heap-$id"))
+      heaps.size - 1
+    }
+
+    private fun classDump(body: Long, collect: Boolean): Long {
+      var position = body + 7 * idSize + 4
+      val instanceSize = hprof.getInt(position)
+      position += 4
+      val constantCount = hprof.getUnsignedShort(position)
+      position += 2
+      repeat(constantCount) { position += 3 + HprofType.of(hprof.getByte(position + 2).toInt()).sizeWith(idSize) }
+      val staticNameIds = LongArrayList()
+      val staticCount = hprof.getUnsignedShort(position)
+      position += 2
+      repeat(staticCount) {
+        staticNameIds.add(readId(position))
+        position += idSize + 1 + HprofType.of(hprof.getByte(position + idSize).toInt()).sizeWith(idSize)
+      }
+      val fieldCount = hprof.getUnsignedShort(position)
+      position += 2
+      val fieldNameIds = LongArray(fieldCount) { readId(position + it * (idSize + 1L)) }
+      val fieldTypes = List(fieldCount) { HprofType.of(hprof.getByte(position + it * (idSize + 1L) + idSize).toInt()) }
+      position += fieldCount * (idSize + 1L)
+      if (collect) {
+        val id = readId(body)
+        classIndexById.put(id, rawClasses.size)
+        rawClasses.add(RawClass(id, readId(body + idSize + 4), instanceSize, fieldNameIds, fieldTypes, staticNameIds.toLongArray(), body))
+      }
+      return position - body
+    }
+
+    private fun resolveClasses(): List<HprofClass> {
+      val resolved = rawClasses.mapIndexedTo(ArrayList<HprofClass>()) { index, raw ->
+        val name = readString(classNameIds.get(raw.id))?.let(::normalizeClassName) ?: "0x${java.lang.Long.toHexString(raw.id)}"
+        val names = (raw.fieldNameIds + raw.staticNameIds).associateWith { readString(it) ?: "" }
+        HprofClass(index, raw.id, name, classIndexById.get(raw.superId), raw.instanceSize, raw.fieldNameIds.map { names.getValue(it) },
+                   raw.fieldTypes, raw.position, names)
+      }
+      // Class objects and primitive arrays don't reference their class, so they are classified by name, with a made up class if the dump
+      // has none.
+      javaLangClassIndex = resolved.indexOfFirst { it.name == JAVA_LANG_CLASS }.takeIf { it >= 0 } ?: resolved.size.also {
+        resolved.add(HprofClass(it, SYNTHETIC_CLASS_ID_BASE, JAVA_LANG_CLASS, -1, 0, emptyList(), emptyList(), -1, emptyMap()))
+      }
+      for (type in HprofType.values()) {
+        if (type == HprofType.OBJECT) continue
+        val name = "${type.name.toLowerCase(Locale.US)}[]"
+        primitiveArrayClasses[type.tag] = resolved.indexOfFirst { it.name == name }.takeIf { it >= 0 } ?: resolved.size.also {
+          resolved.add(HprofClass(it, SYNTHETIC_CLASS_ID_BASE - type.tag, name, -1, 0, emptyList(), emptyList(), -1, emptyMap()))
+        }
+      }
+      return resolved
+    }
+
+    private fun classIndexOf(tag: Int, body: Long) = when (tag) {
+      INSTANCE_DUMP -> classIndexById.get(readId(body + idSize + 4))
+      OBJ_ARRAY_DUMP -> classIndexById.get(readId(body + idSize + 8))
+      PRIM_ARRAY_DUMP, PRIM_ARRAY_NODATA_DUMP -> primitiveArrayClasses[hprof.getByte(body + idSize + 8).toInt()]
+      else -> javaLangClassIndex
+    }
+
+    /**
+     * Sorts the ids in the scratch columns into the sorted columns with a least significant digit radix sort, which only needs sequential
+     * passes over the mapped columns. Digits that are the same for all ids, like the high bytes of 32-bit addresses, are skipped.
+     */
+    private fun sortIds(columns: MappedFile, layout: Layout, n: Int) {
+      var fromIds = layout.scratchIds
+      var fromOrdinals = layout.scratchOrdinals
+      var toIds = layout.sortedIds
+      var toOrdinals = layout.sortedOrdinals
+      val counts = IntArray(257)
+      for (shift in 0 until 64 step 8) {
+        counts.fill(0)
+        for (i in 0 until n) counts[((columns.getLong(fromIds + 8L * i) ushr shift).toInt() and 0xff) + 1]++
+        if (counts.any { it == n }) continue
+        for (digit in 1..256) counts[digit] += counts[digit - 1]
+        for (i in 0 until n) {
+          val id = columns.getLong(fromIds + 8L * i)
+          val target = counts[(id ushr shift).toInt() and 0xff]++
+          columns.putLong(toIds + 8L * target, id)
+          columns.putInt(toOrdinals + 4L * target, columns.getInt(fromOrdinals + 4L * i))
+        }
+        fromIds = toIds.also { toIds = fromIds }
+        fromOrdinals = toOrdinals.also { toOrdinals = fromOrdinals }
+      }
+      if (fromIds != layout.sortedIds) {
+        for (i in 0 until n) {
+          columns.putLong(layout.sortedIds + 8L * i, columns.getLong(fromIds + 8L * i))
+          columns.putInt(layout.sortedOrdinals + 4L * i, columns.getInt(fromOrdinals + 4L * i))
+        }
+      }
+    }
+
+    /**
+     * Fills the instances by class column with a counting sort on the class then the heap, and returns the start of each class and heap
+     * pair in it, at `class * heaps + heap`. Objects of unknown classes are left out.
+     */
+    private fun groupByClassAndHeap(columns: MappedFile, layout: Layout, n: Int): IntArray {
+      val groups = classes.size * heaps.size
+      fun groupOf(i: Int) = columns.getInt(layout.classes + 4L * i).let { cls ->
+        if (cls < 0) -1 else cls * heaps.size + (columns.getByte(layout.heaps + i).toInt() and 0xff)
+      }
+      val starts = IntArray(groups + 1)
+      for (i in 0 until n) {
+        val group = groupOf(i)
+        if (group >= 0) starts[group + 1]++
+      }
+      for (group in 1..groups) starts[group] += starts[group - 1]
+      val next = starts.copyOf(groups)
+      for (i in 0 until n) {
+        val group = groupOf(i)
+        if (group >= 0) columns.putInt(layout.instancesByClass + 4L * next[group]++, i)
+      }
+      return starts
+    }
+
+    private fun readId(position: Long) = hprof.getId(position, idSize)
+
+    private fun readString(id: Long): String? {
+      val body = strings.get(id).takeIf { it >= 0 } ?: return null
+      val length = hprof.getUnsignedInt(body - 4) - idSize
+      return String(hprof.getBytes(body + idSize, length.toInt()), Charsets.UTF_8)
+    }
+  }
+
+  private class RawClass(val id: Long,
+                         val superId: Long,
+                         val instanceSize: Int,
+                         val fieldNameIds: LongArray,
+                         val fieldTypes: List<HprofType>,
+                         val staticNameIds: LongArray,
+                         val position: Long)
+
+  companion object {
+    const val DEFAULT_HEAP_ID = 0
+    const val DEFAULT_HEAP_NAME = "default"
+    private const val JAVA_LANG_CLASS = "java.lang.Class"
+    private const val JAVA_LANG_REF_REFERENCE = "java.lang.ref.Reference"
+    private const val REFERENT_FIELD = "referent"
+    private const val SYNTHETIC_CLASS_ID_BASE = -100L
+    private const val PRIMITIVE_TYPE_TAGS = 12
+    private val SUPPORTED_ID_SIZES = setOf(1, 2, 4, 8)
+
+    // Record tags.
+    private const val STRING = 0x01
+    private const val LOAD_CLASS = 0x02
+    private const val HEAP_DUMP = 0x0c
+    private const val HEAP_DUMP_SEGMENT = 0x1c
+
+    // Heap dump record tags, including Android's.
+    private const val ROOT_UNKNOWN = 0xff
+    private const val ROOT_JNI_GLOBAL = 0x01
+    private const val ROOT_JNI_LOCAL = 0x02
+    private const val ROOT_JAVA_FRAME = 0x03
+    private const val ROOT_NATIVE_STACK = 0x04
+    private const val ROOT_STICKY_CLASS = 0x05
+    private const val ROOT_THREAD_BLOCK = 0x06
+    private const val ROOT_MONITOR_USED = 0x07
+    private const val ROOT_THREAD_OBJECT = 0x08
+    private const val CLASS_DUMP = 0x20
+    private const val INSTANCE_DUMP = 0x21
+    private const val OBJ_ARRAY_DUMP = 0x22
+    private const val PRIM_ARRAY_DUMP = 0x23
+    private const val ROOT_INTERNED_STRING = 0x89
+    private const val ROOT_FINALIZING = 0x8a
+    private const val ROOT_DEBUGGER = 0x8b
+    private const val ROOT_REFERENCE_CLEANUP = 0x8c
+    private const val ROOT_VM_INTERNAL = 0x8d
+    private const val ROOT_JNI_MONITOR = 0x8e
+    private const val ROOT_UNREACHABLE = 0x90
+    private const val PRIM_ARRAY_NODATA_DUMP = 0xc3
+    private const val HEAP_DUMP_INFO = 0xfe
+
+    /**
+     * Indexes [hprofFile], with the index columns in a temporary file of [tempDirectory] that is deleted when the index is closed. The
+     * hprof file must not change while the index is in use.
+     */
+    @JvmStatic
+    @JvmOverloads
+    @Throws(IOException::class)
+    fun build(hprofFile: File, tempDirectory: File? = null) = Builder(MappedFile.openReadOnly(hprofFile)).build(hprofFile, tempDirectory)
+
+    /**
+     * Converts JVM class names, like `java/lang/String` or `[[I`, to the Java names Android dumps use, like `java.lang.String` or
+     * `int[][]`.
+     */
+    internal fun normalizeClassName(name: String): String {
+      val dimensions = name.indexOfFirst { it != '[' }
+      if (dimensions <= 0) return name.replace('/', '.')
+      val element = when (name[dimensions]) {
+        'Z' -> "boolean"
+        'C' -> "char"
+        'F' -> "float"
+        'D' -> "double"
+        'B' -> "byte"
+        'S' -> "short"
+        'I' -> "int"
+        'J' -> "long"
+        'L' -> name.substring(dimensions + 1).removeSuffix(";").replace('/', '.')
+        else -> return name
+      }
+      return element + "[]".repeat(dimensions)
+    }
+  }
+}
+
+/**
+ * The basic types of hprof values, with their hprof tag.
+ */
+enum class HprofType(val tag: Int, private val size: Int) {
+  OBJECT(2, 0),
+  BOOLEAN(4, 1),
+  CHAR(5, 2),
+  FLOAT(6, 4),
+  DOUBLE(7, 8),
+  BYTE(8, 1),
+  SHORT(9, 2),
+  INT(10, 4),
+  LONG(11, 8);
+
+  fun sizeWith(idSize: Int) = if (this == OBJECT) idSize else size
+
+  companion object {
+    private val byTag = values().associateBy { it.tag }
+
+    @Throws(IOException::class)
+    fun of(tag: Int) = byTag[tag] ?: throw IOException("Unknown hprof type $tag")
+  }
+}
+
+enum class HprofObjectKind { INSTANCE, OBJECT_ARRAY, PRIMITIVE_ARRAY, CLASS }
+
+class HprofHeap(val id: Int, val name: String)
+
+/**
+ * A class of the dump. [superIndex] is the index of its super class in [HprofIndex.classes], or -1. [fieldNames] and [fieldTypes] describe
+ * the instance fields declared by the class itself.
+ */
+class HprofClass internal constructor(val index: Int,
+                                      val id: Long,
+                                      val name: String,
+                                      val superIndex: Int,
+                                      val instanceSize: Int,
+                                      val fieldNames: List<String>,
+                                      val fieldTypes: List<HprofType>,
+                                      internal val dumpPosition: Long,
+                                      internal val names: Map<Long, String>)
+
+/**
+ * A field, static field or array element value. Object values are the id of the object they reference, or null.
+ */
+data class HprofField(val name: String, val type: HprofType, val value: Any?)
@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters.hprof
+
+import java.io.File
+import java.io.RandomAccessFile
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+
+/**
+ * A file memory mapped in segments, since a single mapping can't exceed 2GB. Segments overlap so that a value of up to 8 bytes can always
+ * be read from the segment it starts in, whatever its alignment. The values are big endian, as in hprof files.
+ */
+internal class MappedFile private constructor(private val segments: Array<MappedByteBuffer>, val size: Long) {
+  fun getByte(position: Long): Byte = segment(position).get(index(position))
+  fun getShort(position: Long): Short = segment(position).getShort(index(position))
+  fun getInt(position: Long): Int = segment(position).getInt(index(position))
+  fun getLong(position: Long): Long = segment(position).getLong(index(position))
+  fun getUnsignedShort(position: Long) = getShort(position).toInt() and 0xffff
+  fun getUnsignedInt(position: Long) = getInt(position).toLong() and 0xffffffffL
+
+  /**
+   * Reads an unsigned object id of [idSize] bytes.
+   */
+  fun getId(position: Long, idSize: Int) = when (idSize) {
+    1 -> getByte(position).toLong() and 0xff
+    2 -> getUnsignedShort(position).toLong()
+    4 -> getUnsignedInt(position)
+    else -> getLong(position)
+  }
+
+  fun getBytes(position: Long, length: Int) = ByteArray(length) { getByte(position + it) }
+
+  fun putByte(position: Long, value: Byte) {
+    segment(position).put(index(position), value)
+  }
+
+  fun putInt(position: Long, value: Int) {
+    segment(position).putInt(index(position), value)
+  }
+
+  fun putLong(position: Long, value: Long) {
+    segment(position).putLong(index(position), value)
+  }
+
+  private fun segment(position: Long) = segments[(position ushr SEGMENT_SHIFT).toInt()]
+  private fun index(position: Long) = (position and SEGMENT_MASK).toInt()
+
+  companion object {
+    private const val SEGMENT_SHIFT = 30
+    private const val SEGMENT_SIZE = 1L shl SEGMENT_SHIFT
+    private const val SEGMENT_MASK = SEGMENT_SIZE - 1
+    private const val SEGMENT_OVERLAP = 8L
+
+    fun openReadOnly(file: File) = RandomAccessFile(file, "r").use { map(it.channel, FileChannel.MapMode.READ_ONLY, it.length()) }
+
+    /**
+     * Maps [file] for reading and writing after setting its length to [size].
+     */
+    fun create(file: File, size: Long) = RandomAccessFile(file, "rw").use {
+      it.setLength(size)
+      map(it.channel, FileChannel.MapMode.READ_WRITE, size)
+    }
+
+    private fun map(channel: FileChannel, mode: FileChannel.MapMode, size: Long): MappedFile {
+      val segmentCount = ((size + SEGMENT_SIZE - 1) / SEGMENT_SIZE).toInt()
+      // Mappings stay valid after the channel is closed.
+      return MappedFile(Array(segmentCount) {
+        val start = it * SEGMENT_SIZE
+        channel.map(mode, start, minOf(SEGMENT_SIZE + SEGMENT_OVERLAP, size - start))
+      }, size)
+    }
+  }
+}
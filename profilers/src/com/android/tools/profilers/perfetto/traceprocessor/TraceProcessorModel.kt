@@ -20,7 +20,6 @@ import com.android.tools.profiler.perfetto.proto.TraceProcessor.AndroidFrameEven
 import com.android.tools.profiler.proto.Cpu
 import com.android.tools.profilers.cpu.ThreadState
 import com.android.tools.profilers.cpu.systemtrace.AndroidFrameTimelineEvent
-import com.android.tools.profilers.cpu.systemtrace.CounterModel
 import com.android.tools.profilers.cpu.systemtrace.CpuCoreModel
 import com.android.tools.profilers.cpu.systemtrace.ProcessModel
 import com.android.tools.profilers.cpu.systemtrace.SchedulingEventModel
@@ -28,75 +27,190 @@ import com.android.tools.profilers.cpu.systemtrace.SystemTraceModelAdapter
 import com.android.tools.profilers.cpu.systemtrace.ThreadModel
 import com.android.tools.profilers.cpu.systemtrace.TraceEventModel
 import perfetto.protos.PerfettoTrace
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+import java.io.ObjectStreamField
 import java.io.Serializable
-import java.util.Deque
-import java.util.LinkedList
+import java.util.RandomAccess
+import java.util.SortedMap
+import java.util.SortedSet
+import java.util.TreeMap
+import java.util.TreeSet
+import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.TimeUnit
 
+/**
+ * [SystemTraceModelAdapter] over the results of trace processor queries.
+ *
+ * Slices, scheduling events and counters are kept in the column tables [SliceTable], [SchedTable] and [CounterTable], indexed by thread
+ * and CPU core. The [ProcessModel]s and [CpuCoreModel]s are only assembled when requested and their events and counter values are views
+ * over the tables, so the heap used by a system trace grows with its number of events rather than with an object graph. The range
+ * queries of [SystemTraceModelAdapter] are answered with binary searches over the tables.
+ *
+ * The serialized form is still the object graph of the models, see [writeObject], so that models serialized by earlier versions can be
+ * read.
+ */
 class TraceProcessorModel(builder: Builder) : SystemTraceModelAdapter, Serializable {
 
   companion object {
     // generated by serialver
     @JvmStatic
     val serialVersionUID = -2228053132990163476L
-  }
 
-  private val processMap: Map<Int, ProcessModel>
-  private val cpuCores: List<CpuCoreModel>
-  private val androidFrameLayers: List<Layer>
-  private val androidFrameTimelineEvents: List<AndroidFrameTimelineEvent>
-
-  private val danglingThreads = builder.danglingThreads
-
-  private val startCaptureTimestamp = builder.startCaptureTimestamp
-  private val endCaptureTimestamp = builder.endCaptureTimestamp
-
-  init {
-    // Build processMap
-    val processMapBuilder = mutableMapOf<Int, ProcessModel>()
-    for (process in builder.processById.values) {
-      val updatedThreadMap = process.threadById.mapValues { entry ->
-        entry.value.copy(
-          traceEvents = builder.threadToEventsMap.getOrDefault(entry.key, listOf()),
-          schedulingEvents = builder.threadToScheduling.getOrDefault(entry.key, listOf())
-        )
-      }.toSortedMap()
-      val counterMap = builder.processToCounters.getOrDefault(process.id, listOf())
-        .map { it.name to it }
-        .toMap()
-      processMapBuilder[process.id] = process.copy(threadById = updatedThreadMap, counterByName = counterMap)
-    }
-    processMap = processMapBuilder.toSortedMap()
-
-    // Build cpuCores
-    cpuCores = (0 until builder.cpuCoresCount).map {
-      val cpuCountersMap = builder.coreToCpuCounters.getOrDefault(it, listOf())
-        .map { counterModel -> counterModel.name to counterModel }
-        .toMap()
-      CpuCoreModel(it, builder.coreToScheduling.getOrDefault(it, listOf()), cpuCountersMap)
-    }
-    androidFrameTimelineEvents = builder.androidFrameTimelineEvents
-    androidFrameLayers = when {
-      androidFrameTimelineEvents.isEmpty() -> builder.androidFrameLayers
-      else -> builder.androidFrameLayers.renumbered(androidFrameTimelineEvents, builder.surfaceflingerDisplayTokenToEndNs)
-    }
+    private val serialPersistentFields = arrayOf(
+      ObjectStreamField("processMap", Map::class.java),
+      ObjectStreamField("cpuCores", List::class.java),
+      ObjectStreamField("androidFrameLayers", List::class.java),
+      ObjectStreamField("androidFrameTimelineEvents", List::class.java),
+      ObjectStreamField("danglingThreads", Map::class.java),
+      ObjectStreamField("startCaptureTimestamp", java.lang.Long.TYPE),
+      ObjectStreamField("endCaptureTimestamp", java.lang.Long.TYPE))
   }
 
-  override fun getCaptureStartTimestampUs() = startCaptureTimestamp
-  override fun getCaptureEndTimestampUs() = endCaptureTimestamp
+  @Transient
+  private var tables = Tables(builder.processById.toSortedMap(),
+                              builder.danglingThreads,
+                              builder.threadToSlices.toMap(),
+                              builder.threadToScheduling.mapValues { it.value.build() },
+                              builder.coreToScheduling.mapValues { it.value.build() },
+                              builder.processToCounters.toMap(),
+                              builder.coreToCpuCounters.toMap(),
+                              builder.cpuCoresCount,
+                              builder.startCaptureTimestamp,
+                              builder.endCaptureTimestamp,
+                              when {
+                                builder.androidFrameTimelineEvents.isEmpty() -> builder.androidFrameLayers
+                                else -> builder.androidFrameLayers.renumbered(builder.androidFrameTimelineEvents,
+                                                                              builder.surfaceflingerDisplayTokenToEndNs)
+                              },
+                              builder.androidFrameTimelineEvents)
+
+  override fun getCaptureStartTimestampUs() = tables.startCaptureTimestamp
+  override fun getCaptureEndTimestampUs() = tables.endCaptureTimestamp
+
+  override fun getProcessById(id: Int) = tables.getProcess(id)
+  override fun getProcesses() = tables.processes
+  override fun getDanglingThread(tid: Int): ThreadModel? = tables.danglingThreads[tid]
+
+  override fun getCpuCores() = tables.cpuCores
+
+  override fun isRangeQueryEfficient() = true
+
+  override fun getThreadTraceEvents(tid: Int, startUs: Long, endUs: Long): List<TraceEventModel> =
+    tables.threadSlices[tid]?.traceEventsIn(startUs, endUs) ?: listOf()
+
+  override fun getThreadSchedulingEvents(tid: Int, startUs: Long, endUs: Long): List<SchedulingEventModel> =
+    tables.threadScheduling[tid]?.schedulingEventsIn(startUs, endUs) ?: listOf()
 
-  override fun getProcessById(id: Int) = processMap[id]
-  override fun getProcesses() = processMap.values.toList()
-  override fun getDanglingThread(tid: Int): ThreadModel? = danglingThreads[tid]
+  override fun getCpuSchedulingEvents(cpu: Int, startUs: Long, endUs: Long): List<SchedulingEventModel> =
+    tables.coreScheduling[cpu]?.schedulingEventsIn(startUs, endUs) ?: listOf()
 
-  override fun getCpuCores() = cpuCores
+  override fun getProcessCounterValues(pid: Int, counterName: String, startUs: Long, endUs: Long): List<Pair<Long, Double>> =
+    tables.processCounters[pid]?.find { it.name == counterName }?.valuesIn(startUs, endUs) ?: listOf()
+
+  override fun getProcessMemoryCounterNames(pid: Int): SortedSet<String> =
+    tables.processCounters[pid]?.filter { it.name.startsWith(SystemTraceModelAdapter.MEMORY_COUNTER_PREFIX) }?.mapTo(TreeSet()) { it.name }
+    ?: TreeSet()
+
+  override fun getProcessCounterMax(pid: Int, counterName: String): Long? =
+    tables.processCounters[pid]?.find { it.name == counterName }?.max()?.toLong()
+
+  override fun getCpuCounterValues(cpu: Int, counterName: String, startUs: Long, endUs: Long): List<Pair<Long, Double>> =
+    tables.coreCounters[cpu]?.find { it.name == counterName }?.valuesIn(startUs, endUs) ?: listOf()
 
   override fun getSystemTraceTechnology() = Cpu.CpuTraceType.PERFETTO
 
   // TODO(b/156578844): Fetch data from TraceProcessor error table to populate this.
   override fun isCapturePossibleCorrupted() = false
-  override fun getAndroidFrameLayers() = androidFrameLayers
-  override fun getAndroidFrameTimelineEvents() = androidFrameTimelineEvents
+  override fun getAndroidFrameLayers() = tables.androidFrameLayers
+  override fun getAndroidFrameTimelineEvents() = tables.androidFrameTimelineEvents
+
+  /**
+   * Writes the models as the fields of [serialPersistentFields]. Their events and counter values are written through their views.
+   */
+  private fun writeObject(output: ObjectOutputStream) {
+    output.putFields().apply {
+      put("processMap", tables.processMetadata.keys.associateWithTo(TreeMap()) { tables.getProcess(it)!! })
+      put("cpuCores", ArrayList(tables.cpuCores))
+      put("androidFrameLayers", tables.androidFrameLayers)
+      put("androidFrameTimelineEvents", tables.androidFrameTimelineEvents)
+      put("danglingThreads", tables.danglingThreads)
+      put("startCaptureTimestamp", tables.startCaptureTimestamp)
+      put("endCaptureTimestamp", tables.endCaptureTimestamp)
+    }
+    output.writeFields()
+  }
+
+  /**
+   * Reads the models written by [writeObject], or by earlier versions which serialized the same fields, back into tables.
+   */
+  @Suppress("UNCHECKED_CAST")
+  private fun readObject(input: ObjectInputStream) {
+    val fields = input.readFields()
+    val processes = fields.get("processMap", null) as Map<Int, ProcessModel>
+    val cpuCores = fields.get("cpuCores", null) as List<CpuCoreModel>
+    val threads = processes.values.flatMap { it.getThreads() }
+    tables = Tables(processes.mapValuesTo(TreeMap()) { (_, process) ->
+                      val threadById = process.threadById.mapValues { it.value.copy(traceEvents = listOf(), schedulingEvents = listOf()) }
+                      process.copy(threadById = threadById.toSortedMap(), counterByName = mapOf())
+                    },
+                    fields.get("danglingThreads", null) as Map<Int, ThreadModel>,
+                    threads.associate { it.id to SliceTable.of(it.traceEvents) },
+                    threads.associate { it.id to SchedTable.of(it.schedulingEvents) },
+                    cpuCores.associate { it.id to SchedTable.of(it.schedulingEvents) },
+                    processes.mapValues { (_, process) -> process.counterByName.values.map { CounterTable.of(it) } },
+                    cpuCores.associate { it.id to it.countersMap.values.map { counter -> CounterTable.of(counter) } },
+                    cpuCores.size,
+                    fields.get("startCaptureTimestamp", Long.MAX_VALUE),
+                    fields.get("endCaptureTimestamp", Long.MIN_VALUE),
+                    fields.get("androidFrameLayers", null) as List<Layer>,
+                    fields.get("androidFrameTimelineEvents", null) as List<AndroidFrameTimelineEvent>)
+  }
+
+  /**
+   * The tables of a model, and the models assembled from them on request.
+   *
+   * @param processMetadata the processes and their threads, without events nor counters.
+   */
+  private class Tables(val processMetadata: SortedMap<Int, ProcessModel>,
+                       val danglingThreads: Map<Int, ThreadModel>,
+                       val threadSlices: Map<Int, SliceTable>,
+                       val threadScheduling: Map<Int, SchedTable>,
+                       val coreScheduling: Map<Int, SchedTable>,
+                       val processCounters: Map<Int, List<CounterTable>>,
+                       val coreCounters: Map<Int, List<CounterTable>>,
+                       cpuCoresCount: Int,
+                       val startCaptureTimestamp: Long,
+                       val endCaptureTimestamp: Long,
+                       val androidFrameLayers: List<Layer>,
+                       val androidFrameTimelineEvents: List<AndroidFrameTimelineEvent>) {
+    private val processCache = ConcurrentHashMap<Int, ProcessModel>()
+    private val processIds = processMetadata.keys.toIntArray()
+
+    /**
+     * The processes ordered by id, each assembled when it is first read.
+     */
+    val processes: List<ProcessModel> = object : AbstractList<ProcessModel>(), RandomAccess {
+      override val size get() = processIds.size
+      override fun get(index: Int) = getProcess(processIds[index])!!
+    }
+
+    val cpuCores = (0 until cpuCoresCount).map { core ->
+      CpuCoreModel(core, coreScheduling[core]?.schedulingEvents ?: listOf(),
+                   coreCounters[core]?.associate { it.name to it.asCounterModel() } ?: mapOf())
+    }
+
+    fun getProcess(id: Int): ProcessModel? {
+      val metadata = processMetadata[id] ?: return null
+      return processCache.computeIfAbsent(id) {
+        val threadById = metadata.threadById.mapValues { (tid, thread) ->
+          thread.copy(traceEvents = threadSlices[tid]?.traceEvents ?: listOf(),
+                      schedulingEvents = threadScheduling[tid]?.schedulingEvents ?: listOf())
+        }.toSortedMap()
+        metadata.copy(threadById = threadById, counterByName = processCounters[id]?.associate { it.name to it.asCounterModel() } ?: mapOf())
+      }
+    }
+  }
 
   class Builder {
     internal var startCaptureTimestamp = Long.MAX_VALUE
@@ -104,11 +218,11 @@ class TraceProcessorModel(builder: Builder) : SystemTraceModelAdapter, Serializa
     internal var cpuCoresCount = 0
     internal val processById = mutableMapOf<Int, ProcessModel>()
     internal val danglingThreads = mutableMapOf<Int, ThreadModel>()
-    internal val threadToEventsMap = mutableMapOf<Int, List<TraceEventModel>>()
-    internal val threadToScheduling = mutableMapOf<Int, List<SchedulingEventModel>>()
-    internal val coreToScheduling = mutableMapOf<Int, List<SchedulingEventModel>>()
-    internal val coreToCpuCounters = mutableMapOf<Int, List<CounterModel>>()
-    internal val processToCounters = mutableMapOf<Int, List<CounterModel>>()
+    internal val threadToSlices = mutableMapOf<Int, SliceTable>()
+    internal val threadToScheduling = mutableMapOf<Int, SchedTable.Builder>()
+    internal val coreToScheduling = mutableMapOf<Int, SchedTable.Builder>()
+    internal val coreToCpuCounters = mutableMapOf<Int, List<CounterTable>>()
+    internal val processToCounters = mutableMapOf<Int, List<CounterTable>>()
     internal val androidFrameLayers = mutableListOf<Layer>()
     internal val androidFrameTimelineEvents = mutableListOf<AndroidFrameTimelineEvent>()
     internal var surfaceflingerDisplayTokenToEndNs = mapOf<Long, Long>()
@@ -130,88 +244,30 @@ class TraceProcessorModel(builder: Builder) : SystemTraceModelAdapter, Serializa
 
     fun addTraceEvents(traceEventsResult: TraceProcessor.TraceEventsResult) {
       for (thread in traceEventsResult.threadList) {
-        val rootIds = mutableSetOf<Long>()
-        val eventToChildrenIds = mutableMapOf<Long, MutableList<Long>>()
-        val eventPerId = mutableMapOf<Long, TraceEventModel>()
-
+        val tableBuilder = SliceTable.Builder()
         for (event in thread.traceEventList) {
-          if (event.depth > 0) {
-            eventToChildrenIds.getOrPut(event.parentId) { mutableListOf() }.add(event.id)
-          }
-          else {
-            rootIds.add(event.id)
-          }
-
-          val startTimestampUs = convertToUs(event.timestampNanoseconds)
-          val durationTimestampUs = convertToUs(event.durationNanoseconds)
-          val endTimestampUs = startTimestampUs + durationTimestampUs
-
-          eventPerId[event.id] = TraceEventModel(event.name,
-                                                 startTimestampUs,
-                                                 endTimestampUs,
-                                                 durationTimestampUs,
-                                                 listOf())
+          tableBuilder.add(event.id,
+                           if (event.depth > 0) event.parentId else null,
+                           event.name,
+                           convertToUs(event.timestampNanoseconds),
+                           convertToUs(event.durationNanoseconds))
         }
-
-        val reconstructedTree = reconstructTraceTree(rootIds, eventToChildrenIds, eventPerId)
-        threadToEventsMap[thread.threadId.toInt()] = rootIds.mapNotNull { reconstructedTree[it] }
-      }
-    }
-
-    // Runs through the partially computed events to rebuild the whole trace trees, by doing a DFS from the root nodes.
-    private fun reconstructTraceTree(
-      rootIds: Set<Long>, eventToChildrenIds: Map<Long, List<Long>>, eventPerId: Map<Long, TraceEventModel>): Map<Long, TraceEventModel> {
-
-      val reconstructedEventsPerId = mutableMapOf<Long, TraceEventModel>()
-
-      val visitedAllChildren = mutableSetOf<Long>()
-      val eventIdStack: Deque<Long> = LinkedList(rootIds)
-
-      while (eventIdStack.isNotEmpty()) {
-        val eventId = eventIdStack.first
-
-        // If we have not visited this node yet, then we need to push all its children to the front of the queue
-        // and continue the main loop. Next time we pass on this one, we will process it as we know all its children
-        // have been processed already.
-        if (!visitedAllChildren.contains(eventId)) {
-          eventToChildrenIds.getOrDefault(eventId, mutableListOf()).forEach { eventIdStack.addFirst(it) }
-          visitedAllChildren.add(eventId)
-          continue
-        }
-
-        eventIdStack.removeFirst()
-        val children = eventToChildrenIds.getOrDefault(eventId, mutableListOf())
-          .map { reconstructedEventsPerId[it] ?: error("Children should have been computed already") }
-          .sortedBy { it.startTimestampUs }
-
-        val event = eventPerId[eventId] ?: error("Trace Event should be present in the map")
-
-        val myStart = event.startTimestampUs
-        val maxEndTs = children.lastOrNull()?.endTimestampUs ?: 0L
-        val myCpuTime = event.cpuTimeUs
-
-        val updatedEvent = event.copy(
-          // Our end time is either the end of our last children or our start + how much time we took.
-          endTimestampUs = maxOf(myStart + myCpuTime, maxEndTs),
-          childrenEvents = children)
-        reconstructedEventsPerId[eventId] = updatedEvent
+        val table = tableBuilder.build()
+        threadToSlices[thread.threadId.toInt()] = table
 
         // Update the global start/end of the capture.
-        startCaptureTimestamp = minOf(startCaptureTimestamp, updatedEvent.startTimestampUs)
-        endCaptureTimestamp = maxOf(endCaptureTimestamp, updatedEvent.endTimestampUs)
+        startCaptureTimestamp = minOf(startCaptureTimestamp, table.minStartUs)
+        endCaptureTimestamp = maxOf(endCaptureTimestamp, table.maxEndUs)
       }
-
-      return reconstructedEventsPerId
     }
 
     fun addSchedulingEvents(schedEvents: TraceProcessor.SchedulingEventsResult) {
       cpuCoresCount = maxOf(cpuCoresCount, schedEvents.numCores)
 
-      val perThreadScheduling = mutableMapOf<Int, MutableList<SchedulingEventModel>>()
-      val perCoreScheduling = mutableMapOf<Int, MutableList<SchedulingEventModel>>()
       schedEvents.schedEventList
         .groupBy { it.threadId }
         .forEach { (tid, events) ->
+          val threadTable = threadToScheduling.getOrPut(tid.toInt()) { SchedTable.Builder() }
           events.forEachIndexed { index, event ->
             val startTimestampUs = convertToUs(event.timestampNanoseconds)
             val durationUs = convertToUs(event.durationNanoseconds)
@@ -224,45 +280,20 @@ class TraceProcessorModel(builder: Builder) : SystemTraceModelAdapter, Serializa
             // https://perfetto.dev/docs/data-sources/cpu-scheduling#decoding-code-end_state-code-
             //
             // So for every event except the last one, we need to insert a RUNNING event + an end_state event.
-            val schedEvent = SchedulingEventModel(ThreadState.RUNNING_CAPTURED,
-                                                  startTimestampUs,
-                                                  endTimestampUs,
-                                                  durationUs,
-                                                  durationUs,
-                                                  event.processId.toInt(),
-                                                  event.threadId.toInt(),
-                                                  event.cpu)
-            // Add a RUNNING event and an [end_state] event to thread scheduling events.
-            perThreadScheduling.getOrPut(tid.toInt()) { mutableListOf() }.apply {
-              // The RUNNING thread state event.
-              add(schedEvent)
-              if (index < events.size - 1) {
-                val nextStartTimestampUs = convertToUs(events[index + 1].timestampNanoseconds)
-                val nextDurationTimeUs = nextStartTimestampUs - endTimestampUs
-                // The [end_state] thread state event.
-                add(SchedulingEventModel(convertSchedulingState(event.endState),
-                                         endTimestampUs,
-                                         nextStartTimestampUs,
-                                         nextDurationTimeUs,
-                                         nextDurationTimeUs,
-                                         event.processId.toInt(),
-                                         event.threadId.toInt(),
-                                         event.cpu))
-              }
+            val processId = event.processId.toInt()
+            val threadId = event.threadId.toInt()
+            // The RUNNING thread state event.
+            threadTable.add(ThreadState.RUNNING_CAPTURED, startTimestampUs, endTimestampUs, processId, threadId, event.cpu)
+            if (index < events.size - 1) {
+              val nextStartTimestampUs = convertToUs(events[index + 1].timestampNanoseconds)
+              // The [end_state] thread state event.
+              threadTable.add(convertSchedulingState(event.endState), endTimestampUs, nextStartTimestampUs, processId, threadId, event.cpu)
             }
             // Add just the RUNNING event to core scheduling events.
-            perCoreScheduling.getOrPut(event.cpu) { mutableListOf() }.add(schedEvent)
+            coreToScheduling.getOrPut(event.cpu) { SchedTable.Builder() }
+              .add(ThreadState.RUNNING_CAPTURED, startTimestampUs, endTimestampUs, processId, threadId, event.cpu)
           }
         }
-
-      perThreadScheduling.forEach {
-        val previousList = threadToScheduling[it.key] ?: listOf()
-        threadToScheduling[it.key] = previousList.plus(it.value).sortedBy { s -> s.startTimestampUs }
-      }
-      perCoreScheduling.forEach {
-        val previousList = coreToScheduling[it.key] ?: listOf()
-        coreToScheduling[it.key] = previousList.plus(it.value).sortedBy { s -> s.startTimestampUs }
-      }
     }
 
     private fun convertSchedulingState(state: TraceProcessor.SchedulingEventsResult.SchedulingEvent.SchedulingState): ThreadState {
@@ -283,18 +314,14 @@ class TraceProcessorModel(builder: Builder) : SystemTraceModelAdapter, Serializa
 
       result.countersPerCoreList.forEach { countersPerCore ->
         coreToCpuCounters[countersPerCore.cpu] = countersPerCore.counterList.map { counter ->
-          CounterModel(counter.name,
-                       counter.valueList.map { convertToUs(it.timestampNanoseconds) to it.value }
-                         .toMap().toSortedMap())
+          CounterTable.of(counter.name, counter.valueList.map { convertToUs(it.timestampNanoseconds) to it.value })
         }
       }
     }
 
     fun addProcessCounters(counters: TraceProcessor.ProcessCountersResult) {
       processToCounters[counters.processId.toInt()] = counters.counterList.map { counter ->
-        CounterModel(counter.name,
-                     counter.valueList.map { convertToUs(it.timestampNanoseconds) to it.value }
-                       .toMap().toSortedMap())
+        CounterTable.of(counter.name, counter.valueList.map { convertToUs(it.timestampNanoseconds) to it.value })
       }
     }
 
@@ -0,0 +1,384 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.perfetto.traceprocessor
+
+import com.android.tools.profilers.cpu.ThreadState
+import com.android.tools.profilers.cpu.systemtrace.CounterModel
+import com.android.tools.profilers.cpu.systemtrace.SchedulingEventModel
+import com.android.tools.profilers.cpu.systemtrace.TraceEventModel
+import it.unimi.dsi.fastutil.bytes.ByteArrayList
+import it.unimi.dsi.fastutil.ints.IntArrayList
+import it.unimi.dsi.fastutil.ints.IntArrays
+import it.unimi.dsi.fastutil.ints.IntComparator
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap
+import it.unimi.dsi.fastutil.longs.LongArrayList
+import java.io.Serializable
+import java.util.RandomAccess
+import java.util.SortedMap
+
+/*
+ * Column stores for the data [TraceProcessorModel] receives from trace processor. Each table keeps one primitive array per field, so a
+ * thread with a million slices costs a few arrays instead of a million objects. The [TraceEventModel]s, [SchedulingEventModel]s and
+ * counter values the rest of the profilers consume are created by views only when they are read.
+ *
+ * Views don't cache what they create: every get() returns a new model, and the child list of a new [TraceEventModel] is another view.
+ * Reading an event is cheap, but callers that read the same events over and over should hold on to the models they got.
+ */
+
+/**
+ * The slices of one thread in pre-order: each slice is followed by its descendants, and [subtreeEnds] is the row after the last of them.
+ * Root slices and the children of each slice are ordered by start time.
+ */
+internal class SliceTable(private val names: Array<String>,
+                          private val nameIds: IntArray,
+                          private val starts: LongArray,
+                          private val ends: LongArray,
+                          private val cpuTimes: LongArray,
+                          private val subtreeEnds: IntArray,
+                          private val roots: IntArray) : Serializable {
+  val size get() = starts.size
+  val minStartUs get() = starts.minOrNull() ?: Long.MAX_VALUE
+  val maxEndUs get() = ends.maxOrNull() ?: Long.MIN_VALUE
+
+  /**
+   * The root slices of the thread, as [TraceEventModel] trees created on access.
+   */
+  val traceEvents: List<TraceEventModel> get() = EventList(this, roots)
+
+  /**
+   * Returns the root slices that start before [endUs] and end after [startUs].
+   */
+  fun traceEventsIn(startUs: Long, endUs: Long): List<TraceEventModel> {
+    // Root slices don't overlap, so both their starts and ends are sorted.
+    val from = firstIndex(roots.size) { ends[roots[it]] > startUs }
+    val to = firstIndex(roots.size) { starts[roots[it]] >= endUs }
+    return if (from < to) EventList(this, roots.copyOfRange(from, to)) else emptyList()
+  }
+
+  private fun eventAt(row: Int) = TraceEventModel(names[nameIds[row]], starts[row], ends[row], cpuTimes[row], ChildList(this, row))
+
+  private fun childRowsOf(row: Int): IntArray {
+    val children = IntArrayList()
+    var child = row + 1
+    while (child < subtreeEnds[row]) {
+      children.add(child)
+      child = subtreeEnds[child]
+    }
+    return children.toIntArray()
+  }
+
+  private class EventList(private val table: SliceTable, private val rows: IntArray) : AbstractList<TraceEventModel>(), RandomAccess,
+                                                                                        Serializable {
+    override val size get() = rows.size
+    override fun get(index: Int) = table.eventAt(rows[index])
+  }
+
+  /**
+   * The children of the slice at [row]. They are looked up on first access, so creating a [TraceEventModel] whose children are never
+   * read costs no more than the model itself, and are kept for the later reads of the same list.
+   */
+  private class ChildList(private val table: SliceTable, private val row: Int) : AbstractList<TraceEventModel>(), RandomAccess,
+                                                                                   Serializable {
+    private var childRows: IntArray? = null
+    private val rows get() = childRows ?: table.childRowsOf(row).also { childRows = it }
+
+    override val size get() = rows.size
+    override fun get(index: Int) = table.eventAt(rows[index])
+  }
+
+  /**
+   * Accumulates the slices of one thread, as trace processor returns them: with the id of their parent and the duration of the slice
+   * itself, which doesn't always cover its children.
+   */
+  class Builder {
+    private val ids = LongArrayList()
+    private val parentIds = LongArrayList()
+    private val names = ArrayList<String>()
+    private val startsUs = LongArrayList()
+    private val durationsUs = LongArrayList()
+
+    fun add(id: Long, parentId: Long?, name: String, startUs: Long, durationUs: Long) {
+      ids.add(id)
+      parentIds.add(parentId ?: -1)
+      names.add(name)
+      startsUs.add(startUs)
+      durationsUs.add(durationUs)
+    }
+
+    fun build(): SliceTable {
+      val count = ids.size
+      val indexById = Long2IntOpenHashMap(count).apply { defaultReturnValue(-1) }
+      for (i in 0 until count) {
+        indexById.put(ids.getLong(i), i)
+      }
+      // Children of each slice, and roots under the virtual parent `count`, sorted by start time. Slices whose parent is missing are
+      // dropped with their descendants.
+      val childrenOf = Array(count + 1) { IntArrayList() }
+      for (i in 0 until count) {
+        val parentId = parentIds.getLong(i)
+        val parent = if (parentId == -1L) count else indexById.get(parentId).takeIf { it != -1 } ?: continue
+        childrenOf[parent].add(i)
+      }
+      val byStart = IntComparator { a, b -> startsUs.getLong(a).compareTo(startsUs.getLong(b)) }
+      childrenOf.forEach { it.sort(byStart) }
+
+      // Lay out the rows in pre-order, then compute the end of each slice once its children are done.
+      val order = IntArrayList()
+      val stack = IntArrayList()
+      fun pushChildren(children: IntArrayList) {
+        for (i in children.size - 1 downTo 0) stack.push(children.getInt(i))
+      }
+      pushChildren(childrenOf[count])
+      val rowOf = IntArray(count) { -1 }
+      while (stack.isNotEmpty()) {
+        val slice = stack.popInt()
+        rowOf[slice] = order.size
+        order.add(slice)
+        pushChildren(childrenOf[slice])
+      }
+      val rows = order.size
+      val starts = LongArray(rows) { startsUs.getLong(order.getInt(it)) }
+      val cpuTimes = LongArray(rows) { durationsUs.getLong(order.getInt(it)) }
+      val ends = LongArray(rows)
+      val subtreeEnds = IntArray(rows)
+      for (row in rows - 1 downTo 0) {
+        val children = childrenOf[order.getInt(row)]
+        if (children.isEmpty()) {
+          ends[row] = starts[row] + cpuTimes[row]
+          subtreeEnds[row] = row + 1
+        }
+        else {
+          // Our end time is either the end of our last child or our start + how much time we took.
+          val lastChildRow = rowOf[children.getInt(children.size - 1)]
+          ends[row] = maxOf(starts[row] + cpuTimes[row], ends[lastChildRow])
+          subtreeEnds[row] = subtreeEnds[lastChildRow]
+        }
+      }
+
+      val namePool = LinkedHashMap<String, Int>()
+      val nameIds = IntArray(rows) { namePool.getOrPut(names[order.getInt(it)]) { namePool.size } }
+      val roots = IntArray(childrenOf[count].size) { rowOf[childrenOf[count].getInt(it)] }
+      return SliceTable(namePool.keys.toTypedArray(), nameIds, starts, ends, cpuTimes, subtreeEnds, roots)
+    }
+  }
+
+  companion object {
+    /**
+     * Lays out slices that are already assembled into trees, as in a serialized [ThreadModel].
+     */
+    fun of(traceEvents: List<TraceEventModel>): SliceTable {
+      val namePool = LinkedHashMap<String, Int>()
+      val nameIds = IntArrayList()
+      val starts = LongArrayList()
+      val ends = LongArrayList()
+      val cpuTimes = LongArrayList()
+      val subtreeEnds = IntArrayList()
+      val roots = IntArrayList()
+      fun addTree(event: TraceEventModel) {
+        val row = starts.size
+        nameIds.add(namePool.getOrPut(event.name) { namePool.size })
+        starts.add(event.startTimestampUs)
+        ends.add(event.endTimestampUs)
+        cpuTimes.add(event.cpuTimeUs)
+        subtreeEnds.add(0)
+        event.childrenEvents.forEach(::addTree)
+        subtreeEnds.set(row, starts.size)
+      }
+      for (event in traceEvents) {
+        roots.add(starts.size)
+        addTree(event)
+      }
+      return SliceTable(namePool.keys.toTypedArray(), nameIds.toIntArray(), starts.toLongArray(), ends.toLongArray(),
+                        cpuTimes.toLongArray(), subtreeEnds.toIntArray(), roots.toIntArray())
+    }
+  }
+}
+
+/**
+ * Scheduling events ordered by start time, either the events of one thread or the events that ran on one CPU core.
+ */
+internal class SchedTable(private val states: ByteArray,
+                          private val starts: LongArray,
+                          private val ends: LongArray,
+                          private val processIds: IntArray,
+                          private val threadIds: IntArray,
+                          private val cores: IntArray) : Serializable {
+  val size get() = starts.size
+
+  val schedulingEvents: List<SchedulingEventModel> get() = EventList(this, 0, size)
+
+  /**
+   * Returns the events that start before [endUs] and end after [startUs].
+   */
+  fun schedulingEventsIn(startUs: Long, endUs: Long): List<SchedulingEventModel> {
+    // Events of a thread or a core don't overlap, so both their starts and ends are sorted.
+    val from = firstIndex(size) { ends[it] > startUs }
+    val to = firstIndex(size) { starts[it] >= endUs }
+    return if (from < to) EventList(this, from, to) else emptyList()
+  }
+
+  private fun eventAt(row: Int): SchedulingEventModel {
+    val duration = ends[row] - starts[row]
+    return SchedulingEventModel(THREAD_STATES[states[row].toInt()], starts[row], ends[row], duration, duration, processIds[row],
+                                threadIds[row], cores[row])
+  }
+
+  private class EventList(private val table: SchedTable, private val from: Int, private val to: Int)
+    : AbstractList<SchedulingEventModel>(), RandomAccess, Serializable {
+    override val size get() = to - from
+    override fun get(index: Int): SchedulingEventModel {
+      if (index < 0 || index >= size) throw IndexOutOfBoundsException("Index $index out of bounds for size $size")
+      return table.eventAt(from + index)
+    }
+  }
+
+  class Builder {
+    private val states = ByteArrayList()
+    private val starts = LongArrayList()
+    private val ends = LongArrayList()
+    private val processIds = IntArrayList()
+    private val threadIds = IntArrayList()
+    private val cores = IntArrayList()
+
+    fun add(state: ThreadState, startUs: Long, endUs: Long, processId: Int, threadId: Int, core: Int) {
+      states.add(state.ordinal.toByte())
+      starts.add(startUs)
+      ends.add(endUs)
+      processIds.add(processId)
+      threadIds.add(threadId)
+      cores.add(core)
+    }
+
+    fun build(): SchedTable {
+      // Events of different batches may interleave, so sort them by start time keeping the order of events that start together.
+      val size = starts.size
+      val order = IntArray(size) { it }
+      if ((1 until size).any { starts.getLong(it - 1) > starts.getLong(it) }) {
+        IntArrays.stableSort(order, IntComparator { a, b -> starts.getLong(a).compareTo(starts.getLong(b)) })
+      }
+      return SchedTable(ByteArray(size) { states.getByte(order[it]) }, LongArray(size) { starts.getLong(order[it]) },
+                        LongArray(size) { ends.getLong(order[it]) }, IntArray(size) { processIds.getInt(order[it]) },
+                        IntArray(size) { threadIds.getInt(order[it]) }, IntArray(size) { cores.getInt(order[it]) })
+    }
+  }
+
+  companion object {
+    private val THREAD_STATES = ThreadState.values()
+
+    fun of(events: List<SchedulingEventModel>) = Builder().apply {
+      events.forEach { add(it.state, it.startTimestampUs, it.endTimestampUs, it.processId, it.threadId, it.core) }
+    }.build()
+  }
+}
+
+/**
+ * The values of a counter ordered by timestamp.
+ */
+internal class CounterTable(val name: String, private val timestamps: LongArray, private val values: DoubleArray) : Serializable {
+  val size get() = timestamps.size
+
+  /**
+   * Returns a [CounterModel] whose values are a view over this table.
+   */
+  fun asCounterModel() = CounterModel(name, ValuesMap(this, 0, size))
+
+  /**
+   * Returns the values in [[startUs], [endUs]], preceded by the last value before [startUs] which still holds at [startUs].
+   */
+  fun valuesIn(startUs: Long, endUs: Long): List<Pair<Long, Double>> {
+    val from = maxOf(0, firstIndex(size) { timestamps[it] >= startUs } - 1)
+    val to = firstIndex(size) { timestamps[it] > endUs }
+    return (from until to).map { timestamps[it] to values[it] }
+  }
+
+  /**
+   * Returns the largest value of the counter, or 0 if it has no values.
+   */
+  fun max(): Double = values.maxOrNull() ?: 0.0
+
+  /**
+   * The rows in [[from], [to]) of a [CounterTable] as a read-only sorted map. Timestamps and values are only boxed when they are read.
+   */
+  private class ValuesMap(private val table: CounterTable, private val from: Int, private val to: Int)
+    : java.util.AbstractMap<Long, Double>(), SortedMap<Long, Double>, Serializable {
+    override val size get() = to - from
+
+    override val entries: MutableSet<MutableMap.MutableEntry<Long, Double>>
+      get() = object : java.util.AbstractSet<MutableMap.MutableEntry<Long, Double>>() {
+        override val size get() = this@ValuesMap.size
+        override fun iterator(): MutableIterator<MutableMap.MutableEntry<Long, Double>> = EntryIterator()
+      }
+
+    private inner class EntryIterator : MutableIterator<MutableMap.MutableEntry<Long, Double>> {
+      private var row = from
+      override fun hasNext() = row < to
+      override fun next(): MutableMap.MutableEntry<Long, Double> {
+        if (row >= to) throw NoSuchElementException()
+        val entry = java.util.AbstractMap.SimpleImmutableEntry(table.timestamps[row], table.values[row])
+        row++
+        return entry
+      }
+      override fun remove() = throw UnsupportedOperationException()
+    }
+
+    override fun get(key: Long): Double? = indexOf(key).let { if (it < 0) null else table.values[it] }
+    override fun containsKey(key: Long) = indexOf(key) >= 0
+
+    override fun comparator(): Comparator<in Long>? = null
+    override fun firstKey() = if (from < to) table.timestamps[from] else throw NoSuchElementException()
+    override fun lastKey() = if (from < to) table.timestamps[to - 1] else throw NoSuchElementException()
+    override fun headMap(toKey: Long): SortedMap<Long, Double> = ValuesMap(table, from, lowerBound(toKey))
+    override fun tailMap(fromKey: Long): SortedMap<Long, Double> = ValuesMap(table, lowerBound(fromKey), to)
+    override fun subMap(fromKey: Long, toKey: Long): SortedMap<Long, Double> {
+      require(fromKey <= toKey) { "fromKey $fromKey is greater than toKey $toKey" }
+      return ValuesMap(table, lowerBound(fromKey), lowerBound(toKey))
+    }
+
+    private fun lowerBound(key: Long) = from + firstIndex(to - from) { table.timestamps[from + it] >= key }
+    private fun indexOf(key: Long) = lowerBound(key).let { if (it < to && table.timestamps[it] == key) it else -1 }
+  }
+
+  companion object {
+    fun of(counter: CounterModel) = of(counter.name, counter.valuesByTimestampUs.map { it.key to it.value })
+
+    fun of(name: String, valuesByTimestampUs: List<Pair<Long, Double>>): CounterTable {
+      // Later values win over earlier ones at the same timestamp, as when they are put in a map.
+      val sorted = valuesByTimestampUs.withIndex().sortedWith(compareBy({ it.value.first }, { it.index })).map { it.value }
+      val deduplicated = sorted.filterIndexed { i, value -> i == sorted.size - 1 || sorted[i + 1].first != value.first }
+      return CounterTable(name, LongArray(deduplicated.size) { deduplicated[it].first },
+                          DoubleArray(deduplicated.size) { deduplicated[it].second })
+    }
+  }
+}
+
+/**
+ * Returns the first index in [0, [size]) for which [predicate] is true, or [size] if there is none. The predicate must be false then
+ * true.
+ */
+private inline fun firstIndex(size: Int, predicate: (Int) -> Boolean): Int {
+  var low = 0
+  var high = size
+  while (low < high) {
+    val mid = (low + high) ushr 1
+    if (predicate(mid)) {
+      high = mid
+    }
+    else {
+      low = mid + 1
+    }
+  }
+  return low
+}
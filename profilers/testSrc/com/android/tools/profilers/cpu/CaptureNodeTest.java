@@ -32,6 +32,7 @@ import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import java.util.function.Function;
 import java.util.function.Supplier;
+import java.util.stream.Collectors;
 import org.junit.Test;
 
 public class CaptureNodeTest {
@@ -75,6 +76,32 @@ public class CaptureNodeTest {
     assertThat(node.getDuration()).isEqualTo(10);
   }
 
+  @Test
+  public void descendantsStreamIsPreOrder() {
+    CaptureNode root = createNode("A.root", 0, 100);
+    CaptureNode child1 = createNode("A.child1", 0, 50);
+    CaptureNode child2 = createNode("A.child2", 50, 100);
+    CaptureNode grandChild = createNode("A.grandChild", 0, 25);
+    root.addChild(child1);
+    root.addChild(child2);
+    child1.addChild(grandChild);
+
+    assertThat(root.getDescendantsStream().collect(Collectors.toList())).containsExactly(root, child1, grandChild, child2).inOrder();
+  }
+
+  @Test
+  public void descendantsStreamOfDeepTree() {
+    CaptureNode root = createNode("A.root", 0, 100);
+    CaptureNode node = root;
+    for (int i = 0; i < 100_000; i++) {
+      CaptureNode child = createNode("A.method", 0, 100);
+      node.addChild(child);
+      node = child;
+    }
+
+    assertThat(root.getDescendantsStream().count()).isEqualTo(100_001);
+  }
+
   @Test
   public void addChild() {
     CaptureNode realParent = new CaptureNode(new StubCaptureNodeModel());
@@ -14,6 +14,8 @@
 package com.android.tools.profilers.cpu
 
 import com.android.tools.adtui.model.FakeTimer
+import com.android.tools.adtui.model.LongDataSeries
+import com.android.tools.adtui.model.LongSeriesDataView
 import com.android.tools.adtui.model.Range
 import com.android.tools.adtui.model.SeriesData
 import com.android.tools.idea.transport.faketransport.FakeGrpcChannel
@@ -108,6 +110,20 @@ class LazyDataSeriesTest {
     verifySeriesDataMatches(seriesData, testSeriesData, 9, 10)
   }
 
+  @Test
+  fun testLongSeriesDataViewIsReturnedAsView() {
+    val columns = LongDataSeries()
+    for (i in 1..10L) {
+      columns.add(i * 10, i)
+    }
+    val series = LazyDataSeries { columns.allData }
+    val seriesData = series.getDataForRange(Range(25.0, 55.0))
+    assertThat(seriesData).isInstanceOf(LongSeriesDataView::class.java)
+    val view = seriesData as LongSeriesDataView
+    assertThat((0 until view.size).map { view.getX(it) }).containsExactly(20L, 30L, 40L, 50L, 60L).inOrder()
+    assertThat((0 until view.size).map { view.getValue(it) }).containsExactly(2L, 3L, 4L, 5L, 6L).inOrder()
+  }
+
   @Test
   fun testEmptySeries() {
     val testSeriesData = buildSeriesData(1, 100, 0)
@@ -18,6 +18,7 @@ package com.android.tools.profilers.cpu.art;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
 
+import com.android.tools.perflib.vmtrace.TraceAction;
 import com.android.tools.perflib.vmtrace.VmTraceParser;
 import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.CpuProfilerTestUtils;
@@ -97,6 +98,89 @@ public class ArtTraceHandlerTest {
     }
   }
 
+  @Test
+  public void testManyThreadsAreBuiltIndependently() {
+    ArtTraceHandler handler = new ArtTraceHandler();
+    handler.setStartTimeUs(1000);
+    int threadCount = 100;
+    for (int id = 1; id <= threadCount; id++) {
+      handler.addThread(id, id == 1 ? "main" : "Thread " + id);
+    }
+    // Interleave the events of all threads, as the parser reports them. Each thread calls method 1, which calls the method of the thread.
+    for (int id = 1; id <= threadCount; id++) {
+      handler.addMethodAction(id, 1, TraceAction.METHOD_ENTER, 0, id);
+    }
+    for (int id = 1; id <= threadCount; id++) {
+      handler.addMethodAction(id, 100 + id, TraceAction.METHOD_ENTER, 1, id + 1);
+    }
+    for (int id = 1; id <= threadCount; id++) {
+      handler.addMethodAction(id, 100 + id, TraceAction.METHOD_EXIT, 2, id + 2);
+      handler.addMethodAction(id, 1, TraceAction.METHOD_EXIT, 3, id + 3);
+    }
+
+    Map<CpuThreadInfo, CaptureNode> trees = handler.getThreadsGraph();
+    assertEquals(threadCount, trees.size());
+    for (Map.Entry<CpuThreadInfo, CaptureNode> entry : trees.entrySet()) {
+      int id = entry.getKey().getId();
+      assertEquals(id == 1, entry.getKey().isMainThread());
+      CaptureNode root = entry.getValue();
+      assertEquals(entry.getKey().getName(), root.getData().getId());
+      assertEquals(1, root.getChildCount());
+      CaptureNode call = root.getChildAt(0);
+      assertEquals(1000 + id, call.getStartGlobal());
+      assertEquals(1000 + id + 3, call.getEndGlobal());
+      assertEquals(1, call.getChildCount());
+      assertEquals(2, call.getChildAt(0).getDepth());
+      assertEquals(1000 + id + 2, call.getChildAt(0).getEndGlobal());
+    }
+  }
+
+  @Test
+  public void testThreadWithEventsInManyBlocks() {
+    ArtTraceHandler handler = new ArtTraceHandler();
+    handler.setStartTimeUs(1000);
+    handler.addThread(1, "main");
+    // One call that spans every block, with calls to method 2 whose events fall on both sides of the block boundaries.
+    int callCount = ArtTraceHandler.ACTION_BLOCK_SIZE + 1;
+    handler.addMethodAction(1, 1, TraceAction.METHOD_ENTER, 0, 0);
+    for (int i = 0; i < callCount; i++) {
+      handler.addMethodAction(1, 2, TraceAction.METHOD_ENTER, 2 * i + 1, 2 * i + 1);
+      handler.addMethodAction(1, 2, TraceAction.METHOD_EXIT, 2 * i + 2, 2 * i + 2);
+    }
+    handler.addMethodAction(1, 1, TraceAction.METHOD_EXIT, 2 * callCount + 1, 2 * callCount + 1);
+
+    Map<CpuThreadInfo, CaptureNode> trees = handler.getThreadsGraph();
+    assertEquals(1, trees.size());
+    CaptureNode root = trees.values().iterator().next();
+    assertEquals(1, root.getChildCount());
+    CaptureNode call = root.getChildAt(0);
+    assertEquals(1000 + 2 * callCount + 1, call.getEndGlobal());
+    assertEquals(callCount, call.getChildCount());
+    CaptureNode last = call.getChildAt(callCount - 1);
+    assertEquals(1000 + 2 * callCount - 1, last.getStartGlobal());
+    assertEquals(1000 + 2 * callCount, last.getEndGlobal());
+  }
+
+  @Test
+  public void testThreadWithMoreBlocksThanCanBePending() {
+    ArtTraceHandler handler = new ArtTraceHandler();
+    handler.addThread(1, "main");
+    // Recording waits for the tree to catch up once too many blocks are pending, and the tree is still built from every block in order.
+    int callCount = ArtTraceHandler.ACTION_BLOCK_SIZE * (ArtTraceHandler.MAX_PENDING_BLOCKS + 1);
+    handler.addMethodAction(1, 1, TraceAction.METHOD_ENTER, 0, 0);
+    for (int i = 0; i < callCount; i++) {
+      handler.addMethodAction(1, 2, TraceAction.METHOD_ENTER, 2 * i + 1, 2 * i + 1);
+      handler.addMethodAction(1, 2, TraceAction.METHOD_EXIT, 2 * i + 2, 2 * i + 2);
+    }
+    handler.addMethodAction(1, 1, TraceAction.METHOD_EXIT, 2 * callCount + 1, 2 * callCount + 1);
+
+    CaptureNode call = handler.getThreadsGraph().values().iterator().next().getChildAt(0);
+    assertEquals(callCount, call.getChildCount());
+    for (int i = 0; i < callCount; i++) {
+      assertEquals(2 * i + 1, call.getChildAt(i).getStartGlobal());
+    }
+  }
+
   private static CaptureNode parseCaptureNode() throws IOException {
     ArtTraceHandler handler = new ArtTraceHandler();
     VmTraceParser parser = new VmTraceParser(CpuProfilerTestUtils.getTraceFile("basic.trace"), handler);
@@ -0,0 +1,149 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails
+
+import com.android.tools.perflib.vmtrace.ClockType
+import com.android.tools.profilers.cpu.CaptureNode
+import com.android.tools.profilers.cpu.VisualNodeCaptureNode
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class CompactCallTreeTest {
+  private val modelA = SingleNameModel("A")
+  private val modelB = SingleNameModel("B")
+  private val modelC = SingleNameModel("C")
+
+  /**
+   * A(0-100) -> [B(0-40) -> [C(10-20)], C(50-90)], with thread times at half the global times.
+   */
+  private fun buildTree() = CompactCallTree.Builder().apply {
+    enter(modelA, 0, 0)
+    enter(modelB, 0, 0)
+    enter(modelC, 10, 5)
+    exit(20, 10)
+    exit(40, 20)
+    enter(modelC, 50, 25)
+    exit(90, 45)
+    exit(100, 50)
+  }.build()
+
+  /**
+   * The same calls as [buildTree], as [CaptureNode]s.
+   */
+  private fun buildCaptureNode() = captureNode(modelA, 0, 100, 0, 50).apply {
+    addChild(captureNode(modelB, 0, 40, 0, 20).apply { addChild(captureNode(modelC, 10, 20, 5, 10)) })
+    addChild(captureNode(modelC, 50, 90, 25, 45))
+  }
+
+  private fun captureNode(model: SingleNameModel, startGlobal: Long, endGlobal: Long, startThread: Long, endThread: Long) =
+    CaptureNode(model).apply {
+      this.startGlobal = startGlobal
+      this.endGlobal = endGlobal
+      this.startThread = startThread
+      this.endThread = endThread
+    }
+
+  @Test
+  fun rowsArePreOrder() {
+    val tree = buildTree()
+
+    assertThat(tree.size).isEqualTo(4)
+    assertThat((0 until tree.size).map { tree.getModel(it) }).containsExactly(modelA, modelB, modelC, modelC).inOrder()
+    assertThat((0 until tree.size).map { tree.getParent(it) }).containsExactly(-1, 0, 1, 0).inOrder()
+    assertThat((0 until tree.size).map { tree.getDepth(it) }).containsExactly(0, 1, 2, 1).inOrder()
+    assertThat((0 until tree.size).map { tree.getSubtreeEnd(it) }).containsExactly(4, 3, 3, 4).inOrder()
+  }
+
+  @Test
+  fun children() {
+    val tree = buildTree()
+
+    assertThat(tree.getChildCount(0)).isEqualTo(2)
+    assertThat(tree.getChild(0, 0)).isEqualTo(1)
+    assertThat(tree.getChild(0, 1)).isEqualTo(3)
+    assertThat(tree.getChildCount(1)).isEqualTo(1)
+    assertThat(tree.getChild(1, 0)).isEqualTo(2)
+    assertThat(tree.getChildCount(3)).isEqualTo(0)
+  }
+
+  @Test(expected = IndexOutOfBoundsException::class)
+  fun childOutOfBounds() {
+    buildTree().getChild(3, 0)
+  }
+
+  @Test
+  fun fromCaptureNode() {
+    val tree = CompactCallTree.fromCaptureNode(buildCaptureNode())
+
+    assertThat((0 until tree.size).map { tree.getModel(it) }).containsExactly(modelA, modelB, modelC, modelC).inOrder()
+    assertThat((0 until tree.size).map { tree.getParent(it) }).containsExactly(-1, 0, 1, 0).inOrder()
+    assertThat((0 until tree.size).map { tree.getEndGlobal(it) }).containsExactly(100L, 40L, 20L, 90L).inOrder()
+    assertThat((0 until tree.size).map { tree.getEndThread(it) }).containsExactly(50L, 20L, 10L, 45L).inOrder()
+
+    tree.clockType = ClockType.THREAD
+    assertThat(tree.getStart(3)).isEqualTo(25)
+    assertThat(tree.getEnd(3)).isEqualTo(45)
+  }
+
+  @Test
+  fun fromCaptureNode_keepsFilterTypes() {
+    val captureNode = buildCaptureNode()
+    captureNode.getChildAt(1).filterType = CaptureNode.FilterType.UNMATCH
+    captureNode.getChildAt(0).getChildAt(0).filterType = CaptureNode.FilterType.EXACT_MATCH
+
+    val tree = CompactCallTree.fromCaptureNode(captureNode)
+
+    assertThat((0 until tree.size).map { tree.getFilterType(it) }).containsExactly(
+      CaptureNode.FilterType.MATCH, CaptureNode.FilterType.MATCH, CaptureNode.FilterType.EXACT_MATCH, CaptureNode.FilterType.UNMATCH)
+      .inOrder()
+  }
+
+  @Test
+  fun fromCaptureNode_visualRootGroupsTopLevelCalls() {
+    val thread1 = buildCaptureNode()
+    val thread2 = buildCaptureNode()
+    val visual = VisualNodeCaptureNode(SingleNameModel(""), ClockType.GLOBAL).apply {
+      addChild(thread1)
+      addChild(thread2)
+    }
+
+    val tree = CompactCallTree.fromCaptureNode(visual)
+
+    assertThat(tree.isGroupingRoot).isTrue()
+    assertThat(tree.getChildCount(0)).isEqualTo(2)
+    assertThat(tree.getChild(0, 1)).isEqualTo(5)
+    // The threads are top-level calls, as they have no parent.
+    assertThat(tree.getParent(1)).isEqualTo(-1)
+    assertThat(tree.getParent(5)).isEqualTo(-1)
+    assertThat(tree.getParent(8)).isEqualTo(5)
+    assertThat((0 until tree.size).map { tree.findRoot(it) }).containsExactly(0, 1, 1, 1, 1, 5, 5, 5, 5).inOrder()
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun build_unfinishedCall() {
+    CompactCallTree.Builder().apply { enter(modelA, 0, 0) }.build()
+  }
+
+  @Test(expected = IllegalStateException::class)
+  fun enter_secondRoot() {
+    CompactCallTree.Builder().apply {
+      enter(modelA, 0, 0)
+      exit(10, 10)
+      enter(modelB, 10, 10)
+    }
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.capturedetails
+
+import com.android.tools.adtui.model.Range
+import com.android.tools.perflib.vmtrace.ClockType
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+
+class IntervalIndexTest {
+  @Test
+  fun sortedCalls() {
+    val index = indexOf(listOf(0L to 10L, 10L to 15L, 20L to 40L))
+
+    assertThat(index.intersectionLength(0.0, 40.0)).isEqualTo(35.0)
+    assertThat(index.intersectionLength(5.0, 25.0)).isEqualTo(15.0)
+    assertThat(index.intersectionLength(16.0, 19.0)).isEqualTo(0.0)
+    assertThat(index.intersectionLength(25.0, 30.0)).isEqualTo(5.0)
+    assertThat(index.intersectionLength(30.0, 25.0)).isEqualTo(0.0)
+    assertThat(index.overlaps(16.0, 19.0)).isFalse()
+    assertThat(index.overlaps(16.0, 21.0)).isTrue()
+    assertThat(index.overlaps(40.0, 50.0)).isFalse()
+  }
+
+  @Test
+  fun threadClock() {
+    val index = indexOf(listOf(0L to 10L), threadCalls = listOf(2L to 6L), clockType = ClockType.THREAD)
+
+    assertThat(index.intersectionLength(0.0, 10.0)).isEqualTo(4.0)
+  }
+
+  @Test
+  fun emptyIndex() {
+    val index = indexOf(emptyList())
+
+    assertThat(index.intersectionLength(0.0, 10.0)).isEqualTo(0.0)
+    assertThat(index.overlaps(0.0, 10.0)).isFalse()
+  }
+
+  @Test
+  fun matchesRangeIntersections() {
+    val random = Random(42)
+    repeat(200) {
+      // Alternate between sorted calls and overlapping or out of order calls, which are scanned.
+      val sorted = it % 2 == 0
+      var time = 1_000_000_000L
+      val calls = List(random.nextInt(1, 20)) {
+        val start = if (sorted) time + random.nextLong(0, 5) else random.nextLong(time, time + 100)
+        val end = start + random.nextLong(0, 10)
+        time = end
+        start to end
+      }
+      val index = indexOf(calls)
+      repeat(20) {
+        val range = Range((1_000_000_000L + random.nextLong(-10, 150)).toDouble(), (1_000_000_000L + random.nextLong(-10, 150)).toDouble())
+        val expected = calls.sumOf { (start, end) -> range.getIntersectionLength(start.toDouble(), end.toDouble()) }
+        assertThat(index.intersectionLength(range.min, range.max)).isWithin(1e-6).of(expected)
+        assertThat(index.overlaps(range.min, range.max)).isEqualTo(calls.any { (start, end) -> start < range.max && range.min < end })
+      }
+    }
+  }
+
+  /**
+   * Indexes [calls], given as global start and end times, laid out as the children of a grouping root. [threadCalls] are their thread
+   * times.
+   */
+  private fun indexOf(calls: List<Pair<Long, Long>>,
+                      threadCalls: List<Pair<Long, Long>> = calls,
+                      clockType: ClockType = ClockType.GLOBAL): IntervalIndex {
+    val model = SingleNameModel("A")
+    val tree = CompactCallTree.Builder().apply {
+      enter(model, Long.MIN_VALUE, Long.MIN_VALUE)
+      calls.forEachIndexed { i, (start, end) ->
+        enter(model, start, threadCalls[i].first)
+        exit(end, threadCalls[i].second)
+      }
+      exit(Long.MAX_VALUE, Long.MAX_VALUE)
+    }.build(isGroupingRoot = true)
+    return IntervalIndex(tree, IntArray(calls.size) { it + 1 }, clockType)
+  }
+}
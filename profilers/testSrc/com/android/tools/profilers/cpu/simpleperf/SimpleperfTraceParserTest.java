@@ -30,17 +30,24 @@ import com.android.tools.profilers.cpu.BaseCpuCapture;
 import com.android.tools.profilers.cpu.CaptureNode;
 import com.android.tools.profilers.cpu.CpuCapture;
 import com.android.tools.profilers.cpu.CpuThreadInfo;
+import com.android.tools.profilers.cpu.nodemodel.CaptureNodeModel;
 import com.android.tools.profilers.cpu.nodemodel.CppFunctionModel;
 import com.google.common.collect.Lists;
 import com.intellij.openapi.util.io.FileUtil;
 import java.io.File;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
 import org.junit.Before;
 import org.junit.Test;
 
@@ -158,7 +165,7 @@ public class SimpleperfTraceParserTest {
 
     int mainThread = 7056;
     SimpleperfReport.Sample mainFirstSample =
-      myParser.mySamples.stream().filter((sample -> sample.getThreadId() == mainThread)).findFirst().orElse(null);
+      readSamples(trace).stream().filter((sample -> sample.getThreadId() == mainThread)).findFirst().orElse(null);
     assertNotNull(mainFirstSample);
 
     CaptureNode mainThreadTree = capture.getCaptureNode(mainFirstSample.getThreadId());
@@ -220,8 +227,9 @@ public class SimpleperfTraceParserTest {
   @Test
   public void rangeShouldBeFromFirstToLastTimestamp() throws IOException {
     CpuCapture capture = myParser.parse(myTraceFile, 0);
-    long startTimeUs = TimeUnit.NANOSECONDS.toMicros(myParser.mySamples.get(0).getTime());
-    long endTimeUs = TimeUnit.NANOSECONDS.toMicros(myParser.mySamples.get(myParser.mySamples.size() - 1).getTime());
+    List<SimpleperfReport.Sample> samples = readSamples(myTraceFile);
+    long startTimeUs = TimeUnit.NANOSECONDS.toMicros(samples.get(0).getTime());
+    long endTimeUs = TimeUnit.NANOSECONDS.toMicros(samples.get(samples.size() - 1).getTime());
     Range expected = new Range(startTimeUs, endTimeUs);
     assertEquals(expected.getMin(), capture.getRange().getMin(), 0);
     assertEquals(expected.getMax(), capture.getRange().getMax(), 0);
@@ -240,6 +248,35 @@ public class SimpleperfTraceParserTest {
     assertEquals(capture.getMainThreadId(), BaseCpuCapture.NO_THREAD_ID);
   }
 
+  @Test
+  public void parsingInSmallChunksBuildsSameTrees() throws IOException {
+    CpuCapture capture = myParser.parse(myTraceFile, 0);
+    CpuCapture chunkedCapture = new SimpleperfTraceParser(7).parse(myTraceFile, 0);
+
+    assertThat(chunkedCapture.getThreads().stream().map(CpuThreadInfo::getId).collect(Collectors.toList()))
+      .containsExactlyElementsIn(capture.getThreads().stream().map(CpuThreadInfo::getId).collect(Collectors.toList()));
+    assertThat(chunkedCapture.getTags()).containsExactlyElementsIn(capture.getTags()).inOrder();
+    for (CpuThreadInfo thread : capture.getThreads()) {
+      assertThat(describeTree(chunkedCapture.getCaptureNode(thread.getId())))
+        .containsExactlyElementsIn(describeTree(capture.getCaptureNode(thread.getId()))).inOrder();
+    }
+  }
+
+  @Test
+  public void callsOfTheSameSymbolShareTheirModel() throws IOException {
+    CpuCapture capture = myParser.parse(myTraceFile, 0);
+    Set<CaptureNodeModel> models = Collections.newSetFromMap(new IdentityHashMap<>());
+    int nodeCount = 0;
+    for (CaptureNode tree : capture.getCaptureNodes()) {
+      // Skip the root, which represents the thread.
+      List<CaptureNode> nodes = tree.getDescendantsStream().skip(1).collect(Collectors.toList());
+      nodes.forEach(node -> models.add(node.getData()));
+      nodeCount += nodes.size();
+    }
+    // Each symbol is parsed once, so there are far fewer models than calls.
+    assertThat(models.size()).isLessThan(nodeCount / 2);
+  }
+
   @Test
   public void tagsSortedByExpectedOrder() {
     List<String> tags = Arrays.asList("/a/b/c", "/c/d/e", "[java]", "/a/*");
@@ -248,6 +285,32 @@ public class SimpleperfTraceParserTest {
     assertThat(tags).isEqualTo(Arrays.asList("/a/b/c", "/c/d/e", "[java]", "/a/*"));
   }
 
+  private static List<String> describeTree(CaptureNode tree) {
+    return tree.getDescendantsStream()
+      .map(node -> String.format("%d %s %d-%d %d-%d", node.getDepth(), node.getData().getFullName(), node.getStartGlobal(),
+                                 node.getEndGlobal(), node.getStartThread(), node.getEndThread()))
+      .collect(Collectors.toList());
+  }
+
+  /**
+   * Reads the samples of a trace file in the order they were recorded.
+   */
+  private static List<SimpleperfReport.Sample> readSamples(File trace) throws IOException {
+    ByteBuffer buffer = ByteBuffer.wrap(Files.readAllBytes(trace.toPath())).order(ByteOrder.LITTLE_ENDIAN);
+    // Skip the magic string and the version.
+    buffer.position("SIMPLEPERF".length() + Short.BYTES);
+    List<SimpleperfReport.Sample> samples = new ArrayList<>();
+    for (int recordSize = buffer.getInt(); recordSize != 0; recordSize = buffer.getInt()) {
+      byte[] recordBytes = new byte[recordSize];
+      buffer.get(recordBytes);
+      SimpleperfReport.Record record = SimpleperfReport.Record.parseFrom(recordBytes);
+      if (record.getRecordDataCase() == SimpleperfReport.Record.RecordDataCase.SAMPLE) {
+        samples.add(record.getSample());
+      }
+    }
+    return samples;
+  }
+
   /**
    * Checks that a {@link CaptureNode} tree starts with "__start_thread -> __pthread_start", then verifies the node just after then.
    */
@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.cpu.systemtrace
+
+import com.android.tools.adtui.model.Range
+import com.android.tools.adtui.model.SeriesData
+import com.android.tools.profilers.cpu.systemtrace.ViewportDataSeries.Companion.SAMPLES_PER_WINDOW
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+
+class ViewportDataSeriesTest {
+  private val queries = mutableListOf<Triple<Long, Long, Long>>()
+
+  // One point every 10us, reduced to one point per bucket.
+  private val series = ViewportDataSeries { startUs, endUs, resolutionUs ->
+    queries.add(Triple(startUs, endUs, resolutionUs))
+    val step = maxOf(10L, resolutionUs)
+    val first = Math.floorDiv(startUs - 1, step) * step
+    (first until endUs step step).filter { it >= 0 }.map { SeriesData(it, it) }
+  }
+
+  @Test
+  fun resolutionIsAPowerOfTwoCoveringTheRange() {
+    assertThat(ViewportDataSeries.resolutionFor(1.0)).isEqualTo(1)
+    assertThat(ViewportDataSeries.resolutionFor(SAMPLES_PER_WINDOW.toDouble())).isEqualTo(1)
+    assertThat(ViewportDataSeries.resolutionFor(SAMPLES_PER_WINDOW + 1.0)).isEqualTo(2)
+    assertThat(ViewportDataSeries.resolutionFor(SAMPLES_PER_WINDOW * 3.0)).isEqualTo(4)
+  }
+
+  @Test
+  fun rangeIsAnsweredFromWindowsAtItsResolution() {
+    val data = series.getDataForRange(Range(100.0, 3000.0))
+
+    assertThat(queries).containsExactly(Triple(0L, 4096L, 2L))
+    assertThat(data.first().x).isEqualTo(100)
+    assertThat(data.last().x).isEqualTo(3000)
+    assertThat(data.map { it.x }).isInOrder()
+  }
+
+  @Test
+  fun dataIsTrimmedToTheRange() {
+    // The window is [0, 2048) and its data starts at 0, but the range starts and ends between points.
+    assertThat(series.getDataForRange(Range(1005.0, 1025.0)).map { it.x }).containsExactly(1000L, 1010L, 1020L, 1030L).inOrder()
+    assertThat(series.getDataForRange(Range(1005.0, 1005.0)).map { it.x }).containsExactly(1000L, 1010L).inOrder()
+    assertThat(series.getDataForRange(Range(1010.0, 1010.0)).map { it.x }).containsExactly(1010L)
+  }
+
+  @Test
+  fun windowsAreReusedWhilePanning() {
+    series.getDataForRange(Range(0.0, 2000.0))
+    series.getDataForRange(Range(100.0, 2100.0))
+    series.getDataForRange(Range(50.0, 2050.0))
+
+    assertThat(queries).containsExactly(Triple(0L, 2048L, 1L), Triple(2048L, 4096L, 1L)).inOrder()
+  }
+
+  @Test
+  fun windowsAreConcatenatedWithoutDuplicates() {
+    val data = series.getDataForRange(Range(2000.0, 2100.0))
+
+    assertThat(data.map { it.x }).containsNoDuplicates()
+    assertThat(data.map { it.x }).isInOrder()
+    assertThat(data.map { it.x }).containsAtLeast(2040L, 2050L)
+  }
+
+  @Test
+  fun emptyRangeHasNoData() {
+    assertThat(series.getDataForRange(Range())).isEmpty()
+    assertThat(queries).isEmpty()
+  }
+
+  @Test
+  fun reduceStatesKeepsFirstAndLastChangeOfEachBucket() {
+    val states = listOf(0L, 1L, 2L, 3L, 10L, 25L, 26L).map { SeriesData(it, "$it") }
+
+    assertThat(ViewportDataSeries.reduceStates(states, 10).map { it.x }).containsExactly(0L, 3L, 10L, 25L, 26L).inOrder()
+    assertThat(ViewportDataSeries.reduceStates(states, 1)).isSameAs(states)
+  }
+
+  @Test
+  fun reduceCounterKeepsPeaks() {
+    val values = listOf(0L to 5.0, 1L to 9.0, 2L to 1.0, 3L to 4.0, 4L to 6.0, 10L to 3.0)
+
+    assertThat(ViewportDataSeries.reduceCounter(values, 10)).containsExactly(
+      SeriesData(0, 5L), SeriesData(1, 9L), SeriesData(2, 1L), SeriesData(4, 6L), SeriesData(10, 3L)).inOrder()
+  }
+}
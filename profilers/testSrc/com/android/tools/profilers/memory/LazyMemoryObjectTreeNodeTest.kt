@@ -57,6 +57,63 @@ class LazyMemoryObjectTreeNodeTest {
     assertThat(rootNode.childCount).isEqualTo(200)
   }
 
+  @Test
+  fun onlyShownChildrenAreBuilt() {
+    val adapters = List(250) { MemoryObject { "node$it" } }
+    val rootNode = createShownChildrenRoot(adapters)
+    rootNode.expandNode()
+    assertThat(rootNode.myChildren.map { it.adapter }).containsExactlyElementsIn(adapters.subList(0, 100)).inOrder()
+    assertThat(rootNode.childCount).isEqualTo(101)
+
+    val firstPage = rootNode.myChildren.toList()
+    (rootNode.getChildAt(100) as MemoryObjectTreeNode<*>).select()
+    assertThat(rootNode.myChildren.map { it.adapter }).containsExactlyElementsIn(adapters.subList(0, 200)).inOrder()
+    assertThat(rootNode.myChildren.subList(0, 100)).containsExactlyElementsIn(firstPage).inOrder()
+    assertThat(rootNode.childCount).isEqualTo(201)
+
+    (rootNode.getChildAt(200) as MemoryObjectTreeNode<*>).select()
+    assertThat(rootNode.myChildren).hasSize(250)
+    assertThat(rootNode.childCount).isEqualTo(250)
+  }
+
+  @Test
+  fun shownChildrenAreTheFirstInOrder() {
+    val adapters = List(250) { MemoryObject { "node$it" } }
+    val rootNode = createShownChildrenRoot(adapters)
+    rootNode.sort(Comparator.comparing<MemoryObjectTreeNode<MemoryObject>, Int> { adapters.indexOf(it.adapter) }.reversed())
+    assertThat((rootNode.getChildAt(0) as MemoryObjectTreeNode<*>).adapter).isSameAs(adapters[249])
+    assertThat(rootNode.myChildren.map { it.adapter }).containsExactlyElementsIn(adapters.subList(150, 250).reversed()).inOrder()
+
+    // Changing the order builds the first children in the new order.
+    rootNode.sort(Comparator.comparing<MemoryObjectTreeNode<MemoryObject>, Int> { adapters.indexOf(it.adapter) })
+    assertThat((rootNode.getChildAt(0) as MemoryObjectTreeNode<*>).adapter).isSameAs(adapters[0])
+    assertThat(rootNode.myChildren.map { it.adapter }).containsExactlyElementsIn(adapters.subList(0, 100)).inOrder()
+  }
+
+  @Test
+  fun onlyShownChildrenGetNodesInOrder() {
+    val adapters = List(250) { MemoryObject { "node$it" } }
+    val madeNodes = mutableListOf<MemoryObjectTreeNode<*>>()
+    val rootNode = createShownChildrenRoot(adapters) { MemoryObjectTreeNode(it).also(madeNodes::add) }
+    rootNode.sort(Comparator.comparing<MemoryObjectTreeNode<MemoryObject>, Int> { adapters.indexOf(it.adapter) }.reversed())
+    assertThat((rootNode.getChildAt(0) as MemoryObjectTreeNode<*>).adapter).isSameAs(adapters[249])
+    assertThat(madeNodes.map { it.adapter }).containsExactlyElementsIn(adapters.subList(150, 250))
+  }
+
+  private fun createShownChildrenRoot(adapters: List<MemoryObject>,
+                                      makeNode: (MemoryObject) -> MemoryObjectTreeNode<*> = { MemoryObjectTreeNode(it) })
+    : LazyMemoryObjectTreeNode<MemoryObject> {
+    val rootNode = object : LazyMemoryObjectTreeNode<MemoryObject>(MemoryObject { "root" }, true) {
+      override fun expandNode() {
+        buildShownChildren(adapters.stream()) { makeNode(it) }
+      }
+
+      override fun computeChildrenCount() = adapters.size
+    }
+    rootNode.treeModel = DefaultTreeModel(rootNode)
+    return rootNode
+  }
+
   private fun createRoot(childrenSize: Int): LazyMemoryObjectTreeNode<MemoryObject> {
     val rootNode = object : LazyMemoryObjectTreeNode<MemoryObject>(MemoryObject { "root" }, true) {
       private var nodesAdded = false
@@ -36,21 +36,25 @@ import com.android.tools.profilers.StudioProfilers;
 import com.android.tools.profilers.memory.FakeCaptureObjectLoader;
 import com.android.tools.profilers.memory.FakeMemoryService;
 import com.android.tools.profilers.memory.MainMemoryProfilerStage;
+import com.android.tools.profilers.memory.adapters.classifiers.AllHeapSet;
 import com.android.tools.profilers.memory.adapters.classifiers.ClassSet;
 import com.android.tools.profilers.memory.adapters.classifiers.Classifier;
 import com.android.tools.profilers.memory.adapters.classifiers.ClassifierSet;
 import com.android.tools.profilers.memory.adapters.classifiers.HeapSet;
+import com.android.tools.profilers.memory.adapters.hprof.HprofIndex;
 import com.android.tools.profilers.memory.adapters.instancefilters.ActivityFragmentLeakInstanceFilter;
 import com.android.tools.profilers.memory.adapters.instancefilters.CaptureObjectInstanceFilter;
 import com.google.common.truth.Truth;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardOpenOption;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.Set;
 import java.util.concurrent.CountDownLatch;
@@ -222,6 +226,7 @@ public class HeapDumpCaptureObjectTest {
 
     long allInstanceCount = capture.getInstances().count();
     Truth.assertThat(allInstanceCount).isGreaterThan(7L);
+    int allObjectCount = capture.getHeapSet(AllHeapSet.ID).getTotalObjectCount();
     Set<CaptureObjectInstanceFilter> filters = capture.getSupportedInstanceFilters();
     Optional<CaptureObjectInstanceFilter> leakFilter =
       filters.stream().filter(filter -> filter instanceof ActivityFragmentLeakInstanceFilter).findAny();
@@ -240,6 +245,10 @@ public class HeapDumpCaptureObjectTest {
       instance -> instance.getClassEntry().getSimpleClassName().equals("ImageCache$RetainFragment")).count()).isEqualTo(1);
     Truth.assertThat(filtredInstances.stream().filter(
       instance -> instance.getClassEntry().getSimpleClassName().equals("ImageDetailFragment")).count()).isEqualTo(5);
+    InstanceObject activity = filtredInstances.stream()
+      .filter(instance -> instance.getClassEntry().getSimpleClassName().equals("ImageDetailActivity")).findAny().get();
+    HeapSet activityHeapSet = capture.getHeapSet(activity.getHeapId());
+    ClassifierSet activityClassSet = activityHeapSet.findContainingClassifierSet(activity);
 
     CountDownLatch removeFilterLatch = new CountDownLatch(1);
     capture.removeInstanceFilter(leakFilter.get(), Runnable::run);
@@ -247,6 +256,71 @@ public class HeapDumpCaptureObjectTest {
     capture.getInstanceFilterExecutor().execute(removeFilterLatch::countDown);
     removeFilterLatch.await();
     Truth.assertThat(capture.getInstances().count()).isEqualTo(allInstanceCount);
+    Truth.assertThat(capture.getHeapSet(AllHeapSet.ID).getTotalObjectCount()).isEqualTo(allObjectCount);
+    // Only the instances let back in are added, to the classifier sets that were kept.
+    Truth.assertThat(activityHeapSet.findContainingClassifierSet(activity)).isSameAs(activityClassSet);
+  }
+
+  @Test
+  public void testIndexedHeapDumpMatchesParsedHeapDump() throws Exception {
+    HeapDumpInfo dumpInfo = HeapDumpInfo.newBuilder().setStartTime(0).setEndTime(1).build();
+    HeapDumpCaptureObject parsedCapture =
+      new HeapDumpCaptureObject(new ProfilerClient(myGrpcChannel.getChannel()), ProfilersTestData.SESSION_DATA,
+                                dumpInfo, null, myIdeProfilerServices.getFeatureTracker(),
+                                myStage.getStudioProfilers().getIdeServices());
+    HeapDumpCaptureObject indexedCapture =
+      new HeapDumpCaptureObject(new ProfilerClient(myGrpcChannel.getChannel()), ProfilersTestData.SESSION_DATA,
+                                dumpInfo, null, myIdeProfilerServices.getFeatureTracker(),
+                                myStage.getStudioProfilers().getIdeServices());
+
+    Path hprof = resolveWorkspacePath("tools/adt/idea/profilers/testData/hprofs/displayingbitmaps_leakedActivity.hprof");
+    myTransportService.addFile(Long.toString(0), ByteString.copyFrom(Files.readAllBytes(hprof)));
+    parsedCapture.load(null, null);
+    indexedCapture.load(HprofIndex.build(hprof.toFile()));
+    assertTrue(indexedCapture.isDoneLoading());
+    assertFalse(indexedCapture.isError());
+
+    try {
+      Truth.assertThat(countInstancesByClass(indexedCapture)).containsExactlyEntriesIn(countInstancesByClass(parsedCapture));
+      InstanceObject activity = indexedCapture.getInstances()
+        .filter(instance -> instance.getClassEntry().getSimpleClassName().equals("ImageDetailActivity"))
+        .findFirst().orElse(null);
+      assertNotNull(activity);
+      Truth.assertThat(activity.getFields()).isNotEmpty();
+      Truth.assertThat(activity.getShallowSize()).isGreaterThan(0);
+
+      // Retained sizes and depths come in after loading.
+      indexedCapture.getAnalysisFuture().get();
+      Truth.assertThat(activity.getRetainedSize()).isAtLeast((long)activity.getShallowSize());
+      Truth.assertThat(activity.getReferences()).isNotEmpty();
+      CountDownLatch addFilterLatch = new CountDownLatch(1);
+      indexedCapture.addInstanceFilter(indexedCapture.getActivityFragmentLeakFilter(), Runnable::run);
+      indexedCapture.getInstanceFilterExecutor().execute(addFilterLatch::countDown);
+      addFilterLatch.await();
+      Truth.assertThat(indexedCapture.getInstances().count()).isEqualTo(7);
+
+      // Removing the filter brings back the instances it left out.
+      CountDownLatch removeFilterLatch = new CountDownLatch(1);
+      indexedCapture.removeAllFilters(Runnable::run);
+      indexedCapture.getInstanceFilterExecutor().execute(removeFilterLatch::countDown);
+      removeFilterLatch.await();
+      Truth.assertThat(countInstancesByClass(indexedCapture)).containsExactlyEntriesIn(countInstancesByClass(parsedCapture));
+
+      CountDownLatch addFilterAgainLatch = new CountDownLatch(1);
+      indexedCapture.addInstanceFilter(indexedCapture.getActivityFragmentLeakFilter(), Runnable::run);
+      indexedCapture.getInstanceFilterExecutor().execute(addFilterAgainLatch::countDown);
+      addFilterAgainLatch.await();
+      Truth.assertThat(indexedCapture.getInstances().count()).isEqualTo(7);
+    }
+    finally {
+      indexedCapture.unload();
+    }
+  }
+
+  @NotNull
+  private static Map<String, Long> countInstancesByClass(@NotNull HeapDumpCaptureObject capture) {
+    return capture.getInstances().collect(
+      Collectors.groupingBy(instance -> instance.getHeapId() + ":" + instance.getClassEntry().getClassName(), Collectors.counting()));
   }
 
   private static void verifyInstance(@NotNull InstanceObject instance,
@@ -15,12 +15,16 @@
  */
 package com.android.tools.profilers.memory.adapters.classifiers
 
+import com.android.tools.profilers.memory.ClassGrouping
 import com.android.tools.profilers.memory.adapters.FakeCaptureObject
 import com.android.tools.profilers.memory.adapters.FakeInstanceObject
+import com.android.tools.profilers.memory.adapters.InstanceGroup
 import com.android.tools.profilers.memory.adapters.InstanceObject
 import com.android.tools.profilers.memory.adapters.MemoryObject
 import com.google.common.truth.Truth.assertThat
 import org.junit.Test
+import java.util.stream.Collectors
+import java.util.stream.Stream
 
 class AllHeapSetTest {
   @Test
@@ -55,4 +59,79 @@ class AllHeapSetTest {
     assertHeapSumsUp({it.totalNativeSize}, {it.nativeSize.validOrZero()})
     assertHeapSumsUp({it.totalRetainedSize}, {it.retainedSize.validOrZero()})
   }
-}
\ No newline at end of file
+
+  @Test
+  fun `all-heap regroups its heaps without adding their instances again`() {
+    val capture = FakeCaptureObject.Builder().build()
+    val heap1 = HeapSet(capture, "heap1", 1)
+    val heap2 = HeapSet(capture, "heap2", 2)
+    val allHeap = AllHeapSet(capture, arrayOf(heap1, heap2)).also { it.clearClassifierSets() }
+    listOf(FakeInstanceObject.Builder(capture, 1, "com.example.Foo").setHeapId(1).build(),
+           FakeInstanceObject.Builder(capture, 2, "com.example.Bar").setHeapId(1).build(),
+           FakeInstanceObject.Builder(capture, 3, "org.example.Baz").setHeapId(2).build()).forEach { allHeap.addDeltaInstanceObject(it) }
+
+    allHeap.setClassGrouping(ClassGrouping.ARRANGE_BY_PACKAGE)
+    assertThat(allHeap.childrenClassifierSets).containsExactly(heap1, heap2)
+    assertThat(heap1.classGrouping).isEqualTo(ClassGrouping.ARRANGE_BY_PACKAGE)
+    assertThat(heap1.childrenClassifierSets.map { it.name }).containsExactly("com")
+    assertThat(heap1.deltaAllocationCount).isEqualTo(2)
+    assertThat(heap2.deltaAllocationCount).isEqualTo(1)
+    assertThat(allHeap.deltaAllocationCount).isEqualTo(3)
+  }
+
+  @Test
+  fun `all-heap classifies instance groups without listing their instances`() {
+    val capture = FakeCaptureObject.Builder().build()
+    val heap1 = HeapSet(capture, "heap1", 1)
+    val allHeap = AllHeapSet(capture, arrayOf(heap1)).also { it.clearClassifierSets() }
+    val instances = (1..3).map { FakeInstanceObject.Builder(capture, 1, "com.example.Foo").setHeapId(1).setShallowSize(4).build() }
+    var listedCount = 0
+    allHeap.addDeltaInstanceGroup(object : InstanceGroup {
+      override val representative = instances[0]
+      override val size = instances.size
+      override val shallowSize = 12L
+      override fun contains(instance: InstanceObject) = instance in instances
+      override fun stream(): Stream<InstanceObject> = instances.stream().peek { listedCount++ }
+    })
+
+    val fooSet = heap1.childrenClassifierSets.single()
+    assertThat(fooSet.deltaAllocationCount).isEqualTo(3)
+    assertThat(heap1.totalShallowSize).isEqualTo(12)
+    assertThat(listedCount).isEqualTo(0)
+    assertThat(allHeap.instancesStream.collect(Collectors.toList())).containsExactlyElementsIn(instances)
+
+    assertThat(allHeap.removeAddedDeltaInstanceObject(instances[1])).isTrue()
+    assertThat(fooSet.deltaAllocationCount).isEqualTo(2)
+    assertThat(heap1.totalShallowSize).isEqualTo(8)
+    assertThat(allHeap.instancesStream.collect(Collectors.toList())).containsExactly(instances[0], instances[2])
+  }
+
+  @Test
+  fun `all-heap removes instance groups without listing their instances`() {
+    val capture = FakeCaptureObject.Builder().build()
+    val heap1 = HeapSet(capture, "heap1", 1)
+    val allHeap = AllHeapSet(capture, arrayOf(heap1)).also { it.clearClassifierSets() }
+    val instances = (1..3).map { FakeInstanceObject.Builder(capture, 1, "com.example.Foo").setHeapId(1).setShallowSize(4).build() }
+    var listedCount = 0
+    val group = object : InstanceGroup {
+      override val representative = instances[0]
+      override val size = instances.size
+      override val shallowSize = 12L
+      override fun contains(instance: InstanceObject) = instance in instances
+      override fun stream(): Stream<InstanceObject> = instances.stream().peek { listedCount++ }
+    }
+    allHeap.addDeltaInstanceGroup(group)
+    val fooSet = heap1.childrenClassifierSets.single()
+
+    assertThat(allHeap.removeDeltaInstanceGroup(group)).isTrue()
+    assertThat(fooSet.deltaAllocationCount).isEqualTo(0)
+    assertThat(heap1.totalShallowSize).isEqualTo(0)
+    assertThat(allHeap.deltaAllocationCount).isEqualTo(0)
+    assertThat(listedCount).isEqualTo(0)
+    assertThat(allHeap.removeDeltaInstanceGroup(group)).isFalse()
+
+    allHeap.addDeltaInstanceGroup(group)
+    assertThat(fooSet.deltaAllocationCount).isEqualTo(3)
+    assertThat(listedCount).isEqualTo(0)
+  }
+}
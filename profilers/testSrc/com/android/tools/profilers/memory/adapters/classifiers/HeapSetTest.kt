@@ -15,6 +15,7 @@
  */
 package com.android.tools.profilers.memory.adapters.classifiers
 
+import com.android.tools.profilers.memory.ClassGrouping
 import com.android.tools.profilers.memory.adapters.FakeCaptureObject
 import com.android.tools.profilers.memory.adapters.FakeInstanceObject
 import com.google.common.truth.Truth.assertThat
@@ -45,4 +46,44 @@ class HeapSetTest {
     assertThat(h.totalRetainedSize).isEqualTo(8)
     assertThat(h.childrenClassifierSets[0].totalRetainedSize).isEqualTo(8)
   }
-}
\ No newline at end of file
+
+  @Test
+  fun `switching back to a grouping reuses its classifier sets`() {
+    val capture = FakeCaptureObject.Builder().build()
+    val h = HeapSet(capture, "Fake", 42)
+    h.addDeltaInstanceObject(FakeInstanceObject.Builder(capture, 1, "com.example.Foo").build())
+    h.addDeltaInstanceObject(FakeInstanceObject.Builder(capture, 2, "com.example.Bar").build())
+    val classSets = h.childrenClassifierSets
+    assertThat(classSets).hasSize(2)
+
+    h.setClassGrouping(ClassGrouping.ARRANGE_BY_PACKAGE)
+    val packageSets = h.childrenClassifierSets
+    assertThat(packageSets.map { it.name }).containsExactly("com")
+    h.setClassGrouping(ClassGrouping.ARRANGE_BY_CLASS)
+    assertThat(h.childrenClassifierSets).containsExactlyElementsIn(classSets).inOrder()
+    h.setClassGrouping(ClassGrouping.ARRANGE_BY_PACKAGE)
+    assertThat(h.childrenClassifierSets).containsExactlyElementsIn(packageSets).inOrder()
+  }
+
+  @Test
+  fun `switching back to a grouping keeps the instances changed in between`() {
+    val capture = FakeCaptureObject.Builder().build()
+    val h = HeapSet(capture, "Fake", 42)
+    val foo = FakeInstanceObject.Builder(capture, 1, "com.example.Foo").build()
+    h.addDeltaInstanceObject(foo)
+    val classSets = h.childrenClassifierSets
+
+    h.setClassGrouping(ClassGrouping.ARRANGE_BY_PACKAGE)
+    h.addDeltaInstanceObject(FakeInstanceObject.Builder(capture, 2, "org.example.Bar").build())
+    assertThat(h.childrenClassifierSets.map { it.name }).containsExactly("com", "org")
+    h.setClassGrouping(ClassGrouping.ARRANGE_BY_CLASS)
+    assertThat(h.childrenClassifierSets).hasSize(2)
+    assertThat(h.childrenClassifierSets).containsAtLeastElementsIn(classSets)
+    assertThat(h.childrenClassifierSets.sumOf { it.deltaAllocationCount }).isEqualTo(2)
+
+    h.removeAddedDeltaInstanceObject(foo)
+    h.setClassGrouping(ClassGrouping.ARRANGE_BY_PACKAGE)
+    assertThat(h.childrenClassifierSets.map { it.name }).containsExactly("org")
+    assertThat(h.instancesStream.count()).isEqualTo(1)
+  }
+}
@@ -0,0 +1,110 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters.hprof
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import kotlin.random.Random
+
+class DominatorTreeTest {
+  @Test
+  fun computesDominatorsOfLengauerTarjanExample() {
+    // The example of Lengauer and Tarjan's paper, with R..L numbered 0..12, and an unreachable vertex 13 pointing into the graph.
+    val graph = graphOf(14, 0 to 1, 0 to 2, 0 to 3, 1 to 4, 2 to 1, 2 to 4, 2 to 5, 3 to 6, 3 to 7, 4 to 12, 5 to 8, 6 to 9, 7 to 9,
+                        7 to 10, 8 to 5, 8 to 11, 9 to 11, 10 to 9, 11 to 9, 11 to 0, 12 to 8, 13 to 9)
+    val tree = DominatorTree.compute(graph, graph.reversed(), 0)
+
+    assertThat((0 until 14).map(tree::immediateDominatorOf))
+      .containsExactly(-1, 0, 0, 0, 0, 0, 3, 3, 0, 0, 7, 0, 4, -1).inOrder()
+    assertThat(tree.reachableCount).isEqualTo(13)
+    assertThat(tree.isReachable(13)).isFalse()
+    assertThat(tree.dominatedSums(IntArray(14) { 1 }).toList())
+      .containsExactly(13L, 1L, 1L, 4L, 2L, 1L, 1L, 2L, 1L, 1L, 1L, 1L, 1L, 0L).inOrder()
+  }
+
+  @Test
+  fun handlesDeepChains() {
+    // Deep enough to overflow the stack of a recursive search or path compression.
+    val n = 200_000
+    val graph = graphOf(n, *Array(n - 1) { it to it + 1 }, (n - 1) to 0)
+    val tree = DominatorTree.compute(graph, graph.reversed(), 0)
+
+    assertThat(tree.immediateDominatorOf(n - 1)).isEqualTo(n - 2)
+    assertThat(tree.dominatedSums(IntArray(n) { 1 })[0]).isEqualTo(n.toLong())
+  }
+
+  @Test
+  fun matchesIterativeDataflowOnRandomGraphs() {
+    val random = Random(42)
+    repeat(20) {
+      val n = 2 + random.nextInt(60)
+      val edges = Array(random.nextInt(n * 3)) { random.nextInt(n) to random.nextInt(n) }
+      val graph = graphOf(n, *edges)
+      val tree = DominatorTree.compute(graph, graph.reversed(), 0)
+      val expected = slowDominators(graph)
+      for (v in 0 until n) {
+        val expectedIdom = expected[v]?.let { dominators -> dominators.filter { it != v }.maxByOrNull { expected[it]!!.size } } ?: -1
+        assertThat(tree.immediateDominatorOf(v)).isEqualTo(expectedIdom)
+      }
+    }
+  }
+
+  /**
+   * Returns the set of dominators of each vertex reachable from 0, computed as the fixed point of the dataflow equations.
+   */
+  private fun slowDominators(graph: IntGraph): Array<Set<Int>?> {
+    val predecessors = graph.reversed()
+    val reachable = BooleanArray(graph.vertexCount).also { reached ->
+      val stack = ArrayDeque(listOf(0)).also { reached[0] = true }
+      while (stack.isNotEmpty()) {
+        graph.forEachSuccessor(stack.removeLast()) {
+          if (!reached[it]) {
+            reached[it] = true
+            stack.addLast(it)
+          }
+        }
+      }
+    }
+    val all = (0 until graph.vertexCount).filter { reachable[it] }.toSet()
+    val dominators = Array<Set<Int>?>(graph.vertexCount) { if (reachable[it]) all else null }
+    dominators[0] = setOf(0)
+    var changed = true
+    while (changed) {
+      changed = false
+      for (v in 1 until graph.vertexCount) {
+        if (!reachable[v]) continue
+        var intersection = all
+        predecessors.forEachSuccessor(v) { p -> dominators[p]?.let { intersection = intersection intersect it } }
+        val updated = intersection + v
+        if (updated != dominators[v]) {
+          dominators[v] = updated
+          changed = true
+        }
+      }
+    }
+    return dominators
+  }
+
+  private fun graphOf(vertexCount: Int, vararg edges: Pair<Int, Int>): IntGraph {
+    val offsets = IntArray(vertexCount + 1)
+    edges.forEach { offsets[it.first + 1]++ }
+    for (v in 1..vertexCount) offsets[v] += offsets[v - 1]
+    val next = offsets.copyOf(vertexCount)
+    val successors = IntArray(edges.size)
+    edges.forEach { successors[next[it.first]++] = it.second }
+    return IntGraph(offsets, successors)
+  }
+}
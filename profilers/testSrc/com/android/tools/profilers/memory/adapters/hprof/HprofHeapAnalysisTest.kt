@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters.hprof
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+
+class HprofHeapAnalysisTest {
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  private lateinit var index: HprofIndex
+  private lateinit var analysis: HprofHeapAnalysis
+
+  @Before
+  fun setUp() {
+    // A -> B -> D, A -> C -> D, C -> W -weakly-> E, with A the only root.
+    val dump = HprofTestBuilder()
+      .classDump(OBJECT_CLASS, "java.lang.Object")
+      .classDump(NODE_CLASS, "com.example.Node", OBJECT_CLASS, 8, fields = listOf("left" to HprofType.OBJECT, "right" to HprofType.OBJECT))
+      .classDump(REFERENCE_CLASS, "java.lang.ref.Reference", OBJECT_CLASS, 4, fields = listOf("referent" to HprofType.OBJECT))
+      .classDump(WEAK_REFERENCE_CLASS, "java.lang.ref.WeakReference", REFERENCE_CLASS, 4)
+      .instance(A, NODE_CLASS, HprofType.OBJECT to B, HprofType.OBJECT to C)
+      .instance(B, NODE_CLASS, HprofType.OBJECT to D, HprofType.OBJECT to 0L)
+      .instance(C, NODE_CLASS, HprofType.OBJECT to D, HprofType.OBJECT to W)
+      .instance(D, NODE_CLASS, HprofType.OBJECT to 0L, HprofType.OBJECT to 0L)
+      .instance(W, WEAK_REFERENCE_CLASS, HprofType.OBJECT to E)
+      .instance(E, NODE_CLASS, HprofType.OBJECT to 0L, HprofType.OBJECT to 0L)
+      .root(A)
+    index = HprofIndex.build(dump.writeTo(temporaryFolder.newFile()), temporaryFolder.root)
+    analysis = HprofHeapAnalysis.compute(index)
+  }
+
+  @After
+  fun tearDown() {
+    index.close()
+  }
+
+  @Test
+  fun computesRetainedSizes() {
+    assertThat(retainedSize(D)).isEqualTo(8)
+    assertThat(retainedSize(B)).isEqualTo(8)
+    assertThat(retainedSize(W)).isEqualTo(4)
+    assertThat(retainedSize(C)).isEqualTo(12)
+    assertThat(retainedSize(A)).isEqualTo(36)
+    // Only weakly reachable.
+    assertThat(retainedSize(E)).isEqualTo(0)
+    assertThat(retainedSize(NODE_CLASS)).isEqualTo(0)
+  }
+
+  @Test
+  fun computesDepths() {
+    assertThat(listOf(A, B, C, D, W, E).map { analysis.depthOf(index.ordinalOf(it)) })
+      .containsExactly(0, 1, 1, 2, 2, Int.MAX_VALUE).inOrder()
+  }
+
+  @Test
+  fun findsReferrers() {
+    assertThat(referrers(D)).containsExactly(B, C).inOrder()
+    assertThat(referrers(W)).containsExactly(C)
+    assertThat(referrers(A)).isEmpty()
+    assertThat(referrers(E)).isEmpty()
+  }
+
+  private fun retainedSize(id: Long) = analysis.retainedSizeOf(index.ordinalOf(id))
+
+  private fun referrers(id: Long) =
+    mutableListOf<Long>().also { ids -> analysis.forEachReferrer(index.ordinalOf(id)) { ids.add(index.idOf(it)) } }
+
+  private companion object {
+    const val OBJECT_CLASS = 0x10L
+    const val NODE_CLASS = 0x11L
+    const val REFERENCE_CLASS = 0x12L
+    const val WEAK_REFERENCE_CLASS = 0x13L
+    const val A = 0x100L
+    const val B = 0x200L
+    const val C = 0x300L
+    const val D = 0x400L
+    const val W = 0x500L
+    const val E = 0x600L
+  }
+}
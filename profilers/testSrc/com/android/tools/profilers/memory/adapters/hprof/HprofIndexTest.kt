@@ -0,0 +1,164 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters.hprof
+
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import kotlin.random.Random
+
+class HprofIndexTest {
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  private val indices = mutableListOf<HprofIndex>()
+
+  @After
+  fun tearDown() {
+    indices.forEach(HprofIndex::close)
+  }
+
+  @Test
+  fun indexesObjectsAndClasses() {
+    val index = index(sampleDump())
+
+    assertThat(index.objectCount).isEqualTo(11)
+    assertThat(index.heaps.map { it.name }).containsExactly("default", "app").inOrder()
+    for (id in listOf(OBJECT_CLASS, FOO_CLASS, FOO_1, FOO_2, STRING, CHARS, FOOS)) {
+      assertThat(index.idOf(index.ordinalOf(id))).isEqualTo(id)
+    }
+    assertThat(index.ordinalOf(0x999)).isEqualTo(-1)
+
+    val foo1 = index.ordinalOf(FOO_1)
+    val foo = index.classOf(foo1)!!
+    assertThat(foo.name).isEqualTo("com.example.Foo")
+    assertThat(index.classes[foo.superIndex].name).isEqualTo("java.lang.Object")
+    assertThat(index.kindOf(foo1)).isEqualTo(HprofObjectKind.INSTANCE)
+    assertThat(index.heapOf(foo1).name).isEqualTo("app")
+    assertThat(index.heapOf(index.ordinalOf(OBJECT_CLASS)).name).isEqualTo("default")
+    assertThat(index.shallowSizeOf(foo1)).isEqualTo(16)
+    assertThat(index.isRoot(foo1)).isTrue()
+    assertThat(index.isRoot(index.ordinalOf(FOO_2))).isFalse()
+
+    val instances = mutableListOf<Long>()
+    index.forEachInstance(foo) { instances.add(index.idOf(it)) }
+    assertThat(instances).containsExactly(FOO_2, FOO_1).inOrder()
+    assertThat(index.instanceCount(foo)).isEqualTo(2)
+    assertThat(index.instanceRange(foo, 0).isEmpty()).isTrue()
+    assertThat(index.instanceRange(foo, 1).map { index.idOf(index.instanceAt(it)) }).containsExactly(FOO_2, FOO_1).inOrder()
+    assertThat(index.instanceRange(index.javaLangClass, 0).count()).isEqualTo(3)
+    assertThat(index.classOf(index.ordinalOf(FOO_CLASS))).isSameAs(index.javaLangClass)
+    assertThat(index.classObjectOf(index.ordinalOf(FOO_CLASS))).isSameAs(foo)
+  }
+
+  @Test
+  fun readsFieldsAndReferences() {
+    val index = index(sampleDump())
+    val foo1 = index.ordinalOf(FOO_1)
+
+    assertThat(index.fieldsOf(foo1)).containsExactly(HprofField("next", HprofType.OBJECT, FOO_2),
+                                                     HprofField("size", HprofType.INT, 7),
+                                                     HprofField("hash", HprofType.INT, 42)).inOrder()
+    assertThat(index.fieldsOf(index.ordinalOf(FOO_2))[0]).isEqualTo(HprofField("next", HprofType.OBJECT, null))
+    assertThat(index.staticFields(index.classOf(foo1)!!)).containsExactly(HprofField("INSTANCE", HprofType.OBJECT, FOO_1))
+
+    assertThat(references(index, FOO_1)).containsExactly(FOO_2)
+    assertThat(references(index, FOO_2)).isEmpty()
+    assertThat(references(index, FOOS)).containsExactly(FOO_1, FOO_2).inOrder()
+    assertThat(references(index, FOO_CLASS)).containsExactly(FOO_1)
+    assertThat(references(index, CHARS)).isEmpty()
+  }
+
+  @Test
+  fun readsArraysAndStrings() {
+    val index = index(sampleDump())
+    val chars = index.ordinalOf(CHARS)
+    val foos = index.ordinalOf(FOOS)
+
+    assertThat(index.classOf(chars)!!.name).isEqualTo("char[]")
+    assertThat(index.kindOf(chars)).isEqualTo(HprofObjectKind.PRIMITIVE_ARRAY)
+    assertThat(index.arrayLength(chars)).isEqualTo(5)
+    assertThat(index.shallowSizeOf(chars)).isEqualTo(10)
+    assertThat(String(index.charsOf(chars)!!)).isEqualTo("hello")
+    assertThat(index.bytesOf(chars)).isNull()
+    assertThat(index.classOf(foos)!!.name).isEqualTo("com.example.Foo[]")
+    assertThat(index.shallowSizeOf(foos)).isEqualTo(12)
+    assertThat(index.fieldsOf(foos).map { it.name }).containsExactly("0", "1", "2").inOrder()
+    assertThat(index.stringValueOf(index.ordinalOf(STRING), 100)).isEqualTo("hello")
+    assertThat(index.stringValueOf(index.ordinalOf(STRING), 3)).isEqualTo("hel")
+  }
+
+  @Test
+  fun findsObjectsWithLongIdsInAnyOrder() {
+    val random = Random(7)
+    val ids = List(5000) { random.nextLong() }.filter { it != 0L && it != 1L }.distinct()
+    val builder = HprofTestBuilder(idSize = 8).classDump(1, "java.lang.Object", instanceSize = 8)
+    ids.forEach { builder.instance(it, 1) }
+    val index = index(builder)
+
+    assertThat(index.objectCount).isEqualTo(ids.size + 1)
+    ids.forEachIndexed { i, id -> assertThat(index.ordinalOf(id)).isEqualTo(i + 1) }
+    assertThat(index.instanceCount(index.classes[0])).isEqualTo(ids.size)
+  }
+
+  @Test
+  fun normalizesClassNames() {
+    assertThat(HprofIndex.normalizeClassName("java/lang/String")).isEqualTo("java.lang.String")
+    assertThat(HprofIndex.normalizeClassName("[[I")).isEqualTo("int[][]")
+    assertThat(HprofIndex.normalizeClassName("[Ljava/lang/Object;")).isEqualTo("java.lang.Object[]")
+    assertThat(HprofIndex.normalizeClassName("byte[]")).isEqualTo("byte[]")
+  }
+
+  private fun references(index: HprofIndex, id: Long) =
+    mutableListOf<Long>().also { ids -> index.forEachReference(index.ordinalOf(id)) { ids.add(index.idOf(it)) } }
+
+  private fun index(builder: HprofTestBuilder) =
+    HprofIndex.build(builder.writeTo(temporaryFolder.newFile()), temporaryFolder.root).also { indices.add(it) }
+
+  private fun sampleDump() = HprofTestBuilder()
+    .classDump(OBJECT_CLASS, "java/lang/Object")
+    .classDump(CLASS_CLASS, "java.lang.Class", OBJECT_CLASS)
+    .classDump(STRING_CLASS, "java.lang.String", OBJECT_CLASS, 16,
+               fields = listOf("value" to HprofType.OBJECT, "count" to HprofType.INT))
+    .heap('A'.toInt(), "app")
+    .classDump(BASE_CLASS, "com.example.Base", OBJECT_CLASS, 8, fields = listOf("hash" to HprofType.INT))
+    .classDump(FOO_CLASS, "com.example.Foo", BASE_CLASS, 16,
+               fields = listOf("next" to HprofType.OBJECT, "size" to HprofType.INT),
+               statics = listOf("INSTANCE" to (HprofType.OBJECT to FOO_1)))
+    .classDump(FOOS_CLASS, "[Lcom/example/Foo;", OBJECT_CLASS)
+    .instance(FOO_2, FOO_CLASS, HprofType.OBJECT to 0L, HprofType.INT to 3, HprofType.INT to 0)
+    .instance(FOO_1, FOO_CLASS, HprofType.OBJECT to FOO_2, HprofType.INT to 7, HprofType.INT to 42)
+    .charArray(CHARS, "hello")
+    .instance(STRING, STRING_CLASS, HprofType.OBJECT to CHARS, HprofType.INT to 5)
+    .objectArray(FOOS, FOOS_CLASS, FOO_1, 0, FOO_2)
+    .root(FOO_1)
+
+  private companion object {
+    const val OBJECT_CLASS = 0x10L
+    const val CLASS_CLASS = 0x11L
+    const val STRING_CLASS = 0x12L
+    const val BASE_CLASS = 0x13L
+    const val FOO_CLASS = 0x14L
+    const val FOOS_CLASS = 0x15L
+    const val FOO_1 = 0x500L
+    const val FOO_2 = 0x400L
+    const val STRING = 0x300L
+    const val CHARS = 0x200L
+    const val FOOS = 0x100L
+  }
+}
@@ -0,0 +1,173 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.memory.adapters.hprof
+
+import java.io.ByteArrayOutputStream
+import java.io.DataOutputStream
+import java.io.File
+
+/**
+ * Writes hprof files for tests, with all heap dump records in a single segment.
+ */
+class HprofTestBuilder(private val idSize: Int = 4) {
+  private val recordBytes = ByteArrayOutputStream()
+  private val records = DataOutputStream(recordBytes)
+  private val dumpBytes = ByteArrayOutputStream()
+  private val dump = DataOutputStream(dumpBytes)
+  private val stringIds = HashMap<String, Long>()
+  private var classSerial = 0
+
+  fun heap(id: Int, name: String) = apply {
+    dump.writeByte(0xfe)
+    dump.writeInt(id)
+    dump.writeId(string(name))
+  }
+
+  fun root(id: Long) = apply {
+    dump.writeByte(0xff)
+    dump.writeId(id)
+  }
+
+  /**
+   * Adds a class, with [fields] as name to type pairs and [statics] as name to value pairs, where values are written as in [instance].
+   */
+  fun classDump(id: Long,
+                name: String,
+                superId: Long = 0,
+                instanceSize: Int = 0,
+                fields: List<Pair<String, HprofType>> = emptyList(),
+                statics: List<Pair<String, Pair<HprofType, Any>>> = emptyList()) = apply {
+    records.writeRecord(0x02) {
+      writeInt(++classSerial)
+      writeId(id)
+      writeInt(0)
+      writeId(string(name))
+    }
+    dump.writeByte(0x20)
+    dump.writeId(id)
+    dump.writeInt(0)
+    dump.writeId(superId)
+    repeat(5) { dump.writeId(0) }
+    dump.writeInt(instanceSize)
+    dump.writeShort(0)
+    dump.writeShort(statics.size)
+    statics.forEach { (name, value) ->
+      dump.writeId(string(name))
+      dump.writeByte(value.first.tag)
+      dump.writeValue(value.first, value.second)
+    }
+    dump.writeShort(fields.size)
+    fields.forEach { (name, type) ->
+      dump.writeId(string(name))
+      dump.writeByte(type.tag)
+    }
+  }
+
+  /**
+   * Adds an instance with the values of its fields, own fields first. Object values are ids.
+   */
+  fun instance(id: Long, classId: Long, vararg values: Pair<HprofType, Any>) = apply {
+    val data = ByteArrayOutputStream()
+    DataOutputStream(data).apply { values.forEach { writeValue(it.first, it.second) } }
+    dump.writeByte(0x21)
+    dump.writeId(id)
+    dump.writeInt(0)
+    dump.writeId(classId)
+    dump.writeInt(data.size())
+    dump.write(data.toByteArray())
+  }
+
+  fun objectArray(id: Long, classId: Long, vararg elements: Long) = apply {
+    dump.writeByte(0x22)
+    dump.writeId(id)
+    dump.writeInt(0)
+    dump.writeInt(elements.size)
+    dump.writeId(classId)
+    elements.forEach { dump.writeId(it) }
+  }
+
+  fun charArray(id: Long, value: String) = apply {
+    primitiveArrayHeader(id, value.length, HprofType.CHAR)
+    dump.writeChars(value)
+  }
+
+  fun byteArray(id: Long, value: ByteArray) = apply {
+    primitiveArrayHeader(id, value.size, HprofType.BYTE)
+    dump.write(value)
+  }
+
+  fun build(): ByteArray {
+    val bytes = ByteArrayOutputStream()
+    DataOutputStream(bytes).apply {
+      writeBytes("JAVA PROFILE 1.0.3")
+      writeByte(0)
+      writeInt(idSize)
+      writeLong(0)
+      write(recordBytes.toByteArray())
+      writeRecord(0x1c) { write(dumpBytes.toByteArray()) }
+      writeRecord(0x2c) {}
+    }
+    return bytes.toByteArray()
+  }
+
+  fun writeTo(file: File) = file.also { it.writeBytes(build()) }
+
+  private fun primitiveArrayHeader(id: Long, length: Int, type: HprofType) {
+    dump.writeByte(0x23)
+    dump.writeId(id)
+    dump.writeInt(0)
+    dump.writeInt(length)
+    dump.writeByte(type.tag)
+  }
+
+  private fun string(value: String) = stringIds.getOrPut(value) {
+    (STRING_ID_BASE + stringIds.size).also { id ->
+      records.writeRecord(0x01) {
+        writeId(id)
+        write(value.toByteArray())
+      }
+    }
+  }
+
+  private fun DataOutputStream.writeRecord(tag: Int, body: DataOutputStream.() -> Unit) {
+    val bytes = ByteArrayOutputStream().also { DataOutputStream(it).body() }
+    writeByte(tag)
+    writeInt(0)
+    writeInt(bytes.size())
+    write(bytes.toByteArray())
+  }
+
+  private fun DataOutputStream.writeId(id: Long) = when (idSize) {
+    4 -> writeInt(id.toInt())
+    else -> writeLong(id)
+  }
+
+  private fun DataOutputStream.writeValue(type: HprofType, value: Any) = when (type) {
+    HprofType.OBJECT -> writeId(value as Long)
+    HprofType.BOOLEAN -> writeBoolean(value as Boolean)
+    HprofType.CHAR -> writeChar((value as Char).toInt())
+    HprofType.FLOAT -> writeFloat(value as Float)
+    HprofType.DOUBLE -> writeDouble(value as Double)
+    HprofType.BYTE -> writeByte((value as Byte).toInt())
+    HprofType.SHORT -> writeShort((value as Short).toInt())
+    HprofType.INT -> writeInt(value as Int)
+    HprofType.LONG -> writeLong(value as Long)
+  }
+
+  private companion object {
+    const val STRING_ID_BASE = 0x7000_0000L
+  }
+}
@@ -28,6 +28,10 @@ import com.android.tools.profilers.cpu.systemtrace.TraceEventModel
 import com.google.common.truth.Truth.assertThat
 import org.junit.Test
 import perfetto.protos.PerfettoTrace
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
 
 class TraceProcessorModelTest {
 
@@ -233,6 +237,102 @@ class TraceProcessorModelTest {
     val counterZ = counters["CounterZ"] ?: error("CounterZ should be present.")
     assertThat(counterZ.name).isEqualTo("CounterZ")
     assertThat(counterZ.valuesByTimestampUs).containsExactly(1L, 100.0, 2L, 50.0, 3L, 100.0).inOrder()
+    assertThat(counterZ.valuesByTimestampUs).isEqualTo(sortedMapOf(1L to 100.0, 2L to 50.0, 3L to 100.0))
+    assertThat(counterZ.valuesByTimestampUs.headMap(2L)).containsExactly(1L, 100.0)
+    assertThat(counterZ.valuesByTimestampUs.tailMap(2L).firstKey()).isEqualTo(2L)
+    assertThat(counterZ.valuesByTimestampUs.subMap(2L, 3L)).containsExactly(2L, 50.0)
+    assertThat(counterZ.valuesByTimestampUs[4L]).isNull()
+  }
+
+  @Test
+  fun rangeQueries() {
+    val processProtoBuilder = TraceProcessor.ProcessMetadataResult.newBuilder()
+    processProtoBuilder.addProcess(1, "Process1").addThread(1, "MainThreadProcess1")
+
+    val traceProtoBuilder = TraceProcessor.TraceEventsResult.newBuilder()
+    traceProtoBuilder.addThread(1)
+      .addEvent(1000, 1000, 2000, "EventA")
+      .addEvent(1001, 1500, 500, "EventA-1", 1000, 1)
+      .addEvent(1002, 5000, 2000, "EventB")
+      .addEvent(1003, 9000, 2000, "EventC")
+
+    val schedProtoBuilder = TraceProcessor.SchedulingEventsResult.newBuilder().setNumCores(1)
+    schedProtoBuilder.addSchedulingEvent(1, 1, 0, 1000, 3000,
+                                         TraceProcessor.SchedulingEventsResult.SchedulingEvent.SchedulingState.SLEEPING)
+    schedProtoBuilder.addSchedulingEvent(1, 1, 0, 7000, 2000,
+                                         TraceProcessor.SchedulingEventsResult.SchedulingEvent.SchedulingState.RUNNABLE)
+
+    val counterProtoBuilder = TraceProcessor.ProcessCountersResult.newBuilder().setProcessId(1)
+    val counter = counterProtoBuilder.addCounterBuilder().setName("CounterA")
+    counter.addValueBuilder().setTimestampNanoseconds(1000).setValue(1.0)
+    counter.addValueBuilder().setTimestampNanoseconds(3000).setValue(2.0)
+    counter.addValueBuilder().setTimestampNanoseconds(5000).setValue(3.0)
+
+    val model = TraceProcessorModel.Builder().apply {
+      addProcessMetadata(processProtoBuilder.build())
+      addTraceEvents(traceProtoBuilder.build())
+      addSchedulingEvents(schedProtoBuilder.build())
+      addProcessCounters(counterProtoBuilder.build())
+    }.build()
+
+    assertThat(model.getThreadTraceEvents(1, 2, 6).map { it.name }).containsExactly("EventA", "EventB").inOrder()
+    assertThat(model.getThreadTraceEvents(1, 2, 6)[0].childrenEvents.map { it.name }).containsExactly("EventA-1")
+    assertThat(model.getThreadTraceEvents(1, 3, 5)).isEmpty()
+    assertThat(model.getThreadTraceEvents(2, 0, 100)).isEmpty()
+
+    assertThat(model.getThreadSchedulingEvents(1, 5, 8)).containsExactly(
+      SchedulingEventModel(ThreadState.SLEEPING_CAPTURED, 4, 7, 3, 3, 1, 1, 0),
+      SchedulingEventModel(ThreadState.RUNNING_CAPTURED, 7, 9, 2, 2, 1, 1, 0))
+      .inOrder()
+    assertThat(model.getCpuSchedulingEvents(0, 5, 8)).containsExactly(
+      SchedulingEventModel(ThreadState.RUNNING_CAPTURED, 7, 9, 2, 2, 1, 1, 0))
+
+    assertThat(model.getProcessCounterValues(1, "CounterA", 2, 4)).containsExactly(1L to 1.0, 3L to 2.0).inOrder()
+    assertThat(model.getProcessCounterValues(1, "CounterB", 2, 4)).isEmpty()
+  }
+
+  @Test
+  fun serializedModelKeepsItsData() {
+    val processProtoBuilder = TraceProcessor.ProcessMetadataResult.newBuilder()
+    processProtoBuilder.addProcess(1, "Process1").addThread(1, "MainThreadProcess1")
+    processProtoBuilder.addDanglingThread(
+      TraceProcessor.ProcessMetadataResult.ThreadMetadata.newBuilder().setId(7).setName("DanglingThread"))
+
+    val traceProtoBuilder = TraceProcessor.TraceEventsResult.newBuilder()
+    traceProtoBuilder.addThread(1)
+      .addEvent(1000, 1000, 2000, "EventA")
+      .addEvent(1001, 1500, 500, "EventA-1", 1000, 1)
+      .addEvent(1002, 5000, 2000, "EventB")
+
+    val schedProtoBuilder = TraceProcessor.SchedulingEventsResult.newBuilder().setNumCores(2)
+    schedProtoBuilder.addSchedulingEvent(1, 1, 1, 1000, 3000,
+                                         TraceProcessor.SchedulingEventsResult.SchedulingEvent.SchedulingState.SLEEPING)
+    schedProtoBuilder.addSchedulingEvent(1, 1, 0, 7000, 2000,
+                                         TraceProcessor.SchedulingEventsResult.SchedulingEvent.SchedulingState.RUNNABLE)
+
+    val counterProtoBuilder = TraceProcessor.ProcessCountersResult.newBuilder().setProcessId(1)
+    val counter = counterProtoBuilder.addCounterBuilder().setName("CounterA")
+    counter.addValueBuilder().setTimestampNanoseconds(1000).setValue(1.0)
+    counter.addValueBuilder().setTimestampNanoseconds(3000).setValue(2.0)
+
+    val model = TraceProcessorModel.Builder().apply {
+      addProcessMetadata(processProtoBuilder.build())
+      addTraceEvents(traceProtoBuilder.build())
+      addSchedulingEvents(schedProtoBuilder.build())
+      addProcessCounters(counterProtoBuilder.build())
+    }.build()
+
+    val bytes = ByteArrayOutputStream()
+    ObjectOutputStream(bytes).use { it.writeObject(model) }
+    val deserialized = ObjectInputStream(ByteArrayInputStream(bytes.toByteArray())).use { it.readObject() } as TraceProcessorModel
+
+    assertThat(deserialized.getCaptureStartTimestampUs()).isEqualTo(model.getCaptureStartTimestampUs())
+    assertThat(deserialized.getCaptureEndTimestampUs()).isEqualTo(model.getCaptureEndTimestampUs())
+    assertThat(deserialized.getProcesses()).isEqualTo(model.getProcesses())
+    assertThat(deserialized.getCpuCores()).isEqualTo(model.getCpuCores())
+    assertThat(deserialized.getDanglingThread(7)).isEqualTo(model.getDanglingThread(7))
+    assertThat(deserialized.getThreadTraceEvents(1, 2, 6)).isEqualTo(model.getThreadTraceEvents(1, 2, 6))
+    assertThat(deserialized.getProcessCounterValues(1, "CounterA", 2, 4)).containsExactly(1L to 1.0, 3L to 2.0).inOrder()
   }
 
   @Test
@@ -0,0 +1,114 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.performance
+
+import com.android.tools.perflogger.Benchmark
+import com.android.tools.perflogger.Metric
+import com.android.tools.perflogger.WindowDeviationAnalyzer
+import com.android.tools.profiler.proto.Cpu.CpuTraceType
+import com.android.tools.profilers.cpu.CaptureNode
+import com.android.tools.profilers.cpu.CpuProfilerTestUtils
+import com.android.tools.profilers.cpu.capturedetails.Aggregate
+import com.android.tools.profilers.cpu.capturedetails.CompactCallTree
+import com.android.tools.profilers.cpu.nodemodel.SingleNameModel
+import com.google.common.truth.Truth.assertThat
+import org.junit.Test
+import java.time.Instant
+
+/**
+ * Measures the latency of aggregating call trees built from real traces top-down and bottom-up, as the capture details do, and of
+ * copying the [CaptureNode] tree into the [CompactCallTree] the aggregations merge the calls of.
+ *
+ * The test traces are small, so the call trees of all their threads are replicated under a single root until the tree has
+ * [TARGET_NODE_COUNT] calls. This keeps the shape and the method distribution of real traces at the size of a long recording.
+ */
+class CallTreePerformanceTest {
+  companion object {
+    private const val TARGET_NODE_COUNT = 1_000_000
+    private const val ITERATIONS = 10
+  }
+
+  private val timingBenchmark = Benchmark.Builder("Call Tree Aggregation Timings (Nanos)").setProject("Android Studio Profilers").build()
+
+  @Test
+  fun artTrace() {
+    runPerformanceTest("ART", CpuProfilerTestUtils.getTraceFile("valid_trace.trace"), CpuTraceType.ART)
+  }
+
+  @Test
+  fun simpleperfTrace() {
+    runPerformanceTest("Simpleperf", CpuProfilerTestUtils.getTraceFile("simpleperf.trace"), CpuTraceType.SIMPLEPERF)
+  }
+
+  private fun runPerformanceTest(name: String, traceFile: java.io.File, type: CpuTraceType) {
+    val root = buildLargeTree(CpuProfilerTestUtils.getCapture(traceFile, type).captureNodes.toList())
+    val compactTree = CompactCallTree.fromCaptureNode(root)
+    val nodeCount = compactTree.size
+    // The bottom-up root merges every call but the ones without a method id, like the empty root of multiple selected threads.
+    val bottomUpCallCount = (0 until nodeCount).count { compactTree.getModel(it).id.isNotEmpty() }.toLong()
+
+    val conversion = Metric("$name-Compact-Conversion")
+    val topDownAggregation = Metric("$name-Compact-TopDown-Aggregation")
+    val bottomUpAggregation = Metric("$name-Compact-BottomUp-Aggregation")
+    repeat(ITERATIONS) {
+      measure(conversion, nodeCount.toLong()) { CompactCallTree.fromCaptureNode(root).size.toLong() }
+      // Every call is merged into exactly one node of the full top-down tree.
+      measure(topDownAggregation, nodeCount.toLong()) { countMergedCalls(Aggregate.TopDown.rootAt(compactTree)) }
+      measure(bottomUpAggregation, bottomUpCallCount) { Aggregate.BottomUp.rootAt(compactTree).children.sumOf { it.rows.size }.toLong() }
+    }
+
+    listOf(conversion, topDownAggregation, bottomUpAggregation).forEach {
+      it.setAnalyzers(timingBenchmark, setOf(WindowDeviationAnalyzer.Builder()
+                                               .addMeanTolerance(WindowDeviationAnalyzer.MeanToleranceParams.Builder().build())
+                                               .build()))
+      it.commit()
+    }
+  }
+
+  /**
+   * Builds a [CaptureNode] tree of at least [TARGET_NODE_COUNT] calls from copies of the [templates].
+   */
+  private fun buildLargeTree(templates: List<CaptureNode>): CaptureNode {
+    val root = CaptureNode(SingleNameModel("root"))
+    var count = 1
+    while (count < TARGET_NODE_COUNT) {
+      for (template in templates) {
+        root.addChild(copy(template))
+        count += template.descendantsStream.count().toInt()
+      }
+    }
+    root.endGlobal = root.children.maxOf { it.endGlobal }
+    root.endThread = root.children.maxOf { it.endThread }
+    return root
+  }
+
+  private fun copy(node: CaptureNode): CaptureNode = CaptureNode(node.data).apply {
+    startGlobal = node.startGlobal
+    endGlobal = node.endGlobal
+    startThread = node.startThread
+    endThread = node.endThread
+    node.children.forEach { addChild(copy(it)) }
+  }
+
+  private fun countMergedCalls(node: Aggregate.TopDown): Long = node.rows.size + node.children.sumOf { countMergedCalls(it) }
+
+  private fun measure(metric: Metric, expected: Long, traversal: () -> Long) {
+    val startTime = System.nanoTime()
+    val total = traversal()
+    metric.addSamples(timingBenchmark, Metric.MetricSample(Instant.now().toEpochMilli(), System.nanoTime() - startTime))
+    assertThat(total).isEqualTo(expected)
+  }
+}
@@ -0,0 +1,140 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.performance
+
+import com.android.tools.perflib.heap.Snapshot
+import com.android.tools.perflib.heap.io.InMemoryBuffer
+import com.android.tools.perflogger.Benchmark
+import com.android.tools.perflogger.Metric
+import com.android.tools.perflogger.WindowDeviationAnalyzer
+import com.android.tools.profilers.memory.adapters.hprof.HprofHeapAnalysis
+import com.android.tools.profilers.memory.adapters.hprof.HprofIndex
+import com.android.tools.profilers.memory.adapters.hprof.HprofTestBuilder
+import com.android.tools.profilers.memory.adapters.hprof.HprofType
+import com.android.tools.proguard.ProguardMap
+import com.google.common.truth.Truth.assertThat
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.nio.ByteBuffer
+import java.time.Instant
+
+/**
+ * Compares the load time and the heap used by a perflib [Snapshot] and an [HprofIndex] of the same heap dump, and the time they take to
+ * compute retained sizes.
+ *
+ * The dump is generated, with [OBJECT_COUNT] objects of a few classes chained into lists, so that it is large enough for the difference
+ * to show without checking in a large hprof file.
+ */
+class HprofIndexPerformanceTest {
+  companion object {
+    private const val OBJECT_COUNT = 1_000_000
+    private const val CLASS_COUNT = 16
+    private const val ITERATIONS = 5
+  }
+
+  @get:Rule
+  val temporaryFolder = TemporaryFolder()
+
+  private val memoryBenchmark = Benchmark.Builder("Heap Dump Loading Memory (kb)").setProject("Android Studio Profilers").build()
+  private val timingBenchmark = Benchmark.Builder("Heap Dump Loading Timings (Nanos)").setProject("Android Studio Profilers").build()
+
+  @Test
+  fun loadLargeHeapDump() {
+    val bytes = buildLargeDump()
+    val file = temporaryFolder.newFile("large.hprof").apply { writeBytes(bytes) }
+
+    val snapshotLoad = Metric("Perflib-Snapshot-Load")
+    val indexLoad = Metric("HprofIndex-Load")
+    val indexLookup = Metric("HprofIndex-Lookup")
+    val snapshotRetainedSizes = Metric("Perflib-Snapshot-Retained-Sizes")
+    val indexRetainedSizes = Metric("HprofHeapAnalysis-Retained-Sizes")
+    repeat(ITERATIONS) {
+      lateinit var snapshot: Snapshot
+      measure(snapshotLoad) { snapshot = Snapshot.createSnapshot(InMemoryBuffer(ByteBuffer.wrap(bytes)), ProguardMap(), emptyList()) }
+      measure(snapshotRetainedSizes) { snapshot.computeRetainedSizes() }
+      lateinit var index: HprofIndex
+      measure(indexLoad) { index = HprofIndex.build(file, temporaryFolder.root) }
+      measure(indexRetainedSizes) { HprofHeapAnalysis.compute(index) }
+      index.close()
+    }
+
+    val baseline = usedMemoryKb()
+    var snapshot: Snapshot? = Snapshot.createSnapshot(InMemoryBuffer(ByteBuffer.wrap(bytes)), ProguardMap(), emptyList())
+    val snapshotKb = usedMemoryKb() - baseline
+    assertThat(snapshot!!.heaps).isNotEmpty()
+    // Release the snapshot so only the index is retained.
+    snapshot = null
+
+    HprofIndex.build(file, temporaryFolder.root).use { index ->
+      val indexKb = usedMemoryKb() - baseline
+      assertThat(index.objectCount).isEqualTo(OBJECT_COUNT + CLASS_COUNT)
+      repeat(ITERATIONS) {
+        measure(indexLookup) {
+          for (id in 1..OBJECT_COUNT.toLong()) {
+            check(index.ordinalOf(objectId(id)) >= 0)
+          }
+        }
+      }
+      memoryBenchmark.log("Perflib-Snapshot-Memory-Used", snapshotKb)
+      memoryBenchmark.log("HprofIndex-Memory-Used", indexKb)
+    }
+
+    listOf(snapshotLoad, indexLoad, indexLookup, snapshotRetainedSizes, indexRetainedSizes).forEach {
+      it.setAnalyzers(timingBenchmark, setOf(WindowDeviationAnalyzer.Builder()
+                                               .addMeanTolerance(WindowDeviationAnalyzer.MeanToleranceParams.Builder().build())
+                                               .build()))
+      it.commit()
+    }
+  }
+
+  /**
+   * Builds a dump of [OBJECT_COUNT] instances spread over [CLASS_COUNT] classes, each referencing the previous instance of its class.
+   */
+  private fun buildLargeDump(): ByteArray {
+    val builder = HprofTestBuilder().classDump(classId(0), "java.lang.Object")
+    for (cls in 1 until CLASS_COUNT) {
+      builder.classDump(classId(cls), "com.example.Class$cls", classId(0), 8,
+                        fields = listOf("next" to HprofType.OBJECT, "value" to HprofType.INT))
+    }
+    val last = LongArray(CLASS_COUNT)
+    for (i in 1..OBJECT_COUNT) {
+      val cls = 1 + i % (CLASS_COUNT - 1)
+      val id = objectId(i.toLong())
+      builder.instance(id, classId(cls), HprofType.OBJECT to last[cls], HprofType.INT to i)
+      last[cls] = id
+    }
+    last.filter { it != 0L }.forEach { builder.root(it) }
+    return builder.build()
+  }
+
+  private fun classId(cls: Int) = 0x1000L + cls * 8
+
+  // Spaced like the addresses of small objects.
+  private fun objectId(i: Long) = 0x1000_0000L + i * 16
+
+  private fun measure(metric: Metric, load: () -> Unit) {
+    val startTime = System.nanoTime()
+    load()
+    metric.addSamples(timingBenchmark, Metric.MetricSample(Instant.now().toEpochMilli(), System.nanoTime() - startTime))
+  }
+
+  private fun usedMemoryKb(): Long {
+    val rt = Runtime.getRuntime()
+    for (x in 0..10) System.gc()
+    return (rt.totalMemory() - rt.freeMemory()) / 1024
+  }
+}
@@ -0,0 +1,113 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.profilers.performance
+
+import com.android.tools.datastore.DataStoreDatabase
+import com.android.tools.datastore.FakeLogService
+import com.android.tools.datastore.database.UnifiedEventsTable
+import com.android.tools.perflogger.Benchmark
+import com.android.tools.perflogger.Metric
+import com.android.tools.perflogger.WindowDeviationAnalyzer
+import com.android.tools.profiler.proto.Common
+import com.android.tools.profiler.proto.Transport.GetEventGroupsRequest
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.time.Instant
+import java.util.concurrent.TimeUnit
+
+/**
+ * Measures [UnifiedEventsTable.queryUnifiedEventGroups] over a synthetic table with millions of events spread across tens of thousands
+ * of groups, which is where the -1/+1 boundary lookups used to degrade into full scans.
+ */
+class UnifiedEventsTableQueryPerformanceTest {
+  companion object {
+    private const val STREAM_ID = 1L
+    private const val PID = 1
+    private const val GROUP_COUNT = 20_000
+    private const val EVENTS_PER_GROUP = 100
+    private val EVENT_INTERVAL = TimeUnit.MILLISECONDS.toNanos(10)
+    private val VIEWPORT_LENGTH = TimeUnit.SECONDS.toNanos(10)
+    private const val VIEWPORT_COUNT = 20
+  }
+
+  private val benchmark = Benchmark.Builder("UnifiedEventsTable Query Timings (Nanos)").setProject("Android Studio Profilers").build()
+  private lateinit var database: DataStoreDatabase
+  private lateinit var table: UnifiedEventsTable
+
+  @Before
+  fun setup() {
+    database = DataStoreDatabase("", DataStoreDatabase.Characteristic.PERFORMANT, FakeLogService())
+    table = UnifiedEventsTable()
+    table.initialize(database.connection)
+    table.setWriteQueue(database.writeQueue)
+    // Groups overlap in time so that every viewport intersects many of them, as threads or network connections would.
+    for (group in 0 until GROUP_COUNT) {
+      val groupStart = group.toLong() * EVENT_INTERVAL
+      for (i in 0 until EVENTS_PER_GROUP) {
+        table.insertUnifiedEvent(STREAM_ID, Common.Event.newBuilder()
+          .setKind(Common.Event.Kind.CPU_THREAD)
+          .setPid(PID)
+          .setGroupId(group + 1L)
+          .setTimestamp(groupStart + i * EVENT_INTERVAL * GROUP_COUNT / EVENTS_PER_GROUP)
+          .setIsEnded(i == EVENTS_PER_GROUP - 1)
+          .build())
+      }
+    }
+    database.writeQueue!!.flush()
+  }
+
+  @After
+  fun tearDown() {
+    database.disconnect()
+  }
+
+  @Test
+  fun runQueryPerformanceTest() {
+    val coldMetric = Metric("Viewport-Query-Cold")
+    val cachedMetric = Metric("Viewport-Query-Cached")
+    val totalLength = GROUP_COUNT * EVENT_INTERVAL * 2
+    for (viewport in 0 until VIEWPORT_COUNT) {
+      val from = viewport * totalLength / VIEWPORT_COUNT + 1
+      val request = GetEventGroupsRequest.newBuilder()
+        .setKind(Common.Event.Kind.CPU_THREAD)
+        .setStreamId(STREAM_ID)
+        .setPid(PID)
+        .setFromTimestamp(from)
+        .setToTimestamp(from + VIEWPORT_LENGTH)
+        .build()
+
+      var startTime = System.nanoTime()
+      val groups = table.queryUnifiedEventGroups(request)
+      // The first query warms up statement caches, do not record it.
+      if (viewport != 0) {
+        coldMetric.addSamples(benchmark, Metric.MetricSample(Instant.now().toEpochMilli(), System.nanoTime() - startTime))
+      }
+
+      startTime = System.nanoTime()
+      assertThat(table.queryUnifiedEventGroups(request)).hasSize(groups.size)
+      cachedMetric.addSamples(benchmark, Metric.MetricSample(Instant.now().toEpochMilli(), System.nanoTime() - startTime))
+    }
+
+    listOf(coldMetric, cachedMetric).forEach {
+      it.setAnalyzers(benchmark, setOf(WindowDeviationAnalyzer.Builder()
+                                         .addMeanTolerance(WindowDeviationAnalyzer.MeanToleranceParams.Builder().build())
+                                         .build()))
+      it.commit()
+    }
+  }
+}
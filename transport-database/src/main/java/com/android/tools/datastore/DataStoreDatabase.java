@@ -15,12 +15,17 @@
  */
 package com.android.tools.datastore;
 
+import com.android.tools.datastore.database.DataStoreWriteQueue;
 import java.io.File;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Locale;
 import java.util.function.Consumer;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 public class DataStoreDatabase {
   public enum Characteristic {
@@ -29,6 +34,19 @@ public class DataStoreDatabase {
     PERFORMANT
   }
 
+  /**
+   * Statements upgrading a database from one schema version to the next: {@code MIGRATIONS[i]} upgrades version {@code i + 1} to
+   * {@code i + 2}. Add an entry whenever a persisted table changes in a way that {@code CREATE ... IF NOT EXISTS} cannot handle, so
+   * files written by earlier versions are upgraded in place rather than discarded. Version 1 is the first one, so there are none yet.
+   */
+  private static final String[][] MIGRATIONS = {};
+
+  /**
+   * Version of the schema of {@link Characteristic#DURABLE} databases, stored in the file's {@code user_version}. Files with a version of
+   * 0 predate versioning (and an incompatible SQLite update). They are discarded, as are files from a newer version.
+   */
+  public static final int SCHEMA_VERSION = MIGRATIONS.length + 1;
+
   @NotNull
   private LogService.Logger getLogger() {
     return myLogService.getLogger(DataStoreDatabase.class);
@@ -38,6 +56,10 @@ public class DataStoreDatabase {
 
   private final Connection myConnection;
 
+  @Nullable private final DataStoreWriteQueue myWriteQueue;
+
+  private final boolean myIsReopened;
+
   /**
    * @param dbPath the path to the backing DB file, if {@link Characteristic#DURABLE}.
    */
@@ -51,8 +73,21 @@ public class DataStoreDatabase {
                            @NotNull Characteristic characteristic,
                            @NotNull LogService logService,
                            @NotNull Consumer<Throwable> noPiiExceptionHandler) {
+    this(dbPath, characteristic, false, logService, noPiiExceptionHandler);
+  }
+
+  /**
+   * @param reopenExisting if true and the database is {@link Characteristic#DURABLE}, an existing DB file with a compatible
+   *                       {@link #SCHEMA_VERSION} is opened in place (and migrated if needed) instead of being deleted.
+   */
+  public DataStoreDatabase(@NotNull String dbPath,
+                           @NotNull Characteristic characteristic,
+                           boolean reopenExisting,
+                           @NotNull LogService logService,
+                           @NotNull Consumer<Throwable> noPiiExceptionHandler) {
     myLogService = logService;
     Connection connection = null;
+    boolean reopened = false;
     try {
       // For older versions of the JDBC we need to force load the sqlite.JDBC driver to trigger static initializer's and register
       // the JDBC driver with the java DriverMangaer.
@@ -64,10 +99,13 @@ public class DataStoreDatabase {
           break;
         case DURABLE:
           File dbFile = new File(dbPath);
-          // Due to an incompatible update in SQLite we do not support loading SQL files from previous versions of studio.
-          // As a intermediate measure we delete the file until we support loading existing databases.
-          // TODO: Investigate removing this when we add a feature to restore sessions from prior Studio runs.
-          if (dbFile.exists()) {
+          if (dbFile.exists() && reopenExisting) {
+            connection = reopen(dbFile);
+            reopened = connection != null;
+          }
+          // Due to an incompatible update in SQLite we do not support loading SQL files from previous versions of studio, nor files
+          // from a schema we cannot migrate. Those are deleted.
+          if (!reopened && dbFile.exists()) {
             dbFile.delete();
           }
 
@@ -77,15 +115,24 @@ public class DataStoreDatabase {
               getLogger().error("Unable to create parent directory");
             }
           }
-          connection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", dbFile.getPath()));
+          if (!reopened) {
+            connection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", dbFile.getPath()));
+          }
           break;
         default:
           throw new RuntimeException("Characteristic not handled!");
       }
 
-      // Performance optimization.
-      // TODO: Create a timer and commit the database transaction every X seconds.
+      // Performance optimization. Transactions are committed periodically by the write queue.
       connection.setAutoCommit(false);
+
+      if (characteristic == Characteristic.DURABLE && !reopened) {
+        try (Statement statement = connection.createStatement()) {
+          // Let compaction return freed pages to the file system. This must be set before any table is created.
+          statement.execute("PRAGMA auto_vacuum = INCREMENTAL");
+          statement.execute(String.format(Locale.US, "PRAGMA user_version = %d", SCHEMA_VERSION));
+        }
+      }
     }
     catch (ClassNotFoundException e) {
       getLogger().error(e);
@@ -97,10 +144,94 @@ public class DataStoreDatabase {
       noPiiExceptionHandler.accept(e);
     }
     myConnection = connection;
+    myIsReopened = reopened;
+    myWriteQueue = connection == null ? null : new DataStoreWriteQueue(connection);
+  }
+
+  /**
+   * Opens an existing DB file in place and migrates it to {@link #SCHEMA_VERSION}.
+   *
+   * @return the open connection, or null if the file's schema is not one we can load.
+   */
+  @Nullable
+  private Connection reopen(@NotNull File dbFile) {
+    Connection connection = null;
+    try {
+      connection = DriverManager.getConnection(String.format("jdbc:sqlite:%s", dbFile.getPath()));
+      int version;
+      try (Statement statement = connection.createStatement();
+           ResultSet result = statement.executeQuery("PRAGMA user_version")) {
+        version = result.next() ? result.getInt(1) : 0;
+      }
+      if (version < 1 || version > SCHEMA_VERSION) {
+        getLogger().info(String.format(Locale.US, "Discarding database with unsupported schema version %d", version));
+        connection.close();
+        return null;
+      }
+      if (version < SCHEMA_VERSION) {
+        migrate(connection, version);
+      }
+      return connection;
+    }
+    catch (SQLException e) {
+      // A corrupted or foreign file, start over.
+      getLogger().warn(e);
+      try {
+        if (connection != null) {
+          connection.close();
+        }
+      }
+      catch (SQLException ignored) {
+      }
+      return null;
+    }
+  }
+
+  private static void migrate(@NotNull Connection connection, int fromVersion) throws SQLException {
+    connection.setAutoCommit(false);
+    try (Statement statement = connection.createStatement()) {
+      for (int version = fromVersion; version < SCHEMA_VERSION; version++) {
+        for (String sql : MIGRATIONS[version - 1]) {
+          statement.execute(sql);
+        }
+      }
+      statement.execute(String.format(Locale.US, "PRAGMA user_version = %d", SCHEMA_VERSION));
+      connection.commit();
+    }
+    catch (SQLException e) {
+      connection.rollback();
+      throw e;
+    }
+  }
+
+  /**
+   * @return true if this database was opened from a file written by a prior session, see {@link #SCHEMA_VERSION}.
+   */
+  public boolean isReopened() {
+    return myIsReopened;
+  }
+
+  /**
+   * Commits pending writes and returns the pages freed by deleted rows to the file system.
+   */
+  public void reclaimFreePages() {
+    if (myWriteQueue != null) {
+      myWriteQueue.flush();
+    }
+    try (Statement statement = myConnection.createStatement()) {
+      statement.execute("PRAGMA incremental_vacuum");
+      myConnection.commit();
+    }
+    catch (SQLException e) {
+      getLogger().error(e);
+    }
   }
 
   public void disconnect() {
     try {
+      if (myWriteQueue != null) {
+        myWriteQueue.close();
+      }
       myConnection.commit();
     }
     catch (SQLException e) {
@@ -121,4 +252,12 @@ public class DataStoreDatabase {
   public Connection getConnection() {
     return myConnection;
   }
+
+  /**
+   * @return the queue batching deferred writes to this database, or null if the database failed to open.
+   */
+  @Nullable
+  public DataStoreWriteQueue getWriteQueue() {
+    return myWriteQueue;
+  }
 }
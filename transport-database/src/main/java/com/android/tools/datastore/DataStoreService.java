@@ -16,11 +16,15 @@
 package com.android.tools.datastore;
 
 import static com.android.tools.datastore.DataStoreDatabase.Characteristic.DURABLE;
+import static com.android.tools.idea.flags.StudioFlags.PROFILER_PERSISTENT_SESSIONS;
 import static com.android.tools.idea.flags.StudioFlags.PROFILER_UNIFIED_PIPELINE;
 
 import com.android.tools.analytics.UsageTracker;
 import com.android.tools.datastore.database.DataStoreTable;
+import com.android.tools.datastore.database.DataStoreWriteQueue;
 import com.android.tools.datastore.database.UnifiedEventsTable;
+import com.android.tools.datastore.poller.PollRunner;
+import com.android.tools.datastore.poller.PollScheduler;
 import com.android.tools.datastore.service.CpuService;
 import com.android.tools.datastore.service.EnergyService;
 import com.android.tools.datastore.service.EventService;
@@ -49,6 +53,7 @@ import com.android.tools.idea.io.grpc.ServerInterceptors;
 import com.android.tools.idea.io.grpc.inprocess.InProcessServerBuilder;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
@@ -56,6 +61,7 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 import java.util.Timer;
 import java.util.TimerTask;
@@ -212,7 +218,7 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
   public DataStoreDatabase createDatabase(@NotNull String dbPath,
                                           @NotNull DataStoreDatabase.Characteristic characteristic,
                                           Consumer<Throwable> noPiiExceptionHandler) {
-    return new DataStoreDatabase(dbPath, characteristic, myLogService, noPiiExceptionHandler);
+    return new DataStoreDatabase(dbPath, characteristic, PROFILER_PERSISTENT_SESSIONS.get(), myLogService, noPiiExceptionHandler);
   }
 
   /**
@@ -227,7 +233,7 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
       assert !namespace.myNamespace.isEmpty();
       DataStoreDatabase db = myDatabases.computeIfAbsent(namespace, backingNamespace -> createDatabase(
         myDatastoreDirectory + backingNamespace.myNamespace, backingNamespace.myCharacteristic, myNoPiiExceptionHandler));
-      service.setBackingStore(namespace, db.getConnection());
+      service.setBackingStore(namespace, db);
     });
 
     // Build server and start listening for RPC calls for the registered service
@@ -277,6 +283,15 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
     DataStoreTable.removeDataStoreErrorCallback(this);
   }
 
+  /**
+   * Returns a stream over the requested bytes for consumers running in the same process as the datastore. Unlike the {@code getBytes}
+   * rpc, which has to carry the whole payload in its response, the stream reads it from the database one chunk at a time.
+   */
+  @NotNull
+  public InputStream openBytesStream(@NotNull Transport.BytesRequest request) {
+    return myTransportService.openBytesStream(request);
+  }
+
   @VisibleForTesting
   List<ServicePassThrough> getRegisteredServices() {
     return myServices;
@@ -403,6 +418,36 @@ public class DataStoreService implements DataStoreTable.DataStoreTableErrorCallb
         .setAndroidProfilerDbStats(dbStats);
 
       UsageTracker.log(event);
+      logPollerMetrics();
+      logWriteQueueMetrics();
+    }
+
+    private void logPollerMetrics() {
+      for (PollRunner runner : PollScheduler.getInstance().getActiveRunners()) {
+        getLogger().debug(String.format(Locale.US, "%s: polls=%d, period=%dms, lag=%dms (max %dms), last poll=%dms",
+                                        runner.getClass().getSimpleName(),
+                                        runner.getPollCount(),
+                                        TimeUnit.NANOSECONDS.toMillis(runner.getCurrentPollPeriodNs()),
+                                        TimeUnit.NANOSECONDS.toMillis(runner.getLastLagNs()),
+                                        TimeUnit.NANOSECONDS.toMillis(runner.getMaxLagNs()),
+                                        TimeUnit.NANOSECONDS.toMillis(runner.getLastPollDurationNs())));
+      }
+    }
+
+    private void logWriteQueueMetrics() {
+      myDatabases.forEach((namespace, db) -> {
+        DataStoreWriteQueue queue = db.getWriteQueue();
+        if (queue == null) {
+          return;
+        }
+        getLogger().debug(String.format(Locale.US, "%s write queue: depth=%d, commits=%d, commit latency=%dms (avg %dms, max %dms)",
+                                        namespace.myNamespace,
+                                        queue.getQueueDepth(),
+                                        queue.getCommitCount(),
+                                        TimeUnit.NANOSECONDS.toMillis(queue.getLastCommitLatencyNs()),
+                                        TimeUnit.NANOSECONDS.toMillis(queue.getAverageCommitLatencyNs()),
+                                        TimeUnit.NANOSECONDS.toMillis(queue.getMaxCommitLatencyNs())));
+      });
     }
 
     private void collectReport(AndroidProfilerDbStats.Builder dbStats) {
@@ -43,4 +43,13 @@ public interface ServicePassThrough {
    * @param connection {@link Connection} to the backing store
    */
   void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull Connection connection);
+
+  /**
+   * @param namespace a namespace corresponding to an entry in the list returned from {@link #getBackingNamespaces()}
+   * @param database  {@link DataStoreDatabase} backing the namespace. Services that want their writes batched can attach the database's
+   *                  {@link DataStoreDatabase#getWriteQueue()} to their tables.
+   */
+  default void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull DataStoreDatabase database) {
+    setBackingStore(namespace, database.getConnection());
+  }
 }
@@ -15,11 +15,13 @@
  */
 package com.android.tools.datastore.database;
 
+import com.android.tools.idea.protobuf.ByteString;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.sql.Types;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
@@ -28,6 +30,7 @@ import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.function.Function;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 /**
  * Interface a {@link com.android.tools.datastore.ServicePassThrough} object returns to indicate this object is
@@ -37,6 +40,7 @@ public abstract class DataStoreTable<T extends Enum> {
   private static final Set<DataStoreTableErrorCallback> ERROR_CALLBACKS = ConcurrentHashMap.newKeySet();
 
   private Connection myConnection;
+  @Nullable private DataStoreWriteQueue myWriteQueue;
   private final ThreadLocal<Map<T, PreparedStatement>> myStatementMap = new ThreadLocal<>();
 
   // Cache custom queries we have a limited number and we call the same query multiple times.
@@ -55,6 +59,16 @@ public abstract class DataStoreTable<T extends Enum> {
     myConnection = connection;
   }
 
+  /**
+   * Attaches a {@link DataStoreWriteQueue} to this table. Once attached, writes issued through {@link #executeDeferred} are batched by
+   * the queue instead of being executed immediately.
+   *
+   * @param writeQueue the queue shared by all tables on this table's connection, or null to execute writes immediately.
+   */
+  public void setWriteQueue(@Nullable DataStoreWriteQueue writeQueue) {
+    myWriteQueue = writeQueue;
+  }
+
   /**
    * Helper function called after initialize to create {@link PreparedStatement} the implementor should cache
    * the statements for later use.
@@ -113,6 +127,15 @@ public abstract class DataStoreTable<T extends Enum> {
     executeUniqueStatement(statement, columns);
   }
 
+  /**
+   * Same as {@link #createTable} but keeps the table and its rows if it already exists, for tables that persist across sessions.
+   */
+  protected void createTableIfNotExists(@NotNull String table, String... columns) throws SQLException {
+    StringBuilder statement = new StringBuilder();
+    statement.append(String.format("CREATE TABLE IF NOT EXISTS %s", table));
+    executeUniqueStatement(statement, columns);
+  }
+
   protected void createUniqueIndex(@NotNull String table, String... indexList) throws SQLException {
     StringBuilder statement = new StringBuilder();
     statement.append(String.format("CREATE UNIQUE INDEX IF NOT EXISTS idx_%s_pk ON %s", table, table));
@@ -146,6 +169,14 @@ public abstract class DataStoreTable<T extends Enum> {
    *                       of the specified statement.
    */
   protected <K> void executeBatch(@NotNull T statement, @NotNull List<K> batchParams, @NotNull Function<K, Object[]> paramConverter) {
+    drainWriteQueue();
+    applyBatch(statement, batchParams, paramConverter);
+  }
+
+  /**
+   * Like {@link #executeBatch} but without draining the {@link DataStoreWriteQueue} first, for the queue itself to apply its writes.
+   */
+  <K> void applyBatch(@NotNull T statement, @NotNull List<K> batchParams, @NotNull Function<K, Object[]> paramConverter) {
     if (isClosed()) {
       return;
     }
@@ -160,6 +191,8 @@ public abstract class DataStoreTable<T extends Enum> {
         }
       });
       int[] results = stmt.executeBatch();
+      // Clear parameters on exit so cached statements don't keep potentially large objects in memory.
+      stmt.clearParameters();
       for(int i = 0; i < results.length; i++) {
         if (results[i] == Statement.EXECUTE_FAILED) {
           throw new SQLException(String.format("Failed to insert batch element %d with result %d", i, results[i]));
@@ -175,6 +208,7 @@ public abstract class DataStoreTable<T extends Enum> {
     if (isClosed()) {
       return;
     }
+    drainWriteQueue();
     try {
       PreparedStatement stmt = getStatementMap().get(statement);
       applyParams(stmt, params);
@@ -188,10 +222,27 @@ public abstract class DataStoreTable<T extends Enum> {
     }
   }
 
+  /**
+   * Executes a write that does not need to reach the database before this call returns. If a {@link DataStoreWriteQueue} is attached
+   * the write is batched with others and committed by the queue, otherwise it behaves like {@link #execute}.
+   */
+  protected void executeDeferred(@NotNull T statement, Object... params) {
+    if (isClosed()) {
+      return;
+    }
+    if (myWriteQueue == null) {
+      execute(statement, params);
+    }
+    else {
+      myWriteQueue.enqueue(this, statement, params);
+    }
+  }
+
   protected ResultSet executeQuery(@NotNull T statement, Object... params) throws SQLException {
     if (isClosed()) {
       return new EmptyResultSet();
     }
+    drainWriteQueue();
     PreparedStatement stmt = getStatementMap().get(statement);
     applyParams(stmt, params);
     return stmt.executeQuery();
@@ -201,6 +252,7 @@ public abstract class DataStoreTable<T extends Enum> {
     if (isClosed()) {
       return new EmptyResultSet();
     }
+    drainWriteQueue();
     if (myCustomQueryCache.get() == null) {
       myCustomQueryCache.set(new HashMap<>());
     }
@@ -215,10 +267,21 @@ public abstract class DataStoreTable<T extends Enum> {
     return statement.executeQuery();
   }
 
+  /**
+   * Applies any writes still pending in the attached {@link DataStoreWriteQueue} so queries observe them. Writes that bypass the queue,
+   * {@link #execute} and {@link #executeBatch}, call this first so they are applied after the writes issued before them.
+   */
+  protected void drainWriteQueue() {
+    if (myWriteQueue != null) {
+      myWriteQueue.drain();
+    }
+  }
+
   protected void applyParams(@NotNull PreparedStatement statement, Object... params) throws SQLException {
     for (int i = 0; params != null && i < params.length; i++) {
       if (params[i] == null) {
-        continue;
+        // Batched statements keep the values bound for the previous row, so a null must be bound explicitly.
+        statement.setNull(i + 1, Types.NULL);
       }
       else if (params[i] instanceof String) {
         statement.setString(i + 1, (String)params[i]);
@@ -232,6 +295,11 @@ public abstract class DataStoreTable<T extends Enum> {
       else if (params[i] instanceof byte[]) {
         statement.setBytes(i + 1, (byte[])params[i]);
       }
+      else if (params[i] instanceof ByteString) {
+        // Streamed rather than copied to an array first, the ByteString may be a slice of a much larger payload.
+        ByteString bytes = (ByteString)params[i];
+        statement.setBinaryStream(i + 1, bytes.newInput(), bytes.size());
+      }
       else if (params[i] instanceof Boolean) {
         statement.setBoolean(i + 1, (boolean)params[i]);
       }
@@ -0,0 +1,260 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Write-behind queue shared by all {@link DataStoreTable}s backed by the same {@link Connection}.
+ * <p>
+ * Writes submitted through {@link DataStoreTable#executeDeferred} are buffered and applied with JDBC batches. The queue is drained and
+ * the transaction committed whenever {@link #getMaxBatchSize()} writes are pending or {@link #getCommitPeriodMs()} has elapsed, whichever
+ * comes first. Reads issued through a table attached to this queue drain it first (without committing) so callers always observe their
+ * own writes.
+ */
+public final class DataStoreWriteQueue {
+  public static final int DEFAULT_MAX_BATCH_SIZE = 1000;
+  public static final long DEFAULT_COMMIT_PERIOD_MS = 1000;
+
+  @NotNull private final Connection myConnection;
+  private final int myMaxBatchSize;
+  private final long myCommitPeriodMs;
+
+  /**
+   * Guards {@link #myPending} and {@link #myExecutor}.
+   */
+  private final Object myLock = new Object();
+  /**
+   * Serializes batch execution so writes reach the database in the order they were enqueued.
+   */
+  private final Object myFlushLock = new Object();
+  @NotNull private List<PendingWrite<?>> myPending = new ArrayList<>();
+  private ScheduledExecutorService myExecutor;
+  private boolean myIsClosed;
+  private final AtomicBoolean myFlushRequested = new AtomicBoolean(false);
+
+  private final AtomicLong myCommitCount = new AtomicLong();
+  private final AtomicLong myTotalCommitLatencyNs = new AtomicLong();
+  private final AtomicLong myMaxCommitLatencyNs = new AtomicLong();
+  private final AtomicLong myLastCommitLatencyNs = new AtomicLong();
+
+  public DataStoreWriteQueue(@NotNull Connection connection) {
+    this(connection, DEFAULT_MAX_BATCH_SIZE, DEFAULT_COMMIT_PERIOD_MS);
+  }
+
+  public DataStoreWriteQueue(@NotNull Connection connection, int maxBatchSize, long commitPeriodMs) {
+    assert maxBatchSize > 0 && commitPeriodMs > 0;
+    myConnection = connection;
+    myMaxBatchSize = maxBatchSize;
+    myCommitPeriodMs = commitPeriodMs;
+  }
+
+  public int getMaxBatchSize() {
+    return myMaxBatchSize;
+  }
+
+  public long getCommitPeriodMs() {
+    return myCommitPeriodMs;
+  }
+
+  /**
+   * @return the number of writes waiting to be applied to the database.
+   */
+  public int getQueueDepth() {
+    synchronized (myLock) {
+      return myPending.size();
+    }
+  }
+
+  /**
+   * @return the number of commits performed by this queue.
+   */
+  public long getCommitCount() {
+    return myCommitCount.get();
+  }
+
+  /**
+   * @return the time, in nanoseconds, the most recent flush took to apply its batches and commit.
+   */
+  public long getLastCommitLatencyNs() {
+    return myLastCommitLatencyNs.get();
+  }
+
+  /**
+   * @return the longest time, in nanoseconds, any flush took to apply its batches and commit.
+   */
+  public long getMaxCommitLatencyNs() {
+    return myMaxCommitLatencyNs.get();
+  }
+
+  /**
+   * @return the average time, in nanoseconds, a flush took to apply its batches and commit, or 0 if nothing was committed yet.
+   */
+  public long getAverageCommitLatencyNs() {
+    long count = myCommitCount.get();
+    return count == 0 ? 0 : myTotalCommitLatencyNs.get() / count;
+  }
+
+  <T extends Enum> void enqueue(@NotNull DataStoreTable<T> table, @NotNull T statement, @NotNull Object[] params) {
+    int depth = -1;
+    synchronized (myLock) {
+      if (!myIsClosed) {
+        myPending.add(new PendingWrite<>(table, statement, params));
+        depth = myPending.size();
+        if (myExecutor == null) {
+          myExecutor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "DataStoreWriteQueue");
+            thread.setDaemon(true);
+            return thread;
+          });
+          myExecutor.scheduleWithFixedDelay(this::flush, myCommitPeriodMs, myCommitPeriodMs, TimeUnit.MILLISECONDS);
+        }
+      }
+    }
+    if (depth < 0) {
+      // The database is going away, fall back to writing directly so nothing is lost.
+      table.applyBatch(statement, Collections.singletonList(params), Function.identity());
+      return;
+    }
+
+    if (depth >= myMaxBatchSize * 4) {
+      // The background flush cannot keep up, apply back pressure to the producer.
+      flush();
+    }
+    else if (depth >= myMaxBatchSize && myFlushRequested.compareAndSet(false, true)) {
+      synchronized (myLock) {
+        if (myExecutor != null && !myIsClosed) {
+          myExecutor.execute(this::flush);
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies all pending writes to the database without committing them. Writes applied on the connection are visible to subsequent
+   * reads on the same connection.
+   */
+  void drain() {
+    synchronized (myFlushLock) {
+      applyPending();
+    }
+  }
+
+  /**
+   * Applies all pending writes to the database and commits the current transaction.
+   */
+  public void flush() {
+    synchronized (myFlushLock) {
+      myFlushRequested.set(false);
+      long startNs = System.nanoTime();
+      applyPending();
+      try {
+        if (myConnection.isClosed() || myConnection.getAutoCommit()) {
+          return;
+        }
+        myConnection.commit();
+      }
+      catch (SQLException ex) {
+        DataStoreTable.onError(ex);
+        return;
+      }
+      long latencyNs = System.nanoTime() - startNs;
+      myCommitCount.incrementAndGet();
+      myTotalCommitLatencyNs.addAndGet(latencyNs);
+      myLastCommitLatencyNs.set(latencyNs);
+      myMaxCommitLatencyNs.accumulateAndGet(latencyNs, Math::max);
+    }
+  }
+
+  /**
+   * Flushes all pending writes and stops the background commit timer. Writes enqueued afterwards are applied immediately.
+   */
+  public void close() {
+    ScheduledExecutorService executor;
+    synchronized (myLock) {
+      myIsClosed = true;
+      executor = myExecutor;
+      myExecutor = null;
+    }
+    if (executor != null) {
+      executor.shutdownNow();
+    }
+    flush();
+  }
+
+  private void applyPending() {
+    List<PendingWrite<?>> pending;
+    synchronized (myLock) {
+      if (myPending.isEmpty()) {
+        return;
+      }
+      pending = myPending;
+      myPending = new ArrayList<>();
+    }
+
+    // Group consecutive writes of the same statement into a single JDBC batch. Only consecutive runs are grouped so interleaved
+    // statements (e.g. an insert followed by a delete) keep their relative order.
+    int runStart = 0;
+    for (int i = 1; i <= pending.size(); i++) {
+      if (i == pending.size() || !pending.get(i).isSameStatement(pending.get(runStart))) {
+        applyRun(pending.subList(runStart, i));
+        runStart = i;
+      }
+    }
+  }
+
+  private static void applyRun(@NotNull List<PendingWrite<?>> run) {
+    run.get(0).executeBatch(run);
+  }
+
+  private static final class PendingWrite<T extends Enum> {
+    @NotNull private final DataStoreTable<T> myTable;
+    @NotNull private final T myStatement;
+    @NotNull private final Object[] myParams;
+
+    private PendingWrite(@NotNull DataStoreTable<T> table, @NotNull T statement, @NotNull Object[] params) {
+      myTable = table;
+      myStatement = statement;
+      myParams = params;
+    }
+
+    private boolean isSameStatement(@NotNull PendingWrite<?> other) {
+      return myTable == other.myTable && myStatement == other.myStatement;
+    }
+
+    /**
+     * Executes all writes in {@code run}, which must all share this write's table and statement, as a single batch.
+     */
+    private void executeBatch(@NotNull List<PendingWrite<?>> run) {
+      List<Object[]> params = new ArrayList<>(run.size());
+      for (PendingWrite<?> write : run) {
+        params.add(write.myParams);
+      }
+      myTable.applyBatch(myStatement, params, Function.identity());
+    }
+  }
+}
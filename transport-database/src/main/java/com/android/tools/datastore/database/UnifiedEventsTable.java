@@ -15,20 +15,31 @@
  */
 package com.android.tools.datastore.database;
 
+import com.android.tools.idea.protobuf.ByteString;
 import com.android.tools.idea.protobuf.InvalidProtocolBufferException;
+import com.android.tools.idea.protobuf.UnsafeByteOperations;
 import com.android.tools.profiler.proto.Common.Event;
 import com.android.tools.profiler.proto.Transport.BytesRequest;
 import com.android.tools.profiler.proto.Transport.BytesResponse;
 import com.android.tools.profiler.proto.Transport.EventGroup;
 import com.android.tools.profiler.proto.Transport.GetEventGroupsRequest;
 import com.google.common.annotations.VisibleForTesting;
-import com.google.common.base.Predicates;
+import java.io.IOException;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
 import java.util.function.Predicate;
 import java.util.stream.Collectors;
 import org.jetbrains.annotations.NotNull;
@@ -45,8 +56,32 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
       "WHERE StreamId = ? AND ProcessId = ? And GroupId = ? And Kind = ? AND Timestamp >= ? AND Timestamp <= ?"),
     // Only used for test.
     QUERY_EVENTS("SELECT Data FROM [UnifiedEventsTable]"),
-    INSERT_BYTES("INSERT OR IGNORE INTO [BytesTable] (StreamId, Id, Data) VALUES (?, ?, ?)"),
-    GET_BYTES("SELECT Data FROM [BytesTable] WHERE StreamId = ? AND Id = ?");
+    // Each row is a session group written before this table was initialized, with its time range. Newest sessions first.
+    QUERY_PREVIOUS_RUN_SESSIONS(
+      "SELECT GroupId, StreamId, ProcessId, MIN(Timestamp), MAX(Timestamp), MAX(IsEnded) FROM [UnifiedEventsTable] " +
+      "WHERE Kind = ? AND ROWID <= ? GROUP BY StreamId, GroupId ORDER BY MAX(Timestamp) DESC"),
+    QUERY_LAST_PROCESS_EVENT_TIMESTAMP(
+      "SELECT MAX(Timestamp) FROM [UnifiedEventsTable] WHERE StreamId = ? AND ProcessId = ? AND Timestamp >= ? AND Timestamp <= ? " +
+      "AND ROWID <= ?"),
+    DELETE_SESSION_EVENTS(
+      "DELETE FROM [UnifiedEventsTable] WHERE StreamId = ? AND ProcessId = ? AND Timestamp >= ? AND Timestamp <= ? AND ROWID <= ?"),
+    DELETE_SESSION(
+      "DELETE FROM [UnifiedEventsTable] WHERE StreamId = ? AND GroupId = ? AND Kind = ? AND ROWID <= ?"),
+    // Bytes are referenced from event payloads we do not inspect, instead they are attributed to sessions by the time they were fetched.
+    DELETE_BYTES_IN_RANGE(
+      "DELETE FROM [BytesTable] WHERE StreamId = ? AND Timestamp >= ? AND Timestamp <= ? AND ROWID <= ?"),
+    DELETE_BYTES_CHUNKS_IN_RANGE(
+      "DELETE FROM [BytesChunksTable] WHERE StreamId = ? AND Id IN " +
+      "(SELECT Id FROM [BytesTable] WHERE StreamId = ? AND Timestamp >= ? AND Timestamp <= ? AND ROWID <= ?)"),
+    // Bytes fetched before any event of their stream was seen cannot be attributed, drop those once the stream has no events left.
+    DELETE_ORPHANED_BYTES(
+      "DELETE FROM [BytesTable] WHERE StreamId = ? AND NOT EXISTS (SELECT 1 FROM [UnifiedEventsTable] WHERE StreamId = ?)"),
+    DELETE_ORPHANED_BYTES_CHUNKS(
+      "DELETE FROM [BytesChunksTable] WHERE StreamId = ? AND NOT EXISTS (SELECT 1 FROM [UnifiedEventsTable] WHERE StreamId = ?)"),
+    INSERT_BYTES("INSERT OR IGNORE INTO [BytesTable] (StreamId, Id, Data, ChunkCount, Timestamp) VALUES (?, ?, ?, ?, ?)"),
+    GET_BYTES("SELECT Data, ChunkCount FROM [BytesTable] WHERE StreamId = ? AND Id = ?"),
+    INSERT_BYTES_CHUNK("INSERT OR IGNORE INTO [BytesChunksTable] (StreamId, Id, ChunkIndex, Data) VALUES (?, ?, ?, ?)"),
+    GET_BYTES_CHUNK("SELECT Data FROM [BytesChunksTable] WHERE StreamId = ? AND Id = ? AND ChunkIndex = ?");
 
     @NotNull private final String mySqlStatement;
 
@@ -60,6 +95,81 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
     }
   }
 
+  /**
+   * Template for the -1/+1 boundary queries. Rather than aggregating every event outside the range with GROUP BY, it enumerates the
+   * distinct groups with a loose index scan over (Kind, GroupId) and then picks each group's boundary event with a single descending
+   * (or ascending) lookup on the (Kind, GroupId, Timestamp) index. This costs O(groups * log(events)) instead of O(events).
+   * <p>
+   * The placeholders are, in order: the request filter (three times), the timestamp comparison and the timestamp sort order.
+   */
+  private static final String BOUNDARY_EVENTS_QUERY =
+    "WITH RECURSIVE Groups(GroupId) AS (" +
+    "SELECT MIN(GroupId) FROM [UnifiedEventsTable] WHERE Kind = ?%1$s " +
+    "UNION ALL " +
+    "SELECT (SELECT MIN(GroupId) FROM [UnifiedEventsTable] WHERE Kind = ?%1$s AND GroupId > Groups.GroupId) " +
+    "FROM Groups WHERE Groups.GroupId IS NOT NULL) " +
+    "SELECT Data, GroupId, IsEnded FROM [UnifiedEventsTable] WHERE ROWID IN (" +
+    "SELECT (SELECT ROWID FROM [UnifiedEventsTable] WHERE Kind = ?%1$s AND GroupId = Groups.GroupId AND Timestamp %2$s ? " +
+    "ORDER BY Timestamp %3$s, ROWID %3$s LIMIT 1) " +
+    "FROM Groups WHERE Groups.GroupId IS NOT NULL)";
+
+  /**
+   * Template for keyset paging through the events matching a filter. Each page resumes right after the (Timestamp, ROWID) of the last
+   * row of the previous page, so unlike OFFSET based paging the cost of a page does not grow with its position.
+   * <p>
+   * The placeholder is the request filter, its parameters follow the kind.
+   */
+  private static final String EVENTS_PAGE_QUERY =
+    "SELECT Data, Timestamp, ROWID FROM [UnifiedEventsTable] WHERE Kind = ?%s AND " +
+    "(Timestamp > ? OR (Timestamp = ? AND ROWID > ?)) ORDER BY Timestamp, ROWID LIMIT ?";
+
+  /**
+   * Number of events {@link #queryUnifiedEventGroups} reads per page.
+   */
+  @VisibleForTesting static final int EVENTS_PAGE_SIZE = 1000;
+
+  /**
+   * Number of {@link #queryUnifiedEventGroups} results to keep around. The UI repeatedly issues the same requests while the viewport
+   * doesn't move, so a small cache avoids re-running them.
+   */
+  private static final int EVENT_GROUPS_CACHE_SIZE = 32;
+
+  /**
+   * Size of the chunks {@link #insertBytes} splits large payloads (traces, heap dumps, network bodies...) into. Payloads up to this size
+   * are stored inline in the BytesTable, larger ones in the BytesChunksTable so they can be streamed back with {@link #openBytesStream}
+   * without holding the whole payload in memory.
+   */
+  @VisibleForTesting static final int BYTES_CHUNK_SIZE = 1024 * 1024;
+
+  /**
+   * Generation number per {@link Event.Kind}, bumped on every write of that kind so cached results of other kinds stay valid.
+   */
+  private final Map<Integer, AtomicLong> myKindGenerations = new ConcurrentHashMap<>();
+
+  /**
+   * LRU cache of event group queries. Access must be synchronized on the map.
+   */
+  private final Map<GetEventGroupsRequest, CachedEventGroups> myEventGroupsCache =
+    new LinkedHashMap<GetEventGroupsRequest, CachedEventGroups>(EVENT_GROUPS_CACHE_SIZE, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<GetEventGroupsRequest, CachedEventGroups> eldest) {
+        return size() > EVENT_GROUPS_CACHE_SIZE;
+      }
+    };
+
+  private final AtomicLong myEventGroupsCacheHits = new AtomicLong();
+
+  /**
+   * Timestamp of the latest event inserted per stream, used to attribute bytes to the sessions they were fetched during.
+   */
+  private final Map<Long, Long> myLatestEventTimestamps = new ConcurrentHashMap<>();
+
+  /**
+   * Largest ROWIDs of the events and bytes tables when this table was initialized. Rows up to these were written by a previous run.
+   */
+  private long myPreviousRunEventsRowId;
+  private long myPreviousRunBytesRowId;
+
   @Override
   public void prepareStatements() {
     try {
@@ -76,7 +186,8 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
   public void initialize(@NotNull Connection connection) {
     super.initialize(connection);
     try {
-      createTable("UnifiedEventsTable",
+      // Both tables persist when a durable database is reopened, see DataStoreDatabase#SCHEMA_VERSION.
+      createTableIfNotExists("UnifiedEventsTable",
                   "StreamId INTEGER NOT NULL", // Optional filter, required for all data.
                   "ProcessId INTEGER NOT NULL", // Optional filter, not required for data (eg device/process).
                   "GroupId INTEGER NOT NULL", // Optional filter, not required for data.
@@ -85,17 +196,103 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
                   "Timestamp INTEGER NOT NULL", // Optional filter, required for all data.
                   "IsEnded INTEGER NOT NULL", // Optional filter, required for all data.
                   "Data BLOB");
-      createTable("BytesTable", "StreamId INTEGER NOT NULL", "Id STRING NOT NULL", "Data BLOB");
+      // Data holds the serialized BytesResponse. If ChunkCount is non zero its contents are stored in BytesChunksTable instead.
+      // Timestamp is the latest event of the stream when the bytes were inserted, or 0 if unknown.
+      createTableIfNotExists("BytesTable", "StreamId INTEGER NOT NULL", "Id STRING NOT NULL", "Data BLOB",
+                             "ChunkCount INTEGER NOT NULL DEFAULT 0", "Timestamp INTEGER NOT NULL DEFAULT 0");
+      createTableIfNotExists("BytesChunksTable", "StreamId INTEGER NOT NULL", "Id STRING NOT NULL", "ChunkIndex INTEGER NOT NULL",
+                             "Data BLOB");
       createUniqueIndex("UnifiedEventsTable", "Kind", "StreamId", "ProcessId", "GroupId", "Timestamp", "IsEnded");
+      // Serves the per group boundary lookups of queryUnifiedEventGroups regardless of which optional filters are set.
+      createIndex("UnifiedEventsTable", 1, "Kind", "GroupId", "Timestamp");
+      // Serves queryUnifiedEventsPage.
+      createIndex("UnifiedEventsTable", 2, "Kind", "StreamId", "Timestamp");
       createUniqueIndex("BytesTable", "StreamId", "Id");
+      // Serves the range deletes of compactSessions.
+      createIndex("BytesTable", 1, "StreamId", "Timestamp");
+      createUniqueIndex("BytesChunksTable", "StreamId", "Id", "ChunkIndex");
+      myPreviousRunEventsRowId = queryMaxRowId(connection, "UnifiedEventsTable");
+      myPreviousRunBytesRowId = queryMaxRowId(connection, "BytesTable");
+      if (myPreviousRunEventsRowId > 0) {
+        endPreviousRunSessions();
+        // The session-ended events belong to the previous run as well.
+        myPreviousRunEventsRowId = queryMaxRowId(connection, "UnifiedEventsTable");
+      }
     }
     catch (SQLException ex) {
       onError(ex);
     }
   }
 
+  /**
+   * Sessions of a previous run that never ended have no process left to end them, without an end event they would show up as ongoing.
+   * Ends each of them at the last event its process reported before its next session, if any.
+   */
+  private void endPreviousRunSessions() throws SQLException {
+    for (SessionRange session : queryPreviousRunSessions()) {
+      if (session.myEnded) {
+        continue;
+      }
+      long endTimestamp = session.myStart;
+      try (ResultSet results = executeQuery(Statements.QUERY_LAST_PROCESS_EVENT_TIMESTAMP, session.myStreamId, session.myPid,
+                                            session.myStart, session.myEnd, myPreviousRunEventsRowId)) {
+        if (results.next()) {
+          endTimestamp = Math.max(endTimestamp, results.getLong(1));
+        }
+      }
+      execute(Statements.INSERT_EVENT, session.myStreamId, session.myPid, session.myGroupId, Event.Kind.SESSION.getNumber(), 0,
+              endTimestamp, 1,
+              Event.newBuilder()
+                .setPid((int)session.myPid)
+                .setKind(Event.Kind.SESSION)
+                .setGroupId(session.myGroupId)
+                .setTimestamp(endTimestamp)
+                .setIsEnded(true)
+                .build()
+                .toByteArray());
+    }
+    invalidateKind(Event.Kind.SESSION.getNumber());
+  }
+
+  /**
+   * @return the sessions written before this table was initialized, newest first. Sessions that never ended are considered to run until
+   * the next session of their process.
+   */
+  @NotNull
+  private List<SessionRange> queryPreviousRunSessions() throws SQLException {
+    List<SessionRange> sessions = new ArrayList<>();
+    ResultSet results = executeQuery(Statements.QUERY_PREVIOUS_RUN_SESSIONS, Event.Kind.SESSION.getNumber(), myPreviousRunEventsRowId);
+    while (results.next()) {
+      boolean ended = results.getBoolean(6);
+      sessions.add(new SessionRange(results.getLong(2), results.getLong(1), results.getLong(3), results.getLong(4),
+                                    ended ? results.getLong(5) : Long.MAX_VALUE, ended));
+    }
+
+    // Bound the sessions that never ended by the next session of the same process.
+    for (SessionRange session : sessions) {
+      if (session.myEnded) {
+        continue;
+      }
+      for (SessionRange other : sessions) {
+        if (other.myStreamId == session.myStreamId && other.myPid == session.myPid && other.myStart > session.myStart) {
+          session.myEnd = Math.min(session.myEnd, other.myStart - 1);
+        }
+      }
+    }
+    return sessions;
+  }
+
+  private static long queryMaxRowId(@NotNull Connection connection, @NotNull String table) throws SQLException {
+    try (Statement statement = connection.createStatement();
+         ResultSet result = statement.executeQuery(String.format("SELECT IFNULL(MAX(ROWID), 0) FROM [%s]", table))) {
+      return result.next() ? result.getLong(1) : 0;
+    }
+  }
+
   public void insertUnifiedEvent(long streamId, @NotNull Event event) {
-    execute(Statements.INSERT_EVENT,
+    invalidateKind(event.getKind().getNumber());
+    myLatestEventTimestamps.merge(streamId, event.getTimestamp(), Math::max);
+    executeDeferred(Statements.INSERT_EVENT,
             streamId,
             event.getPid(),
             event.getGroupId(),
@@ -107,7 +304,8 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
   }
 
   public void deleteEvents(long streamId, int pid, long groupId, Event.Kind kind, long fromTimestamp, long toTimestamp) {
-    execute(Statements.DELETE_EVENTS, streamId, pid, groupId, kind.getNumber(), fromTimestamp, toTimestamp);
+    invalidateKind(kind.getNumber());
+    executeDeferred(Statements.DELETE_EVENTS, streamId, pid, groupId, kind.getNumber(), fromTimestamp, toTimestamp);
   }
 
   @VisibleForTesting
@@ -115,6 +313,121 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
     return queryUnifiedEvents(Statements.QUERY_EVENTS);
   }
 
+  /**
+   * Returns up to {@code pageSize} events of the given stream and kind ordered by timestamp, starting after {@code cursor}. This is the
+   * query {@link #queryUnifiedEventGroups} pages through, exposed for callers that want to walk a stream without holding all of it.
+   *
+   * @param cursor {@link EventsPage#START} for the first page, otherwise {@link EventsPage#getNextCursor()} of the previous page.
+   */
+  @NotNull
+  public EventsPage queryUnifiedEventsPage(long streamId, @NotNull Event.Kind kind, @NotNull EventsPage.Cursor cursor, int pageSize) {
+    try {
+      return queryEventsPage(" AND StreamId = ?", Arrays.<Object>asList(kind.getNumber(), streamId), cursor, pageSize);
+    }
+    catch (SQLException | InvalidProtocolBufferException ex) {
+      onError(ex);
+    }
+    return new EventsPage(new ArrayList<>(), cursor, false);
+  }
+
+  /**
+   * @param filter conditions appended to the kind filter of {@link #EVENTS_PAGE_QUERY}.
+   * @param params the kind followed by the parameters of {@code filter}.
+   */
+  @NotNull
+  private EventsPage queryEventsPage(@NotNull String filter, @NotNull List<Object> params, @NotNull EventsPage.Cursor cursor, int pageSize)
+    throws SQLException, InvalidProtocolBufferException {
+    List<Object> pageParams = new ArrayList<>(params);
+    pageParams.add(cursor.myTimestamp);
+    pageParams.add(cursor.myTimestamp);
+    pageParams.add(cursor.myRowId);
+    pageParams.add(pageSize);
+    List<Event> events = new ArrayList<>();
+    EventsPage.Cursor next = cursor;
+    ResultSet results = executeOneTimeQuery(String.format(EVENTS_PAGE_QUERY, filter), pageParams.toArray());
+    while (results.next()) {
+      events.add(Event.parser().parseFrom(results.getBytes(1)));
+      next = new EventsPage.Cursor(results.getLong(2), results.getLong(3));
+    }
+    return new EventsPage(events, next, events.size() == pageSize);
+  }
+
+  /**
+   * Deletes all but the {@code sessionsToKeep} most recent sessions of previous runs, that is the sessions already in the database when
+   * this table was initialized, along with the events their process reported and the bytes fetched while they were running. Sessions of
+   * previous runs that never ended were ended when this table was initialized, see {@link #endPreviousRunSessions}. Sessions of the current
+   * run are always kept.
+   *
+   * @return the number of sessions deleted.
+   */
+  public int compactSessions(int sessionsToKeep) {
+    if (isClosed()) {
+      return 0;
+    }
+    List<SessionRange> sessions;
+    try {
+      sessions = queryPreviousRunSessions();
+    }
+    catch (SQLException ex) {
+      onError(ex);
+      return 0;
+    }
+    if (sessions.size() <= sessionsToKeep) {
+      return 0;
+    }
+
+    List<SessionRange> kept = sessions.subList(0, Math.max(sessionsToKeep, 0));
+    List<SessionRange> compacted = sessions.subList(kept.size(), sessions.size());
+    List<Object[]> bytesParams = new ArrayList<>();
+    for (SessionRange session : compacted) {
+      // Bytes fetched while a kept session of the same stream was also running may belong to it, leave those alone.
+      List<long[]> ranges = new ArrayList<>();
+      ranges.add(new long[]{session.myStart, session.myEnd});
+      for (SessionRange other : kept) {
+        if (other.myStreamId == session.myStreamId) {
+          ranges = subtractRange(ranges, other.myStart, other.myEnd);
+        }
+      }
+      for (long[] range : ranges) {
+        bytesParams.add(new Object[]{session.myStreamId, range[0], range[1], myPreviousRunBytesRowId});
+      }
+    }
+
+    executeBatch(Statements.DELETE_SESSION_EVENTS, compacted,
+                 session -> new Object[]{session.myStreamId, session.myPid, session.myStart, session.myEnd, myPreviousRunEventsRowId});
+    executeBatch(Statements.DELETE_SESSION, compacted,
+                 session -> new Object[]{session.myStreamId, session.myGroupId, Event.Kind.SESSION.getNumber(), myPreviousRunEventsRowId});
+    // Chunks are found through their header, delete them first.
+    executeBatch(Statements.DELETE_BYTES_CHUNKS_IN_RANGE, bytesParams,
+                 params -> new Object[]{params[0], params[0], params[1], params[2], params[3]});
+    executeBatch(Statements.DELETE_BYTES_IN_RANGE, bytesParams, Function.identity());
+    executeBatch(Statements.DELETE_ORPHANED_BYTES_CHUNKS, compacted, session -> new Object[]{session.myStreamId, session.myStreamId});
+    executeBatch(Statements.DELETE_ORPHANED_BYTES, compacted, session -> new Object[]{session.myStreamId, session.myStreamId});
+    myKindGenerations.values().forEach(AtomicLong::incrementAndGet);
+    return compacted.size();
+  }
+
+  /**
+   * @return the parts of the inclusive {@code ranges} that are outside of the inclusive range {@code [start, end]}.
+   */
+  @NotNull
+  private static List<long[]> subtractRange(@NotNull List<long[]> ranges, long start, long end) {
+    List<long[]> result = new ArrayList<>();
+    for (long[] range : ranges) {
+      if (end < range[0] || start > range[1]) {
+        result.add(range);
+        continue;
+      }
+      if (start > range[0]) {
+        result.add(new long[]{range[0], start - 1});
+      }
+      if (end < range[1]) {
+        result.add(new long[]{end + 1, range[1]});
+      }
+    }
+    return result;
+  }
+
   /**
    * Queries for set of events then groups them by {@link Event#getGroupId()}
    * <p>
@@ -151,16 +464,43 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
    * after.
    * Note: Group 5 gets returned as it has a single event before our from timestamp that does not ended, or ends after our to timestamp.
    *
+   * Results are cached until an event of the requested kind is inserted or deleted.
+   *
    * @param request
    */
   public List<EventGroup> queryUnifiedEventGroups(@NotNull GetEventGroupsRequest request) {
+    if (isClosed()) {
+      return new ArrayList<>();
+    }
+    long generation = getGeneration(request.getKind().getNumber());
+    synchronized (myEventGroupsCache) {
+      CachedEventGroups cached = myEventGroupsCache.get(request);
+      if (cached != null && cached.myGeneration == generation) {
+        myEventGroupsCacheHits.incrementAndGet();
+        return new ArrayList<>(cached.myGroups);
+      }
+    }
+
+    List<EventGroup> groups = doQueryUnifiedEventGroups(request);
+    synchronized (myEventGroupsCache) {
+      myEventGroupsCache.put(request, new CachedEventGroups(generation, groups));
+    }
+    return new ArrayList<>(groups);
+  }
+
+  @VisibleForTesting
+  long getEventGroupsCacheHits() {
+    return myEventGroupsCacheHits.get();
+  }
+
+  @NotNull
+  private List<EventGroup> doQueryUnifiedEventGroups(@NotNull GetEventGroupsRequest request) {
     ArrayList<Object> baseParams = new ArrayList<>();
     List<Object> beforeRangeParams = null;
     List<Object> afterRangeParams = null;
 
     HashMap<Long, EventGroup.Builder> builderGroups = new HashMap<>();
-    // The string format allows for altering the group by results for +1 and -1 queries.
-    String sql = "SELECT Data, GroupId%s From [UnifiedEventsTable] WHERE Kind = ? %s";
+    // The string format allows for altering the selected columns and the filter of the in range query.
     StringBuilder filter = new StringBuilder();
     baseParams.add(request.getKind().getNumber());
 
@@ -184,28 +524,22 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
       baseParams.add(request.getCommandId());
     }
 
-    String sqlBefore =
-      String.format(sql, ", IsEnded, MAX(Timestamp), MAX(ROWID)", filter.toString() + " AND Timestamp < ? GROUP BY GroupId");
-    String sqlAfter = String.format(sql, ", MIN(Timestamp), MIN(ROWID)", filter.toString() + " AND Timestamp > ? GROUP BY GroupId");
+    String sqlBefore = String.format(BOUNDARY_EVENTS_QUERY, filter, "<", "DESC");
+    String sqlAfter = String.format(BOUNDARY_EVENTS_QUERY, filter, ">", "ASC");
     ArrayList<Object> inRangeQueryParams = new ArrayList<>(baseParams);
     if (request.getFromTimestamp() > 0) {
-      beforeRangeParams = new ArrayList<>(baseParams);
-      beforeRangeParams.add(request.getFromTimestamp());
+      beforeRangeParams = getBoundaryParams(baseParams, request.getFromTimestamp());
       filter.append(" AND Timestamp >= ?");
       inRangeQueryParams.add(request.getFromTimestamp());
     }
 
     if (request.getToTimestamp() > 0 && request.getToTimestamp() != Long.MAX_VALUE) {
-      afterRangeParams = new ArrayList<>(baseParams);
-      afterRangeParams.add(request.getToTimestamp());
+      afterRangeParams = getBoundaryParams(baseParams, request.getToTimestamp());
       filter.append(" AND Timestamp <= ?");
       inRangeQueryParams.add(request.getToTimestamp());
     }
 
-    // Gather before range events if needed.
-    // Query before example:
-    // SELECT [Data], [GroupId], [IsEnded], MAX(Timestamp), MAX(ROWID) From [UnifiedEventsTable] WHERE Kind = ? AND Timestamp < ?
-    // GROUP BY GroupId;
+    // Gather before range events if needed. See BOUNDARY_EVENTS_QUERY, this returns the latest event of each group before the range.
     if (beforeRangeParams != null) {
       gatherEvents(sqlBefore, beforeRangeParams, builderGroups, resultSet -> {
         try {
@@ -218,14 +552,26 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
       });
     }
 
-    // Query example:
-    // SELECT [Data], [GroupId] From [UnifiedEventsTable] WHERE Kind = ? AND Timestamp >= ? AND Timestamp <= ?;
-    String query = String.format(sql, "", filter.toString());
-    gatherEvents(query, inRangeQueryParams, builderGroups, Predicates.alwaysTrue());
+    // Page through the in range events, see EVENTS_PAGE_QUERY. Query example:
+    // SELECT Data, Timestamp, ROWID FROM [UnifiedEventsTable] WHERE Kind = ? AND Timestamp >= ? AND Timestamp <= ? AND
+    //   (Timestamp > ? OR (Timestamp = ? AND ROWID > ?)) ORDER BY Timestamp, ROWID LIMIT ?;
+    try {
+      EventsPage page;
+      EventsPage.Cursor cursor = EventsPage.START;
+      do {
+        page = queryEventsPage(filter.toString(), inRangeQueryParams, cursor, EVENTS_PAGE_SIZE);
+        for (Event event : page.getEvents()) {
+          builderGroups.computeIfAbsent(event.getGroupId(), EventGroup.newBuilder()::setGroupId).addEvents(event);
+        }
+        cursor = page.getNextCursor();
+      }
+      while (page.hasMore());
+    }
+    catch (SQLException | InvalidProtocolBufferException ex) {
+      onError(ex);
+    }
 
-    // Gather after range events if needed.
-    // Query after example:
-    // SELECT [Data], [GroupId], MIN(Timestamp), MIN(ROWID) From [UnifiedEventsTable] WHERE Kind = ? AND Timestamp > ? GROUP BY GroupId;
+    // Gather after range events if needed. See BOUNDARY_EVENTS_QUERY, this returns the first event of each group after the range.
     if (afterRangeParams != null) {
       gatherEvents(sqlAfter, afterRangeParams, builderGroups, resultSet -> {
         try {
@@ -241,16 +587,87 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
     return builderGroups.values().stream().map(EventGroup.Builder::build).collect(Collectors.toList());
   }
 
+  /**
+   * @return the parameters for {@link #BOUNDARY_EVENTS_QUERY}, which repeats the request filter three times before the timestamp.
+   */
+  @NotNull
+  private static List<Object> getBoundaryParams(@NotNull List<Object> baseParams, long timestamp) {
+    List<Object> params = new ArrayList<>(baseParams.size() * 3 + 1);
+    for (int i = 0; i < 3; i++) {
+      params.addAll(baseParams);
+    }
+    params.add(timestamp);
+    return params;
+  }
+
+  private long getGeneration(int kind) {
+    return myKindGenerations.computeIfAbsent(kind, k -> new AtomicLong()).get();
+  }
+
+  private void invalidateKind(int kind) {
+    myKindGenerations.computeIfAbsent(kind, k -> new AtomicLong()).incrementAndGet();
+  }
+
   public void insertBytes(long streamId, @NotNull String id, @NotNull BytesResponse response) {
-    execute(Statements.INSERT_BYTES, streamId, id, response.toByteArray());
+    ByteString contents = response.getContents();
+    long timestamp = myLatestEventTimestamps.getOrDefault(streamId, 0L);
+    if (contents.size() <= BYTES_CHUNK_SIZE) {
+      executeDeferred(Statements.INSERT_BYTES, streamId, id, response.toByteArray(), 0, timestamp);
+      return;
+    }
+
+    // Chunks are written right away, one at a time, rather than queueing a copy of the whole payload until the next flush.
+    int chunkCount = (contents.size() + BYTES_CHUNK_SIZE - 1) / BYTES_CHUNK_SIZE;
+    for (int i = 0; i < chunkCount; i++) {
+      int start = i * BYTES_CHUNK_SIZE;
+      execute(Statements.INSERT_BYTES_CHUNK, streamId, id, i,
+              contents.substring(start, Math.min(start + BYTES_CHUNK_SIZE, contents.size())));
+    }
+    // Insert the header last so readers never observe a partially written payload.
+    executeDeferred(Statements.INSERT_BYTES, streamId, id, response.toBuilder().clearContents().build().toByteArray(), chunkCount,
+                    timestamp);
   }
 
+  /**
+   * Returns the whole response, as needed by the unary {@code getBytes} rpc. Chunked payloads are read through the same stream as
+   * {@link #openBytesStream}, prefer that one for in process consumers of payloads that can be large.
+   */
   @Nullable
   public BytesResponse getBytes(@NotNull BytesRequest request) {
     try {
       ResultSet results = executeQuery(Statements.GET_BYTES, request.getStreamId(), request.getId());
       if (results.next()) {
-        return BytesResponse.parseFrom(results.getBytes(1));
+        BytesResponse response = BytesResponse.parseFrom(results.getBytes(1));
+        int chunkCount = results.getInt(2);
+        if (chunkCount == 0) {
+          return response;
+        }
+        try (ChunkInputStream stream = new ChunkInputStream(request.getStreamId(), request.getId(), chunkCount)) {
+          return response.toBuilder().setContents(stream.readRemaining()).build();
+        }
+      }
+    }
+    catch (IOException | SQLException ex) {
+      onError(ex);
+    }
+
+    return null;
+  }
+
+  /**
+   * Returns a stream over the contents of the requested bytes, or null if they are not in the table. Chunked payloads are read from the
+   * database one chunk at a time as the stream is consumed, so at most {@link #BYTES_CHUNK_SIZE} bytes are held in memory.
+   */
+  @Nullable
+  public InputStream openBytesStream(@NotNull BytesRequest request) {
+    try {
+      ResultSet results = executeQuery(Statements.GET_BYTES, request.getStreamId(), request.getId());
+      if (results.next()) {
+        int chunkCount = results.getInt(2);
+        if (chunkCount == 0) {
+          return BytesResponse.parseFrom(results.getBytes(1)).getContents().newInput();
+        }
+        return new ChunkInputStream(request.getStreamId(), request.getId(), chunkCount);
       }
     }
     catch (InvalidProtocolBufferException | SQLException ex) {
@@ -302,4 +719,169 @@ public class UnifiedEventsTable extends DataStoreTable<UnifiedEventsTable.Statem
     }
     return records;
   }
+
+  /**
+   * A page of events returned by {@link #queryUnifiedEventsPage}.
+   */
+  public static final class EventsPage {
+    public static final Cursor START = new Cursor(Long.MIN_VALUE, 0);
+
+    @NotNull private final List<Event> myEvents;
+    @NotNull private final Cursor myNextCursor;
+    private final boolean myHasMore;
+
+    private EventsPage(@NotNull List<Event> events, @NotNull Cursor nextCursor, boolean hasMore) {
+      myEvents = events;
+      myNextCursor = nextCursor;
+      myHasMore = hasMore;
+    }
+
+    @NotNull
+    public List<Event> getEvents() {
+      return myEvents;
+    }
+
+    @NotNull
+    public Cursor getNextCursor() {
+      return myNextCursor;
+    }
+
+    /**
+     * @return false if this is known to be the last page. A full page may still be followed by an empty one.
+     */
+    public boolean hasMore() {
+      return myHasMore;
+    }
+
+    /**
+     * Position in the (Timestamp, ROWID) order of the table, opaque to callers.
+     */
+    public static final class Cursor {
+      private final long myTimestamp;
+      private final long myRowId;
+
+      private Cursor(long timestamp, long rowId) {
+        myTimestamp = timestamp;
+        myRowId = rowId;
+      }
+    }
+  }
+
+  /**
+   * Reads the chunks of a payload from the BytesChunksTable on demand.
+   */
+  private final class ChunkInputStream extends InputStream {
+    private final long myStreamId;
+    @NotNull private final String myId;
+    private final int myChunkCount;
+    private int myNextChunk;
+    @NotNull private byte[] myChunk = new byte[0];
+    private int myChunkOffset;
+
+    private ChunkInputStream(long streamId, @NotNull String id, int chunkCount) {
+      myStreamId = streamId;
+      myId = id;
+      myChunkCount = chunkCount;
+    }
+
+    @Override
+    public int read() throws IOException {
+      if (!ensureChunk()) {
+        return -1;
+      }
+      return myChunk[myChunkOffset++] & 0xFF;
+    }
+
+    @Override
+    public int read(@NotNull byte[] buffer, int offset, int length) throws IOException {
+      if (length == 0) {
+        return 0;
+      }
+      if (!ensureChunk()) {
+        return -1;
+      }
+      int count = Math.min(length, myChunk.length - myChunkOffset);
+      System.arraycopy(myChunk, myChunkOffset, buffer, offset, count);
+      myChunkOffset += count;
+      return count;
+    }
+
+    @Override
+    public int available() {
+      return myChunk.length - myChunkOffset;
+    }
+
+    @Override
+    public void close() {
+      myNextChunk = myChunkCount;
+      myChunk = new byte[0];
+      myChunkOffset = 0;
+    }
+
+    /**
+     * Reads the rest of the payload as a rope over the chunks as they were loaded from the database, rather than copying them into one
+     * contiguous array. The chunks are never written to, so wrapping them is safe.
+     */
+    @NotNull
+    private ByteString readRemaining() throws IOException {
+      ByteString contents = ByteString.EMPTY;
+      while (ensureChunk()) {
+        contents = contents.concat(UnsafeByteOperations.unsafeWrap(myChunk, myChunkOffset, myChunk.length - myChunkOffset));
+        myChunkOffset = myChunk.length;
+      }
+      return contents;
+    }
+
+    /**
+     * @return false if the end of the payload was reached.
+     */
+    private boolean ensureChunk() throws IOException {
+      while (myChunkOffset == myChunk.length) {
+        if (myNextChunk == myChunkCount) {
+          return false;
+        }
+        try {
+          ResultSet results = executeQuery(Statements.GET_BYTES_CHUNK, myStreamId, myId, myNextChunk);
+          if (!results.next()) {
+            throw new IOException(String.format(Locale.US, "Missing chunk %d of %s", myNextChunk, myId));
+          }
+          myChunk = results.getBytes(1);
+          myChunkOffset = 0;
+          myNextChunk++;
+        }
+        catch (SQLException ex) {
+          throw new IOException(ex);
+        }
+      }
+      return true;
+    }
+  }
+
+  private static final class SessionRange {
+    private final long myStreamId;
+    private final long myGroupId;
+    private final long myPid;
+    private final long myStart;
+    private long myEnd;
+    private final boolean myEnded;
+
+    private SessionRange(long streamId, long groupId, long pid, long start, long end, boolean ended) {
+      myStreamId = streamId;
+      myGroupId = groupId;
+      myPid = pid;
+      myStart = start;
+      myEnd = end;
+      myEnded = ended;
+    }
+  }
+
+  private static final class CachedEventGroups {
+    private final long myGeneration;
+    @NotNull private final List<EventGroup> myGroups;
+
+    private CachedEventGroups(long generation, @NotNull List<EventGroup> groups) {
+      myGeneration = generation;
+      myGroups = groups;
+    }
+  }
 }
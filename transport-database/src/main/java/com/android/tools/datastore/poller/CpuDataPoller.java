@@ -91,9 +91,11 @@ public class CpuDataPoller extends PollRunner {
     }
 
     // Store all the thread activities in the database.
+    int threadActivityCount = 0;
     for (CpuProfiler.GetThreadsResponse.Thread thread : threadsResponse.getThreadsList()) {
       List<CpuProfiler.GetThreadsResponse.ThreadActivity> activities = thread.getActivitiesList();
       int count = thread.getActivitiesCount();
+      threadActivityCount += count;
       if (count > 0) {
         CpuProfiler.GetThreadsResponse.ThreadActivity last = activities.get(count - 1);
         getThreadsStartNs = Math.max(getThreadsStartNs, last.getTimestamp());
@@ -113,5 +115,6 @@ public class CpuDataPoller extends PollRunner {
     }
 
     myDataRequestStartTimestampNs = Math.max(Math.max(myDataRequestStartTimestampNs + 1, getDataStartNs), getThreadsStartNs);
+    recordPollResult(response.getDataCount() + threadActivityCount + traceInfoResponse.getTraceInfoCount());
   }
 }
@@ -65,12 +65,17 @@ public class DeviceProcessPoller extends PollRunner {
   @Override
   public void poll() {
     try {
+      // Devices and processes are reported on every poll, so count what changed rather than what was received.
+      int changeCount = 0;
       GetDevicesRequest devicesRequest = GetDevicesRequest.newBuilder().build();
       GetDevicesResponse deviceResponse = myPollingService.getDevices(devicesRequest);
       for (Common.Device device : deviceResponse.getDeviceList()) {
         long deviceId = device.getDeviceId();
 
         myTable.insertOrUpdateDevice(device);
+        if (!myDevices.containsKey(deviceId)) {
+          changeCount++;
+        }
         DeviceData deviceData = myDevices.computeIfAbsent(deviceId, s -> new DeviceData(device));
 
         GetProcessesRequest processesRequest = GetProcessesRequest.newBuilder().setDeviceId(deviceId).build();
@@ -92,12 +97,16 @@ public class DeviceProcessPoller extends PollRunner {
             myTable.updateAgentStatus(deviceId, process, agentData);
           }
 
-          deviceData.processes.add(process);
+          if (deviceData.processes.add(process)) {
+            changeCount++;
+          }
         }
 
         Set<Common.Process> deadProcesses = Sets.difference(deviceData.processes, liveProcesses);
+        changeCount += deadProcesses.size();
         killProcesses(deviceId, deadProcesses);
       }
+      recordPollResult(changeCount);
     }
     catch (StatusRuntimeException ex) {
       // We expect this to get called when connection to the device is lost.
@@ -32,6 +32,7 @@ import com.android.tools.profiler.proto.NetworkServiceGrpc;
 import com.android.tools.profiler.proto.Transport.TimeRequest;
 import com.android.tools.profiler.proto.TransportServiceGrpc;
 import com.android.tools.idea.io.grpc.StatusRuntimeException;
+import java.util.List;
 import java.util.Locale;
 import java.util.concurrent.TimeUnit;
 import org.jetbrains.annotations.NotNull;
@@ -111,14 +112,19 @@ public final class EnergyDataPoller extends PollRunner {
     EnergyProfiler.EnergyRequest request = EnergyProfiler.EnergyRequest
       .newBuilder().setSession(mySession).setStartTimestamp(myDataRequestStartTimestampNs).setEndTimestamp(endTimestampNs).build();
 
-    addLatestEvents(request); // Update events before samples, so any event with an effect on samples will get reflected in the samples.
-    addLatestSamples(request);
+    // Update events before samples, so any event with an effect on samples will get reflected in the samples.
+    int eventCount = addLatestEvents(request);
+    recordPollResult(eventCount + addLatestSamples(request));
 
     myDataRequestStartTimestampNs = endTimestampNs;
   }
 
-  private void addLatestEvents(@NotNull EnergyProfiler.EnergyRequest request) {
-    for (Common.Event event : myEnergyService.getEvents(request).getEventsList()) {
+  /**
+   * @return the number of events received.
+   */
+  private int addLatestEvents(@NotNull EnergyProfiler.EnergyRequest request) {
+    List<Common.Event> events = myEnergyService.getEvents(request).getEventsList();
+    for (Common.Event event : events) {
       // Location-related events.
       if (event.getEnergyEvent().hasLocationUpdateRequested()) {
         myBatteryModel.handleEvent(
@@ -145,9 +151,14 @@ public final class EnergyDataPoller extends PollRunner {
 
       myEnergyTable.insertOrReplace(mySession, event);
     }
+    return events.size();
   }
 
-  private void addLatestSamples(@NotNull EnergyProfiler.EnergyRequest request) {
+  /**
+   * @return the number of network and CPU samples received.
+   */
+  private int addLatestSamples(@NotNull EnergyProfiler.EnergyRequest request) {
+    int sampleCount = 0;
     // Network-related samples
     {
       NetworkProfiler.NetworkDataRequest networkDataRequest =
@@ -156,6 +167,7 @@ public final class EnergyDataPoller extends PollRunner {
           .setEndTimestamp(request.getEndTimestamp()).setType(NetworkProfiler.NetworkDataRequest.Type.ALL).build();
 
       NetworkProfiler.NetworkDataResponse networkDataResponse = myNetworkService.getData(networkDataRequest);
+      sampleCount += networkDataResponse.getDataCount();
       for (NetworkProfiler.NetworkProfilerData networkData : networkDataResponse.getDataList()) {
         switch (networkData.getDataCase()) {
           case CONNECTIVITY_DATA:
@@ -199,6 +211,7 @@ public final class EnergyDataPoller extends PollRunner {
         CpuProfiler.CpuDataRequest.newBuilder().setSession(request.getSession()).setStartTimestamp(request.getStartTimestamp())
           .setEndTimestamp(request.getEndTimestamp()).build();
       CpuProfiler.CpuDataResponse cpuDataResponse = myCpuService.getData(cpuDataRequest);
+      sampleCount += cpuDataResponse.getDataCount();
       Cpu.CpuUsageData prevUsageData = myLastData;
 
       for (Cpu.CpuUsageData currUsageData : cpuDataResponse.getDataList()) {
@@ -216,6 +229,7 @@ public final class EnergyDataPoller extends PollRunner {
     for (EnergyProfiler.EnergySample sample : myBatteryModel.getSamplesBetween(request.getStartTimestamp(), request.getEndTimestamp())) {
       myEnergyTable.insertOrReplace(mySession, sample);
     }
+    return sampleCount;
   }
 
   @NotNull
@@ -88,5 +88,6 @@ public class EventDataPoller extends PollRunner {
       long id = data.getEventId();
       myEventsTable.insertOrReplace(id, mySession, data);
     }
+    recordPollResult(activityResponse.getDataCount() + systemResponse.getDataCount());
   }
 }
@@ -125,5 +125,7 @@ public class MemoryDataPoller extends PollRunner {
     if (response.getEndTimestamp() > myDataRequestStartTimestampNs) {
       myDataRequestStartTimestampNs = response.getEndTimestamp();
     }
+    recordPollResult(response.getMemSamplesCount() + response.getAllocStatsSamplesCount() + response.getGcStatsSamplesCount() +
+                     response.getAllocationsInfoCount() + response.getHeapDumpInfosCount());
   }
 }
\ No newline at end of file
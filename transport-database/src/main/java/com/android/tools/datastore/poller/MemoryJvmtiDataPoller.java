@@ -27,6 +27,11 @@ import com.android.tools.profiler.proto.MemoryServiceGrpc;
 import org.jetbrains.annotations.NotNull;
 
 public class MemoryJvmtiDataPoller extends PollRunner {
+  /**
+   * Each response item is a batch of many allocation events, so a handful of them already means the agent is producing data quickly.
+   */
+  private static final int FULL_BATCH_SIZE = 8;
+
   private long myDataRequestStartTimestampNs = Long.MIN_VALUE;
   private final MemoryServiceGrpc.MemoryServiceBlockingStub myPollingService;
   private final MemoryLiveAllocationTable myLiveAllocationTable;
@@ -35,7 +40,7 @@ public class MemoryJvmtiDataPoller extends PollRunner {
   public MemoryJvmtiDataPoller(@NotNull Common.Session session,
                                @NotNull MemoryLiveAllocationTable liveAllocationTable,
                                @NotNull MemoryServiceGrpc.MemoryServiceBlockingStub pollingService) {
-    super(POLLING_DELAY_NS);
+    super(POLLING_DELAY_NS, FULL_BATCH_SIZE);
     mySession = session;
     myLiveAllocationTable = liveAllocationTable;
     myPollingService = pollingService;
@@ -62,5 +67,7 @@ public class MemoryJvmtiDataPoller extends PollRunner {
     if (response.getEndTimestamp() > myDataRequestStartTimestampNs) {
       myDataRequestStartTimestampNs = response.getEndTimestamp();
     }
+    recordPollResult(response.getBatchAllocationContextsCount() + response.getBatchAllocationEventsCount() +
+                     response.getJniReferenceEventBatchesCount() + response.getAllocSamplingRateEventsCount());
   }
 }
\ No newline at end of file
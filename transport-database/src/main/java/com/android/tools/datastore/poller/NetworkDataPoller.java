@@ -60,6 +60,7 @@ public class NetworkDataPoller extends PollRunner {
       myNetworkTable.insert(mySession, data);
     }
     pollHttpRange();
+    recordPollResult(response.getDataCount());
   }
 
   private void pollHttpRange() {
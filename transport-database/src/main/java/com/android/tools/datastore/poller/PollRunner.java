@@ -16,30 +16,90 @@
 package com.android.tools.datastore.poller;
 
 import com.android.tools.idea.io.grpc.StatusRuntimeException;
-
+import com.google.common.annotations.VisibleForTesting;
 import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import org.jetbrains.annotations.NotNull;
 
 /**
  * A {@link RunnableFuture} which, while running, triggers a callback at a specified period
  * (which can be used to poll a target service at some frequency).
+ * <p>
+ * Polls run on the shared {@link PollScheduler} pool rather than on the thread calling {@link #run()}. The period adapts to the amount of
+ * data each poll returns, as reported by {@link #recordPollResult(int)}: it shortens while polls come back full and backs off while they
+ * come back empty, within {@link #MIN_PERIOD_DIVISOR} and {@link #MAX_PERIOD_MULTIPLIER} of the requested period.
  */
 public abstract class PollRunner implements RunnableFuture<Void> {
 
   public static final long POLLING_DELAY_NS = TimeUnit.MILLISECONDS.toNanos(250);
 
-  private long myPollPeriodNs;
+  /**
+   * Number of items a poll must return to be considered a full batch, unless the subclass specifies otherwise.
+   */
+  public static final int DEFAULT_FULL_BATCH_SIZE = 64;
+
+  /**
+   * The period never goes below the requested period divided by this.
+   */
+  public static final int MIN_PERIOD_DIVISOR = 4;
+
+  /**
+   * The period never goes above the requested period multiplied by this.
+   */
+  public static final int MAX_PERIOD_MULTIPLIER = 8;
+
+  private static final int UNKNOWN_ITEM_COUNT = -1;
+
+  private final long myPollPeriodNs;
+
+  private final int myFullBatchSize;
+
+  @NotNull private final PollScheduler myScheduler;
 
-  private boolean myIsRunning = false;
+  private final Object myLock = new Object();
+
+  private volatile boolean myIsRunning = false;
 
   private CountDownLatch myRunning = new CountDownLatch(1);
 
   private CountDownLatch myIsDone = new CountDownLatch(1);
 
+  /**
+   * The next poll scheduled on {@link #myScheduler}. Guarded by {@link #myLock}.
+   */
+  private ScheduledFuture<?> myNextPoll;
+
+  private volatile long myCurrentPeriodNs;
+
+  private int myLastItemCount = UNKNOWN_ITEM_COUNT;
+
+  private long myScheduledTimeNs;
+
+  private volatile long myPollCount;
+  private volatile long myLastLagNs;
+  private volatile long myMaxLagNs;
+  private volatile long myLastPollDurationNs;
 
   public PollRunner(long pollPeriodNs) {
+    this(pollPeriodNs, DEFAULT_FULL_BATCH_SIZE);
+  }
+
+  /**
+   * @param fullBatchSize the number of items, as reported through {@link #recordPollResult(int)}, at or above which a poll is considered
+   *                      to have returned a full batch and the runner should poll more often.
+   */
+  public PollRunner(long pollPeriodNs, int fullBatchSize) {
+    this(pollPeriodNs, fullBatchSize, PollScheduler.getInstance());
+  }
+
+  @VisibleForTesting
+  PollRunner(long pollPeriodNs, int fullBatchSize, @NotNull PollScheduler scheduler) {
     myPollPeriodNs = pollPeriodNs;
+    myCurrentPeriodNs = pollPeriodNs;
+    myFullBatchSize = fullBatchSize;
+    myScheduler = scheduler;
   }
 
   public void stop() {
@@ -52,31 +112,142 @@ public abstract class PollRunner implements RunnableFuture<Void> {
     }
   }
 
+  /**
+   * Starts polling on the shared {@link PollScheduler}. This returns immediately, use {@link #stop()} to stop polling.
+   */
   @Override
   public void run() {
-    try {
+    synchronized (myLock) {
+      if (myIsRunning || isCancelled()) {
+        return;
+      }
       myIsRunning = true;
-      while (myRunning.getCount() > 0) {
-        long startTimeNs = System.nanoTime();
-        poll();
-        long sleepTime = Math.max(myPollPeriodNs - (System.nanoTime() - startTimeNs), 0L);
-        myRunning.await(sleepTime, TimeUnit.NANOSECONDS);
+      myScheduler.onRunnerStarted(this);
+      scheduleNextPoll(0);
+    }
+  }
+
+  public abstract void poll();
+
+  /**
+   * Subclasses call this from {@link #poll()} with the number of items the poll received, which drives the adaptive poll period.
+   * Polls that do not report a result keep the requested period.
+   */
+  protected void recordPollResult(int itemCount) {
+    myLastItemCount = itemCount;
+  }
+
+  /**
+   * @return the period currently used between the end of a poll and the start of the next one.
+   */
+  public long getCurrentPollPeriodNs() {
+    return myCurrentPeriodNs;
+  }
+
+  /**
+   * @return the number of polls performed so far.
+   */
+  public long getPollCount() {
+    return myPollCount;
+  }
+
+  /**
+   * @return how late, in nanoseconds, the most recent poll started compared to when it was scheduled. A growing lag means the shared
+   * pool is saturated.
+   */
+  public long getLastLagNs() {
+    return myLastLagNs;
+  }
+
+  /**
+   * @return the largest {@link #getLastLagNs() lag} observed so far.
+   */
+  public long getMaxLagNs() {
+    return myMaxLagNs;
+  }
+
+  /**
+   * @return the time, in nanoseconds, the most recent {@link #poll()} took.
+   */
+  public long getLastPollDurationNs() {
+    return myLastPollDurationNs;
+  }
+
+  private void scheduleNextPoll(long delayNs) {
+    assert Thread.holdsLock(myLock);
+    myScheduledTimeNs = System.nanoTime() + delayNs;
+    myNextPoll = myScheduler.schedule(this::pollOnce, delayNs);
+  }
+
+  private void pollOnce() {
+    long startTimeNs = System.nanoTime();
+    long lagNs = Math.max(startTimeNs - myScheduledTimeNs, 0L);
+    myLastLagNs = lagNs;
+    myMaxLagNs = Math.max(myMaxLagNs, lagNs);
+    boolean keepPolling = false;
+    try {
+      if (isCancelled()) {
+        return;
+      }
+      myLastItemCount = UNKNOWN_ITEM_COUNT;
+      poll();
+      long endTimeNs = System.nanoTime();
+      myPollCount++;
+      myLastPollDurationNs = endTimeNs - startTimeNs;
+      myCurrentPeriodNs = computeNextPeriodNs(myCurrentPeriodNs, myLastItemCount);
+      synchronized (myLock) {
+        if (!isCancelled()) {
+          scheduleNextPoll(Math.max(myCurrentPeriodNs - (endTimeNs - startTimeNs), 0L));
+          keepPolling = true;
+        }
       }
     }
-    catch (InterruptedException | StatusRuntimeException e) {
-      Thread.currentThread().interrupt();
+    catch (StatusRuntimeException e) {
+      // The service went away, stop polling.
     }
     finally {
+      if (!keepPolling) {
+        finish();
+      }
+    }
+  }
+
+  private long computeNextPeriodNs(long currentPeriodNs, int itemCount) {
+    if (itemCount == UNKNOWN_ITEM_COUNT) {
+      return myPollPeriodNs;
+    }
+    if (itemCount == 0) {
+      // Nothing new, back off.
+      return Math.min(currentPeriodNs * 2, myPollPeriodNs * MAX_PERIOD_MULTIPLIER);
+    }
+    if (itemCount >= myFullBatchSize) {
+      // Data is piling up on the other side, catch up faster.
+      return Math.max(currentPeriodNs / 2, myPollPeriodNs / MIN_PERIOD_DIVISOR);
+    }
+    return myPollPeriodNs;
+  }
+
+  private void finish() {
+    synchronized (myLock) {
+      if (myIsDone.getCount() == 0) {
+        return;
+      }
+      myNextPoll = null;
       myIsRunning = false;
+      myScheduler.onRunnerFinished(this);
       myIsDone.countDown();
     }
   }
 
-  public abstract void poll();
-
   @Override
   public boolean cancel(boolean mayInterruptIfRunning) {
-    myRunning.countDown();
+    synchronized (myLock) {
+      myRunning.countDown();
+      // If the next poll has not started yet, it never will, so we are done. Otherwise the running poll finishes once it returns.
+      if (myNextPoll != null && myNextPoll.cancel(false)) {
+        finish();
+      }
+    }
     return true;
   }
 
@@ -92,6 +263,7 @@ public abstract class PollRunner implements RunnableFuture<Void> {
 
   @Override
   public Void get() throws InterruptedException {
+    // Once finished, the runner is no longer running and the latch is already released.
     if (myIsRunning) {
       myIsDone.await();
     }
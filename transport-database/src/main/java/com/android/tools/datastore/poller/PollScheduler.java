@@ -0,0 +1,89 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.poller;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Shared scheduled pool on which all {@link PollRunner}s run. Rather than blocking a thread per poller between polls, each runner
+ * schedules its next poll on this pool once the previous one completes.
+ * <p>
+ * The pool has a small fixed number of threads however many runners are active. Polls are blocking gRPC calls, so a slow poll delays
+ * the polls scheduled behind it rather than starting another thread. {@link PollRunner#getLastLagNs()} reports that delay.
+ */
+public final class PollScheduler {
+  private static final int POOL_SIZE = Math.max(2, Math.min(4, Runtime.getRuntime().availableProcessors() / 2));
+
+  private static final PollScheduler INSTANCE = new PollScheduler(POOL_SIZE);
+
+  @NotNull private final ScheduledThreadPoolExecutor myExecutor;
+  @NotNull private final Set<PollRunner> myActiveRunners = ConcurrentHashMap.newKeySet();
+
+  /**
+   * @param poolSize the number of threads polls run on.
+   */
+  PollScheduler(int poolSize) {
+    AtomicInteger threadCount = new AtomicInteger();
+    myExecutor = new ScheduledThreadPoolExecutor(poolSize, r -> {
+      Thread thread = new Thread(r, "DataStorePoller-" + threadCount.incrementAndGet());
+      thread.setDaemon(true);
+      return thread;
+    });
+    // Stopped pollers cancel their pending poll, do not keep it in the queue until its delay expires.
+    myExecutor.setRemoveOnCancelPolicy(true);
+  }
+
+  @NotNull
+  public static PollScheduler getInstance() {
+    return INSTANCE;
+  }
+
+  /**
+   * @return a snapshot of the runners currently polling, e.g. to publish their {@link PollRunner#getLastLagNs() lag} metrics.
+   */
+  @NotNull
+  public List<PollRunner> getActiveRunners() {
+    return new ArrayList<>(myActiveRunners);
+  }
+
+  @NotNull
+  ScheduledFuture<?> schedule(@NotNull Runnable task, long delayNs) {
+    return myExecutor.schedule(task, delayNs, TimeUnit.NANOSECONDS);
+  }
+
+  /**
+   * @return the number of threads polls run on.
+   */
+  int getPoolSize() {
+    return myExecutor.getCorePoolSize();
+  }
+
+  void onRunnerStarted(@NotNull PollRunner runner) {
+    myActiveRunners.add(runner);
+  }
+
+  void onRunnerFinished(@NotNull PollRunner runner) {
+    myActiveRunners.remove(runner);
+  }
+}
@@ -21,33 +21,41 @@ import com.android.tools.datastore.database.UnifiedEventsTable;
 import com.android.tools.profiler.proto.Common.Event;
 import com.android.tools.profiler.proto.Transport.GetEventsRequest;
 import com.android.tools.profiler.proto.TransportServiceGrpc;
-import com.android.tools.idea.io.grpc.StatusRuntimeException;
-import java.util.Iterator;
+import com.android.tools.idea.io.grpc.stub.ClientCallStreamObserver;
+import com.android.tools.idea.io.grpc.stub.ClientResponseObserver;
 import java.util.concurrent.CountDownLatch;
-import java.util.concurrent.atomic.AtomicBoolean;
 import org.jetbrains.annotations.NotNull;
 
 /**
- * This is a thread safe class to poll events from a grpc service. This class cannot be restarted once
- * stop is called it is guaranteed that run will not be executing.
+ * This is a thread safe class to stream events from a grpc service into the {@link UnifiedEventsTable}. This class cannot be restarted
+ * once stop is called, it is guaranteed that no event is being written once stop returns.
+ * <p>
+ * The events are received asynchronously and each one is written as it arrives, so no thread is blocked waiting for events. The next
+ * event is only requested once the previous one was handed to the table, a producer faster than the database is held back by grpc flow
+ * control instead of being buffered.
  */
 public class UnifiedEventsDataPoller implements Runnable, DataStoreTable.DataStoreTableErrorCallback {
   private final long myStreamId;
   @NotNull private final UnifiedEventsTable myTable;
-  @NotNull private final TransportServiceGrpc.TransportServiceBlockingStub myEventPollingService;
+  @NotNull private final TransportServiceGrpc.TransportServiceStub myEventPollingService;
   @NotNull private final DataStoreService myDataStoreService;
-  @NotNull private final CountDownLatch myRunningLatch;
-  @NotNull private final AtomicBoolean myIsRunning = new AtomicBoolean(false);
+  @NotNull private final CountDownLatch myRunningLatch = new CountDownLatch(1);
+  private final Object myLock = new Object();
+  /**
+   * Guarded by {@link #myLock}.
+   */
+  private boolean myIsStarted;
+  private boolean myIsStopped;
+  private ClientCallStreamObserver<GetEventsRequest> myEventStream;
 
   public UnifiedEventsDataPoller(long streamId,
                                  @NotNull UnifiedEventsTable unifiedEventsTable,
                                  @NotNull TransportServiceGrpc.TransportServiceBlockingStub pollingService,
                                  @NotNull DataStoreService dataStoreService) {
-    myEventPollingService = pollingService;
+    myEventPollingService = TransportServiceGrpc.newStub(pollingService.getChannel());
     myDataStoreService = dataStoreService;
     myStreamId = streamId;
     myTable = unifiedEventsTable;
-    myRunningLatch = new CountDownLatch(1);
   }
 
   @Override
@@ -55,34 +63,68 @@ public class UnifiedEventsDataPoller implements Runnable, DataStoreTable.DataSto
     myDataStoreService.disconnect(myStreamId);
   }
 
+  /**
+   * Cancels the stream and blocks until its last event has been written.
+   */
   public void stop() {
-    try {
-      // Block stop method until the run function has completed.
-      if (myIsRunning.get()) {
-        myRunningLatch.await();
+    synchronized (myLock) {
+      myIsStopped = true;
+      if (!myIsStarted) {
+        return;
       }
+      myEventStream.cancel("Poller stopped", null);
+    }
+    try {
+      myRunningLatch.await();
     }
     catch (InterruptedException ignored) {
+      Thread.currentThread().interrupt();
     }
   }
 
+  /**
+   * @return true once the stream has ended, whether the server completed it, it failed or {@link #stop()} cancelled it.
+   */
+  public boolean isDone() {
+    return myRunningLatch.getCount() == 0;
+  }
+
+  /**
+   * Starts streaming events. This returns immediately, use {@link #stop()} to stop streaming.
+   */
   @Override
   public void run() {
-    myIsRunning.set(true);
-    try {
-      // The iterator returned will block on next calls, only returning when data is received or the server disconnects.
-      Iterator<Event> events = myEventPollingService.getEvents(GetEventsRequest.getDefaultInstance());
-      while (events.hasNext()) {
-        Event event = events.next();
-        if (event != null) {
-          myTable.insertUnifiedEvent(myStreamId, event);
-        }
+    synchronized (myLock) {
+      if (myIsStarted || myIsStopped) {
+        return;
       }
+      myIsStarted = true;
+      // Returns once the call is started, myEventStream is set by then.
+      myEventPollingService.getEvents(GetEventsRequest.getDefaultInstance(), new EventStreamObserver());
+    }
+  }
+
+  private final class EventStreamObserver implements ClientResponseObserver<GetEventsRequest, Event> {
+    @Override
+    public void beforeStart(ClientCallStreamObserver<GetEventsRequest> requestStream) {
+      // Automatic inbound flow control requests the next event only once onNext returns.
+      myEventStream = requestStream;
+    }
+
+    @Override
+    public void onNext(Event event) {
+      myTable.insertUnifiedEvent(myStreamId, event);
     }
-    catch (StatusRuntimeException exception) {
+
+    @Override
+    public void onError(Throwable t) {
       // device disconnect logic handle via TransportDeviceManager
+      myRunningLatch.countDown();
+    }
+
+    @Override
+    public void onCompleted() {
+      myRunningLatch.countDown();
     }
-    // Signal end of run.
-    myRunningLatch.countDown();
   }
 }
@@ -15,6 +15,7 @@
  */
 package com.android.tools.datastore.service;
 
+import com.android.tools.datastore.DataStoreDatabase;
 import com.android.tools.datastore.DataStoreService;
 import com.android.tools.datastore.ServicePassThrough;
 import com.android.tools.datastore.database.DataStoreTable;
@@ -49,6 +50,7 @@ import com.android.tools.profiler.proto.Transport.VersionRequest;
 import com.android.tools.profiler.proto.Transport.VersionResponse;
 import com.android.tools.profiler.proto.TransportServiceGrpc;
 import com.google.common.annotations.VisibleForTesting;
+import java.io.InputStream;
 import java.sql.Connection;
 import java.util.Collection;
 import java.util.Collections;
@@ -65,6 +67,11 @@ import org.jetbrains.annotations.NotNull;
  * {@link #getDevices(GetDevicesRequest, StreamObserver)}, {@link #getProcesses(GetProcessesRequest, StreamObserver)}, etc.
  */
 public class TransportService extends TransportServiceGrpc.TransportServiceImplBase implements ServicePassThrough {
+  /**
+   * Number of sessions from previous runs kept when the database is reopened.
+   */
+  private static final int MAX_PERSISTED_SESSIONS = 20;
+
   private final Map<Channel, DeviceProcessPoller> myLegacyPollers = new HashMap<>();
   private final Consumer<Runnable> myFetchExecutor;
   @NotNull private final UnifiedEventsTable myTable;
@@ -99,6 +106,20 @@ public class TransportService extends TransportServiceGrpc.TransportServiceImplB
     return Collections.singletonList(DataStoreService.BackingNamespace.DEFAULT_SHARED_NAMESPACE);
   }
 
+  @Override
+  public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull DataStoreDatabase database) {
+    // Events arrive from the pollers at a high rate, batch them instead of paying for a statement per event.
+    myTable.setWriteQueue(database.getWriteQueue());
+    setBackingStore(namespace, database.getConnection());
+    if (database.isReopened()) {
+      // Sessions from previous runs are still around, bound how many we keep so the file does not grow forever.
+      myFetchExecutor.accept(() -> {
+        myTable.compactSessions(MAX_PERSISTED_SESSIONS);
+        database.reclaimFreePages();
+      });
+    }
+  }
+
   @Override
   public void setBackingStore(@NotNull DataStoreService.BackingNamespace namespace, @NotNull Connection connection) {
     assert namespace == DataStoreService.BackingNamespace.DEFAULT_SHARED_NAMESPACE;
@@ -211,23 +232,50 @@ public class TransportService extends TransportServiceGrpc.TransportServiceImplB
 
   @Override
   public void getBytes(BytesRequest request, StreamObserver<BytesResponse> responseObserver) {
-    // TODO: Currently the cache is on demand, we want to look into caching all available files.
     BytesResponse response = myTable.getBytes(request);
-    long streamId = request.getStreamId();
-    TransportServiceGrpc.TransportServiceBlockingStub client = myService.getTransportClient(streamId);
+    if (response == null) {
+      response = fetchBytes(request);
+    }
+
+    responseObserver.onNext(response);
+    responseObserver.onCompleted();
+  }
 
-    if (response == null && client != null) {
-      response = client.getBytes(request);
-      if (!response.getContents().isEmpty()) {
-        myTable.insertBytes(streamId, request.getId(), response);
+  /**
+   * In process counterpart of {@link #getBytes(BytesRequest, StreamObserver)} that reads the bytes one chunk at a time as the returned
+   * stream is consumed, so large payloads such as heap dumps and traces never need to be held in memory whole.
+   */
+  @NotNull
+  public InputStream openBytesStream(@NotNull BytesRequest request) {
+    InputStream stream = myTable.openBytesStream(request);
+    if (stream == null) {
+      BytesResponse response = fetchBytes(request);
+      // Read the payload back from the table once it is cached so the response fetched from the device can be collected.
+      stream = response.getContents().isEmpty() ? null : myTable.openBytesStream(request);
+      if (stream == null) {
+        stream = response.getContents().newInput();
       }
     }
-    else if (response == null) {
-      response = BytesResponse.getDefaultInstance();
+    return stream;
+  }
+
+  /**
+   * Fetches bytes missing from the table from the device they belong to, caching them in the table.
+   */
+  @NotNull
+  private BytesResponse fetchBytes(@NotNull BytesRequest request) {
+    // TODO: Currently the cache is on demand, we want to look into caching all available files.
+    long streamId = request.getStreamId();
+    TransportServiceGrpc.TransportServiceBlockingStub client = myService.getTransportClient(streamId);
+    if (client == null) {
+      return BytesResponse.getDefaultInstance();
     }
 
-    responseObserver.onNext(response);
-    responseObserver.onCompleted();
+    BytesResponse response = client.getBytes(request);
+    if (!response.getContents().isEmpty()) {
+      myTable.insertBytes(streamId, request.getId(), response);
+    }
+    return response;
   }
 
   @Override
@@ -15,11 +15,13 @@ package com.android.tools.datastore.database
 
 import com.android.tools.datastore.DataStoreDatabase
 import com.android.tools.datastore.FakeLogService
+import com.android.tools.profiler.proto.Common
 import com.google.common.truth.Truth.assertThat
 import org.junit.Test
 import java.io.BufferedOutputStream
 import java.io.File
 import java.io.FileOutputStream
+import java.sql.DriverManager
 
 class DataStoreDatabaseTest {
 
@@ -45,6 +47,46 @@ class DataStoreDatabaseTest {
     assertThat(myDatabaseFile.exists()).isTrue()
   }
 
+  @Test
+  fun testReopenKeepsExistingData() {
+    myDatabaseFile.delete()
+    var db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, true, FakeLogService()) { }
+    assertThat(db.isReopened).isFalse()
+    var table = UnifiedEventsTable()
+    table.initialize(db.connection)
+    table.insertUnifiedEvent(1, Common.Event.newBuilder().setKind(Common.Event.Kind.SESSION).setTimestamp(1).build())
+    db.disconnect()
+
+    db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, true, FakeLogService()) { }
+    assertThat(db.isReopened).isTrue()
+    table = UnifiedEventsTable()
+    table.initialize(db.connection)
+    assertThat(table.queryUnifiedEvents()).hasSize(1)
+    db.disconnect()
+  }
+
+  @Test
+  fun testReopenDeletesUnsupportedFile() {
+    val outputStream = BufferedOutputStream(FileOutputStream(myDatabaseFile))
+    outputStream.write(ByteArray(1024))
+    outputStream.close()
+    val db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, true, FakeLogService()) { }
+    assertThat(db.isReopened).isFalse()
+    assertThat(myDatabaseFile.length()).isEqualTo(0)
+    db.disconnect()
+  }
+
+  @Test
+  fun testReopenDeletesNewerSchemaVersion() {
+    myDatabaseFile.delete()
+    DriverManager.getConnection("jdbc:sqlite:${myDatabaseFile.absolutePath}").use { connection ->
+      connection.createStatement().use { it.execute("PRAGMA user_version = ${DataStoreDatabase.SCHEMA_VERSION + 1}") }
+    }
+    val db = DataStoreDatabase(myDatabaseFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, true, FakeLogService()) { }
+    assertThat(db.isReopened).isFalse()
+    db.disconnect()
+  }
+
   @Test
   fun testConnectionIsOpen() {
     // Verify persistent database
@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2022 The Android Open Source Project
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.tools.datastore.database
+
+import com.android.tools.datastore.DataStoreDatabase
+import com.android.tools.datastore.FakeLogService
+import com.android.tools.idea.protobuf.ByteString
+import com.android.tools.profiler.proto.Common
+import com.android.tools.profiler.proto.Transport
+import com.google.common.truth.Truth.assertThat
+import org.junit.After
+import org.junit.Before
+import org.junit.Test
+import java.io.File
+import java.sql.DriverManager
+import java.util.function.Function
+
+class DataStoreWriteQueueTest {
+  private lateinit var dbFile: File
+  private lateinit var database: DataStoreDatabase
+  private lateinit var queue: DataStoreWriteQueue
+  private lateinit var table: UnifiedEventsTable
+
+  @Before
+  fun setUp() {
+    dbFile = File.createTempFile("DataStoreWriteQueueTest", "sql")
+    dbFile.deleteOnExit()
+    database = DataStoreDatabase(dbFile.absolutePath, DataStoreDatabase.Characteristic.DURABLE, FakeLogService())
+    // Use a long commit period so only the size threshold and explicit flushes commit during the test.
+    queue = DataStoreWriteQueue(database.connection, 10, 60_000)
+    table = UnifiedEventsTable()
+    table.initialize(database.connection)
+    table.setWriteQueue(queue)
+  }
+
+  @After
+  fun tearDown() {
+    queue.close()
+    database.disconnect()
+  }
+
+  @Test
+  fun writesAreQueuedUntilRead() {
+    for (i in 1..5) {
+      table.insertUnifiedEvent(1, event(i.toLong()))
+    }
+    assertThat(queue.queueDepth).isEqualTo(5)
+
+    // Reads drain the queue so they always see prior writes.
+    assertThat(table.queryUnifiedEvents()).hasSize(5)
+    assertThat(queue.queueDepth).isEqualTo(0)
+  }
+
+  @Test
+  fun writeOrderIsPreserved() {
+    table.insertUnifiedEvent(1, event(1))
+    table.insertUnifiedEvent(1, event(2))
+    table.deleteEvents(1, 1, 1, Common.Event.Kind.SESSION, 0, 1)
+    table.insertUnifiedEvent(1, event(3))
+
+    assertThat(table.queryUnifiedEvents().map { it.timestamp }).containsExactly(2L, 3L)
+  }
+
+  @Test
+  fun batchesRunAfterQueuedWrites() {
+    table.insertUnifiedEvent(1, event(1))
+    table.insertUnifiedEvent(1, event(2))
+    assertThat(queue.queueDepth).isEqualTo(2)
+
+    // The batch bypasses the queue, it must still observe the inserts queued before it.
+    table.executeBatch(UnifiedEventsTable.Statements.DELETE_EVENTS,
+                       listOf(arrayOf<Any>(1L, 1, 1L, Common.Event.Kind.SESSION.number, 0L, 1L)),
+                       Function.identity())
+    assertThat(queue.queueDepth).isEqualTo(0)
+    assertThat(table.queryUnifiedEvents().map { it.timestamp }).containsExactly(2L)
+  }
+
+  @Test
+  fun largeBytesChunksAreNotQueued() {
+    val contents = ByteString.copyFrom(ByteArray(UnifiedEventsTable.BYTES_CHUNK_SIZE * 3))
+    table.insertBytes(1, "large", Transport.BytesResponse.newBuilder().setContents(contents).build())
+
+    // Only the header waits in the queue, the chunks were written right away.
+    assertThat(queue.queueDepth).isEqualTo(1)
+    val request = Transport.BytesRequest.newBuilder().setStreamId(1).setId("large").build()
+    assertThat(table.openBytesStream(request)!!.use { it.readBytes() }).isEqualTo(contents.toByteArray())
+  }
+
+  @Test
+  fun flushCommitsAndRecordsLatency() {
+    table.insertUnifiedEvent(1, event(1))
+    assertThat(countCommittedEvents()).isEqualTo(0)
+
+    queue.flush()
+    assertThat(queue.queueDepth).isEqualTo(0)
+    assertThat(queue.commitCount).isEqualTo(1)
+    assertThat(queue.lastCommitLatencyNs).isGreaterThan(0L)
+    assertThat(queue.maxCommitLatencyNs).isAtLeast(queue.lastCommitLatencyNs)
+    assertThat(queue.averageCommitLatencyNs).isGreaterThan(0L)
+    assertThat(countCommittedEvents()).isEqualTo(1)
+  }
+
+  @Test
+  fun closeFlushesAndWritesDirectlyAfterwards() {
+    table.insertUnifiedEvent(1, event(1))
+    queue.close()
+    assertThat(queue.queueDepth).isEqualTo(0)
+    assertThat(countCommittedEvents()).isEqualTo(1)
+
+    table.insertUnifiedEvent(1, event(2))
+    assertThat(queue.queueDepth).isEqualTo(0)
+    assertThat(table.queryUnifiedEvents()).hasSize(2)
+  }
+
+  private fun countCommittedEvents(): Int {
+    // A separate connection only observes committed transactions.
+    DriverManager.getConnection("jdbc:sqlite:${dbFile.absolutePath}").use { connection ->
+      connection.createStatement().executeQuery("SELECT COUNT(*) FROM [UnifiedEventsTable]").use { results ->
+        return results.getInt(1)
+      }
+    }
+  }
+
+  private fun event(timestamp: Long): Common.Event {
+    return Common.Event.newBuilder()
+      .setKind(Common.Event.Kind.SESSION)
+      .setPid(1)
+      .setGroupId(1)
+      .setTimestamp(timestamp)
+      .build()
+  }
+}
@@ -25,6 +25,7 @@ import java.io.File;
 import java.sql.Connection;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
 import java.util.concurrent.CountDownLatch;
 import org.jetbrains.annotations.NotNull;
 import org.junit.After;
@@ -72,6 +73,19 @@ public class DatabaseTableTest {
     assertThat(resultSet).isInstanceOf(EmptyResultSet.class);
   }
 
+  @Test
+  public void testBatchBindsNullParams() throws Exception {
+    myTable.insertDataBatch(1, null, 3);
+    ResultSet resultSet = myTable.readDataRaw();
+    assertTrue(resultSet.next());
+    assertThat(resultSet.getObject(1)).isEqualTo(1);
+    assertTrue(resultSet.next());
+    assertThat(resultSet.getObject(1)).isNull();
+    assertTrue(resultSet.next());
+    assertThat(resultSet.getObject(1)).isEqualTo(3);
+    assertFalse(resultSet.next());
+  }
+
   @Test
   public void testThreadMultiThreadExecute() throws Exception {
     // Insert some fake data
@@ -183,6 +197,10 @@ public class DatabaseTableTest {
       }
     }
 
+    public void insertDataBatch(Integer... someData) {
+      executeBatch(ThreadTableStatement.INSERT_DATA, Arrays.asList(someData), data -> new Object[]{data});
+    }
+
     public ResultSet readDataRaw() throws SQLException {
       return executeQuery(ThreadTableStatement.READ_DATA);
     }
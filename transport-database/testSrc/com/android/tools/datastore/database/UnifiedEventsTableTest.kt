@@ -15,6 +15,7 @@
  */
 package com.android.tools.datastore.database
 
+import com.android.tools.idea.protobuf.ByteString
 import com.android.tools.profiler.proto.Common
 import com.android.tools.profiler.proto.Transport.BytesRequest
 import com.android.tools.profiler.proto.Transport.BytesResponse
@@ -69,7 +70,10 @@ class UnifiedEventsTableTest : DatabaseTest<UnifiedEventsTable>() {
       }),
       (Consumer { it.queryUnifiedEvents() }),
       (Consumer { assertThat(it.getBytes(BytesRequest.getDefaultInstance())).isEqualTo(null) }),
-      (Consumer { it.insertBytes(0, "id", BytesResponse.getDefaultInstance()) }))
+      (Consumer { it.insertBytes(0, "id", BytesResponse.getDefaultInstance()) }),
+      (Consumer { it.queryUnifiedEventsPage(1, Common.Event.Kind.SESSION, UnifiedEventsTable.EventsPage.START, 10) }),
+      (Consumer { it.compactSessions(1) }),
+      (Consumer { assertThat(it.openBytesStream(BytesRequest.getDefaultInstance())).isNull() }))
   }
 
   private fun insertData(count: Int, incrementGroupId: Boolean): List<Common.Event> {
@@ -282,6 +286,172 @@ class UnifiedEventsTableTest : DatabaseTest<UnifiedEventsTable>() {
                    SESSION_1_1_4)
   }
 
+  @Test
+  fun repeatedQueriesAreCached() {
+    for (event in events) {
+      table.insertUnifiedEvent(1, event)
+    }
+    val request = GetEventGroupsRequest.newBuilder().setKind(Common.Event.Kind.SESSION).setFromTimestamp(3).setToTimestamp(6).build()
+    val first = table.queryUnifiedEventGroups(request)
+    assertThat(table.eventGroupsCacheHits).isEqualTo(0)
+    assertThat(table.queryUnifiedEventGroups(request)).containsExactlyElementsIn(first)
+    assertThat(table.eventGroupsCacheHits).isEqualTo(1)
+
+    // Writing events of another kind keeps the cached results.
+    table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.PROCESS, false, 1, 1, 1, 4))
+    table.queryUnifiedEventGroups(request)
+    assertThat(table.eventGroupsCacheHits).isEqualTo(2)
+
+    // Writing events of the same kind invalidates them.
+    val newEvent = eventBuilder(Common.Event.Kind.SESSION, false, 1, 10, 1, 4)
+    table.insertUnifiedEvent(1, newEvent)
+    val groups = table.queryUnifiedEventGroups(request)
+    assertThat(table.eventGroupsCacheHits).isEqualTo(2)
+    assertThat(groups.flatMap { it.eventsList }).contains(newEvent)
+
+    table.deleteEvents(1, 1, 10, Common.Event.Kind.SESSION, 4, 4)
+    assertThat(table.queryUnifiedEventGroups(request).flatMap { it.eventsList }).doesNotContain(newEvent)
+  }
+
+  @Test
+  fun boundaryEventsAreLatestBeforeAndFirstAfterPerGroup() {
+    // Many events per group to make sure only the closest event on each side of the range is returned.
+    for (groupId in 1..5L) {
+      for (timestamp in 1..100L) {
+        table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.SESSION, false, 1, groupId, 1, timestamp * 10 + groupId))
+      }
+    }
+    val groups = table.queryUnifiedEventGroups(
+      GetEventGroupsRequest.newBuilder().setKind(Common.Event.Kind.SESSION).setStreamId(1).setFromTimestamp(500).setToTimestamp(520)
+        .build())
+    assertThat(groups).hasSize(5)
+    for (group in groups) {
+      val timestamps = group.eventsList.map { it.timestamp }
+      assertThat(timestamps).containsExactly(490 + group.groupId, 500 + group.groupId, 510 + group.groupId, 520 + group.groupId).inOrder()
+    }
+  }
+
+  @Test
+  fun queryEventsByPage() {
+    for (timestamp in 1..25L) {
+      table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.SESSION, false, 1, 1, 1, timestamp))
+      table.insertUnifiedEvent(2, eventBuilder(Common.Event.Kind.SESSION, false, 1, 1, 1, timestamp))
+    }
+    // Events sharing a timestamp must not be skipped across page boundaries.
+    table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.SESSION, false, 1, 2, 1, 10))
+
+    val timestamps = mutableListOf<Long>()
+    var cursor = UnifiedEventsTable.EventsPage.START
+    var pages = 0
+    do {
+      val page = table.queryUnifiedEventsPage(1, Common.Event.Kind.SESSION, cursor, 10)
+      timestamps.addAll(page.events.map { it.timestamp })
+      cursor = page.nextCursor
+      pages++
+    }
+    while (page.hasMore())
+    assertThat(pages).isEqualTo(3)
+    assertThat(timestamps).hasSize(26)
+    assertThat(timestamps).isInOrder()
+  }
+
+  @Test
+  fun queryEventGroupsReadsAllPages() {
+    val count = UnifiedEventsTable.EVENTS_PAGE_SIZE * 2 + 1
+    for (timestamp in count downTo 1) {
+      table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.SESSION, false, 1, timestamp % 2L, 1, timestamp.toLong()))
+    }
+    val groups = table.queryUnifiedEventGroups(GetEventGroupsRequest.newBuilder().setKind(Common.Event.Kind.SESSION).build())
+    assertThat(groups.flatMap { it.eventsList }).hasSize(count)
+    for (group in groups) {
+      assertThat(group.eventsList.map { it.timestamp }).isInOrder()
+    }
+  }
+
+  @Test
+  fun compactSessionsKeepsMostRecentSessionsOfPreviousRuns() {
+    // Four sessions of the same process, each with a sample event and bytes fetched while it ran. The first one never ended because its
+    // run was killed.
+    for (session in 1..4L) {
+      val start = session * 100
+      table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.SESSION, false, 1, session, 1, start))
+      table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.CPU_USAGE, false, 1, 0, 1, start + 10))
+      table.insertBytes(1, "small$session", BytesResponse.newBuilder().setContents(ByteString.copyFromUtf8("small")).build())
+      table.insertBytes(1, "large$session", BytesResponse.newBuilder()
+        .setContents(ByteString.copyFrom(ByteArray(UnifiedEventsTable.BYTES_CHUNK_SIZE + 1))).build())
+      if (session != 1L) {
+        table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.SESSION, true, 1, session, 1, start + 50))
+      }
+    }
+
+    // Reopen the database and start a session in the new run.
+    table = UnifiedEventsTable()
+    table.initialize(database.connection)
+    table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.SESSION, false, 1, 5, 1, 500))
+    table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.CPU_USAGE, false, 1, 0, 1, 510))
+
+    assertThat(table.compactSessions(1)).isEqualTo(3)
+    val remaining = table.queryUnifiedEvents()
+    assertThat(remaining.filter { it.kind == Common.Event.Kind.SESSION }.map { it.groupId }.toSet()).containsExactly(4L, 5L)
+    assertThat(remaining.filter { it.kind == Common.Event.Kind.CPU_USAGE }.map { it.timestamp }).containsExactly(410L, 510L)
+    for (session in 1..4L) {
+      val small = table.getBytes(BytesRequest.newBuilder().setStreamId(1).setId("small$session").build())
+      val large = table.openBytesStream(BytesRequest.newBuilder().setStreamId(1).setId("large$session").build())
+      if (session == 4L) {
+        assertThat(small).isNotNull()
+        assertThat(large!!.use { it.readBytes() }).hasLength(UnifiedEventsTable.BYTES_CHUNK_SIZE + 1)
+      }
+      else {
+        assertThat(small).isNull()
+        assertThat(large).isNull()
+      }
+    }
+    val chunks = table.executeOneTimeQuery("SELECT COUNT(*) FROM [BytesChunksTable]", arrayOf())
+    assertThat(chunks.next()).isTrue()
+    assertThat(chunks.getInt(1)).isEqualTo(2)
+    assertThat(table.compactSessions(1)).isEqualTo(0)
+  }
+
+  @Test
+  fun reopenEndsPreviousRunSessionsAtTheirLastEvent() {
+    // Two sessions of the same process that never ended, and one of another process that did.
+    table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.SESSION, false, 1, 1, 1, 100))
+    table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.CPU_USAGE, false, 1, 0, 1, 150))
+    table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.SESSION, false, 1, 2, 1, 200))
+    table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.CPU_USAGE, false, 1, 0, 1, 260))
+    table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.SESSION, false, 2, 3, 1, 300))
+    table.insertUnifiedEvent(1, eventBuilder(Common.Event.Kind.SESSION, true, 2, 3, 1, 350))
+
+    table = UnifiedEventsTable()
+    table.initialize(database.connection)
+    val ended = table.queryUnifiedEvents().filter { it.kind == Common.Event.Kind.SESSION && it.isEnded }
+    assertThat(ended.map { it.groupId to it.timestamp }).containsExactly(1L to 150L, 2L to 260L, 3L to 350L)
+    assertThat(ended.filter { it.groupId != 3L }.map { it.pid }).containsExactly(1, 1)
+
+    // Reopening again does not end them twice.
+    table = UnifiedEventsTable()
+    table.initialize(database.connection)
+    assertThat(table.queryUnifiedEvents().filter { it.kind == Common.Event.Kind.SESSION && it.isEnded }).hasSize(3)
+  }
+
+  @Test
+  fun largeBytesAreChunkedAndStreamed() {
+    val contents = ByteArray(UnifiedEventsTable.BYTES_CHUNK_SIZE * 2 + 100) { it.toByte() }
+    table.insertBytes(1, "large", BytesResponse.newBuilder().setContents(ByteString.copyFrom(contents)).build())
+    table.insertBytes(1, "small", BytesResponse.newBuilder().setContents(ByteString.copyFromUtf8("small")).build())
+
+    val request = BytesRequest.newBuilder().setStreamId(1).setId("large").build()
+    assertThat(table.openBytesStream(request)!!.use { it.readBytes() }).isEqualTo(contents)
+    assertThat(table.getBytes(request)!!.contents.toByteArray()).isEqualTo(contents)
+    val chunks = table.executeOneTimeQuery("SELECT COUNT(*) FROM [BytesChunksTable] WHERE Id = 'large'", arrayOf())
+    assertThat(chunks.next()).isTrue()
+    assertThat(chunks.getInt(1)).isEqualTo(3)
+
+    val smallRequest = BytesRequest.newBuilder().setStreamId(1).setId("small").build()
+    assertThat(table.openBytesStream(smallRequest)!!.use { String(it.readBytes()) }).isEqualTo("small")
+    assertThat(table.getBytes(smallRequest)!!.contents.toStringUtf8()).isEqualTo("small")
+  }
+
   @Test
   fun queryReturnsSameStatement() {
     val results = table.executeOneTimeQuery("SELECT * FROM [UnifiedEventsTable]", arrayOf())
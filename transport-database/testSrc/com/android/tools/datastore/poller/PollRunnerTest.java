@@ -15,8 +15,12 @@
  */
 package com.android.tools.datastore.poller;
 
+import static com.google.common.truth.Truth.assertThat;
 import static org.junit.Assert.assertEquals;
 
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
 import java.util.concurrent.TimeUnit;
 import org.junit.Test;
 
@@ -41,6 +45,127 @@ public class PollRunnerTest {
     assertEquals(runner.get(1, TimeUnit.SECONDS), null); // For code completion
   }
 
+  @Test
+  public void testPeriodAdaptsToPollResults() throws Exception {
+    long basePeriodNs = TimeUnit.MILLISECONDS.toNanos(8);
+    // Two full polls, then three empty ones, then a partial one.
+    int[] results = {10, 10, 0, 0, 0, 5};
+    AdaptivePollRunner runner = new AdaptivePollRunner(basePeriodNs, results, new PollScheduler(1));
+    runner.run();
+    runner.myDone.await();
+    runner.stop();
+
+    assertThat(runner.myPeriodsNs.subList(0, results.length)).containsExactly(basePeriodNs / 2,
+                                                                              basePeriodNs / PollRunner.MIN_PERIOD_DIVISOR,
+                                                                              basePeriodNs / 2,
+                                                                              basePeriodNs,
+                                                                              basePeriodNs * 2,
+                                                                              // The partial poll goes back to the requested period.
+                                                                              basePeriodNs).inOrder();
+    // Polls that do not report a result keep the requested period.
+    assertThat(runner.getCurrentPollPeriodNs()).isEqualTo(basePeriodNs);
+    assertThat(runner.getPollCount()).isAtLeast(results.length);
+    assertThat(runner.getMaxLagNs()).isAtLeast(runner.getLastLagNs());
+  }
+
+  @Test
+  public void testRunnersShareScheduler() throws Exception {
+    PollScheduler scheduler = new PollScheduler(1);
+    List<AdaptivePollRunner> runners = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      runners.add(new AdaptivePollRunner(TimeUnit.MILLISECONDS.toNanos(1), new int[]{1, 1, 1}, scheduler));
+    }
+    runners.forEach(PollRunner::run);
+    assertThat(scheduler.getActiveRunners()).hasSize(10);
+    for (AdaptivePollRunner runner : runners) {
+      runner.myDone.await();
+      runner.stop();
+      assertThat(runner.isDone()).isTrue();
+      assertThat(runner.isCancelled()).isTrue();
+    }
+    assertThat(scheduler.getActiveRunners()).isEmpty();
+  }
+
+  @Test
+  public void testPoolSizeDoesNotGrowWithRunners() throws Exception {
+    PollScheduler scheduler = new PollScheduler(2);
+    CountDownLatch release = new CountDownLatch(1);
+    BlockingPollRunner blockedRunner = new BlockingPollRunner(release, scheduler);
+    blockedRunner.run();
+    assertThat(blockedRunner.myPolling.await(10, TimeUnit.SECONDS)).isTrue();
+
+    // One thread is blocked, the other runners take turns on the remaining one.
+    List<AdaptivePollRunner> runners = new ArrayList<>();
+    for (int i = 0; i < 10; i++) {
+      runners.add(new AdaptivePollRunner(TimeUnit.MILLISECONDS.toNanos(1), new int[]{1}, scheduler));
+    }
+    runners.forEach(PollRunner::run);
+    for (AdaptivePollRunner runner : runners) {
+      assertThat(runner.myDone.await(10, TimeUnit.SECONDS)).isTrue();
+    }
+    assertThat(scheduler.getPoolSize()).isEqualTo(2);
+    runners.forEach(PollRunner::stop);
+
+    release.countDown();
+    blockedRunner.stop();
+    assertThat(scheduler.getActiveRunners()).isEmpty();
+  }
+
+  @Test
+  public void testStopBeforeRun() throws Exception {
+    AdaptivePollRunner runner = new AdaptivePollRunner(TimeUnit.MILLISECONDS.toNanos(1), new int[]{1}, new PollScheduler(1));
+    runner.stop();
+    runner.run();
+    assertThat(runner.getPollCount()).isEqualTo(0);
+  }
+
+  private static class AdaptivePollRunner extends PollRunner {
+    private final int[] myResults;
+    private final List<Long> myPeriodsNs = new ArrayList<>();
+    private final CountDownLatch myDone = new CountDownLatch(1);
+    private int myPollIndex = 0;
+
+    private AdaptivePollRunner(long pollPeriodNs, int[] results, PollScheduler scheduler) {
+      super(pollPeriodNs, 10, scheduler);
+      myResults = results;
+    }
+
+    @Override
+    public void poll() {
+      if (myPollIndex > 0) {
+        // Record the period computed from the previous poll's result.
+        myPeriodsNs.add(getCurrentPollPeriodNs());
+      }
+      if (myPollIndex < myResults.length) {
+        recordPollResult(myResults[myPollIndex++]);
+      }
+      else {
+        myDone.countDown();
+      }
+    }
+  }
+
+  private static class BlockingPollRunner extends PollRunner {
+    private final CountDownLatch myRelease;
+    private final CountDownLatch myPolling = new CountDownLatch(1);
+
+    private BlockingPollRunner(CountDownLatch release, PollScheduler scheduler) {
+      super(TimeUnit.MILLISECONDS.toNanos(1), 10, scheduler);
+      myRelease = release;
+    }
+
+    @Override
+    public void poll() {
+      myPolling.countDown();
+      try {
+        myRelease.await();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+      }
+    }
+  }
+
   private static class PollRunnerMinimalImpl extends PollRunner {
     private long myLastCallbackTime = 0;
     private long myTickCallCount = 0;
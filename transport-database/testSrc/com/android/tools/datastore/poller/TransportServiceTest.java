@@ -15,6 +15,7 @@
  */
 package com.android.tools.datastore.poller;
 
+import static com.google.common.truth.Truth.assertThat;
 import static org.mockito.Mockito.anyLong;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -41,6 +42,8 @@ import com.android.tools.profiler.proto.Transport.VersionRequest;
 import com.android.tools.profiler.proto.Transport.VersionResponse;
 import com.android.tools.profiler.proto.TransportServiceGrpc;
 import com.google.common.collect.ImmutableMap;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.Map;
 import org.junit.After;
 import org.junit.Before;
@@ -209,6 +212,24 @@ public class TransportServiceTest extends DataStorePollerTest {
     validateResponse(observerNoMatch, responseNoMatch);
   }
 
+  @Test
+  public void testOpenBytesStream() throws IOException {
+    BytesRequest request1 = BytesRequest.newBuilder().setId(BYTES_ID_1).build();
+    try (InputStream stream = myTransportService.openBytesStream(request1)) {
+      assertThat(ByteString.readFrom(stream)).isEqualTo(BYTES_1);
+    }
+
+    // Disconnect the client, the bytes fetched by the stream above are now read back from the database.
+    when(myDataStore.getTransportClient(anyLong())).thenReturn(null);
+    try (InputStream stream = myTransportService.openBytesStream(request1)) {
+      assertThat(ByteString.readFrom(stream)).isEqualTo(BYTES_1);
+    }
+
+    try (InputStream stream = myTransportService.openBytesStream(BytesRequest.newBuilder().setId(BAD_ID).build())) {
+      assertThat(stream.read()).isEqualTo(-1);
+    }
+  }
+
   @Test
   public void agentStatus() {
     getPollTicker().run();
@@ -69,20 +69,29 @@ class UnifiedEventsDataPollerTest : DataStorePollerTest() {
 
   @Test
   fun pollerIsStoppedWhenStopCalled() {
-    val thread = Thread(poller)
-    thread.start()
-    assertThat(thread.isAlive).isTrue()
+    transportService.completeStream = false
+    poller.run()
+    assertThat(poller.isDone).isFalse()
     poller.stop()
-    thread.join(TimeUnit.SECONDS.toMillis(1))
-    assertThat(thread.isAlive).isFalse()
+    assertThat(poller.isDone).isTrue()
+  }
+
+  @Test
+  fun pollerIsDoneWhenStreamCompletes() {
+    poller.run()
+    var retryAttempts = 10
+    while (!poller.isDone && retryAttempts-- >= 0) {
+      Thread.sleep(100)
+    }
+    assertThat(poller.isDone).isTrue()
+    assertThat(table.queryUnifiedEvents()).containsExactlyElementsIn(FakeTransportService.eventsList)
   }
 
   @Test
   fun pollerQueriesForEvents() {
     // Due to the threaded nature of streaming rpcs we may need to try and query the data store multiple times for the events.
     var retryAttempts = 5
-    val thread = Thread(poller)
-    thread.start()
+    poller.run()
     transportService.eventsLock.lock()
     assertThat(transportService.eventsPopulated.await(1, TimeUnit.SECONDS)).isTrue()
     transportService.eventsLock.unlock()
@@ -97,6 +106,11 @@ class UnifiedEventsDataPollerTest : DataStorePollerTest() {
 
   private class FakeTransportService : TransportServiceGrpc.TransportServiceImplBase() {
 
+    /**
+     * Whether getEvents completes the stream once it has sent its events, otherwise it is left open like a connected device's.
+     */
+    @Volatile
+    var completeStream = true
     val eventsLock = ReentrantLock()
     val eventsPopulated = eventsLock.newCondition()
 
@@ -123,7 +137,9 @@ class UnifiedEventsDataPollerTest : DataStorePollerTest() {
 
     override fun getEvents(request: GetEventsRequest?, responseObserver: StreamObserver<Common.Event>) {
       eventsList.forEach { responseObserver.onNext(it) }
-      responseObserver.onCompleted()
+      if (completeStream) {
+        responseObserver.onCompleted()
+      }
       eventsLock.lock()
       eventsPopulated.signal()
       eventsLock.unlock()